@@ -0,0 +1,128 @@
+package nl.hannahsten.pp2lal2pp.bench;
+
+import nl.hannahsten.pp2lal2pp.PP2LAL2PP;
+import nl.hannahsten.pp2lal2pp.compiler.Optimiser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Compiles the regression programs with and without every optimisation, runs them on the {@link
+ * Simulator} and checks that they write the expected values to the outputs.
+ * <p>
+ * Every program states what it should do in comments at the top:
+ * <pre>
+ * # Outputs: 81 6 15 1
+ * # Inputs: 2
+ * </pre>
+ * The inputs are optional and are the state of the input buttons, 0 by default.
+ * <p>
+ * Usage: {@code RegressionCheck [directory]}, where the directory defaults to {@code
+ * src/bench/resources/regression}.
+ *
+ * @author Hannah Schellekens
+ */
+public class RegressionCheck {
+
+    /**
+     * The maximum amount of instructions a program may execute.
+     */
+    private static final int LIMIT = 1_000_000;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args.length > 0 ? args[0] : "src/bench/resources/regression");
+        List<List<String>> variants = new ArrayList<>();
+        variants.add(Collections.emptyList());
+        variants.add(Collections.singletonList("-o"));
+        for (Optimiser.Optimisation optimisation : Optimiser.Optimisation.values()) {
+            variants.add(Arrays.asList("-o", "-x", optimisation.getName()));
+        }
+
+        List<Path> programs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.pp2")) {
+            stream.forEach(programs::add);
+        }
+        Collections.sort(programs);
+
+        int failures = 0;
+        for (Path program : programs) {
+            List<String> lines = Files.readAllLines(program, StandardCharsets.UTF_8);
+            List<Integer> expected = header(lines, "Outputs");
+            List<Integer> inputs = header(lines, "Inputs");
+
+            for (List<String> variant : variants) {
+                String result = check(program, variant, expected, inputs.isEmpty() ? 0 : inputs.get(0));
+                if (result != null) {
+                    failures++;
+                    System.out.println("FAIL " + program.getFileName() + " " +
+                            String.join(" ", variant) + ": " + result);
+                }
+            }
+        }
+
+        System.out.println(programs.size() + " programs, " + variants.size() + " variants, " +
+                failures + " failures.");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compiles and runs a program.
+     *
+     * @return What went wrong, or {@code null} when the program wrote the expected outputs.
+     */
+    private static String check(Path program, List<String> variant, List<Integer> expected,
+                                int inputs) throws IOException {
+        Path assembly = Files.createTempFile("regression", ".asm");
+        List<String> args = new ArrayList<>(variant);
+        args.addAll(Arrays.asList("-n", "-d", assembly.toString(), program.toString()));
+
+        // The compiler reports on the standard output, which is only interesting on failure.
+        PrintStream out = System.out;
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(log, true, "UTF-8"));
+            PP2LAL2PP.main(args.toArray(new String[0]));
+        }
+        finally {
+            System.setOut(out);
+        }
+
+        try {
+            List<Integer> outputs = new Simulator(assembly).run(inputs, LIMIT);
+            return outputs.equals(expected) ? null : "wrote " + outputs + " instead of " + expected;
+        }
+        catch (RuntimeException exception) {
+            return exception.getMessage() + "\n" + log.toString("UTF-8");
+        }
+        finally {
+            Files.delete(assembly);
+        }
+    }
+
+    /**
+     * @return The numbers in the comment {@code # <name>: ...} at the top of the program.
+     */
+    private static List<Integer> header(List<String> lines, String name) {
+        List<Integer> numbers = new ArrayList<>();
+        for (String line : lines) {
+            if (line.startsWith("# " + name + ":")) {
+                for (String number : line.substring(name.length() + 3).trim().split("\\s+")) {
+                    if (!number.isEmpty()) {
+                        numbers.add(Integer.parseInt(number));
+                    }
+                }
+            }
+        }
+
+        return numbers;
+    }
+}
@@ -0,0 +1,307 @@
+package nl.hannahsten.pp2lal2pp.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs compiled assembly on a simple model of the PP2 processor, so the outcome of a program can
+ * be checked without the real hardware.
+ * <p>
+ * Only the parts that the compiler generates are supported: the instructions of {@link
+ * nl.hannahsten.pp2lal2pp.compiler.Opcode}, {@code EQU} definitions, {@code CONS} tables and the
+ * addressing modes {@code [R+x]}, {@code [R+x+y]} and {@code [SP++]}. Every value that is
+ * written to the outputs is recorded. Interrupts never happen, and the program stops when main
+ * returns or when it jumps to {@code exit}.
+ *
+ * @author Hannah Schellekens
+ */
+public class Simulator {
+
+    /**
+     * Matches a label at the start of a line.
+     */
+    private static final Pattern LABEL = Pattern.compile("^([A-Za-z_]\\w*):\\s*(.*)$");
+
+    /**
+     * Matches a definition: name, {@code EQU} and value.
+     */
+    private static final Pattern EQU = Pattern.compile("^(\\S+)\\s+EQU\\s+(\\S+)");
+
+    /**
+     * Matches a term of an address with its sign.
+     */
+    private static final Pattern TERM = Pattern.compile("([+-]?)([^+-]+)");
+
+    /**
+     * Where the global base starts.
+     */
+    private static final int GLOBAL_BASE = 0x4000;
+
+    /**
+     * Where the stack starts, growing down.
+     */
+    private static final int STACK = 0x8000;
+
+    private final Map<String, String> definitions = new HashMap<>();
+    private final Map<String, Integer> labels = new HashMap<>();
+    private final List<String[]> code = new ArrayList<>();
+    private final Map<Integer, Integer> memory = new HashMap<>();
+    private final int[] registers = new int[8];
+    private final List<Integer> outputs = new ArrayList<>();
+
+    /**
+     * The result of the last instruction that sets the status flags.
+     */
+    private int status;
+
+    /**
+     * Reads the assembly in the given file.
+     */
+    public Simulator(Path assembly) throws IOException {
+        for (String line : Files.readAllLines(assembly, StandardCharsets.UTF_8)) {
+            int comment = line.indexOf(';');
+            String code = comment >= 0 ? line.substring(0, comment) : line;
+            if (code.trim().isEmpty() || code.trim().startsWith("@")) {
+                continue;
+            }
+
+            Matcher equ = EQU.matcher(code);
+            if (equ.find()) {
+                definitions.put(equ.group(1), equ.group(2));
+                continue;
+            }
+
+            Matcher label = LABEL.matcher(code);
+            if (label.find()) {
+                labels.put(label.group(1), this.code.size());
+                code = label.group(2);
+            }
+
+            String[] parts = code.trim().split("\\s+");
+            if (!parts[0].isEmpty()) {
+                this.code.add(parts);
+            }
+        }
+    }
+
+    /**
+     * Runs the program from its first instruction.
+     *
+     * @param inputs
+     *         The state of the input buttons.
+     * @param limit
+     *         The maximum amount of instructions to execute.
+     * @return The values that were written to the outputs, in order.
+     * @throws IllegalStateException
+     *         when the program doesn't stop within the limit or executes something unsupported.
+     */
+    public List<Integer> run(int inputs, int limit) {
+        registers[6] = GLOBAL_BASE;
+        registers[7] = STACK;
+        memory.put(--registers[7], -1);
+        int exit = labels.getOrDefault("exit", -1);
+        int input = number("IOAREA") + number("INPUT");
+        int output = number("IOAREA") + number("OUTPUT");
+
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i)[0].equals("CONS")) {
+                memory.put(i, number(code.get(i)[1]));
+            }
+        }
+
+        int pc = 0;
+        for (int steps = 0; steps < limit; steps++) {
+            if (pc == -1 || pc == exit) {
+                return outputs;
+            }
+
+            memory.put(input, inputs);
+            String[] instruction = code.get(pc++);
+            String opcode = instruction[0];
+            switch (opcode) {
+                case "LOAD":
+                    status = registers[register(instruction[1])] = read(instruction[2]);
+                    break;
+                case "STOR":
+                    int address = address(instruction[2]);
+                    memory.put(address, registers[register(instruction[1])]);
+                    if (address == output) {
+                        outputs.add(registers[register(instruction[1])]);
+                    }
+                    break;
+                case "ADD":
+                case "SUB":
+                case "MULS":
+                case "DIV":
+                case "MOD":
+                case "AND":
+                case "OR":
+                case "XOR":
+                    int target = register(instruction[1]);
+                    status = registers[target] = calculate(opcode, registers[target], read(instruction[2]));
+                    break;
+                case "CMP":
+                    status = registers[register(instruction[1])] - read(instruction[2]);
+                    break;
+                case "PUSH":
+                    memory.put(--registers[7], registers[register(instruction[1])]);
+                    break;
+                case "PULL":
+                    status = registers[register(instruction[1])] = memory.getOrDefault(registers[7]++, 0);
+                    break;
+                case "BRS":
+                    memory.put(--registers[7], pc);
+                    pc = label(instruction[1]);
+                    break;
+                case "RTS":
+                    pc = memory.getOrDefault(registers[7]++, 0);
+                    break;
+                case "BRA":
+                    pc = label(instruction[1]);
+                    break;
+                case "BEQ":
+                case "BNE":
+                case "BLT":
+                case "BGT":
+                case "BLE":
+                case "BGE":
+                    if (branches(opcode)) {
+                        pc = label(instruction[1]);
+                    }
+                    break;
+                case "SETI":
+                case "CLRI":
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported instruction " +
+                            String.join(" ", instruction));
+            }
+        }
+
+        throw new IllegalStateException("The program didn't stop within " + limit + " instructions");
+    }
+
+    private boolean branches(String opcode) {
+        switch (opcode) {
+            case "BEQ":
+                return status == 0;
+            case "BNE":
+                return status != 0;
+            case "BLT":
+                return status < 0;
+            case "BGT":
+                return status > 0;
+            case "BLE":
+                return status <= 0;
+            default:
+                return status >= 0;
+        }
+    }
+
+    private static int calculate(String opcode, int first, int second) {
+        switch (opcode) {
+            case "ADD":
+                return first + second;
+            case "SUB":
+                return first - second;
+            case "MULS":
+                return first * second;
+            case "DIV":
+                return second == 0 ? 0 : first / second;
+            case "MOD":
+                return second == 0 ? 0 : Math.floorMod(first, second);
+            case "AND":
+                return first & second;
+            case "OR":
+                return first | second;
+            default:
+                return first ^ second;
+        }
+    }
+
+    /**
+     * @return The value of an operand: a register, a memory address or a number.
+     */
+    private int read(String operand) {
+        if (operand.startsWith("[")) {
+            return memory.getOrDefault(address(operand), 0);
+        }
+
+        Integer register = registerOrNull(operand);
+        return register != null ? registers[register] : number(operand);
+    }
+
+    /**
+     * @return The address of a memory operand.
+     */
+    private int address(String operand) {
+        String inner = operand.substring(1, operand.length() - 1);
+        if (inner.endsWith("++")) {
+            return registers[register(inner.substring(0, inner.length() - 2))]++;
+        }
+        if (inner.startsWith("--")) {
+            return --registers[register(inner.substring(2))];
+        }
+
+        int address = 0;
+        Matcher term = TERM.matcher(inner);
+        while (term.find()) {
+            Integer register = registerOrNull(term.group(2));
+            int value = register != null ? registers[register] : number(term.group(2));
+            address += term.group(1).equals("-") ? -value : value;
+        }
+
+        return address;
+    }
+
+    private int label(String name) {
+        Integer address = labels.get(name);
+        if (address == null) {
+            throw new IllegalStateException("Unknown label " + name);
+        }
+
+        return address;
+    }
+
+    private int register(String name) {
+        Integer register = registerOrNull(name);
+        if (register == null) {
+            throw new IllegalStateException("No register: " + name);
+        }
+
+        return register;
+    }
+
+    private static Integer registerOrNull(String name) {
+        switch (name) {
+            case "SP":
+                return 7;
+            case "GB":
+                return 6;
+            default:
+                return name.matches("R[0-7]") ? name.charAt(1) - '0' : null;
+        }
+    }
+
+    private int number(String text) {
+        if (definitions.containsKey(text)) {
+            return number(definitions.get(text));
+        }
+        if (labels.containsKey(text)) {
+            return labels.get(text);
+        }
+        if (text.startsWith("%")) {
+            return Integer.parseInt(text.substring(1), 2);
+        }
+        if (text.startsWith("$")) {
+            return Integer.parseInt(text.substring(1), 16);
+        }
+
+        return Integer.parseInt(text);
+    }
+}
@@ -0,0 +1,148 @@
+package nl.hannahsten.pp2lal2pp.parser;
+
+import nl.hannahsten.pp2lal2pp.ParseException;
+import nl.hannahsten.pp2lal2pp.util.FileWorker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long the {@link IncludeResolver} takes for a chain of nested includes, against
+ * the old way of replacing include lines until there are none left. Both must give exactly the
+ * same code.
+ * <p>
+ * The files are generated in a temporary directory: a main file that includes the first file,
+ * which includes the second one and so on. Every file has a number of small functions.
+ * <p>
+ * Usage: {@code IncludeBench [files [functions per file]]}, 80 files with 40 functions by
+ * default.
+ *
+ * @author Hannah Schellekens
+ */
+public class IncludeBench {
+
+    private static final int ROUNDS = 5;
+
+    private static final int REPEATS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 80;
+        int functions = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+
+        Path directory = Files.createTempDirectory("includes");
+        try {
+            File main = generate(directory, files, functions);
+            String expected = replaceIncludes(main);
+            String actual = new IncludeResolver(main).resolve(main);
+            System.out.println(files + " nested includes, " + expected.length() + " characters, " +
+                    (expected.equals(actual) ? "same code." : "DIFFERENT code."));
+            if (!expected.equals(actual)) {
+                System.exit(1);
+            }
+
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < REPEATS; i++) {
+                    replaceIncludes(main);
+                }
+                long middle = System.nanoTime();
+                for (int i = 0; i < REPEATS; i++) {
+                    new IncludeResolver(main).resolve(main);
+                }
+                long end = System.nanoTime();
+
+                System.out.printf("Replacing includes %.1f ms, resolver %.1f ms%n",
+                        (middle - start) / 1e6 / REPEATS, (end - middle) / 1e6 / REPEATS);
+            }
+        }
+        finally {
+            try (Stream<Path> paths = Files.list(directory)) {
+                for (Path path : (Iterable<Path>)paths::iterator) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Writes the chain of files.
+     *
+     * @return The main file.
+     */
+    private static File generate(Path directory, int files, int functions) throws IOException {
+        for (int i = 0; i < files; i++) {
+            StringBuilder code = new StringBuilder();
+            if (i + 1 < files) {
+                code.append("include n").append(i + 1).append("\n");
+            }
+
+            for (int j = 0; j < functions; j++) {
+                code.append("function f").append(i).append("_").append(j).append("(a) {\n")
+                        .append("    var x = a + ").append(j).append("\n")
+                        .append("    return x\n")
+                        .append("}\n\n");
+            }
+
+            write(directory.resolve("n" + i + ".pp2"), code.toString());
+        }
+
+        Path main = directory.resolve("main.pp2");
+        write(main, "include n0\nfunction main() {\n    return\n}\n");
+        return main.toFile();
+    }
+
+    private static void write(Path path, String code) throws IOException {
+        Files.write(path, code.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The way FileParser included files before the {@link IncludeResolver}: replace every include
+     * line by the contents of its file, and start over until there are no includes left.
+     */
+    private static String replaceIncludes(File file) {
+        String input = new FileWorker(file).read();
+        List<String> includedFiles = new ArrayList<>();
+        includedFiles.add(file.getAbsolutePath());
+
+        while (hasIncludes(input)) {
+            Map<String, String> toReplace = new HashMap<>();
+
+            for (String line : input.split("\n")) {
+                line = line.trim();
+
+                if (line.toLowerCase().startsWith("include")) {
+                    String toInclude = line.split("^(include(\\s)+)")[1];
+                    File includeFile = new File(file.getAbsolutePath().replace(file.getName(), toInclude) + ".pp2");
+                    if (includedFiles.contains(includeFile.getAbsolutePath())) {
+                        throw new ParseException("File " + toInclude + " has already been included.");
+                    }
+
+                    toReplace.put("include " + toInclude, new FileWorker(includeFile).read());
+                    includedFiles.add(includeFile.getAbsolutePath());
+                }
+            }
+
+            for (String key : toReplace.keySet()) {
+                input = input.replace(key, toReplace.get(key).trim());
+            }
+        }
+
+        return input;
+    }
+
+    private static boolean hasIncludes(String input) {
+        for (String line : input.split("\n")) {
+            if (line.trim().startsWith("include")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
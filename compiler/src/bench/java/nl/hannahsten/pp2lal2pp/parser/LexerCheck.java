@@ -0,0 +1,147 @@
+package nl.hannahsten.pp2lal2pp.parser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Checks that the {@link Lexer} splits lines into the same tokens as the regular expressions of
+ * the old tokeniser ({@link RegexTokeniser}), and measures how many tokens per second both of
+ * them handle.
+ * <p>
+ * The corpus is every line of the {@code .pp2} files in the given files and directories, plus
+ * random lines of quotes, punctuation, operator characters and keywords. The random lines are
+ * the same on every run. Only the lines of the files are timed.
+ * <p>
+ * Usage: {@code LexerCheck [file or directory...]}, which defaults to the lexer corpus, the
+ * regression programs, the examples and the standard library.
+ *
+ * @author Hannah Schellekens
+ */
+public class LexerCheck {
+
+    /**
+     * The pieces the random lines are made of.
+     */
+    private static final String[] PIECES = {
+            " ", " ", "\t", "'", "(", ")", "{", "}", "[", "]", ",", "#", "-", "+", "*", "/", "%",
+            "&", "|", "^", "~", ">", "<", "=", "!", ":", "0", "7", "42", "a", "x1", "and", "or",
+            "var", "if", "return", "loop", "from", "to", "step"
+    };
+
+    private static final int RANDOM_LINES = 300_000;
+
+    private static final int ROUNDS = 5;
+
+    private static final int REPEATS = 50;
+
+    public static void main(String[] args) throws IOException {
+        List<String> paths = new ArrayList<>(Arrays.asList(args));
+        if (paths.isEmpty()) {
+            paths.add("src/bench/resources/lexer");
+            paths.add("src/bench/resources/regression");
+            paths.add("../examples");
+            paths.add("../standardlib");
+        }
+
+        List<String> lines = new ArrayList<>();
+        for (String path : paths) {
+            lines.addAll(readLines(Paths.get(path)));
+        }
+
+        int differences = 0;
+        for (String line : lines) {
+            differences += compare(line, differences);
+        }
+
+        Random random = new Random(2018);
+        for (int i = 0; i < RANDOM_LINES; i++) {
+            differences += compare(randomLine(random), differences);
+        }
+
+        System.out.println(lines.size() + " lines and " + RANDOM_LINES + " random lines, " +
+                differences + " differences.");
+        if (differences > 0) {
+            System.exit(1);
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            double regex = measure(lines, true);
+            double lexer = measure(lines, false);
+            System.out.printf("Regular expressions %,.0f tokens/s, lexer %,.0f tokens/s (x%.1f)%n",
+                    regex, lexer, lexer / regex);
+        }
+    }
+
+    /**
+     * Prints the first few lines on which the tokenisers disagree.
+     *
+     * @return 1 when the tokenisers disagree on the line, 0 otherwise.
+     */
+    private static int compare(String line, int differences) {
+        List<String> expected = RegexTokeniser.tokenise(line);
+        List<String> actual = lexemes(line);
+        if (expected.equals(actual)) {
+            return 0;
+        }
+
+        if (differences < 10) {
+            System.out.println("DIFFERENT [" + line + "]: " + expected + " instead of " + actual);
+        }
+
+        return 1;
+    }
+
+    private static List<String> lexemes(String line) {
+        return Lexer.tokenise(line, 1, 1).stream().map(Token::getLexeme).collect(Collectors.toList());
+    }
+
+    private static String randomLine(Random random) {
+        StringBuilder line = new StringBuilder();
+        int length = random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            line.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+
+        return line.toString();
+    }
+
+    /**
+     * @return The amount of tokens per second of one of the tokenisers.
+     */
+    private static double measure(List<String> lines, boolean regex) {
+        long tokens = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            for (String line : lines) {
+                tokens += regex ? RegexTokeniser.tokenise(line).size() : Lexer.tokenise(line, 1, 1).size();
+            }
+        }
+
+        return tokens / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static List<String> readLines(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return Files.readAllLines(path, StandardCharsets.UTF_8);
+        }
+
+        List<String> lines = new ArrayList<>();
+        try (Stream<Path> files = Files.list(path)) {
+            for (Path file : files.filter(f -> f.toString().endsWith(".pp2")).sorted()
+                    .collect(Collectors.toList())) {
+                lines.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+            }
+        }
+
+        return lines;
+    }
+}
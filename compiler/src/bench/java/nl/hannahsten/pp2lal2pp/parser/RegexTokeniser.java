@@ -0,0 +1,56 @@
+package nl.hannahsten.pp2lal2pp.parser;
+
+import nl.hannahsten.pp2lal2pp.lang.Operator;
+import nl.hannahsten.pp2lal2pp.util.Regex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The regular expressions that {@link Tokeniser} used before the {@link Lexer}, kept as the
+ * reference that the lexer must agree with.
+ *
+ * @author Hannah Schellekens
+ */
+final class RegexTokeniser {
+
+    private RegexTokeniser() {
+    }
+
+    /**
+     * Splits a line of code into tokens the way the old tokeniser did.
+     */
+    static List<String> tokenise(String code) {
+        String code2 = Regex.replaceAll("((((?<!'),))|(,(?!'))|((?<!'),(?!')))", code, " , ");
+        code2 = Regex.replaceAll("((((?<!')#))|(#(?!'))|((?<!')#(?!')))", code2, " # ");
+        code2 = Regex.replaceAll("((((?<!')\\)))|(\\)(?!'))|((?<!')\\)(?!')))", code2, " ) ");
+        code2 = Regex.replaceAll("((((?<!')\\())|(\\((?!'))|((?<!')\\((?!')))", code2, " ( ");
+        code2 = Regex.replaceAll("((((?<!')\\-(?![=\\d])))|(\\-(?!['=\\d]))|((?<!')\\-(?!['=\\d])" + "))", code2, " - ");
+        code2 = Regex.replaceAll("((((?<!')\\}))|(\\}(?!'))|((?<!')\\}(?!')))", code2, " } ");
+        code2 = Regex.replaceAll("((((?<!')\\{))|(\\{(?!'))|((?<!')\\{(?!')))", code2, " { ");
+        code2 = Regex.replaceAll("((((?<!')\\]))|(\\](?!'))|((?<!')\\](?!')))", code2, " ] ");
+        code2 = Regex.replaceAll("((((?<!')\\[))|(\\[(?!'))|((?<!')\\[(?!')))", code2, " [ ");
+
+        for (Operator op : Operator.values()) {
+            String c = op.getRegexSign();
+            code2 = Regex.replaceAll(
+                    "((((?<!')" + c + "))|(" + c + "(?!'))|((?<!')" + c + "(?!')" + "))",
+                    code2,
+                    "櫓\uF214(" + op.name() + ")"
+            );
+        }
+
+        for (Operator op : Operator.values()) {
+            code2 = Regex.replace("櫓\uF214(" + op.name() + ")", code2, " " + op.getSign() + " ");
+        }
+
+        List<String> tokens = new ArrayList<>();
+        for (String string : Regex.split("\\s+", code2)) {
+            if (!string.isEmpty()) {
+                tokens.add(string);
+            }
+        }
+
+        return tokens;
+    }
+}
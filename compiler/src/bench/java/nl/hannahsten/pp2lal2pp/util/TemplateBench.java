@@ -0,0 +1,167 @@
+package nl.hannahsten.pp2lal2pp.util;
+
+import nl.hannahsten.pp2lal2pp.CompilationContext;
+import nl.hannahsten.pp2lal2pp.CompilerException;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+/**
+ * Checks that templates filled in with a {@link RenderPlan} are exactly the same as when they
+ * are filled in with the regular expressions that were used before, and measures how long
+ * filling in a statement takes with both.
+ * <p>
+ * The values are random, so they contain characters that look like keys, widths and comments
+ * too. They are the same on every run.
+ * <p>
+ * Usage: {@code TemplateBench}.
+ *
+ * @author Hannah Schellekens
+ */
+public class TemplateBench {
+
+    /**
+     * The characters of the random values. The first few are the most likely.
+     */
+    private static final String CHARACTERS = "aZ09_ []+-%${};\n#R5SP";
+
+    /**
+     * The templates to check, followed by their keys.
+     */
+    private static final String[][] USES = {
+            {"STATEMENT", "LABEL", "INSTRUCTION", "ARG1", "ARG2"},
+            {"EQU", "NAME", "VALUE"},
+            {"INTERRUPT_BOILERPLATE_BEFORE", "ISRNAME1"}
+    };
+
+    /**
+     * Statements like the compiler makes: label, instruction, arguments and comment.
+     */
+    private static final String[][] STATEMENTS = {
+            {"", "LOAD", "R0", "[SP+3]", "Load x."},
+            {"main_loop12:", "CMP", "R0", "5", null},
+            {"", "BEQ", "main_if3_end", "", "Jump."},
+            {"function_with_long_name:", "PUSH", "R4", "", "Save."}
+    };
+
+    private static final int CHECKS = 300_000;
+
+    private static final int ROUNDS = 5;
+
+    private static final int REPEATS = 400_000;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        int fallbacks = 0;
+        for (int i = 0; i < CHECKS; i++) {
+            String[] use = USES[random.nextInt(USES.length)];
+            Template template = Template.valueOf(use[0]);
+            String[] keyValue = new String[(use.length - 1) * 2];
+            for (int j = 1; j < use.length; j++) {
+                keyValue[(j - 1) * 2] = use[j];
+                keyValue[(j - 1) * 2 + 1] = randomValue(random);
+            }
+            String tail = random.nextBoolean() ? "{$COMMENT}" : null;
+            String tailValue = randomValue(random);
+
+            // The plan declines values that could change the template.
+            RenderPlan plan = CompilationContext.current().plan(template, keyValue, tail);
+            if (!plan.render(new StringBuilder(), keyValue, tailValue)) {
+                fallbacks++;
+            }
+
+            StringBuilder actual = new StringBuilder();
+            template.render(actual, tail, tailValue, keyValue);
+            String expected = replace(template, tail, tailValue, keyValue);
+            if (!expected.equals(actual.toString())) {
+                System.out.println("DIFFERENT " + template + " " + Arrays.toString(keyValue) +
+                        ":\n" + expected + "\ninstead of\n" + actual);
+                System.exit(1);
+            }
+        }
+        System.out.println(CHECKS + " filled in templates, all the same, " + fallbacks +
+                " of them without a render plan.");
+
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < REPEATS; i++) {
+                String[] statement = STATEMENTS[i & 3];
+                sink += replace(Template.STATEMENT, "{$COMMENT}", comment(statement[4]),
+                        "LABEL", statement[0], "INSTRUCTION", statement[1],
+                        "ARG1", statement[2], "ARG2", statement[3]).length();
+            }
+            long middle = System.nanoTime();
+            for (int i = 0; i < REPEATS; i++) {
+                String[] statement = STATEMENTS[i & 3];
+                sink += Template.fillStatement(statement[0], statement[1], statement[2],
+                        statement[3], statement[4]).length();
+            }
+            long end = System.nanoTime();
+
+            System.out.printf("Regular expressions %.0f ns, render plan %.0f ns per statement%n",
+                    (middle - start) / (double)REPEATS, (end - middle) / (double)REPEATS);
+        }
+
+        // Uses the statements, so they can't be optimised away.
+        if (sink == 0) {
+            System.out.println("Nothing was filled in.");
+        }
+    }
+
+    private static String comment(String comment) {
+        return comment != null ? "; " + comment : "";
+    }
+
+    private static String randomValue(Random random) {
+        StringBuilder value = new StringBuilder();
+        int length = random.nextInt(4) == 0 ? 0 : random.nextInt(30);
+        for (int i = 0; i < length; i++) {
+            int range = random.nextInt(5) == 0 ? CHARACTERS.length() : 6;
+            value.append(CHARACTERS.charAt(random.nextInt(range)));
+        }
+
+        return value.toString();
+    }
+
+    /**
+     * Fills in the template the way it was done before render plans: replace the keys one by
+     * one, and then the tail.
+     */
+    private static String replace(Template template, String tail, String tailValue,
+                                  String... keyValue) {
+        String total = template.load();
+        int overflow = 0;
+
+        for (int i = 0; i < keyValue.length; i += 2) {
+            int space = getSpace(total, keyValue[i]);
+            int count = keyValue[i + 1].length();
+            int tab = Math.max(1, space - count - overflow);
+            overflow = 0;
+
+            if (count + 1 > space) {
+                overflow = -(space - (count + 1));
+            }
+
+            total = Regex.replace("{$" + keyValue[i], total, keyValue[i + 1]);
+            total = Regex.replaceFirst("%[0-9]+\\}", total, Util.makeString(" ", tab));
+        }
+
+        if (tail != null) {
+            total = Regex.replace(tail, total, tailValue);
+        }
+
+        return total;
+    }
+
+    private static int getSpace(String source, String name) {
+        Matcher matcher = Regex.compile("\\{\\$" + name + "\\%(\\d+)?\\}").matcher(source);
+        if (!matcher.find() || matcher.group(1) == null) {
+            throw new CompilerException("Template hasn't been set up correctly ({$" +
+                    name + "%#}).");
+        }
+
+        return Integer.parseInt(matcher.group(1));
+    }
+}
@@ -0,0 +1,172 @@
+package nl.hannahsten.pp2lal2pp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Runs the PP2 assembler to turn an assembly file into a hex file.
+ * <p>
+ * The assembler JAR is loaded once in its own class loader and its main method is called
+ * directly, so assembling doesn't have to start a new JVM every time. When the main method
+ * can't be called, the assembler is started as a separate process instead. The assembler may
+ * exit the JVM it runs in, so the watch mode and the compile server always start a process.
+ *
+ * @author Hannah Schellekens
+ */
+public class Assembler {
+
+    /**
+     * All assemblers that have been loaded, by the absolute path of their JAR.
+     */
+    private static final Map<String, Assembler> loaded = new ConcurrentHashMap<>();
+
+    /**
+     * The JAR-file of the assembler.
+     */
+    private final File jar;
+
+    /**
+     * The main method of the assembler, or {@code null} if it must be run as a separate process.
+     */
+    private final Method main;
+
+    private Assembler(File jar) {
+        this.jar = jar;
+        this.main = findMain(jar);
+    }
+
+    /**
+     * Gets the assembler in the given JAR-file, loading it when it is used for the first time.
+     */
+    public static Assembler of(File jar) {
+        return loaded.computeIfAbsent(jar.getAbsolutePath(), path -> new Assembler(new File(path)));
+    }
+
+    /**
+     * Looks up the main method of the main class of the JAR in a new class loader that is
+     * separate from the compiler.
+     *
+     * @return The main method, or {@code null} if it couldn't be found.
+     */
+    private static Method findMain(File jar) {
+        try (JarFile jarFile = new JarFile(jar)) {
+            Manifest manifest = jarFile.getManifest();
+            String mainClass = manifest == null ? null :
+                    manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+            if (mainClass == null) {
+                return null;
+            }
+
+            ClassLoader loader = new URLClassLoader(new URL[] {jar.toURI().toURL()}, null);
+            Method method = Class.forName(mainClass.trim(), true, loader)
+                    .getMethod("main", String[].class);
+            if (!Modifier.isStatic(method.getModifiers())) {
+                return null;
+            }
+
+            method.setAccessible(true);
+            return method;
+        }
+        catch (IOException | ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return {@code true} if the assembler runs in the compiler's JVM, {@code false} if it runs
+     * as a separate process.
+     */
+    public boolean isInProcess() {
+        return main != null;
+    }
+
+    /**
+     * Assembles the given assembly file. All output of the assembler is printed to the standard
+     * output.
+     *
+     * @param input
+     *         The file name of the input ASM-file.
+     * @param hex
+     *         The file name of the output HEX-file.
+     * @param separateProcess
+     *         {@code true} to always run the assembler in a new JVM, so it can't exit the JVM of
+     *         a compiler that has to keep running.
+     * @return The exit status of the assembler process, or {@code 0} when the assembler ran in
+     * the compiler's JVM.
+     * @throws IOException
+     *         When the assembler process couldn't be started.
+     */
+    public int assemble(String input, String hex, boolean separateProcess) throws IOException {
+        String[] args = {input, hex + "\""};
+
+        if (separateProcess || main == null || !invoke(args)) {
+            return runProcess(args);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Calls the main method of the assembler with its output redirected to the standard output.
+     * The standard streams are shared by the whole JVM, so only one assembler runs at a time.
+     *
+     * @return {@code false} if the main method couldn't be called, {@code true} otherwise.
+     */
+    private boolean invoke(String[] args) {
+        synchronized (Assembler.class) {
+            PrintStream out = System.out;
+            PrintStream err = System.err;
+            System.setErr(out);
+
+            try {
+                main.invoke(null, (Object)args);
+            }
+            catch (InvocationTargetException e) {
+                e.getCause().printStackTrace(out);
+            }
+            catch (IllegalAccessException | IllegalArgumentException e) {
+                return false;
+            }
+            finally {
+                out.flush();
+                System.setOut(out);
+                System.setErr(err);
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Runs the assembler in a new JVM, sharing the standard output of the compiler.
+     *
+     * @return The exit status of the process, or {@code 1} when the thread got interrupted while
+     * waiting for it.
+     */
+    private int runProcess(String[] args) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder("java", "-jar", jar.getPath(), args[0], args[1]);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        Process process = builder.start();
+
+        try {
+            return process.waitFor();
+        }
+        catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+    }
+}
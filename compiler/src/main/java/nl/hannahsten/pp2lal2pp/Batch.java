@@ -0,0 +1,315 @@
+package nl.hannahsten.pp2lal2pp;
+
+import nl.hannahsten.pp2lal2pp.compiler.CodeCache;
+import nl.hannahsten.pp2lal2pp.compiler.Compiler;
+import nl.hannahsten.pp2lal2pp.compiler.Optimiser;
+import nl.hannahsten.pp2lal2pp.lang.GlobalVariable;
+import nl.hannahsten.pp2lal2pp.lang.Program;
+import nl.hannahsten.pp2lal2pp.parser.AstCache;
+import nl.hannahsten.pp2lal2pp.parser.FileParser;
+import nl.hannahsten.pp2lal2pp.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiles many files at the same time on a work-stealing pool.
+ * <p>
+ * Every file is compiled in its own {@link CompilationContext}, so the files don't influence
+ * each other. They share the templates, the compiled regexes and the cache of parsed included
+ * files. A file that fails to compile doesn't stop the other files.
+ *
+ * @author Hannah Schellekens
+ */
+public class Batch {
+
+    /**
+     * The directory to put the assembly files in, or {@code null} to put them next to the
+     * source files.
+     */
+    private final File destination;
+
+    /**
+     * The global base addresses that may not be used.
+     */
+    private final Set<Integer> bannedLocations;
+
+    private final int maxGlobalBaseSize;
+
+    /**
+     * The cache for parsed included files, or {@code null} to parse everything.
+     */
+    private final AstCache cache;
+
+    /**
+     * The cache of compiled functions, or {@code null} to compile all functions.
+     */
+    private final CodeCache codeCache;
+
+    /**
+     * The optimisations to apply, or {@code null} to leave the functions as they are.
+     */
+    private final Optimiser optimiser;
+
+    public Batch(File destination, Set<Integer> bannedLocations, int maxGlobalBaseSize,
+                 AstCache cache, CodeCache codeCache, Optimiser optimiser) {
+        this.destination = destination;
+        this.bannedLocations = new HashSet<>(bannedLocations);
+        this.maxGlobalBaseSize = maxGlobalBaseSize;
+        this.cache = cache;
+        this.codeCache = codeCache;
+        this.optimiser = optimiser;
+    }
+
+    /**
+     * Compiles the given files and all .pp2 files in the given directories, and prints how long
+     * every file took.
+     *
+     * @return The exit status: {@code 0} when all files have been compiled.
+     */
+    public int compile(List<String> inputs) {
+        long start = System.currentTimeMillis();
+
+        List<Source> sources = sources(inputs);
+        System.out.println("Compiling " + sources.size() + " files");
+
+        List<Result> results = compileAll(sources);
+        print(results);
+        if (optimiser != null) {
+            optimiser.printStatistics();
+        }
+
+        long failed = results.stream().filter(result -> result.error != null).count();
+        float time = (float)(System.currentTimeMillis() - start) / 1000f;
+        System.out.println("Done (" + time + "s). Compiled " + (results.size() - failed) + " of " +
+                results.size() + " files.");
+
+        return failed == 0 ? 0 : 1;
+    }
+
+    /**
+     * Gets the given files and all .pp2 files in the given directories, with the assembly files
+     * they must be compiled to.
+     */
+    public List<Source> sources(List<String> inputs) {
+        List<Source> sources = new ArrayList<>();
+        for (String input : inputs) {
+            File file = new File(input);
+            if (!file.isDirectory()) {
+                sources.add(new Source(file, destination(file.getName())));
+                continue;
+            }
+
+            for (Path path : sources(file.toPath())) {
+                String relative = file.toPath().relativize(path).toString();
+                sources.add(new Source(path.toFile(), destination(relative)));
+            }
+        }
+
+        return sources;
+    }
+
+    /**
+     * Compiles all sources at the same time.
+     *
+     * @return The results in the same order as the sources.
+     */
+    public List<Result> compileAll(List<Source> sources) {
+        List<Callable<Result>> tasks = new ArrayList<>();
+        for (Source source : sources) {
+            tasks.add(() -> compile(source));
+        }
+
+        List<Result> results = new ArrayList<>();
+        ExecutorService pool = Executors.newWorkStealingPool();
+        try {
+            for (Future<Result> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PP2LAL2PPException("Interrupted while compiling.", e);
+        }
+        catch (ExecutionException e) {
+            throw new PP2LAL2PPException(e.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        return results;
+    }
+
+    /**
+     * Gets all .pp2 files in the directory and its subdirectories, in alphabetical order.
+     */
+    private static List<Path> sources(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(path -> path.toString().endsWith(".pp2") && Files.isRegularFile(path))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        catch (IOException e) {
+            throw new PP2LAL2PPException("Could not read directory " + directory, e);
+        }
+    }
+
+    /**
+     * Gets the assembly file for the source file with the given name.
+     *
+     * @param name
+     *         The path of the source file, relative to the destination directory.
+     * @return The assembly file, or {@code null} to put it next to the source file.
+     */
+    private File destination(String name) {
+        String asm = name.replaceAll("(\\.[a-zA-Z0-9_\\-]*)$", ".asm");
+        return destination == null ? null : new File(destination, asm);
+    }
+
+    /**
+     * Compiles a single file in its own context.
+     */
+    private Result compile(Source source) {
+        File file = source.file;
+        File asm = source.asm;
+        Set<String> includedFiles = new HashSet<>();
+        long start = System.nanoTime();
+
+        try {
+            if (!file.exists()) {
+                throw new PP2LAL2PPException("File does not exist.");
+            }
+
+            File parent = asm.getAbsoluteFile().getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new PP2LAL2PPException("Could not create directory " + parent);
+            }
+
+            new CompilationContext().run(() -> {
+                bannedLocations.forEach(GlobalVariable::banPointer);
+                GlobalVariable.adjustCounter();
+
+                FileParser parser = new FileParser(file, cache);
+                includedFiles.addAll(parser.getIncludedFiles());
+
+                Program program = parser.parse();
+                if (optimiser != null) {
+                    optimiser.optimise(program);
+                }
+                program.packGlobalVariables(maxGlobalBaseSize);
+                new Compiler(asm, program, codeCache, optimiser).compile();
+            });
+
+            return new Result(source, includedFiles, System.nanoTime() - start, null);
+        }
+        catch (RuntimeException | StackOverflowError e) {
+            return new Result(source, includedFiles, System.nanoTime() - start, e);
+        }
+    }
+
+    /**
+     * Prints a table with the time every file took and the error of files that failed.
+     */
+    public static void print(List<Result> results) {
+        int width = "File".length();
+        for (Result result : results) {
+            width = Math.max(width, result.source.file.getPath().length());
+        }
+
+        System.out.println();
+        System.out.println(pad("File", width + 2) + pad("Time", 10) + "Result");
+        for (Result result : results) {
+            String time = String.format(Locale.ROOT, "%.3fs", result.nanos / 1e9);
+            String message = result.error == null ? "OK" :
+                    "FAILED: " + (result.error.getMessage() == null ?
+                            result.error.getClass().getSimpleName() : result.error.getMessage());
+            System.out.println(pad(result.source.file.getPath(), width + 2) + pad(time, 10) + message);
+        }
+        System.out.println();
+    }
+
+    private static String pad(String string, int length) {
+        return string + Util.makeString(" ", length - string.length());
+    }
+
+    /**
+     * A file to compile, together with the assembly file to compile it to.
+     */
+    public static class Source {
+
+        private final File file;
+
+        private final File asm;
+
+        /**
+         * @param asm
+         *         The assembly file, or {@code null} to put it next to the source file.
+         */
+        public Source(File file, File asm) {
+            this.file = file;
+            this.asm = asm != null ? asm :
+                    new File(file.getPath().replaceAll("(\\.[a-zA-Z0-9_\\-]*)$", ".asm"));
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public File getAsm() {
+            return asm;
+        }
+    }
+
+    /**
+     * The outcome of compiling a single file.
+     */
+    public static class Result {
+
+        private final Source source;
+
+        /**
+         * The canonical paths of the file and all files it includes, empty when they are not
+         * known because the includes couldn't be resolved.
+         */
+        private final Set<String> includedFiles;
+
+        /**
+         * The amount of nanoseconds it took to compile the file.
+         */
+        private final long nanos;
+
+        /**
+         * Why the file couldn't be compiled, or {@code null} when it has been compiled.
+         */
+        private final Throwable error;
+
+        Result(Source source, Set<String> includedFiles, long nanos, Throwable error) {
+            this.source = source;
+            this.includedFiles = includedFiles;
+            this.nanos = nanos;
+            this.error = error;
+        }
+
+        public Source getSource() {
+            return source;
+        }
+
+        public Set<String> getIncludedFiles() {
+            return includedFiles;
+        }
+
+        /**
+         * @return {@code true} when the file has been compiled, {@code false} otherwise.
+         */
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+}
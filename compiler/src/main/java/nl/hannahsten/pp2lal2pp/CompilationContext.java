@@ -0,0 +1,173 @@
+package nl.hannahsten.pp2lal2pp;
+
+import nl.hannahsten.pp2lal2pp.util.RenderPlan;
+import nl.hannahsten.pp2lal2pp.util.Template;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Everything that changes while compiling a single program: the IDs and global base addresses
+ * that have been given out, the banned global base addresses and the loaded templates with
+ * their render plans.
+ * <p>
+ * A context is bound to the thread that runs the compilation using {@link
+ * CompilationContext#run(Runnable)}. Compilations in their own context don't influence each
+ * other, so they can run at the same time and always produce the same output. Code that
+ * doesn't run in a context shares a single default context.
+ *
+ * @author Hannah Schellekens
+ */
+public class CompilationContext {
+
+    /**
+     * The context that is used when no context is bound to the current thread.
+     */
+    private static final CompilationContext DEFAULT = new CompilationContext();
+
+    /**
+     * The context that is bound to the current thread, or {@code null} to use {@link
+     * CompilationContext#DEFAULT}.
+     */
+    private static final ThreadLocal<CompilationContext> current = new ThreadLocal<>();
+
+    /**
+     * The ID that will be given out next.
+     */
+    private int nextId = 0;
+
+    /**
+     * The global base address that will be given to the next global variable.
+     */
+    private int nextPointer = 2;
+
+    /**
+     * All global base addresses that can't be used to store values.
+     */
+    private final Set<Integer> bannedLocations = new HashSet<>();
+
+    /**
+     * The contents of the templates that have been loaded during the compilation.
+     */
+    private final Map<Template, String> templates = new ConcurrentHashMap<>();
+
+    /**
+     * The render plan that was made last for every template.
+     */
+    private final Map<Template, RenderPlan> plans = new ConcurrentHashMap<>();
+
+    /**
+     * @return The context bound to the current thread, or the default context if there is none.
+     */
+    public static CompilationContext current() {
+        CompilationContext context = current.get();
+        return context == null ? DEFAULT : context;
+    }
+
+    /**
+     * Runs the task with this context bound to the current thread.
+     */
+    public void run(Runnable task) {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs the task with this context bound to the current thread.
+     *
+     * @return The result of the task.
+     */
+    public <T> T call(Supplier<T> task) {
+        CompilationContext previous = current.get();
+        current.set(this);
+
+        try {
+            return task.get();
+        }
+        finally {
+            if (previous == null) {
+                current.remove();
+            }
+            else {
+                current.set(previous);
+            }
+        }
+    }
+
+    /**
+     * @return A new unique ID number.
+     */
+    int newId() {
+        return nextId++;
+    }
+
+    /**
+     * @return The ID that will be returned by the next call to {@link
+     * CompilationContext#newId()}.
+     */
+    int getNextId() {
+        return nextId;
+    }
+
+    void setNextId(int id) {
+        nextId = id;
+    }
+
+    /**
+     * @return The next global base address that is not banned.
+     */
+    public int newPointer() {
+        adjustPointer();
+        return nextPointer++;
+    }
+
+    /**
+     * Prevents the given global base address from being used.
+     */
+    public void banPointer(int pointer) {
+        bannedLocations.add(pointer);
+    }
+
+    /**
+     * Makes sure the next global base address isn't banned.
+     */
+    public void adjustPointer() {
+        while (bannedLocations.contains(nextPointer)) {
+            nextPointer++;
+        }
+    }
+
+    /**
+     * @return An unmodifiable set containing all banned global base addresses.
+     */
+    public Set<Integer> getBannedLocations() {
+        return Collections.unmodifiableSet(bannedLocations);
+    }
+
+    /**
+     * Gets the contents of the template, loading it the first time it is used in this context.
+     */
+    public String template(Template template) {
+        return templates.computeIfAbsent(template, Template::read);
+    }
+
+    /**
+     * Gets the render plan to fill in the given keys in the template, making a new plan when the
+     * keys differ from the last plan of the template.
+     */
+    public RenderPlan plan(Template template, String[] keyValue, String tail) {
+        RenderPlan plan = plans.get(template);
+        if (plan == null || !plan.isFor(keyValue, tail)) {
+            plan = RenderPlan.compile(template(template), keyValue, tail);
+            plans.put(template, plan);
+        }
+
+        return plan;
+    }
+}
@@ -0,0 +1,320 @@
+package nl.hannahsten.pp2lal2pp;
+
+import nl.hannahsten.pp2lal2pp.compiler.CodeCache;
+import nl.hannahsten.pp2lal2pp.parser.AstCache;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles programs for clients on the same machine, so the JVM, the templates, the compiled
+ * regexes, the parsed included files and the compiled functions stay loaded between compiles.
+ * <p>
+ * The server listens on a port of the loopback address and writes the port together with a
+ * secret token to {@code ~/.pp2lal2pp/server}, readable only by its owner. A client sends the
+ * token, the compiler version and the command line arguments. The server compiles the program
+ * in a new {@link CompilationContext} and sends back everything the compiler prints, followed by
+ * the exit status. Requests are handled one at a time.
+ *
+ * @author Hannah Schellekens
+ */
+public class CompileServer {
+
+    /**
+     * The first bytes of every request: "PPCS".
+     */
+    private static final int MAGIC = 0x50504353;
+
+    /**
+     * The chunk length that marks the end of the output, followed by the exit status.
+     */
+    private static final int END = -1;
+
+    /**
+     * The maximum amount of command line arguments in a request.
+     */
+    private static final int MAX_ARGUMENTS = 256;
+
+    /**
+     * The amount of milliseconds the server waits for a client to send its request.
+     */
+    private static final int REQUEST_TIMEOUT = 10_000;
+
+    /**
+     * Starts the server and handles requests until the JVM is stopped.
+     *
+     * @throws IOException
+     *         When the server couldn't be started.
+     */
+    public static void serve() throws IOException {
+        AstCache cache = AstCache.inUserHome();
+        CodeCache codeCache = new CodeCache();
+        String token = newToken();
+        File file = serverFile();
+
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            writeServerFile(file, server.getLocalPort(), token);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> removeServerFile(file, token)));
+
+            System.out.println("Compile server listening on port " + server.getLocalPort() + ".");
+
+            while (true) {
+                try (Socket socket = server.accept()) {
+                    handle(socket, token, cache, codeCache);
+                }
+                catch (IOException ignored) {
+                    // The client is gone, there is nobody to tell.
+                }
+            }
+        }
+    }
+
+    /**
+     * Lets the running compile server compile the program with the given arguments, and prints
+     * its output.
+     *
+     * @return The exit status of the compile, or {@code null} when there is no compile server
+     * that accepts the request.
+     */
+    public static Integer send(List<String> argList) {
+        boolean received = false;
+
+        try {
+            List<String> lines = Files.readAllLines(serverFile().toPath(), StandardCharsets.UTF_8);
+            int port = Integer.parseInt(lines.get(0));
+            List<String> args = absolutePaths(argList);
+
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(socket.getOutputStream()));
+                out.writeInt(MAGIC);
+                out.writeUTF(lines.get(1));
+                out.writeUTF(PP2LAL2PP.VERSION);
+                out.writeInt(args.size());
+                for (String arg : args) {
+                    out.writeUTF(arg);
+                }
+                out.flush();
+
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(socket.getInputStream()));
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = in.readInt()) != END) {
+                    if (length > buffer.length) {
+                        buffer = new byte[length];
+                    }
+
+                    in.readFully(buffer, 0, length);
+                    System.out.write(buffer, 0, length);
+                    System.out.flush();
+                    received = true;
+                }
+
+                return in.readInt();
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            if (!received) {
+                return null;
+            }
+
+            System.out.println();
+            System.out.println("Lost the connection to the compile server.");
+            return 1;
+        }
+    }
+
+    /**
+     * Reads a request, compiles the program and sends back the output.
+     */
+    private static void handle(Socket socket, String token, AstCache cache, CodeCache codeCache)
+            throws IOException {
+        socket.setSoTimeout(REQUEST_TIMEOUT);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        if (in.readInt() != MAGIC || !MessageDigest.isEqual(bytes(in.readUTF()), bytes(token)) ||
+                !PP2LAL2PP.VERSION.equals(in.readUTF())) {
+            return;
+        }
+
+        int count = in.readInt();
+        if (count < 0 || count > MAX_ARGUMENTS) {
+            return;
+        }
+
+        List<String> args = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            args.add(in.readUTF());
+        }
+        socket.setSoTimeout(0);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        PrintStream print = new PrintStream(new BufferedOutputStream(new ChunkOutputStream(out)),
+                true, "UTF-8");
+        int status = compile(args, cache, codeCache, print);
+
+        print.flush();
+        out.writeInt(END);
+        out.writeInt(status);
+        out.flush();
+    }
+
+    /**
+     * Compiles the program in a new context with all output going to the given stream. The
+     * standard streams are shared by the whole JVM, so this must not run at the same time as
+     * other compiles.
+     *
+     * @return The exit status.
+     */
+    private static int compile(List<String> args, AstCache cache, CodeCache codeCache,
+                               PrintStream print) {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        System.setOut(print);
+        System.setErr(print);
+
+        try {
+            return new CompilationContext().call(() ->
+                    PP2LAL2PP.compile(args, cache, codeCache, true));
+        }
+        catch (RuntimeException | StackOverflowError e) {
+            e.printStackTrace();
+            return 1;
+        }
+        finally {
+            print.flush();
+            System.setOut(out);
+            System.setErr(err);
+        }
+    }
+
+    /**
+     * Makes the file arguments absolute, because the server doesn't run in the working directory
+     * of the client.
+     */
+    private static List<String> absolutePaths(List<String> argList) {
+        List<String> args = new ArrayList<>(argList);
+
+        int assemble = args.indexOf("-a");
+        if (assemble >= 0) {
+            makeAbsolute(args, assemble + 1);
+            makeAbsolute(args, assemble + 2);
+        }
+
+        int destination = args.indexOf("-d");
+        if (destination >= 0) {
+            makeAbsolute(args, destination + 1);
+        }
+
+        for (int index : PP2LAL2PP.inputIndices(args)) {
+            makeAbsolute(args, index);
+        }
+        return args;
+    }
+
+    private static void makeAbsolute(List<String> args, int index) {
+        if (index >= 0 && index < args.size()) {
+            Path path = new File(args.get(index)).toPath().toAbsolutePath().normalize();
+            args.set(index, path.toString());
+        }
+    }
+
+    /**
+     * @return The file that tells clients where the server is running.
+     */
+    private static File serverFile() {
+        File home = new File(System.getProperty("user.home"));
+        return new File(home, ".pp2lal2pp" + File.separator + "server");
+    }
+
+    /**
+     * Writes the port and token to the server file, making sure only the owner can read it.
+     */
+    private static void writeServerFile(File file, int port, String token) throws IOException {
+        Path path = file.toPath();
+        Files.createDirectories(path.getParent());
+        Files.deleteIfExists(path);
+
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rw-------")));
+        }
+        catch (UnsupportedOperationException e) {
+            Files.createFile(path);
+        }
+
+        Files.write(path, bytes(port + "\n" + token + "\n"));
+    }
+
+    /**
+     * Removes the server file, unless it has been replaced by another server.
+     */
+    private static void removeServerFile(File file, String token) {
+        try {
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            if (lines.size() > 1 && lines.get(1).equals(token)) {
+                Files.delete(file.toPath());
+            }
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    private static String newToken() {
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : random) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sends everything that is written as chunks of output, each preceded by its length.
+     */
+    private static class ChunkOutputStream extends OutputStream {
+
+        private final DataOutputStream out;
+
+        ChunkOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
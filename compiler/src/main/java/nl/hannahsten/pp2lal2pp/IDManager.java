@@ -1,20 +1,98 @@
 package nl.hannahsten.pp2lal2pp;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
+ * Gives out the IDs of the {@link CompilationContext} of the current thread.
+ *
  * @author Hannah Schellekens
  */
 public class IDManager {
 
     /**
-     * Tracks the latest global ID, must be increased on each assignment.
+     * Tracks the latest ID of the elements that exist only once, like operators. These count
+     * down from -1 so they never depend on or influence the IDs of a compilation.
+     */
+    private static final AtomicInteger sharedId = new AtomicInteger(-1);
+
+    /**
+     * The next ID of the block of IDs the current thread gives out, or {@code null} when the
+     * current thread uses the IDs of its compilation context.
      */
-    private static int globalId = 0;
+    private static final ThreadLocal<int[]> block = new ThreadLocal<>();
 
     /**
      * @return A new unique ID number.
      */
     public static int newId() {
-        return globalId++;
+        int[] next = block.get();
+        if (next != null) {
+            return next[0]++;
+        }
+
+        return CompilationContext.current().newId();
+    }
+
+    /**
+     * @return A new unique ID number for an element that is shared by all compilations.
+     */
+    public static int newSharedId() {
+        return sharedId.getAndDecrement();
+    }
+
+    /**
+     * Reserves a block of IDs that can be given out on another thread using {@link
+     * IDManager#beginBlock(int)}.
+     *
+     * @param count
+     *         The amount of IDs to reserve.
+     * @return The first ID of the block.
+     */
+    public static int reserve(int count) {
+        CompilationContext context = CompilationContext.current();
+        int first = context.getNextId();
+        context.setNextId(first + count);
+        return first;
+    }
+
+    /**
+     * Makes {@link IDManager#newId()} give out the IDs of a reserved block on the current
+     * thread, until {@link IDManager#endBlock()} is called.
+     *
+     * @param first
+     *         The first ID of the block.
+     */
+    public static void beginBlock(int first) {
+        block.set(new int[]{first});
+    }
+
+    /**
+     * Makes {@link IDManager#newId()} use the global IDs again on the current thread.
+     *
+     * @return The ID that would have been given out next from the block. Note that this can be
+     * past the end of the block when more IDs were needed than were reserved.
+     */
+    public static int endBlock() {
+        int next = block.get()[0];
+        block.remove();
+        return next;
+    }
+
+    /**
+     * @return The ID that will be returned by the next call to {@link IDManager#newId()}.
+     */
+    public static int getNextId() {
+        return CompilationContext.current().getNextId();
+    }
+
+    /**
+     * Sets the ID that will be returned by the next call to {@link IDManager#newId()}.
+     * <p>
+     * Used to give the same IDs to elements that are restored from cache as they got when they
+     * were parsed. Only IDs that have been reserved for the restored elements should be reused.
+     */
+    public static void setNextId(int id) {
+        CompilationContext.current().setNextId(id);
     }
 
 }
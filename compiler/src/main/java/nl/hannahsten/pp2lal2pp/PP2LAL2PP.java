@@ -1,8 +1,12 @@
 package nl.hannahsten.pp2lal2pp;
 
+import nl.hannahsten.pp2lal2pp.compiler.CodeCache;
 import nl.hannahsten.pp2lal2pp.compiler.Compiler;
+import nl.hannahsten.pp2lal2pp.compiler.Optimiser;
+import nl.hannahsten.pp2lal2pp.compiler.Peephole;
 import nl.hannahsten.pp2lal2pp.lang.GlobalVariable;
 import nl.hannahsten.pp2lal2pp.lang.Program;
+import nl.hannahsten.pp2lal2pp.parser.AstCache;
 import nl.hannahsten.pp2lal2pp.parser.FileParser;
 import nl.hannahsten.pp2lal2pp.parser.Parser;
 import nl.hannahsten.pp2lal2pp.util.Template;
@@ -11,7 +15,10 @@ import nl.hannahsten.pp2lal2pp.util.Util;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Practicum Processor To Learn Assembly Language To Preserve Prosperity-Language compiler.
@@ -23,26 +30,82 @@ public class PP2LAL2PP {
     public static String VERSION = "Version 2.0";
 
     public static void main(String[] args) {
+        List<String> argList = new ArrayList<>(Arrays.asList(args));
+
+        // Compile server.
+        if (argList.contains("-s")) {
+            System.out.println("PP2LAL2PP Compiler " + VERSION + " by Hannah-Sten");
+
+            try {
+                CompileServer.serve();
+            }
+            catch (IOException ioe) {
+                System.out.println("Couldn't start the compile server: " + ioe.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
+        // Let the compile server compile.
+        if (argList.remove("-c") && !argList.isEmpty() && !argList.contains("-u") &&
+                !argList.contains("-w")) {
+            Integer status = CompileServer.send(argList);
+            if (status != null) {
+                System.exit(status);
+            }
+
+            System.out.println("No compile server is running, compiling without server.");
+        }
+
+        int status = compile(argList, AstCache.inUserHome(), null, false);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Compiles the program with the given command line arguments.
+     *
+     * @param cache
+     *         The cache to use for parsed included files, unless disabled by the arguments.
+     * @param codeCache
+     *         The cache of compiled functions, or {@code null} to only use one when watching.
+     * @param server
+     *         {@code true} when the compile server compiles, which must keep running after
+     *         assembling.
+     * @return The exit status: {@code 0} when there are no problems that need to stop a build.
+     */
+    static int compile(List<String> argList, AstCache cache, CodeCache codeCache, boolean server) {
         System.out.println("PP2LAL2PP Compiler " + VERSION + " by Hannah-Sten");
 
         long start = System.currentTimeMillis();
 
-        if (args.length == 0) {
+        if (argList.isEmpty()) {
             printHelp();
-            return;
+            return 0;
         }
 
-        List<String> argList = new ArrayList<>(Arrays.asList(args));
+        String[] args = argList.toArray(new String[0]);
+        List<String> inputs = new ArrayList<>();
+        for (int index : inputIndices(argList)) {
+            inputs.add(argList.get(index));
+        }
+        boolean batch = inputs.size() > 1 || (inputs.size() == 1 && new File(inputs.get(0)).isDirectory());
 
         // Check things for auto-assemble.
         if (argList.contains("-a")) {
+            if (batch) {
+                System.out.println("Auto-assembling only works when compiling a single file.");
+                return 1;
+            }
+
             int index = argList.indexOf("-a");
             String jar = argList.get(index + 1);
             File file = new File(jar);
 
             if (!file.exists()) {
                 System.out.println("There is no assembler JAR called '" + jar + "'.");
-                System.exit(1);
+                return 1;
             }
 
             System.out.println("Using assembler " + file.getAbsolutePath());
@@ -52,7 +115,7 @@ public class PP2LAL2PP {
         if (argList.contains("-u")) {
             int amount = Template.unpack();
             System.out.println("Unpacked " + amount + " template files.");
-            return;
+            return 0;
         }
 
         // Destination flag.
@@ -62,11 +125,12 @@ public class PP2LAL2PP {
 
             if (index + 1 >= argList.size()) {
                 System.out.println("No destination has been specified.");
-                return;
+                return 0;
             }
 
             dest = new File(argList.get(index + 1));
-            System.out.println("Destination file " + dest.getAbsolutePath());
+            System.out.println((batch ? "Destination directory " : "Destination file ") +
+                    dest.getAbsolutePath());
         }
 
         // Banned global base flag.
@@ -75,7 +139,7 @@ public class PP2LAL2PP {
 
             if (index + 1 >= argList.size()) {
                 System.out.println("No number sequence has been specified.");
-                return;
+                return 0;
             }
 
             String sequence = argList.get(index + 1);
@@ -86,7 +150,7 @@ public class PP2LAL2PP {
                 }
                 catch (NumberFormatException nfe) {
                     System.out.println("Number sequence is not entered properly.");
-                    return;
+                    return 0;
                 }
             }
             GlobalVariable.adjustCounter();
@@ -101,7 +165,7 @@ public class PP2LAL2PP {
 
             if (index + 1 >= argList.size()) {
                 System.out.println("No global base size has been specified.");
-                return;
+                return 0;
             }
 
             try {
@@ -113,24 +177,102 @@ public class PP2LAL2PP {
         }
         System.out.println("Using maximum global base size of " + maxGlobalBaseSize);
 
+        // Optimisation.
+        Optimiser optimiser = null;
+        if (argList.contains("-o") || argList.contains("-x") || argList.contains("-l")) {
+            Set<Optimiser.Optimisation> optimisations = EnumSet.allOf(Optimiser.Optimisation.class);
+            Set<Peephole.Rule> rules = EnumSet.allOf(Peephole.Rule.class);
+
+            if (argList.contains("-x")) {
+                int index = argList.indexOf("-x");
+
+                if (index + 1 >= argList.size()) {
+                    System.out.println("No optimisation rules have been specified.");
+                    return 0;
+                }
+
+                for (String name : argList.get(index + 1).split(",")) {
+                    Optimiser.Optimisation optimisation = Optimiser.Optimisation.forName(name.trim());
+                    Peephole.Rule rule = Peephole.Rule.forName(name.trim());
+                    if (optimisation == null && rule == null) {
+                        System.out.println("Unknown optimisation rule '" + name + "'.");
+                        return 1;
+                    }
+                    optimisations.remove(optimisation);
+                    rules.remove(rule);
+                }
+            }
+
+            int unrollLimit = Optimiser.DEFAULT_UNROLL_LIMIT;
+            if (argList.contains("-l")) {
+                int index = argList.indexOf("-l");
+
+                if (index + 1 >= argList.size()) {
+                    System.out.println("No amount of iterations has been specified.");
+                    return 0;
+                }
+
+                try {
+                    unrollLimit = Integer.parseInt(argList.get(index + 1));
+                }
+                catch (NumberFormatException nfe) {
+                    System.out.println("Illegal amount of iterations '" + argList.get(index + 1) + "'");
+                    return 1;
+                }
+            }
+
+            optimiser = new Optimiser(optimisations, rules, unrollLimit);
+            for (Optimiser.Optimisation optimisation : optimisations) {
+                System.out.println("Using optimisation: " + optimisation.getDescription());
+            }
+        }
+
+        // Compile multiple files.
+        if (codeCache == null && argList.contains("-w")) {
+            codeCache = new CodeCache();
+        }
+        Batch compilation = new Batch(batch && argList.contains("-d") ? dest : null,
+                GlobalVariable.getBannedLocations(), maxGlobalBaseSize,
+                argList.contains("-n") ? null : cache, codeCache, optimiser);
+        if (batch) {
+            if (argList.contains("-w")) {
+                return watch(compilation, compilation.sources(inputs), argList);
+            }
+
+            return compilation.compile(inputs);
+        }
+
         // Parse file name.
         File file = new File(args[args.length - 1]);
         if (!file.exists()) {
             System.out.println("File '" + file.getName() + "' does not exist!");
-            return;
+            return 0;
         }
         System.out.println("Compiling " + file.getAbsolutePath());
 
-        // Parse file
-        Parser parser = new FileParser(file);
+        // Keep compiling on changes.
+        if (argList.contains("-w")) {
+            List<Batch.Source> sources = Collections.singletonList(new Batch.Source(file, dest));
+            return watch(compilation, sources, argList);
+        }
+
+        // Parse file, using the cache for included files unless disabled.
+        Parser parser = new FileParser(file, argList.contains("-n") ? null : cache);
         Program program = parser.parse();
 
+        if (optimiser != null) {
+            optimiser.optimise(program);
+        }
         program.packGlobalVariables(maxGlobalBaseSize);
 
         // Compile file
-        Compiler compiler = new Compiler(dest, program);
+        Compiler compiler = new Compiler(dest, program, codeCache, optimiser);
         compiler.compile();
 
+        if (optimiser != null) {
+            optimiser.printStatistics();
+        }
+
         // Finish
         long delta = System.currentTimeMillis() - start;
         float time = (float)delta / 1000f;
@@ -145,7 +287,11 @@ public class PP2LAL2PP {
             String hex = argList.get(index + 2);
 
             try {
-                compileToHex(jar, dest.getAbsolutePath(), hex);
+                int status = compileToHex(jar, dest.getAbsolutePath(), hex, server);
+                if (status != 0) {
+                    System.out.println("Couldn't auto-assemble " + dest.getName());
+                    return status;
+                }
             }
             catch (IOException ioe) {
                 System.out.println("Couldn't auto-assemble " + dest.getName());
@@ -157,6 +303,57 @@ public class PP2LAL2PP {
             System.out.println("Done (" + time + "s). " +
                     "Assembled '" + dest.getName() + "' to '" + hex + ".");
         }
+
+        return 0;
+    }
+
+    /**
+     * Compiles the sources every time they change, assembling them when the arguments say so.
+     *
+     * @return The exit status.
+     */
+    private static int watch(Batch compilation, List<Batch.Source> sources, List<String> argList) {
+        String jar = null;
+        String hex = null;
+        if (argList.contains("-a")) {
+            int index = argList.indexOf("-a");
+            jar = argList.get(index + 1);
+            hex = argList.get(index + 2);
+        }
+
+        try {
+            new Watcher(compilation, sources, jar, hex).watch();
+        }
+        catch (IOException ioe) {
+            System.out.println("Couldn't watch for changes: " + ioe.getMessage());
+            return 1;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets the positions of the arguments that are no flags or values of flags: the files and
+     * directories to compile.
+     */
+    static List<Integer> inputIndices(List<String> argList) {
+        List<Integer> indices = new ArrayList<>();
+
+        for (int i = 0; i < argList.size(); i++) {
+            String arg = argList.get(i);
+            if (arg.equals("-a")) {
+                i += 2;
+            }
+            else if (arg.equals("-b") || arg.equals("-d") || arg.equals("-g") || arg.equals("-l") ||
+                    arg.equals("-x")) {
+                i++;
+            }
+            else if (!arg.matches("-[a-z]")) {
+                indices.add(i);
+            }
+        }
+
+        return indices;
     }
 
     private static void printHelp() {
@@ -166,7 +363,7 @@ public class PP2LAL2PP {
         System.out.println("       Practicum Processor 2 Learn Assembly Language 2 Preserve " +
                 "Prosperity");
         System.out.println(fillTo("", 39) + VERSION);
-        System.out.println("              PP2LAL2PP: 'java -jar JARNAME.jar [-args] <fileName>'");
+        System.out.println("              PP2LAL2PP: 'java -jar JARNAME.jar [-args] <fileName...>'");
         System.out.println
                 ("-=-----------------------------------------------------------------------------=-");
         System.out.println("Flags:");
@@ -174,9 +371,16 @@ public class PP2LAL2PP {
                 "compiles it to a PP2hex-file");
         System.out.println(fillTo("    -b #,#,#,#,...", 40) +
                 "sequence of banned global base locations");
-        System.out.println(fillTo("    -d <destination>", 40) + "destination file");
+        System.out.println(fillTo("    -c ", 40) + "compile using the compile server");
+        System.out.println(fillTo("    -d <destination>", 40) + "destination file or directory");
+        System.out.println(fillTo("    -l <iterations>", 40) + "optimise, unrolling loops up to this size");
+        System.out.println(fillTo("    -n ", 40) + "don't cache parsed included files");
+        System.out.println(fillTo("    -o ", 40) + "optimise the generated assembly");
         System.out.println(fillTo("    -r ", 40) + "refactor file");
+        System.out.println(fillTo("    -s ", 40) + "start a compile server");
         System.out.println(fillTo("    -u ", 40) + "unpack templates");
+        System.out.println(fillTo("    -w ", 40) + "compile again when files change");
+        System.out.println(fillTo("    -x <rule,rule,...>", 40) + "optimise without the given rules");
     }
 
     /**
@@ -196,43 +400,15 @@ public class PP2LAL2PP {
      *         The file name of the input ASM-file.
      * @param hex
      *         The file name of the output HEX-file.
+     * @param separateProcess
+     *         {@code true} to always run the assembler in a new JVM.
+     * @return The exit status of the assembler.
      */
-    private static void compileToHex(String assembler, String input, String hex) throws IOException {
-        ProcessBuilder builder = new ProcessBuilder("java", "-jar", "" + assembler + "",
-                "" + input + "", hex + "\"");
-        final Process process = builder.start();
-
-        new Thread(() -> readStream(process.getInputStream())).start();
-        new Thread(() -> readStream(process.getErrorStream())).start();
-
-        try {
-            process.waitFor();
-        }
-        catch (InterruptedException e) {
-            e.printStackTrace();
-            System.exit(0);
-        }
-
+    private static int compileToHex(String assembler, String input, String hex,
+                                    boolean separateProcess) throws IOException {
+        int status = Assembler.of(new File(assembler)).assemble(input, hex, separateProcess);
         System.out.println();
-    }
-
-    /**
-     * Prints everything received in the given stream to the standard output.
-     *
-     * @param stream
-     *         The stream to output the data of.
-     */
-    private static void readStream(InputStream stream) {
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(stream))
-        ) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                System.out.println(line);
-            }
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
+        return status;
     }
 
 }
@@ -0,0 +1,199 @@
+package nl.hannahsten.pp2lal2pp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles programs again whenever they or one of the files they include change.
+ * <p>
+ * The directories of all programs and included files are watched. After a change, only the
+ * programs that include the changed file are compiled again. Included files that haven't
+ * changed don't have to be parsed again, because they are taken from the cache of parsed
+ * included files. Programs that failed before their includes were known are compiled again
+ * after every change.
+ *
+ * @author Hannah Schellekens
+ */
+public class Watcher {
+
+    /**
+     * The amount of milliseconds to wait for more changes after a change, so that saving
+     * multiple files at once only compiles once.
+     */
+    private static final long SETTLE_TIME = 100;
+
+    private final Batch batch;
+
+    private final List<Batch.Source> sources;
+
+    /**
+     * The JAR-file of the assembler, or {@code null} when the programs must not be assembled.
+     */
+    private final String assembler;
+
+    /**
+     * The file name of the HEX-file to assemble to.
+     */
+    private final String hex;
+
+    /**
+     * The result of the last compilation of every source.
+     */
+    private final Map<Batch.Source, Batch.Result> results = new HashMap<>();
+
+    /**
+     * The directories that are being watched, by their watch keys.
+     */
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    /**
+     * The canonical paths of the assembly and HEX-files, changes to them are ignored.
+     */
+    private final Set<String> outputs = new HashSet<>();
+
+    /**
+     * @param assembler
+     *         The JAR-file of the assembler, or {@code null} when the programs must not be
+     *         assembled.
+     * @param hex
+     *         The file name of the HEX-file to assemble to.
+     */
+    public Watcher(Batch batch, List<Batch.Source> sources, String assembler, String hex) {
+        this.batch = batch;
+        this.sources = sources;
+        this.assembler = assembler;
+        this.hex = hex;
+
+        for (Batch.Source source : sources) {
+            outputs.add(canonicalPath(source.getAsm().toPath()));
+        }
+        if (hex != null) {
+            outputs.add(canonicalPath(Paths.get(hex)));
+        }
+    }
+
+    /**
+     * Compiles all programs and keeps compiling them after every change, until the thread gets
+     * interrupted.
+     *
+     * @throws IOException
+     *         When the files can't be watched.
+     */
+    public void watch() throws IOException {
+        try (WatchService service = FileSystems.getDefault().newWatchService()) {
+            compile(service, sources);
+
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<String> changes = awaitChanges(service);
+                if (changes != null && changes.isEmpty()) {
+                    continue;
+                }
+
+                List<Batch.Source> affected = new ArrayList<>();
+                for (Batch.Source source : sources) {
+                    Set<String> includedFiles = results.get(source).getIncludedFiles();
+                    if (changes == null || includedFiles.isEmpty() ||
+                            !Collections.disjoint(includedFiles, changes)) {
+                        affected.add(source);
+                    }
+                }
+
+                if (!affected.isEmpty()) {
+                    compile(service, affected);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Compiles the given sources, assembles them when needed and watches the directories of all
+     * files they include.
+     */
+    private void compile(WatchService service, List<Batch.Source> affected) throws IOException {
+        System.out.println("Compiling " + affected.size() + " of " + sources.size() + " files");
+
+        List<Batch.Result> compiled = batch.compileAll(affected);
+        Batch.print(compiled);
+
+        for (Batch.Result result : compiled) {
+            Batch.Source source = result.getSource();
+            results.put(source, result);
+
+            watchDirectory(service, Paths.get(canonicalPath(source.getFile().toPath())).getParent());
+            for (String path : result.getIncludedFiles()) {
+                watchDirectory(service, Paths.get(path).getParent());
+            }
+
+            if (assembler != null && result.isSuccess()) {
+                Assembler.of(new File(assembler)).assemble(source.getAsm().getAbsolutePath(), hex,
+                        true);
+                System.out.println();
+            }
+        }
+
+        System.out.println("Waiting for changes...");
+    }
+
+    private void watchDirectory(WatchService service, Path directory) throws IOException {
+        if (directories.containsValue(directory)) {
+            return;
+        }
+
+        WatchKey key = directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        directories.put(key, directory);
+    }
+
+    /**
+     * Waits until files change, and then until no files have changed for a little while.
+     *
+     * @return The canonical paths of all changed files, or {@code null} when changes have been
+     * missed.
+     */
+    private Set<String> awaitChanges(WatchService service) throws InterruptedException {
+        Set<String> changes = new HashSet<>();
+        boolean missed = false;
+
+        WatchKey key = service.take();
+        while (key != null) {
+            Path directory = directories.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    missed = true;
+                    continue;
+                }
+
+                Path path = directory.resolve((Path)event.context());
+                String canonical = canonicalPath(path);
+
+                // Ignore the files written by the compiler and hidden files, like temporary files.
+                if (!outputs.contains(canonical) && !path.getFileName().toString().startsWith(".")) {
+                    changes.add(canonical);
+                }
+            }
+
+            if (!key.reset()) {
+                directories.remove(key);
+            }
+
+            key = service.poll(SETTLE_TIME, TimeUnit.MILLISECONDS);
+        }
+
+        return missed ? null : changes;
+    }
+
+    private static String canonicalPath(Path path) {
+        try {
+            return path.toFile().getCanonicalPath();
+        }
+        catch (IOException e) {
+            return path.toAbsolutePath().toString();
+        }
+    }
+}
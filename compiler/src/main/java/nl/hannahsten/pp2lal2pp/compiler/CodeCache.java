@@ -0,0 +1,194 @@
+package nl.hannahsten.pp2lal2pp.compiler;
+
+import nl.hannahsten.pp2lal2pp.CompilationContext;
+import nl.hannahsten.pp2lal2pp.lang.Comment;
+import nl.hannahsten.pp2lal2pp.lang.Element;
+import nl.hannahsten.pp2lal2pp.lang.Function;
+import nl.hannahsten.pp2lal2pp.lang.Program;
+import nl.hannahsten.pp2lal2pp.parser.AstFingerprint;
+import nl.hannahsten.pp2lal2pp.util.Template;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * The assembly of functions that have been compiled before, so functions that didn't change
+ * don't have to be compiled and rendered again when a program is compiled again.
+ * <p>
+ * The assembly is stored under a hash of everything that influences them: the parsed
+ * function, the comment in front of it, whether it is the main function, the global variables,
+ * global arrays and definitions of the program, the templates and the optimisation rules. The
+ * labels of a function only depend on the function itself, so the assembly can be reused in
+ * every program.
+ *
+ * @author Hannah Schellekens
+ */
+public class CodeCache {
+
+    /**
+     * The default maximum amount of characters of all entries together.
+     */
+    public static final int DEFAULT_MAX_SIZE = 1 << 24;
+
+    /**
+     * The maximum amount of characters of all entries together.
+     */
+    private final int maxSize;
+
+    /**
+     * The assembly of every function by key, least recently used first.
+     */
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The amount of characters of all entries together.
+     */
+    private int size = 0;
+
+    public CodeCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public CodeCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Generates a hash of everything outside the functions that influences how the functions of
+     * the program are compiled.
+     *
+     * @param optimiser
+     *         The optimiser for the functions, or {@code null} when they are not optimised.
+     * @return The hash, or {@code null} when the functions of the program can't be cached.
+     */
+    String environment(Program program, Optimiser optimiser) {
+        MessageDigest digest = newDigest();
+
+        try {
+            List<Element> elements = new ArrayList<>();
+            elements.addAll(program.getGlobalVariables());
+            elements.addAll(program.getGlobalArrays());
+            elements.addAll(program.getDefinitions());
+
+            // The bodies of inlined functions end up in their callers.
+            for (Function function : program.getFunctions()) {
+                if (program.isInlined(function)) {
+                    elements.add(function);
+                }
+            }
+            digest.update(AstFingerprint.of(elements));
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        // Assignments to global variables that are never read are left out.
+        for (String name : new TreeSet<>(program.getUnusedGlobals())) {
+            digest.update(bytes(name));
+            digest.update((byte)0);
+        }
+
+        for (Template template : Template.values()) {
+            digest.update(bytes(CompilationContext.current().template(template)));
+            digest.update((byte)0);
+        }
+
+        if (optimiser != null) {
+            digest.update(bytes(optimiser.describe()));
+            digest.update((byte)0);
+        }
+
+        return hex(digest.digest());
+    }
+
+    /**
+     * Generates the key of a function.
+     *
+     * @param environment
+     *         The hash of the program, see {@link CodeCache#environment(Program, Optimiser)}.
+     * @param main
+     *         Whether the function is the main function.
+     * @param comment
+     *         The comment that was processed last before the function, or {@code null}.
+     * @param allocation
+     *         The registers of the local variables of the function, or {@code null} when they
+     *         are all on the stack.
+     * @return The key, or {@code null} when the function can't be cached.
+     */
+    String key(String environment, Function function, boolean main, Comment comment,
+               RegisterAllocator.Allocation allocation) {
+        if (environment == null) {
+            return null;
+        }
+
+        MessageDigest digest = newDigest();
+        digest.update(bytes(environment));
+        digest.update((byte)(main ? 1 : 0));
+        if (comment != null) {
+            digest.update(bytes(comment.getContents()));
+        }
+        digest.update((byte)0);
+        if (allocation != null) {
+            digest.update(bytes(allocation.toString()));
+        }
+        digest.update((byte)0);
+
+        try {
+            digest.update(AstFingerprint.of(Collections.singletonList(function)));
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        return hex(digest.digest());
+    }
+
+    /**
+     * @return The assembly stored under the key, or {@code null} when there is none.
+     */
+    String get(String key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    /**
+     * Stores the assembly under the key, forgetting the least recently used entries when there
+     * are more characters than the maximum size.
+     */
+    void put(String key, String assembly) {
+        synchronized (entries) {
+            String previous = entries.put(key, assembly);
+            size += assembly.length() - (previous == null ? 0 : previous.length());
+
+            Iterator<String> iterator = entries.values().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                size -= iterator.next().length();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String hex(byte[] hash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : hash) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
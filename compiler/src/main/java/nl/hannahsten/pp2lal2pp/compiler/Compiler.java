@@ -1,22 +1,23 @@
 package nl.hannahsten.pp2lal2pp.compiler;
 
+import nl.hannahsten.pp2lal2pp.CompilationContext;
 import nl.hannahsten.pp2lal2pp.CompilerException;
-import nl.hannahsten.pp2lal2pp.Constants;
 import nl.hannahsten.pp2lal2pp.PP2LAL2PPException;
 import nl.hannahsten.pp2lal2pp.ParseException;
 import nl.hannahsten.pp2lal2pp.api.APIFunction;
 import nl.hannahsten.pp2lal2pp.lang.Number;
 import nl.hannahsten.pp2lal2pp.lang.*;
-import nl.hannahsten.pp2lal2pp.util.FileWorker;
+import nl.hannahsten.pp2lal2pp.util.AtomicFileWriter;
 import nl.hannahsten.pp2lal2pp.util.Regex;
 import nl.hannahsten.pp2lal2pp.util.Template;
-import nl.hannahsten.pp2lal2pp.util.Util;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 
 /**
  * @author Hannah Schellekens
@@ -34,110 +35,375 @@ public class Compiler {
     private final Program input;
 
     /**
-     * The compiled output assembly code.
+     * The compiled output that hasn't been written yet.
      */
-    private final StringBuilder assembly;
+    private final List<Instruction> instructions;
+
+    /**
+     * Where the rendered assembly is written to while compiling.
+     */
+    private AtomicFileWriter writer;
+
+    /**
+     * Buffer to render the instructions in before they are written.
+     */
+    private final StringBuilder rendered = new StringBuilder();
 
     /**
      * The function the compiler is currently working with.
      */
     private Function function;
 
+    /**
+     * The variables that can be used in the function the compiler is currently working with.
+     */
+    private SymbolTable symbols;
+
+    /**
+     * The amount of if-statements that have been compiled in the current function.
+     */
+    private int ifCount = 0;
+
+    /**
+     * The amount of loops that have been compiled in the current function.
+     */
+    private int loopCount = 0;
+
+    /**
+     * The amount of labels that have been made for the checks of conditions in the current
+     * function.
+     */
+    private int conditionCount = 0;
+
+    /**
+     * The label of the step to the next iteration of the innermost loop, or {@code null} outside
+     * loops.
+     */
+    private String loopNext;
+
+    /**
+     * The amount of local variables on the stack at the start of the body of the innermost loop.
+     */
+    private int loopLocals;
+
+    /**
+     * The amount of calls that have been replaced by the body of the called function in the
+     * current function.
+     */
+    private int inlineCount = 0;
+
+    /**
+     * The label after the body of the innermost inlined function, or {@code null} outside
+     * inlined functions.
+     */
+    private String inlineEnd;
+
+    /**
+     * The inlined functions whose body is being compiled, innermost first.
+     */
+    private final Deque<Function> inlining = new ArrayDeque<>();
+
+    /**
+     * The assembly of functions that have been compiled before, or {@code null} to compile
+     * all functions.
+     */
+    private final CodeCache cache;
+
+    /**
+     * The optimisations to apply, or {@code null} to leave the functions as they are.
+     */
+    private final Optimiser optimiser;
+
+    /**
+     * Chooses the registers of local variables, or {@code null} to keep all local variables on
+     * the stack.
+     */
+    private RegisterAllocator allocator;
+
+    /**
+     * The values that are known at compile time in the current function, or {@code null} to
+     * calculate everything while the program runs.
+     */
+    private ConstantFolder constants;
+
+    /**
+     * The local variables with a known value right before the statement that is being compiled.
+     */
+    private Map<String, Integer> known = Collections.emptyMap();
+
     /**
      * The latest comment the compiler has processed.
      */
     private Comment comment;
 
+    /**
+     * The maximum amount of compiled functions per thread that wait to be written.
+     */
+    private static final int FUNCTIONS_AHEAD = 4;
+
     public Compiler(File output, Program input) {
+        this(output, input, null);
+    }
+
+    /**
+     * @param cache
+     *         The assembly of functions that have been compiled before, or {@code null} to
+     *         compile all functions.
+     */
+    public Compiler(File output, Program input, CodeCache cache) {
+        this(output, input, cache, null);
+    }
+
+    /**
+     * @param cache
+     *         The assembly of functions that have been compiled before, or {@code null} to
+     *         compile all functions.
+     * @param optimiser
+     *         The optimisations to apply, or {@code null} to leave the functions as they are.
+     */
+    public Compiler(File output, Program input, CodeCache cache, Optimiser optimiser) {
         this.output = output;
         this.input = input;
-        this.assembly = new StringBuilder();
+        this.instructions = new ArrayList<>();
+        this.cache = cache;
+        this.optimiser = optimiser;
     }
 
     /**
      * Compiles the input and writes it to the given output file.
+     * <p>
+     * The assembly is written after every function, so only a single function has to be kept in
+     * memory. The output file is only replaced when the whole program has been compiled.
      */
     public void compile() throws CompilerException {
+        try (AtomicFileWriter writer = new AtomicFileWriter(output)) {
+            this.writer = writer;
+            compileProgram();
+            flush();
+            writer.commit();
+        }
+        finally {
+            this.writer = null;
+        }
+    }
+
+    /**
+     * Compiles all parts of the input in order.
+     */
+    private void compileProgram() {
         // Comment header.
         compileHeader();
-        assembly.append("\n");
+        text("\n");
 
         // Standard header
-        assembly.append(Template.BEGIN_CODE);
-        assembly.append("\n\n");
-        assembly.append(Template.DEFAULT_EQU);
-        assembly.append("\n");
+        text(Template.BEGIN_CODE.load() + "\n\n");
+        text(Template.DEFAULT_EQU.load() + "\n");
         compileDefinitions();
-        assembly.append("\n");
+        text("\n");
         compileGlobal();
-        assembly.append("\n");
+        text("\n");
 
         // Initialisation
         compileInit();
+        flush();
 
-        // Main function
-        compileFunction(input.getMainFunction());
+        // Main function, then the other functions and interrupts.
+        compileFunctions();
 
-        // Other functions
-        for (Function function : input.getFunctions()) {
-            if (function.equals(input.getMainFunction())) {
+        for (String string : input.getApiFunctions()) {
+            if (string.equals("exit")) {
                 continue;
             }
 
-            if (function instanceof Interrupt) {
-                compileInterrupt((Interrupt)function);
+            Optional<Template> implementation = APIFunction.getImplementationTemplate(string);
+
+            if (implementation.isPresent()) {
+                text(implementation.get().load() + "\n\n");
             }
-            else {
-                compileFunction(function);
+        }
+
+        if (input.getApiFunctions().contains("exit")) {
+            text(APIFunction.getImplementationTemplate("exit").get().load() + "\n\n");
+        }
+
+        // @END
+        text(Template.END.load());
+    }
+
+    /**
+     * Compiles the main function followed by all other functions, writing them in that order.
+     * <p>
+     * Every function is compiled by its own compiler into a separate list of instructions, so
+     * functions can be compiled on multiple threads at the same time.
+     */
+    private void compileFunctions() {
+        List<Function> functions = new ArrayList<>();
+        functions.add(input.getMainFunction());
+        for (Function function : input.getFunctions()) {
+            if (!function.equals(input.getMainFunction()) && !input.isOnlyInlined(function)) {
+                functions.add(function);
             }
+        }
 
+        // The last comment of a function is also used for the first statement of the next one.
+        List<Comment> comments = new ArrayList<>();
+        Comment last = comment;
+        for (Function function : functions) {
+            comments.add(last);
+            for (Element elt : function.getContents().getContents()) {
+                if (!(elt instanceof Return) && !(elt instanceof Continue)) {
+                    last = (elt instanceof Comment) ? (Comment)elt : null;
+                }
+            }
         }
 
-        for (String string : input.getApiFunctions()) {
-            if (string.equals("exit")) {
-                continue;
+        String environment = cache == null ? null : cache.environment(input, optimiser);
+        if (optimiser != null && optimiser.isEnabled(Optimiser.Optimisation.REGISTERS)) {
+            allocator = new RegisterAllocator(input);
+        }
+
+        // Programs that are compiled in a batch already keep all processors busy.
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), functions.size());
+        if (threads <= 1 || ForkJoinTask.inForkJoinPool()) {
+            for (int i = 0; i < functions.size(); i++) {
+                instructions.addAll(compileFragment(functions.get(i), i == 0, comments.get(i),
+                        environment));
+                flush();
             }
+            return;
+        }
 
-            Optional<Template> implementation = APIFunction.getImplementationTemplate(string);
+        CompilationContext context = CompilationContext.current();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "pp2lal2pp-compiler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            Deque<Future<List<Instruction>>> pending = new ArrayDeque<>();
+            int next = 0;
+            while (next < functions.size() || !pending.isEmpty()) {
+                while (next < functions.size() && pending.size() < threads * FUNCTIONS_AHEAD) {
+                    Function function = functions.get(next);
+                    boolean main = next == 0;
+                    Comment previous = comments.get(next);
+                    pending.add(executor.submit(() -> context.call(
+                            () -> compileFragment(function, main, previous, environment))));
+                    next++;
+                }
 
-            if (implementation.isPresent()) {
-                assembly.append(implementation.get().load());
-                assembly.append("\n\n");
+                instructions.addAll(await(pending.poll()));
+                flush();
             }
         }
+        finally {
+            executor.shutdownNow();
+        }
+    }
 
-        if (input.getApiFunctions().contains("exit")) {
-            assembly.append(APIFunction.getImplementationTemplate("exit").get().load());
-            assembly.append("\n\n");
+    /**
+     * Compiles a single function using a new compiler and optimises it, or takes its assembly
+     * from the cache when it has been compiled before.
+     *
+     * @param main
+     *         Whether the function is the main function, which is always compiled as a normal
+     *         function.
+     * @param comment
+     *         The comment that was processed last before the function.
+     * @param environment
+     *         The hash of the program for the cache, or {@code null} when there is none.
+     * @return The instructions of the function.
+     */
+    private List<Instruction> compileFragment(Function function, boolean main, Comment comment,
+                                              String environment) {
+        boolean interrupt = function instanceof Interrupt && !main;
+        RegisterAllocator.Allocation allocation = allocator == null || interrupt ? null :
+                allocator.allocate(function);
+
+        String key = cache == null ? null : cache.key(environment, function, main, comment,
+                allocation);
+        if (key != null) {
+            String cached = cache.get(key);
+            if (cached != null) {
+                return Collections.singletonList(Instruction.text(null, cached));
+            }
         }
 
-        // @END
-        assembly.append(Template.END);
+        Compiler fragment = new Compiler(null, input, null, optimiser);
+        fragment.comment = comment;
+
+        if (interrupt) {
+            fragment.compileInterrupt((Interrupt)function);
+        }
+        else {
+            fragment.compileFunction(function, allocation);
+        }
+
+        List<Instruction> instructions = fragment.instructions;
+        if (allocation != null) {
+            optimiser.countLocals(allocation.size(), allocation.registerCount());
+        }
+        if (optimiser != null && optimiser.getPeephole() != null) {
+            instructions = optimiser.getPeephole().optimise(instructions);
+        }
+
+        if (key != null) {
+            StringBuilder assembly = new StringBuilder();
+            for (Instruction instruction : instructions) {
+                instruction.render(assembly);
+            }
+            cache.put(key, assembly.toString());
+        }
+
+        return instructions;
+    }
+
+    /**
+     * Waits for a function to be compiled, throwing the exception of the compilation if it
+     * failed.
+     */
+    private static List<Instruction> await(Future<List<Instruction>> future) {
+        try {
+            return future.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
 
-        // Write to file
-        write();
+            throw new CompilerException(cause.getMessage());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompilerException("compilation was interrupted");
+        }
     }
 
     /**
      * Compiles the initialisation function.
      */
     private void compileInit() {
-        assembly.append(";#\n;#  Initialisation of the program.\n;#\n");
+        text(";#\n;#  Initialisation of the program.\n;#\n");
 
         // Initialisation: IOAREA
-        assembly.append(Template.fillStatement(
+        emit(
                 "init:",
-                "LOAD",
-                Constants.REG_IOAREA,
-                "IOAREA",
+                Opcode.LOAD,
+                Register.IOAREA,
+                new Operand.Symbol("IOAREA"),
                 "Store the address of the IOAREA for later use.\n"
-        ));
+        );
 
         // Initialisation: Global Variables.
         compileGlobalVariableInitialisation();
         compileGlobalArrayInitialisation();
 
-        assembly.append("\n");
+        text("\n");
     }
 
     /**
@@ -159,23 +425,23 @@ public class Compiler {
             if (!defaultValue.equals(register0)) {
                 register0 = (Number)global.getDefaultValue();
 
-                assembly.append(Template.fillStatement(
+                emit(
                         "",
-                        "LOAD",
-                        Constants.REG_GENERAL,
-                        defaultValue.stringRepresentation() + "",
+                        Opcode.LOAD,
+                        Register.GENERAL,
+                        Operand.of(defaultValue),
                         "Default value to load in global base.\n"
-                ));
+                );
             }
 
             // R0 already contains the default value: recycle the value in R0.
-            assembly.append(Template.fillStatement(
+            emit(
                     "",
-                    "STOR",
-                    Constants.REG_GENERAL,
-                    "[" + Constants.REG_GLOBAL_BASE + "+" + global.getName() + "]",
+                    Opcode.STOR,
+                    Register.GENERAL,
+                    new Operand.Global(global.getName(), null),
                     "Give global variable " + global.getName() + " initial value " + defaultValue + ".\n"
-            ));
+            );
         }
     }
 
@@ -192,23 +458,23 @@ public class Compiler {
             // Only load new value in R0 when there is a new initialisation value.
             if (!defaultValue.equals(register0)) {
                 register0 = defaultValue;
-                assembly.append(Template.fillStatement(
+                emit(
                         "",
-                        "LOAD",
-                        Constants.REG_GENERAL,
-                        defaultValue.stringRepresentation() + "",
+                        Opcode.LOAD,
+                        Register.GENERAL,
+                        Operand.of(defaultValue),
                         "Default value to load to all global array elements of " + array.getName() + ".\n"
-                ));
+                );
             }
 
             for (int offset = 0; offset < array.size(); offset++) {
-                assembly.append(Template.fillStatement(
+                emit(
                         "",
-                        "STOR",
-                        Constants.REG_GENERAL,
-                        "[" + Constants.REG_GLOBAL_BASE + "+" + array.getName() + "+" + offset + "]",
+                        Opcode.STOR,
+                        Register.GENERAL,
+                        new Operand.Global(array.getName(), new Operand.Immediate(offset)),
                         "Give global variable " + array.getName() + "[" + offset + "] initial value " + defaultValue + ".\n"
-                ));
+                );
             }
         }
     }
@@ -223,75 +489,88 @@ public class Compiler {
 
         boolean first = true;
         for (String line : input.getHeader()) {
-            if (!first) {
-                assembly.append("\n");
-            }
+            text((first ? "" : "\n") + ";#  " + line);
             first = false;
-
-            assembly.append(";#  ").append(line);
         }
     }
 
     /**
-     * Writes the given function to the assembly-StringBuilder.
+     * Adds the given function to the instructions.
      *
      * @param function
      *         The function to compile.
+     * @param allocation
+     *         The registers of the local variables, or {@code null} to keep them on the stack.
      */
-    private void compileFunction(Function function) {
+    private void compileFunction(Function function, RegisterAllocator.Allocation allocation) {
         this.function = function;
+        this.symbols = new SymbolTable(input, function.getArguments(), allocation);
+        this.constants = createConstantFolder(function);
 
         for (String string : function.getPp2doc()) {
-            assembly.append(";#  ").append(string).append("\n");
+            text(";#  " + string + "\n");
         }
 
-        boolean hasReturn = function.getContents().getContents().parallelStream()
+        boolean hasReturn = function.getContents().getContents().stream()
                 .anyMatch(e -> (e instanceof Return) || (e instanceof Continue));
 
-        compileBlock(function.getContents(), function.getName(), Function.class);
+        String label = compileBlock(function.getContents(), function.getName(), Function.class,
+                true);
 
         if (!hasReturn) {
-            String label = function.getContents().getContents().size() == 0 ? function.getName()
-                    + ":" : "";
-            compileFunctionReturn(new Return(), label);
+            compileFunctionReturn(Return.EMPTY, label);
+        }
+        else {
+            compileLabel(label);
         }
 
-        assembly.append("\n");
+        text("\n");
     }
 
     /**
-     * Writes the given interrupt function to the assembly-StringBuilder.
+     * Adds the given interrupt function to the instructions.
      *
      * @param interrupt
      *         The interrupt to compile.
      */
     private void compileInterrupt(Interrupt interrupt) {
         this.function = interrupt;
+        this.symbols = new SymbolTable(input, interrupt.getArguments());
+        this.constants = createConstantFolder(interrupt);
 
-        assembly.append(Regex.replace(
+        text(Regex.replace(
                 "{$ISRNAME}",
                 Template.INTERRUPT_BOILERPLATE_BEFORE.replace("ISRNAME1", function.getName()),
                 function.getName()
-        )).append("\n\n");
+        ) + "\n\n");
 
         for (String string : function.getPp2doc()) {
-            assembly.append(";#  ").append(string).append("\n");
+            text(";#  " + string + "\n");
         }
 
-        compileBlock(function.getContents(), function.getName(), Interrupt.class);
+        compileLabel(compileBlock(function.getContents(), function.getName(), Interrupt.class,
+                true));
 
-        assembly.append("\n").append(Regex.replace(
+        text("\n" + Regex.replace(
                 "{$ISRNAME}",
                 Template.INTERRUPT_BOILERPLATE_AFTER.load(),
                 function.getName()
-        )).append("\n\n");
+        ) + "\n\n");
     }
 
-    // Hihi
-    private boolean functionReturn = false;
+    /**
+     * @return The known values of the function, or {@code null} when constants aren't folded.
+     */
+    private ConstantFolder createConstantFolder(Function function) {
+        if (optimiser == null || !optimiser.isEnabled(Optimiser.Optimisation.CONSTANTS)) {
+            return null;
+        }
+
+        return new ConstantFolder(input, function);
+    }
 
     /**
-     * Writes the given block to the assembly-StringBuilder.
+     * Adds the given block to the instructions.
      *
      * @param block
      *         The block to compile.
@@ -300,19 +579,31 @@ public class Compiler {
      *         it is a nested block. Or the label name.
      * @param inside
      *         In what kind of element the block contains the contents of.
+     * @param returns
+     *         Whether a return in the block returns from the function, which goes for nested
+     *         blocks too.
+     * @return The label that still has to be put in front of the next instruction, or an empty
+     * string when there is none.
      */
-    private void compileBlock(Block block, String functionName, Class inside) {
+    private String compileBlock(Block block, String functionName, Class inside, boolean returns) {
         List<Element> elts = block.getContents();
         String label = (functionName == null ? "" : functionName + ":");
         List<Declaration> declarations = new ArrayList<>();
+        symbols.enterScope();
 
         boolean lastReturn = false;
         for (Element elt : elts) {
             lastReturn = false;
+            if (constants != null) {
+                known = constants.before(elt);
+            }
 
             // Function Continue
-            if (elt instanceof Continue && inside != Loop.class) {
-                if (inside == Interrupt.class) {
+            if (elt instanceof Continue) {
+                if (loopNext != null) {
+                    compileLoopContinue(label);
+                }
+                else if (inside == Interrupt.class) {
                     compileInterruptContinue(label);
                 }
                 else {
@@ -323,8 +614,16 @@ public class Compiler {
                 continue;
             }
 
+            // Return from an inlined function
+            if (elt instanceof Return && inlineEnd != null) {
+                compileInlineReturn((Return)elt, label);
+                label = "";
+                lastReturn = true;
+                continue;
+            }
+
             // Function Return
-            if (elt instanceof Return && (functionName != null || functionReturn)) {
+            if (elt instanceof Return && returns) {
                 if (inside == Interrupt.class) {
                     compileInterruptReturn((Return)elt, label);
                 }
@@ -365,7 +664,12 @@ public class Compiler {
 
             // If-statement
             if (elt instanceof IfElse) {
-                compileIfElse((IfElse)elt, label);
+                label = compileIfElse((IfElse)elt, label);
+            }
+
+            // Loop
+            if (elt instanceof Loop) {
+                compileLoop((Loop)elt, label);
                 label = "";
             }
 
@@ -384,18 +688,49 @@ public class Compiler {
             }
         }
 
+        // After a return or continue the stack pointer has already been reset. The code after
+        // the block is only reached without it, so the local variables are never there.
         if (declarations.size() > 0 && !lastReturn) {
-            assembly.append(Template.fillStatement(label, "ADD", Constants.REG_STACK_POINTER,
-                    declarations.size() + "",
-                    "Reset stack pointer.\n"));
-
-            for (Declaration decl : declarations) {
-                Variable var = decl.getVariable();
-                function.unregisterLocal(var);
+            int stackSize = symbols.scopeStackSize();
+            if (stackSize > 0) {
+                emit(label, Opcode.ADD, Register.STACK_POINTER,
+                        new Operand.Immediate(stackSize),
+                        "Reset stack pointer.\n");
+                label = "";
             }
         }
+        symbols.exitScope();
+
+        return label;
+    }
+
+    /**
+     * Puts a label that is left over in front of a dummy instruction.
+     */
+    private void compileLabel(String label) {
+        if (!label.isEmpty()) {
+            emit(label, Opcode.LOAD, Register.R0, new Operand.Immediate(0),
+                    "Dummy instruction to always make the label work.\n");
+        }
+    }
+
+    /**
+     * Makes all branches to a label that hasn't been put in front of an instruction go to
+     * another label instead, starting at the given position.
+     */
+    private void relabel(int start, String label, String target) {
+        if (label.isEmpty()) {
+            return;
+        }
 
-        functionReturn = false;
+        Operand from = new Operand.Symbol(labelName(label));
+        Operand to = new Operand.Symbol(labelName(target));
+        for (int i = start; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            if (from.equals(instruction.getFirst())) {
+                instructions.set(i, instruction.withOperands(to, instruction.getSecond()));
+            }
+        }
     }
 
     /**
@@ -414,9 +749,11 @@ public class Compiler {
         Variable variable = declaration.getVariable();
 
         boolean call = false;
+        Register register = null;
         if (declaration.getDeclaration() instanceof FunctionCall) {
-            function.declareLocal(variable);
+            // The variable is only pushed after the call, so it is declared afterwards.
             compileFunctionCall((FunctionCall)declaration.getDeclaration(), label);
+            register = symbols.declare(variable);
             label = "";
             call = true;
         }
@@ -436,30 +773,64 @@ public class Compiler {
                 DeclarationFromGlobalArray globalArrayDeclaration = (DeclarationFromGlobalArray)declaration;
                 GlobalArrayRead read = globalArrayDeclaration.getArrayRead();
                 compileGlobalArrayRead(read, label);
-                function.declareLocal(variable);
+                label = "";
+                register = symbols.declare(variable);
             }
             else {
-                function.declareLocal(variable);
                 Value value = declaration.getDeclaration();
-                String valueArgument = loadValueString(value);
+                Operand valueArgument = loadValue(value);
+                register = symbols.declare(variable);
 
-                assembly.append(Template.fillStatement(
+                // A variable in a register gets its value straight away.
+                emit(
                         label,
-                        "LOAD",
-                        Constants.REG_GENERAL,
+                        Opcode.LOAD,
+                        register == null ? Register.GENERAL : register,
                         valueArgument,
                         comment
-                ));
+                );
+                if (register != null) {
+                    return;
+                }
             }
         }
 
-        assembly.append(Template.fillStatement(
-                "",
-                "PUSH",
-                call ? Constants.REG_RETURN : Constants.REG_GENERAL,
+        if (register != null) {
+            emit(
+                    label,
+                    Opcode.LOAD,
+                    register,
+                    call ? Register.RETURN : Register.GENERAL,
+                    call ? comment : "Keep the initial value of " + variable.getName() + " in " + register + ".\n"
+            );
+            return;
+        }
+
+        emit(
                 "",
+                Opcode.PUSH,
+                call ? Register.RETURN : Register.GENERAL,
+                null,
                 call ? comment : "Save the initial value of " + variable.getName() + ".\n"
-        ));
+        );
+    }
+
+    /**
+     * Stores the value in R0 in the location of a variable. Variables that are kept in a
+     * register get the value with a load instead, and global variables that are never read don't
+     * get it at all.
+     */
+    private void compileStore(Operand variable, String comment) {
+        if (variable == null) {
+            return;
+        }
+
+        if (variable instanceof Register) {
+            emit("", Opcode.LOAD, variable, Register.R0, comment);
+        }
+        else {
+            emit("", Opcode.STOR, Register.R0, variable, comment);
+        }
     }
 
     /**
@@ -475,14 +846,14 @@ public class Compiler {
             compileIndexLoad(array, accessVariable);
         }
 
-        String address = globalArrayAccessAddress(array, access);
-        assembly.append(Template.fillStatement(
+        Operand address = globalArrayAccessAddress(array, access);
+        emit(
                 label,
-                "LOAD",
-                Constants.REG_GENERAL,
+                Opcode.LOAD,
+                Register.GENERAL,
                 address,
                 "Load value " + array.getName() + "[" + access.getAccessorString() + "].\n"
-        ));
+        );
     }
 
     /**
@@ -492,103 +863,582 @@ public class Compiler {
      *         The ifElse-statement to compile.
      * @param label
      *         The label to put in front of the first statement.
+     * @return The label of the end of the if-statement when it still has to be put in front of
+     * the next instruction, or an empty string.
      */
-    private void compileIfElse(IfElse ifElse, String label) {
+    private String compileIfElse(IfElse ifElse, String label) {
+        int start = instructions.size();
         Operation operation = ifElse.getExpression();
+
+        // Labels only depend on the function, so changing a function doesn't change the others.
+        int number = ifCount++;
+        String prefix = function.getName() + "_if" + number;
+        String statement = " (if-statement #" + number + ")";
+
+        if (optimiser != null && optimiser.isEnabled(Optimiser.Optimisation.BRANCHES)) {
+            return compileIfElseBlocks(ifElse, prefix, statement, label, start);
+        }
+
+        // Branch to if-block.
+        Map<String, String> jumps = new HashMap<>();
+        jumps.put(prefix + "_true", "Branch to if-block");
+        String pending = compileCondition(operation, prefix + "_true", null, label, jumps,
+                statement);
+
+        // Block if false (else)
+        if (!ifElse.getElseBlock().getContents().isEmpty()) {
+            pending = compileBlock(ifElse.getElseBlock(), labelName(pending), IfElse.class, true);
+        }
+
+        // Branch to skip if-block.
+        emit(pending, Opcode.BRA, new Operand.Symbol(prefix + "_end"), null,
+                "Skip the if-block.\n");
+
+        // Block if true (if)
+        if (ifElse.getIfBlock().getContents().size() > 0) {
+            compileLabel(compileBlock(ifElse.getIfBlock(), prefix + "_true", IfElse.class, true));
+        }
+        else {
+            emit(prefix + "_true:", Opcode.LOAD, Register.R0, new Operand.Immediate(0),
+                    "Dummy instruction to always make the label work.\n");
+        }
+
+        // The end.
+        emit(prefix + "_end:", Opcode.LOAD, Register.R0, new Operand.Immediate(0),
+                "Dummy instruction to always make the label work.\n");
+        return "";
+    }
+
+    /**
+     * Compiles an if-statement so that the if-block follows the check of the condition, which
+     * skips the if-block when the condition doesn't hold. The end label is left to the next
+     * statement, and if-statements that end a block share the end label of the if-statement
+     * around them.
+     *
+     * @param statement
+     *         The name of the if-statement for the comments.
+     * @param start
+     *         The position of the first instruction of the if-statement.
+     * @return The label of the end of the if-statement.
+     */
+    private String compileIfElseBlocks(IfElse ifElse, String prefix, String statement,
+                                       String label, int start) {
+        String end = prefix + "_end";
+        Map<String, String> jumps = new HashMap<>();
+
+        // Without if-block, the else-block is skipped when the condition holds.
+        if (ifElse.getIfBlock().getContents().isEmpty()) {
+            jumps.put(end, "Skip the else-block");
+            label = compileCondition(ifElse.getExpression(), end, null, label, jumps, statement);
+            relabel(start, compileBlock(ifElse.getElseBlock(), labelName(label), IfElse.class,
+                    true), end);
+            return end + ":";
+        }
+
+        boolean hasElse = !ifElse.getElseBlock().getContents().isEmpty();
+        String target = hasElse ? prefix + "_else" : end;
+        jumps.put(target, "Skip the if-block");
+        label = compileCondition(ifElse.getExpression(), null, target, label, jumps, statement);
+
+        relabel(start, compileBlock(ifElse.getIfBlock(), labelName(label), IfElse.class, true),
+                end);
+
+        if (hasElse) {
+            // An if-block that returns doesn't have to skip the else-block.
+            Opcode last = instructions.get(instructions.size() - 1).getOpcode();
+            if (last != Opcode.BRA && last != Opcode.RTS && last != Opcode.RTE) {
+                emit("", Opcode.BRA, new Operand.Symbol(end), null, "Skip the else-block.\n");
+            }
+
+            relabel(start, compileBlock(ifElse.getElseBlock(), target, IfElse.class, true), end);
+        }
+
+        return end + ":";
+    }
+
+    /**
+     * Compiles a condition to checks that each jump as soon as the outcome of the condition is
+     * known, so the value of the condition is never calculated. The second check of {@code and}
+     * is skipped when the first one doesn't hold, and the second check of {@code or} is skipped
+     * when the first one holds.
+     * <p>
+     * Only one of the labels to jump to is given: when the condition has the other outcome, the
+     * code continues with the next instruction.
+     *
+     * @param whenTrue
+     *         The label to jump to when the condition holds, or {@code null}.
+     * @param whenFalse
+     *         The label to jump to when the condition doesn't hold, or {@code null}.
+     * @param label
+     *         The label to put in front of the first instruction.
+     * @param jumps
+     *         What jumping to each of the labels does, for the comments.
+     * @param statement
+     *         The name of the if-statement when the condition starts with its first check, or
+     *         {@code null} otherwise.
+     * @return The label that still has to be put in front of the next instruction, or an empty
+     * string when there is none.
+     */
+    private String compileCondition(Operation condition, String whenTrue, String whenFalse,
+                                    String label, Map<String, String> jumps, String statement) {
+        Optional<Operator> operator = condition == null ? Optional.empty() : condition.getOperator();
+        if (!operator.isPresent() || operator.get().getType() != Operator.OperatorType.LOGICAL) {
+            compileCheck(condition, whenTrue, whenFalse, label, jumps, statement);
+            return "";
+        }
+
+        boolean and = operator.get() == Operator.LOGICAL_AND;
+        Operation first = (Operation)condition.getFirstElement();
+        Operation second = (Operation)condition.getSecondElement().get();
+
+        // The first check decides when it doesn't hold for and, or when it holds for or.
+        String decided = and ? whenFalse : whenTrue;
+        String skip = "";
+        if (decided == null) {
+            decided = function.getName() + "_cond" + conditionCount++;
+            jumps.put(decided, "Skip the rest of " + condition.toHumanReadableString());
+            skip = decided + ":";
+        }
+
+        String next = and ? compileCondition(first, null, decided, label, jumps, statement) :
+                compileCondition(first, decided, null, label, jumps, statement);
+        int start = instructions.size();
+        String pending = compileCondition(second, whenTrue, whenFalse, next, jumps, null);
+
+        if (skip.isEmpty()) {
+            return pending;
+        }
+
+        relabel(start, pending, skip);
+        return skip;
+    }
+
+    /**
+     * Compiles a single check of a condition: a relational operation or a call to {@code
+     * isInputOn}, followed by the branch.
+     *
+     * @see #compileCondition(Operation, String, String, String, Map, String)
+     */
+    private void compileCheck(Operation check, String whenTrue, String whenFalse, String label,
+                              Map<String, String> jumps, String statement) {
         boolean functionCall = false;
 
         // No first element.
-        if (operation == null) {
+        if (check == null) {
             throw new CompilerException("there is no operation (null)");
         }
 
         // Check for isInputOn call.
-        if (operation.getFirstElement() instanceof FunctionCall) {
-            compileFunctionCall((FunctionCall)operation.getFirstElement(), label);
+        if (check.getFirstElement() instanceof FunctionCall) {
+            compileFunctionCall((FunctionCall)check.getFirstElement(), label);
             label = "";
             functionCall = true;
         }
-
-        // Validity checks
-        if (!operation.getSecondElement().isPresent() && !functionCall) {
-            throw new CompilerException("expression " + operation.toHumanReadableString() +
-                    " must have two values");
+
+        // Validity checks
+        if (!check.getSecondElement().isPresent() && !functionCall) {
+            throw new CompilerException("expression " + check.toHumanReadableString() +
+                    " must have two values");
+        }
+
+        if (!check.getOperator().isPresent() && !functionCall) {
+            throw new CompilerException("expression " + check.toHumanReadableString() +
+                    " must have an operator");
+        }
+
+        if (!functionCall) {
+            if (check.getOperator().get().getType() != Operator.OperatorType.RELATIONAL) {
+                throw new CompilerException("expression " + check.toHumanReadableString() +
+                        " must have a relational operator");
+            }
+        }
+
+        Element first = check.getFirstElement();
+        Operator operator = functionCall ? Operator.GREATER_THAN : check.getOperator().get();
+
+        if (functionCall && check.getOperator().isPresent()) {
+            if (check.getOperator().get() == Operator.BOOLEAN_NEGATION) {
+                operator = Operator.LESSER_THAN_EQUAL;
+            }
+        }
+
+        Element second = functionCall ? null : check.getSecondElement().get();
+        Opcode instruction = Opcode.valueOf(operator.getInstruction().get());
+        String target = whenTrue != null ? whenTrue : whenFalse;
+
+        // Comments
+        String comment1 = "Check if " + check.toHumanReadableString() +
+                (statement == null ? "" : statement) + ".";
+        String comment2 = ">";
+        String comment3 = jumps.get(target) + (whenTrue != null ? " when " : " unless ") +
+                check.toHumanReadableString() + ".";
+
+        if (comment != null && statement != null) {
+            comment2 = comment1;
+            comment1 = comment.getContents();
+
+            if (functionCall) {
+                comment3 = comment1 + statement + ".";
+            }
+        }
+
+        // Compare
+        if (!functionCall) {
+            emit(label, Opcode.LOAD, Register.R0, loadValue(first),
+                    comment1 + "\n");
+            emit("", Opcode.CMP, Register.R0,
+                    loadValue(second), comment2 + "\n");
+        }
+
+        // Branch
+        emit("", whenTrue != null ? instruction : instruction.inverse(), new Operand.Symbol(target),
+                null, comment3 + "\n");
+    }
+
+    /**
+     * Compiles a loop. The amount of iterations is known at compile time: a loop that doesn't
+     * use its counter counts down to zero, and loops with few iterations are unrolled when
+     * optimising.
+     *
+     * @param loop
+     *         The loop to compile.
+     * @param label
+     *         The label to put in front of the first statement.
+     */
+    private void compileLoop(Loop loop, String label) {
+        int number = loopCount++;
+        String prefix = function.getName() + "_loop" + number;
+        Variable counter = loop.getBase();
+        String name = counter.getName();
+
+        if (!(loop.getFrom() instanceof Number) || !(loop.getTo() instanceof Number) ||
+                !(loop.getStep() instanceof Number)) {
+            throw new CompilerException("loop " + name + " must count with numbers");
+        }
+
+        int from = ((Number)loop.getFrom()).getIntValue();
+        int to = ((Number)loop.getTo()).getIntValue();
+        int step = ((Number)loop.getStep()).getIntValue();
+        if (step == 0) {
+            throw new CompilerException("loop " + name + " never ends, because its step is 0");
+        }
+
+        // A step away from the end never reaches it, which the division would round away.
+        int distance = to - from;
+        int iterations = distance != 0 && (distance > 0) != (step > 0) ? 0 : distance / step + 1;
+        if (iterations <= 0) {
+            if (!label.isEmpty()) {
+                emit(label, Opcode.LOAD, Register.R0, new Operand.Immediate(0),
+                        "Dummy instruction to always make the label work.\n");
+            }
+            return;
+        }
+
+        Block body = loop.getContent();
+        boolean used = refersTo(body, name);
+        boolean unrolled = optimiser != null && optimiser.isUnrolled(iterations) &&
+                !assigns(body, name) && !contains(body, Continue.class) &&
+                !contains(body, Inject.class);
+
+        // A loop that doesn't use its counter counts down the remaining iterations.
+        int start = instructions.size();
+        symbols.enterScope();
+        if (used || !unrolled) {
+            String comment = "Start loop " + name + " from " + from + " to " + to + " (loop #" +
+                    number + ").\n";
+            Register register = symbols.declare(counter);
+            Operand initial = new Operand.Immediate(used ? from : iterations);
+            if (register != null) {
+                emit(label, Opcode.LOAD, register, initial, comment);
+            }
+            else {
+                emit(label, Opcode.LOAD, Register.R0, initial, comment);
+                emit("", Opcode.PUSH, Register.R0, null, "Save the counter of loop #" + number + ".\n");
+            }
+        }
+
+        if (unrolled) {
+            int bodyStart = instructions.size();
+            compileLoopBody(body, null);
+            int bodyEnd = instructions.size();
+            for (int i = 1; i < iterations; i++) {
+                if (used) {
+                    compileLoopStep(name, step, "", "Next value of " + name + ".\n");
+                }
+                // The loop number keeps the copies apart from those of loops in the body.
+                copyInstructions(bodyStart, bodyEnd, "_u" + number + "_" + i);
+            }
+        }
+        else {
+            int bodyStart = instructions.size();
+            compileLoopBody(body, prefix + "_next");
+
+            // An empty body repeats the step itself.
+            String target = prefix + "_next";
+            if (instructions.size() > bodyStart) {
+                instructions.set(bodyStart, instructions.get(bodyStart).withLabel(prefix));
+                target = prefix;
+            }
+
+            compileLoopBranch(name, step, to, used, prefix + "_next:", target, number);
+        }
+
+        int stackSize = symbols.scopeStackSize();
+        symbols.exitScope();
+        if (stackSize > 0) {
+            emit("", Opcode.ADD, Register.STACK_POINTER, new Operand.Immediate(stackSize),
+                    "Remove the counter of loop #" + number + ".\n");
+        }
+
+        // An unrolled loop without counter starts with the body, which has no label yet.
+        labelFirst(start, label);
+    }
+
+    /**
+     * Puts the label in front of the first instruction that has been compiled since the given
+     * position, or in front of a dummy instruction when that one already has a label.
+     */
+    private void labelFirst(int start, String label) {
+        if (label.isEmpty()) {
+            return;
+        }
+
+        if (instructions.size() > start && instructions.get(start).getLabel() == null) {
+            instructions.set(start, instructions.get(start).withLabel(labelName(label)));
+        }
+        else if (instructions.size() == start || !labelName(label).equals(instructions.get(start).getLabel())) {
+            instructions.add(start, new Instruction(labelName(label), Opcode.LOAD, Register.R0,
+                    new Operand.Immediate(0), "Dummy instruction to always make the label work."));
+        }
+    }
+
+    /**
+     * Compiles the body of a loop.
+     *
+     * @param next
+     *         The label of the step to the next iteration, or {@code null} when the body can't
+     *         continue.
+     */
+    private void compileLoopBody(Block body, String next) {
+        String outerNext = loopNext;
+        int outerLocals = loopLocals;
+        loopNext = next;
+        loopLocals = symbols.localCount();
+
+        // A label at the end of the body belongs to the step to the next iteration.
+        int start = instructions.size();
+        String label = compileBlock(body, null, Loop.class, true);
+        if (next != null) {
+            relabel(start, label, next);
+        }
+        else {
+            compileLabel(label);
+        }
+
+        loopNext = outerNext;
+        loopLocals = outerLocals;
+    }
+
+    /**
+     * Adds the step of the counter of a loop.
+     */
+    private void compileLoopStep(String name, int step, String label, String comment) {
+        Operand counter = symbols.operand(name);
+        Operand amount = new Operand.Immediate(Math.abs(step));
+        Opcode opcode = step > 0 ? Opcode.ADD : Opcode.SUB;
+
+        if (counter instanceof Register) {
+            emit(label, opcode, counter, amount, comment);
+        }
+        else {
+            emit(label, Opcode.LOAD, Register.R0, counter, comment);
+            emit("", opcode, Register.R0, amount, ">\n");
+            emit("", Opcode.STOR, Register.R0, counter, ">\n");
+        }
+    }
+
+    /**
+     * Adds the step of the counter of a loop and the branch back to the body. The step sets the
+     * status flags, so no compare is needed when the loop counts towards zero.
+     *
+     * @param used
+     *         Whether the body uses the counter, otherwise the counter holds the remaining amount
+     *         of iterations.
+     */
+    private void compileLoopBranch(String name, int step, int to, boolean used, String label,
+                                   String target, int number) {
+        Operand symbol = new Operand.Symbol(target);
+        if (!used) {
+            compileLoopStep(name, -1, label, "Count down loop #" + number + ".\n");
+            emit("", Opcode.BNE, symbol, null, "Repeat loop #" + number + " until done.\n");
+            return;
+        }
+
+        compileLoopStep(name, step, label, "Next value of " + name + ".\n");
+
+        // Continue while the counter hasn't passed the end.
+        Opcode branch = step > 0 ? Opcode.BLE : Opcode.BGE;
+        String condition = name + (step > 0 ? " <= " : " >= ") + to;
+        if (to == (step > 0 ? -1 : 1)) {
+            branch = step > 0 ? Opcode.BLT : Opcode.BGT;
+        }
+        else if (to != 0) {
+            Operand counter = symbols.operand(name);
+            emit("", Opcode.CMP, counter instanceof Register ? counter : Register.R0,
+                    new Operand.Immediate(to), ">\n");
+        }
+
+        emit("", branch, symbol, null, "Repeat loop #" + number + " while " + condition + ".\n");
+    }
+
+    /**
+     * Compiles a continue inside a loop, which skips to the next iteration.
+     */
+    private void compileLoopContinue(String label) {
+        int locals = symbols.localCount() - loopLocals;
+        if (locals > 0) {
+            emit(label, Opcode.ADD, Register.STACK_POINTER, new Operand.Immediate(locals),
+                    "Reset stack pointer.\n");
+            label = "";
+        }
+
+        emit(label, Opcode.BRA, new Operand.Symbol(loopNext), null,
+                "Continue with the next iteration.\n");
+    }
+
+    /**
+     * Adds a copy of the instructions in the given range, renaming the labels that are defined in
+     * the range by adding the given suffix.
+     */
+    private void copyInstructions(int start, int end, String suffix) {
+        Set<String> labels = new HashSet<>();
+        for (int i = start; i < end; i++) {
+            if (instructions.get(i).getLabel() != null) {
+                labels.add(instructions.get(i).getLabel());
+            }
+        }
+
+        for (int i = start; i < end; i++) {
+            Instruction instruction = instructions.get(i);
+            if (instruction.getLabel() != null) {
+                instruction = instruction.withLabel(instruction.getLabel() + suffix);
+            }
+            instructions.add(instruction.withOperands(rename(instruction.getFirst(), labels, suffix),
+                    rename(instruction.getSecond(), labels, suffix)));
+        }
+    }
+
+    private static Operand rename(Operand operand, Set<String> labels, String suffix) {
+        if (operand instanceof Operand.Symbol && labels.contains(((Operand.Symbol)operand).getName())) {
+            return new Operand.Symbol(((Operand.Symbol)operand).getName() + suffix);
+        }
+
+        return operand;
+    }
+
+    /**
+     * @return {@code true} if the element or anything in it uses the variable with the given
+     * name.
+     */
+    private static boolean refersTo(Object element, String name) {
+        if (element == null) {
+            return false;
+        }
+
+        if (element instanceof Block) {
+            return ((Block)element).getContents().stream().anyMatch(e -> refersTo(e, name));
+        }
+        if (element instanceof Variable) {
+            return ((Variable)element).getName().equals(name);
+        }
+        if (element instanceof FunctionCall) {
+            return ((FunctionCall)element).getArguments().stream().anyMatch(e -> refersTo(e, name));
+        }
+        if (element instanceof GlobalArrayIndexedAssignment &&
+                refersTo(((GlobalArrayIndexedAssignment)element).getAccess().getAccessingVariable(), name)) {
+            return true;
+        }
+        if (element instanceof Operation) {
+            Operation operation = (Operation)element;
+            return refersTo(operation.getFirstElement(), name) ||
+                    refersTo(operation.getSecondElement().orElse(null), name);
+        }
+        if (element instanceof DeclarationFromGlobalArray) {
+            return refersTo(((DeclarationFromGlobalArray)element).getArrayRead(), name);
+        }
+        if (element instanceof Declaration) {
+            return refersTo(((Declaration)element).getDeclaration(), name);
+        }
+        if (element instanceof GlobalArrayRead) {
+            return refersTo(((GlobalArrayRead)element).getAccess().getAccessingVariable(), name);
+        }
+        if (element instanceof IfElse) {
+            IfElse ifElse = (IfElse)element;
+            return refersTo(ifElse.getExpression(), name) || refersTo(ifElse.getIfBlock(), name) ||
+                    refersTo(ifElse.getElseBlock(), name);
+        }
+        if (element instanceof Loop) {
+            return refersTo(((Loop)element).getContent(), name);
         }
-
-        if (!operation.getOperator().isPresent() && !functionCall) {
-            throw new CompilerException("expression " + operation.toHumanReadableString() +
-                    " must have an operator");
+        if (element instanceof ElementReturn) {
+            return refersTo(((ElementReturn)element).getElement(), name);
         }
-
-        if (!functionCall) {
-            if (operation.getOperator().get().getType() != Operator.OperatorType.RELATIONAL) {
-                throw new CompilerException("expression " + operation.toHumanReadableString() +
-                        " must have a relational operator");
-            }
+        if (element instanceof Value && !(element instanceof Number)) {
+            return ((Value)element).stringRepresentation().equals(name);
         }
 
-        Element first = operation.getFirstElement();
-        Operator operator = functionCall ? Operator.GREATER_THAN : operation.getOperator().get();
+        return false;
+    }
 
-        if (functionCall && operation.getOperator().isPresent()) {
-            if (operation.getOperator().get() == Operator.BOOLEAN_NEGATION) {
-                operator = Operator.LESSER_THAN_EQUAL;
-            }
+    /**
+     * @return {@code true} if the element or anything in it assigns a value to the variable with
+     * the given name.
+     */
+    private static boolean assigns(Object element, String name) {
+        if (element instanceof Block) {
+            return ((Block)element).getContents().stream().anyMatch(e -> assigns(e, name));
         }
-
-        Element second = functionCall ? null : operation.getSecondElement().get();
-        String instruction = operator.getInstruction().get();
-        String prefix = "if" + ifElse.getId();
-
-        // Comments
-        String comment1 = "Check if " + operation.toHumanReadableString() +
-                " (if-statement #" + ifElse.getId() + ").";
-        String comment2 = ">";
-        String comment3 = "Branch to if-block when " + operation.toHumanReadableString() + ".";
-
-        if (comment != null) {
-            comment2 = comment1;
-            comment1 = comment.getContents();
-
-            if (functionCall) {
-                comment3 = comment1 + " (if-statement #" + ifElse.getId() + ").";
-            }
+        if (element instanceof IfElse) {
+            return assigns(((IfElse)element).getIfBlock(), name) ||
+                    assigns(((IfElse)element).getElseBlock(), name);
         }
-
-        // Compare
-        if (!functionCall) {
-            assembly.append(Template.fillStatement(label, "LOAD", "R0", loadValueString(first),
-                    comment1 + "\n"));
-            assembly.append(Template.fillStatement("", "CMP", "R0",
-                    loadValueString(second), comment2 + "\n"));
+        if (element instanceof Loop) {
+            return assigns(((Loop)element).getContent(), name);
         }
+        if (element instanceof Operation && ((Operation)element).getOperator().isPresent()) {
+            Operation operation = (Operation)element;
+            Operator operator = operation.getOperator().get();
+            if (!operator.isAssignOperator() && operator.getType() != Operator.OperatorType.ASSIGNMENT) {
+                return false;
+            }
 
-        // Branch to if-block.
-        assembly.append(Template.fillStatement("", instruction, prefix + "_true", "",
-                comment3 + "\n"));
-
-        // Block if false (else)
-        if (!ifElse.getElseBlock().getContents().isEmpty()) {
-            functionReturn = true;
-            compileBlock(ifElse.getElseBlock(), null, IfElse.class);
+            Element target = operator == Operator.ASSIGN_ALT_RIGHT ?
+                    operation.getSecondElement().orElse(null) : operation.getFirstElement();
+            return target instanceof Variable && ((Variable)target).getName().equals(name);
         }
 
-        // Branch to skip if-block.
-        assembly.append(Template.fillStatement("", "BRA", prefix + "_end", "",
-                "Skip the if-block.\n"));
+        return false;
+    }
 
-        // Block if true (if)
-        if (ifElse.getIfBlock().getContents().size() > 0) {
-            compileBlock(ifElse.getIfBlock(), prefix + "_true", IfElse.class);
-        }
-        else {
-            assembly.append(Template.fillStatement(prefix + "_true:", "LOAD", "R0", "0",
-                    "Dummy instruction to always make the label work.\n"));
+    /**
+     * @return {@code true} if the block or one of its nested blocks contains an element of the
+     * given type.
+     */
+    static boolean contains(Block block, Class<? extends Element> type) {
+        for (Element element : block.getContents()) {
+            if (type.isInstance(element)) {
+                return true;
+            }
+            if (element instanceof IfElse && (contains(((IfElse)element).getIfBlock(), type) ||
+                    contains(((IfElse)element).getElseBlock(), type))) {
+                return true;
+            }
+            if (element instanceof Loop && contains(((Loop)element).getContent(), type)) {
+                return true;
+            }
         }
 
-        // The end.
-        assembly.append(Template.fillStatement(prefix + "_end:", "LOAD", "R0", "0",
-                "Dummy instruction to always make the label work.\n"));
+        return false;
     }
 
     private String operationComment;
@@ -620,6 +1470,15 @@ public class Compiler {
                     throw new CompilerException("Can't assign a value to a Number, got: '" + leftOperand + "'");
                 }
 
+                // Global variables that are never read don't need the value.
+                if (isUnusedGlobal(leftOperand) && !ConstantFolder.calls(rightOperand)) {
+                    if (!operationLabel.isEmpty()) {
+                        emit(operationLabel, Opcode.LOAD, Register.R0, new Operand.Immediate(0),
+                                "Dummy instruction to always make the label work.\n");
+                    }
+                    return;
+                }
+
                 // When first evaluating operation, then assign.
                 if (rightOperand instanceof Operation) {
                     Operation secondOp = (Operation)rightOperand;
@@ -629,27 +1488,8 @@ public class Compiler {
                         if (leftOperand instanceof Variable) {
                             Variable variableToAssignTo = (Variable)leftOperand;
 
-                            // Store value in a global variable.
-                            if (input.getGlobalVariable(variableToAssignTo.getName()).isPresent()) {
-                                assembly.append(Template.fillStatement(
-                                        "",
-                                        "STOR",
-                                        "R0",
-                                        "[" + Constants.REG_GLOBAL_BASE + "+" + variableToAssignTo.getName() + "]",
-                                        operationComment
-                                ));
-                            }
-                            // Store value in local variable.
-                            else {
-                                int pointer = function.getVariableByVariable(variableToAssignTo).getPointer();
-                                assembly.append(Template.fillStatement(
-                                        "",
-                                        "STOR",
-                                        "R0",
-                                        "[" + Constants.REG_STACK_POINTER + "+" + pointer + "]",
-                                        operationComment
-                                ));
-                            }
+                            // Store value in the global or local variable.
+                            compileStore(variableOperand(variableToAssignTo), operationComment);
                         }
                         else {
                             throw new CompilerException("you can only assign a value to variables");
@@ -679,8 +1519,12 @@ public class Compiler {
                     compileValueLoad(operationLabel, rightOperand);
                 }
 
+                // Arrays that are never read don't need the value.
+                if (isUnusedGlobal(leftOperand)) {
+                    return;
+                }
                 // Assignment of a single element in a global array.
-                if (operation instanceof GlobalArrayIndexedAssignment) {
+                else if (operation instanceof GlobalArrayIndexedAssignment) {
                     GlobalArrayIndexedAssignment indexedAssignment = (GlobalArrayIndexedAssignment)operation;
                     GlobalArray globalArray = (GlobalArray)leftOperand;
                     ArrayAccess access = indexedAssignment.getAccess();
@@ -696,14 +1540,7 @@ public class Compiler {
 
                 // Simple a=34 assignment, LOAD value of the right operand,
                 // then STORe the in the right place corresponding to the left operand.
-                operationLabel = "";
-                assembly.append(Template.fillStatement(
-                        operationLabel,
-                        "STOR",
-                        "R0",
-                        loadValueString(leftOperand),
-                        ">\n"
-                ));
+                compileStore(variableOperand(leftOperand), ">\n");
                 operationComment = ">\n";
 
                 return;
@@ -717,6 +1554,19 @@ public class Compiler {
             }
         }
 
+        // Load the result straight away when it is known at compile time.
+        Element folded = constants == null ? null : constants.fold(operation, known);
+        if (folded != null) {
+            emit(operationLabel, Opcode.LOAD, Register.R0, loadValue(folded), operationComment);
+            if (operation.getOperator().get().getType() == Operator.OperatorType.ASSIGNMENT) {
+                compileStore(variableOperand(operation.getFirstElement()), ">\n");
+            }
+
+            optimiser.countFolded();
+            operationComment = ">\n";
+            return;
+        }
+
         if (operation.getFirstElement() instanceof Operation) {
             compileOperation((Operation)operation.getFirstElement(), operationLabel);
         }
@@ -746,33 +1596,27 @@ public class Compiler {
         }
 
         Element leftOperand = operation.getFirstElement();
-        assembly.append(Template.fillStatement(
+        emit(
                 operationLabel,
-                "LOAD",
-                "R0",
-                loadValueString(leftOperand),
+                Opcode.LOAD,
+                Register.R0,
+                loadValue(leftOperand),
                 operationComment
-        ));
+        );
 
         operationLabel = "";
         if (operator.getInstruction().isPresent()) {
-            assembly.append(Template.fillStatement(
+            emit(
                     operationLabel,
-                    operator.getInstruction().get(),
-                    "R0",
-                    loadValueString(rightOperand),
+                    Opcode.valueOf(operator.getInstruction().get()),
+                    Register.R0,
+                    loadValue(rightOperand),
                     ">\n"
-            ));
+            );
         }
 
         if (operator.getType() == Operator.OperatorType.ASSIGNMENT) {
-            assembly.append(Template.fillStatement(
-                    operationLabel,
-                    "STOR",
-                    "R0",
-                    loadValueString(leftOperand),
-                    ">\n"
-            ));
+            compileStore(variableOperand(leftOperand), ">\n");
         }
 
         operationComment = ">\n";
@@ -787,13 +1631,13 @@ public class Compiler {
      *          The element representing the value to load.
      */
     private void compileValueLoad(String label, Element operand) {
-        assembly.append(Template.fillStatement(
+        emit(
                 label,
-                "LOAD",
-                Constants.REG_GENERAL,
-                loadValueString(operand),
+                Opcode.LOAD,
+                Register.GENERAL,
+                loadValue(operand),
                 operationComment
-        ));
+        );
     }
 
     /**
@@ -807,13 +1651,13 @@ public class Compiler {
         List<GlobalVariable> variables = array.getVariables();
         for (int i = 0, variablesSize = variables.size(); i < variablesSize; i++) {
             GlobalVariable global = variables.get(i);
-            assembly.append(Template.fillStatement(
+            emit(
                     "",
-                    "STOR",
-                    "R0",
-                    "[" + Constants.REG_GLOBAL_BASE + "+" + global.getName() + "+" + i + "]",
+                    Opcode.STOR,
+                    Register.R0,
+                    new Operand.Global(global.getName(), new Operand.Immediate(i)),
                     "> assign " + global.getName() + "[" + i + "]\n"
-            ));
+            );
         }
     }
 
@@ -837,7 +1681,7 @@ public class Compiler {
         // Documentation comment at the end of the assembly line between access brackets [X], X.
         String documentationString = "";
         // The register address of the array element to assign a value to.
-        String storeAddress = "";
+        Operand storeAddress;
 
         if (accessingIndex != null) {
             // Access by numeric/constant value.
@@ -854,13 +1698,13 @@ public class Compiler {
             throw new IllegalStateException("ArrayAccess " + access + " has no index and no variable.");
         }
 
-        assembly.append(Template.fillStatement(
+        emit(
                 "",
-                "STOR",
-                "R0",
+                Opcode.STOR,
+                Register.R0,
                 storeAddress,
                 "> assign " + array.getName() + "[" + documentationString + "].\n"
-        ));
+        );
     }
 
     /**
@@ -873,17 +1717,18 @@ public class Compiler {
      *
      * @return The memory address for the address.
      */
-    private String globalArrayAccessAddress(GlobalArray array, ArrayAccess access) {
+    private Operand globalArrayAccessAddress(GlobalArray array, ArrayAccess access) {
         Value accessingIndex = access.getAccessingIndex();
         Variable accessingVariable = access.getAccessingVariable();
 
         if (accessingIndex != null) {
             // Access by numeric/constant value.
-            String indexString = array.getName() + "+" + accessingIndex.stringRepresentation();
-            return "[" + Constants.REG_GLOBAL_BASE + "+" + indexString + "]";
+            Operand index = accessingIndex instanceof Number ? Operand.of((Number)accessingIndex)
+                    : new Operand.Symbol(accessingIndex.stringRepresentation());
+            return new Operand.Global(array.getName(), index);
         }
         else if (accessingVariable != null) {
-            return "[" + Constants.REG_GLOBAL_BASE + "+" + Constants.REG_INDEX + "]";
+            return new Operand.Indexed(Register.GLOBAL_BASE, Register.INDEX);
         }
         else {
             throw new IllegalStateException("ArrayAccess " + access + " has no index and no variable.");
@@ -891,7 +1736,7 @@ public class Compiler {
     }
 
     /**
-     * Prepares the array index offset in {@code Constants.REG_INDEX}.
+     * Prepares the array index offset in {@link Register#INDEX}.
      *
      * @param array
      *          The array to access an array in.
@@ -899,30 +1744,23 @@ public class Compiler {
      *          The variable that contains the element offset.
      */
     private void compileIndexLoad(GlobalArray array, Variable indexVariable) {
-        String variableRegister = "";
-        if (input.getGlobalVariable(indexVariable.getName()).isPresent()) {
-            variableRegister = "[" + Constants.REG_GLOBAL_BASE + "+" + indexVariable.getName() + "]";
-        }
-        else {
-            int pointer = function.getVariableByVariable(indexVariable).getPointer();
-            variableRegister = "[" + Constants.REG_STACK_POINTER + "+" + pointer + "]";
-        }
+        Operand variableRegister = symbols.operand(indexVariable.getName());
 
-        assembly.append(Template.fillStatement(
+        emit(
                 "",
-                "LOAD",
-                Constants.REG_INDEX,
+                Opcode.LOAD,
+                Register.INDEX,
                 variableRegister,
                 "> prepare addition of array index '" + indexVariable.getName() + "'.\n"
-        ));
+        );
 
-        assembly.append(Template.fillStatement(
+        emit(
                 "",
-                "ADD",
-                Constants.REG_INDEX,
-                array.getName(),
+                Opcode.ADD,
+                Register.INDEX,
+                new Operand.Symbol(array.getName()),
                 "> add the array index to the global base address '" + array.getName() + "'.\n"
-        ));
+        );
     }
 
     /**
@@ -986,45 +1824,30 @@ public class Compiler {
      *         The element to get the something of.
      * @return The something.
      */
-    private String loadValueString(Element element) {
+    private Operand loadValue(Element element) {
         if (element instanceof Operation) {
             Operation operation = (Operation)element;
             if (operation.getFirstElement() instanceof FunctionCall) {
-                return Constants.REG_RETURN;
+                return Register.RETURN;
             }
 
-            return ((Number)operation.getFirstElement()).stringRepresentation();
+            return Operand.of((Number)operation.getFirstElement());
         }
 
         if (element instanceof Number) {
-            return ((Number)element).stringRepresentation();
+            return Operand.of((Number)element);
         }
 
         if (element instanceof Variable) {
-            Variable var = (Variable)element;
-
-            if (input.getGlobalVariable(var.getName()).isPresent()) {
-                return "[" + Constants.REG_GLOBAL_BASE + "+" + var.getName() + "]";
-            }
-
-            int pointer = function.getVariableByVariable(var).getPointer();
-            return "[" + Constants.REG_STACK_POINTER + "+" + pointer + "]";
+            return variableValue(((Variable)element).getName());
         }
 
         if (element instanceof FunctionCall) {
-            return Constants.REG_RETURN;
+            return Register.RETURN;
         }
 
         if (element instanceof Value) {
-            Value val = (Value)element;
-
-            Optional<GlobalVariable> global = input.getGlobalVariable(val.stringRepresentation());
-            if (global.isPresent()) {
-                return loadValueString(global.get());
-            }
-
-            Variable var = function.getVariableByName(val.stringRepresentation());
-            return loadValueString(var);
+            return variableValue(((Value)element).stringRepresentation());
         }
 
         throw new ParseException("Type of element '" + element +
@@ -1033,14 +1856,48 @@ public class Compiler {
     }
 
     /**
-     * Inserts a label if the label does not equals <code>null</code>.
+     * @return The value of the variable with the given name as an immediate when it is known at
+     * compile time, otherwise its location.
+     */
+    private Operand variableValue(String name) {
+        Integer value = known.get(name);
+        return value == null ? symbols.operand(name) : new Operand.Immediate(value);
+    }
+
+    /**
+     * @return The location of the variable that gets a value in an assignment, or {@code null}
+     * when it is a global variable that is never read.
+     */
+    private Operand variableOperand(Element element) {
+        if (isUnusedGlobal(element)) {
+            return null;
+        }
+        if (element instanceof Variable) {
+            return symbols.operand(((Variable)element).getName());
+        }
+        if (element instanceof Value && !(element instanceof Number)) {
+            return symbols.operand(((Value)element).stringRepresentation());
+        }
+
+        return loadValue(element);
+    }
+
+    /**
+     * @return {@code true} if the element is a global variable or array that has been removed
+     * from the program, because it is never read.
      */
-    private String insertLabel(String stuff, String label) {
-        if (label != null) {
-            stuff = stuff.replaceAll("^" + Util.makeString(" ", label.length()), label);
+    private boolean isUnusedGlobal(Element element) {
+        if (element instanceof GlobalArray) {
+            return input.isUnusedGlobal(((GlobalArray)element).getName());
+        }
+        if (element instanceof Variable) {
+            return input.isUnusedGlobal(((Variable)element).getName());
+        }
+        if (element instanceof Value && !(element instanceof Number)) {
+            return input.isUnusedGlobal(((Value)element).stringRepresentation());
         }
 
-        return stuff;
+        return false;
     }
 
     /**
@@ -1066,14 +1923,9 @@ public class Compiler {
         if (var.isJustNumber()) {
             return var.getDefaultValue().toString();
         }
-        // Arg1: Global variable
-        else if (input.getGlobalVariable(var.getName()).isPresent()) {
-            return "[" + Constants.REG_GLOBAL_BASE + "+" + var.getName() + "]";
-        }
-        // Arg1: Local variable
+        // Arg1: Global or local variable
         else {
-            int pointer = function.getVariableByVariable(var).getPointer();
-            return "[" + Constants.REG_STACK_POINTER + "+" + pointer + "]";
+            return variableValue(var.getName()).toString();
         }
     }
 
@@ -1090,10 +1942,15 @@ public class Compiler {
         boolean skipVariables = false;
         boolean skipCall = false;
 
+        Optional<Function> callee = input.getFunction(call.getCalled());
+        if (callee.isPresent() && input.isInlined(callee.get()) && !inlining.contains(callee.get())) {
+            compileInlineCall(call, callee.get(), label);
+            return;
+        }
+
         // API exit()
         if (call.getCalled().equals("exit")) {
-            assembly.append(insertLabel(Template.API_INVOKE_EXIT.load(), label));
-            assembly.append("\n");
+            text(label, Template.API_INVOKE_EXIT.load() + "\n");
             return;
         }
         // API set7Segment(dig, pattern)
@@ -1111,8 +1968,7 @@ public class Compiler {
                     .replace("{$COMMENT2}", "Load the index of the display on the 7Segment " +
                             "display.");
 
-            String stuff = insertLabel(result, label);
-            assembly.append(stuff).append("\n");
+            text(label, result + "\n");
 
             label = "";
             skipVariables = true;
@@ -1122,11 +1978,11 @@ public class Compiler {
             Variable arg = vars.get(0);
             String text = getVariableValue(arg);
 
-            String result = insertLabel(Template.API_INVOKE_GETNUMPATTERN.replace(
+            String result = Template.API_INVOKE_GETNUMPATTERN.replace(
                     "ARG", text
-            ), label)
-                    .replace("{$COMMENT}", "Get the 7Segment pattern for " + text + ".\n");
-            assembly.append(result);
+            ).replace("{$COMMENT}", "Get the 7Segment pattern for " + text + ".\n");
+
+            text(label, result);
             skipVariables = true;
             label = "";
         }
@@ -1135,19 +1991,17 @@ public class Compiler {
             Variable arg = vars.get(0);
             String text = getVariableValue(arg);
 
-            String result = insertLabel(Template.API_INVOKE_GETPATTERN.replace(
+            String result = Template.API_INVOKE_GETPATTERN.replace(
                     "ARG", text
-            ), label)
-                    .replace("{$COMMENT}", "Get the 7Segment pattern for " + text + ".\n");
-            assembly.append(result);
+            ).replace("{$COMMENT}", "Get the 7Segment pattern for " + text + ".\n");
+
+            text(label, result);
             skipVariables = true;
             label = "";
         }
         // API getInputStates()
         else if (call.getCalled().equals("getInputStates")) {
-            String result = insertLabel(Template.API_INVOKE_GETINPUTSTATES.load(), label);
-            assembly.append(result);
-            assembly.append("\n");
+            text(label, Template.API_INVOKE_GETINPUTSTATES.load() + "\n");
             skipVariables = true;
             skipCall = true;
             label = "";
@@ -1156,11 +2010,11 @@ public class Compiler {
         else if (call.getCalled().equals("isInputOn")) {
             String text = getVariableValue(vars.get(0));
 
-            String result = insertLabel(Template.API_INVOKE_ISINPUTON.replace(
+            String result = Template.API_INVOKE_ISINPUTON.replace(
                     "ARG", text
-            ), label)
-                    .replace("{$COMMENT}", "Load the number of the input to check for.\n");
-            assembly.append(result);
+            ).replace("{$COMMENT}", "Load the number of the input to check for.\n");
+
+            text(label, result);
             skipVariables = true;
             label = "";
         }
@@ -1169,11 +2023,11 @@ public class Compiler {
             Variable arg = vars.get(0);
             String text = getVariableValue(arg);
 
-            String result = insertLabel(Template.API_INVOKE_SETOUTPUT.replace(
+            String result = Template.API_INVOKE_SETOUTPUT.replace(
                     "ARG", text
-            ), label)
-                    .replace("{$COMMENT}", "Set what value has to be loaded into output.\n");
-            assembly.append(result);
+            ).replace("{$COMMENT}", "Set what value has to be loaded into output.\n");
+
+            text(label, result);
             skipVariables = true;
             label = "";
         }
@@ -1192,17 +2046,14 @@ public class Compiler {
                     .replace("{$COMMENT2}", "Command to turn the output " + (textArg2.equals("0")
                             ? "off" : "on") + ".");
 
-            String stuff = insertLabel(result, label);
-            assembly.append(stuff).append("\n");
+            text(label, result + "\n");
 
             label = "";
             skipVariables = true;
         }
         // API getInputStates()
         else if (call.getCalled().equals("getAnalogStates")) {
-            String result = insertLabel(Template.API_INVOKE_GETANALOGSTATES.load(), label);
-            assembly.append(result);
-            assembly.append("\n");
+            text(label, Template.API_INVOKE_GETANALOGSTATES.load() + "\n");
             skipVariables = true;
             skipCall = true;
             label = "";
@@ -1212,19 +2063,17 @@ public class Compiler {
             Variable arg = vars.get(0);
             String text = getVariableValue(arg);
 
-            String result = insertLabel(Template.API_INVOKE_GETANALOG.replace(
+            String result = Template.API_INVOKE_GETANALOG.replace(
                     "ARG", text
-            ), label)
-                    .replace("{$COMMENT}", "Set what A/D-converter value has to be loaded.\n");
-            assembly.append(result);
+            ).replace("{$COMMENT}", "Set what A/D-converter value has to be loaded.\n");
+
+            text(label, result);
             skipVariables = true;
             label = "";
         }
         // API getTimer()
         else if (call.getCalled().equals("getTimer")) {
-            String result = insertLabel(Template.API_INVOKE_GETTIMER.load(), label);
-            assembly.append(result);
-            assembly.append("\n");
+            text(label, Template.API_INVOKE_GETTIMER.load() + "\n");
             skipVariables = true;
             skipCall = true;
             label = "";
@@ -1234,11 +2083,11 @@ public class Compiler {
             Variable arg = vars.get(0);
             String text = getVariableValue(arg);
 
-            String result = insertLabel(Template.API_INVOKE_ADDTIMER.replace(
+            String result = Template.API_INVOKE_ADDTIMER.replace(
                     "ARG", text
-            ), label)
-                    .replace("{$COMMENT}", "Set what value has to be added to the timer.\n");
-            assembly.append(result);
+            ).replace("{$COMMENT}", "Set what value has to be added to the timer.\n");
+
+            text(label, result);
             skipVariables = true;
             label = "";
         }
@@ -1247,24 +2096,24 @@ public class Compiler {
             Variable arg = vars.get(0);
             String text = getVariableValue(arg);
 
-            String result = insertLabel(Template.API_INVOKE_SETTIMER.replace(
+            String result = Template.API_INVOKE_SETTIMER.replace(
                     "ARG", text
-            ), label)
-                    .replace("{$COMMENT}", "Set to what value the timer has to be set.\n");
-            assembly.append(result);
+            ).replace("{$COMMENT}", "Set to what value the timer has to be set.\n");
+
+            text(label, result);
             skipVariables = true;
             label = "";
         }
         // Semi-API enableTimerInterrupt(interruptName)
         else if (call.getCalled().equals("enableTimerInterrupt")) {
             String interruptName = vars.get(0).getName();
-            String result = insertLabel(Template.ENABLE_INTERRUPT.replace(
+            String result = Template.ENABLE_INTERRUPT.replace(
                     "ISRNAME", interruptName
-            ), label).replace(
+            ).replace(
                     "{$COMMENT}", "Enable the interrupt " + interruptName + ".\n"
             );
 
-            assembly.append(result);
+            text(label, result);
             skipVariables = true;
             skipCall = true;
             label = "";
@@ -1272,14 +2121,13 @@ public class Compiler {
         // Semi-API disableTimerInterrupt(interruptName)
         else if (call.getCalled().equals("disableTimerInterrupt")) {
             String interruptName = vars.get(0).getName();
-            String result = insertLabel(Template.DISABLE_INTERRUPT.replace(
+            String result = Template.DISABLE_INTERRUPT.replace(
                     "ISRNAME", interruptName
-            ), label).replace(
+            ).replace(
                     "{$COMMENT}", "Disable the interrupt " + interruptName + ".\n"
             );
-            ;
 
-            assembly.append(result);
+            text(label, result);
             skipVariables = true;
             skipCall = true;
             label = "";
@@ -1295,41 +2143,39 @@ public class Compiler {
 
             // If number, do direct stuff and things.
             if (var.isJustNumber()) {
-                assembly.append(Template.fillStatement(label, "LOAD", Constants.REG_GENERAL,
-                        var.getDefaultValue().stringRepresentation(),
+                emit(label, Opcode.LOAD, Register.GENERAL,
+                        Operand.of((Number)var.getDefaultValue()),
                         "Load the value " + var.getDefaultValue() +
-                                " in the R0 to prepare it for the stack.\n"));
+                                " in the R0 to prepare it for the stack.\n");
             }
             // Global variable
-            else if (input.getGlobalVariable(var.getName()).isPresent()) {
-                GlobalVariable gvar = input.getGlobalVariable(var.getName()).get();
-                assembly.append(Template.fillStatement(label, "LOAD", Constants.REG_GENERAL,
-                        "[" + Constants.REG_GLOBAL_BASE + "+" + gvar.getName() + "]",
-                        "Load the value of global variable " + gvar.getName() + ".\n"));
+            else if (symbols.isGlobal(var.getName())) {
+                emit(label, Opcode.LOAD, Register.GENERAL,
+                        symbols.operand(var.getName()),
+                        "Load the value of global variable " + var.getName() + ".\n");
             }
             // Local variable
             else {
-                int pointer = function.getVariableByVariable(var).getPointer();
-                assembly.append(Template.fillStatement(label, "LOAD", Constants.REG_GENERAL,
-                        "[" + Constants.REG_STACK_POINTER + "+" + pointer + "]",
-                        "Load the value of variable " + var.getName() + ".\n"));
+                emit(label, Opcode.LOAD, Register.GENERAL,
+                        variableValue(var.getName()),
+                        "Load the value of variable " + var.getName() + ".\n");
             }
 
             label = "";
-            assembly.append(Template.fillStatement(label, "PUSH", Constants.REG_GENERAL, "",
-                    "Push the value onto the stack.\n"));
-            function.updatePointers(1);
+            emit(label, Opcode.PUSH, Register.GENERAL, null,
+                    "Push the value onto the stack.\n");
+            symbols.push(1);
         }
 
         if (!skipCall) {
-            assembly.append(Template.fillStatement(label, "BRS", call.getCalled(), "",
-                    "Call function " + call.getCalled() + ".\n"));
+            emit(label, Opcode.BRS, new Operand.Symbol(call.getCalled()), null,
+                    "Call function " + call.getCalled() + ".\n");
         }
 
         if (!skipVariables && vars.size() > 0) {
-            function.updatePointers(-call.getArguments().size());
-            assembly.append(Template.fillStatement("", "ADD", Constants.REG_STACK_POINTER,
-                    "" + vars.size(), "Reset the stack pointer position.\n"));
+            symbols.pop(call.getArguments().size());
+            emit("", Opcode.ADD, Register.STACK_POINTER,
+                    new Operand.Immediate(vars.size()), "Reset the stack pointer position.\n");
         }
     }
 
@@ -1342,6 +2188,146 @@ public class Compiler {
      *         The label to print before the statement.
      */
     private void compileFunctionReturn(Return ret, String label) {
+        if (isTailCall(ret)) {
+            compileTailCall((FunctionCall)((ElementReturn)ret).getElement(), label);
+            return;
+        }
+
+        label = compileReturnValue(ret, label);
+
+        // Reset stack pointer.
+        if (resetStackPointer(label)) {
+            label = "";
+        }
+
+        emit(label, Opcode.RTS, null, null,
+                "Return from function " + function.getName() + ".\n");
+    }
+
+    /**
+     * Checks if a return statement can jump to the function it calls instead. That function
+     * then returns straight to the caller, so its arguments must fit in the place of the
+     * arguments of the current function. The caller removes them afterwards.
+     */
+    private boolean isTailCall(Return ret) {
+        if (optimiser == null || !optimiser.isEnabled(Optimiser.Optimisation.TAIL_CALLS) ||
+                !(ret instanceof ElementReturn) ||
+                !(((ElementReturn)ret).getElement() instanceof FunctionCall)) {
+            return false;
+        }
+
+        FunctionCall call = (FunctionCall)((ElementReturn)ret).getElement();
+        String name = call.getCalled();
+        if (APIFunction.isAPIFunction(name) || name.equals("enableTimerInterrupt") ||
+                name.equals("disableTimerInterrupt")) {
+            return false;
+        }
+
+        Optional<Function> callee = input.getFunction(name);
+        if (callee.isPresent() && input.isInlined(callee.get())) {
+            return false;
+        }
+
+        return call.getArguments().size() <= function.getArguments().size();
+    }
+
+    /**
+     * Compiles a call at the end of a function as a jump. The arguments of the call replace the
+     * arguments of the current function, and the called function returns to the caller of the
+     * current function.
+     *
+     * @param call
+     *         The call whose value is returned.
+     * @param label
+     *         The label to print before the statement.
+     */
+    private void compileTailCall(FunctionCall call, String label) {
+        List<Variable> vars = call.getArguments();
+        String name = call.getCalled();
+
+        List<Operand> values = new ArrayList<>();
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < vars.size(); i++) {
+            Operand value = tailCallArgument(vars.get(i));
+            values.add(value);
+            if (!value.equals(new Operand.Stack(symbols.argumentPointer(i)))) {
+                changed.add(i);
+            }
+        }
+
+        // An argument that is overwritten before it is read is kept on the stack first.
+        boolean overwritten = false;
+        for (int i = 0; i < changed.size(); i++) {
+            for (int j = i + 1; j < changed.size(); j++) {
+                overwritten |= values.get(changed.get(j))
+                        .equals(new Operand.Stack(symbols.argumentPointer(changed.get(i))));
+            }
+        }
+
+        for (int i : changed) {
+            String value = vars.get(i).isJustNumber() ? "the value " + vars.get(i).getDefaultValue()
+                    : "the value of variable " + vars.get(i).getName();
+            // The values that have been pushed already move the other arguments on the stack.
+            emit(label, Opcode.LOAD, Register.GENERAL, tailCallArgument(vars.get(i)),
+                    "Load " + value + " as argument " + (i + 1) + " of " + name + ".\n");
+            label = "";
+
+            if (overwritten) {
+                emit("", Opcode.PUSH, Register.GENERAL, null,
+                        "Keep the value until all arguments have been loaded.\n");
+                symbols.push(1);
+            }
+            else {
+                emit("", Opcode.STOR, Register.GENERAL,
+                        new Operand.Stack(symbols.argumentPointer(i)), ">\n");
+            }
+        }
+
+        if (overwritten) {
+            for (int k = changed.size() - 1; k >= 0; k--) {
+                emit("", Opcode.PULL, Register.GENERAL, null,
+                        "Take argument " + (changed.get(k) + 1) + " of " + name + " off the stack.\n");
+                symbols.pop(1);
+                emit("", Opcode.STOR, Register.GENERAL,
+                        new Operand.Stack(symbols.argumentPointer(changed.get(k))), ">\n");
+            }
+        }
+
+        if (resetStackPointer(label)) {
+            label = "";
+        }
+
+        String comment = name.equals(function.getName()) ?
+                "Repeat function " + name + " with the new arguments.\n" :
+                "Jump to function " + name + ", which returns from function " + function.getName() + ".\n";
+        emit(label, Opcode.BRA, new Operand.Symbol(name), null, comment);
+        optimiser.countTailCall();
+    }
+
+    /**
+     * @return The operand with the value of an argument of a tail call, relative to the current
+     * position of the stack pointer.
+     */
+    private Operand tailCallArgument(Variable var) {
+        if (var.isJustNumber()) {
+            return Operand.of((Number)var.getDefaultValue());
+        }
+        else if (symbols.isGlobal(var.getName())) {
+            return symbols.operand(var.getName());
+        }
+        else {
+            return variableValue(var.getName());
+        }
+    }
+
+    /**
+     * Loads the value of a return statement in the return register.
+     *
+     * @param label
+     *         The label to print before the statement.
+     * @return The label that still has to be printed, or an empty string when it has been used.
+     */
+    private String compileReturnValue(Return ret, String label) {
         // Return statements without values.
         if (ret instanceof ElementReturn) {
             ElementReturn eltReturn = (ElementReturn)ret;
@@ -1351,49 +2337,178 @@ public class Compiler {
             if (element instanceof FunctionCall) {
                 FunctionCall call = (FunctionCall)element;
                 compileFunctionCall(call, label);
-
-                resetStackPointer("");
-
-                assembly.append(Template.fillStatement("", "RTS", "", "",
-                        "Return from function " + function.getName() + ".\n"));
-                return;
+                return "";
             }
             // Variable
             if (element instanceof Variable) {
                 Variable var = (Variable)element;
-                assembly.append(Template.fillStatement(label, "LOAD", Constants.REG_RETURN,
-                        loadValueString(var),
-                        "Load the value of variable " + var.getName() + " as return value.\n"));
-
-                resetStackPointer("");
-
-                assembly.append(Template.fillStatement("", "RTS", "", "",
-                        "Return from function " + function.getName() + ".\n"));
-                return;
+                emit(label, Opcode.LOAD, Register.RETURN,
+                        loadValue(var),
+                        "Load the value of variable " + var.getName() + " as return value.\n");
+                return "";
             }
         }
 
         // If there is a return value.
         Value returnValue = ret.getReturnValue();
         if (returnValue != null) {
-            String toDisplay = ret.getReturnValue().toString();
+            Operand toDisplay = returnValue instanceof Number ? Operand.of((Number)returnValue)
+                    : new Operand.Symbol(returnValue.toString());
+
+            emit(label, Opcode.LOAD, Register.RETURN,
+                    toDisplay, "Load the return value.\n");
+            return "";
+        }
+
+        return label;
+    }
+
+    /**
+     * Compiles a call by compiling the body of the called function in place. Arguments that are
+     * numbers or local variables of the caller are used as they are, the others are pushed like
+     * the arguments of a normal call.
+     *
+     * @param call
+     *         The call to replace.
+     * @param callee
+     *         The function that is called.
+     * @param label
+     *         The label to print before the statement.
+     */
+    private void compileInlineCall(FunctionCall call, Function callee, String label) {
+        List<Variable> vars = call.getArguments();
+        List<Variable> parameters = callee.getArguments();
+        if (vars.size() != parameters.size()) {
+            throw new CompilerException("function " + callee.getName() + " needs " +
+                    parameters.size() + " arguments, got " + vars.size());
+        }
 
-            if (returnValue instanceof NumberConstant) {
-                toDisplay = ((NumberConstant)returnValue).getName();
+        int start = instructions.size();
+        String end = function.getName() + "_inline" + inlineCount++ + "_end";
+
+        // Arguments that the body changes get a copy, just like global variables.
+        int[] copies = new int[vars.size()];
+        int pushed = 0;
+        for (int i = 0; i < vars.size(); i++) {
+            Variable var = vars.get(i);
+            boolean global = !var.isJustNumber() && symbols.isGlobal(var.getName());
+            if (!global && !assigns(callee.getContents(), parameters.get(i).getName())) {
+                continue;
             }
 
-            assembly.append(Template.fillStatement(label, "LOAD", Constants.REG_RETURN,
-                    toDisplay, "Load the return value.\n"));
-            label = "";
+            if (var.isJustNumber()) {
+                emit("", Opcode.LOAD, Register.GENERAL,
+                        Operand.of((Number)var.getDefaultValue()),
+                        "Load the value " + var.getDefaultValue() +
+                                " in the R0 to prepare it for the stack.\n");
+            }
+            else if (global) {
+                emit("", Opcode.LOAD, Register.GENERAL,
+                        symbols.operand(var.getName()),
+                        "Load the value of global variable " + var.getName() + ".\n");
+            }
+            else {
+                emit("", Opcode.LOAD, Register.GENERAL,
+                        variableValue(var.getName()),
+                        "Load the value of variable " + var.getName() + ".\n");
+            }
+
+            emit("", Opcode.PUSH, Register.GENERAL, null,
+                    "Push the value onto the stack.\n");
+            symbols.push(1);
+            copies[i] = ++pushed;
+        }
+
+        // The places of the copies are known now that all of them have been pushed.
+        List<Operand> operands = new ArrayList<>();
+        for (int i = 0; i < vars.size(); i++) {
+            Variable var = vars.get(i);
+            if (copies[i] > 0) {
+                operands.add(new Operand.Stack(pushed - copies[i]));
+            }
+            else if (var.isJustNumber()) {
+                operands.add(Operand.of((Number)var.getDefaultValue()));
+            }
+            else {
+                operands.add(variableValue(var.getName()));
+            }
+        }
+
+        Comment outerComment = comment;
+        String outerOperationComment = operationComment;
+        Map<String, Integer> outerKnown = known;
+        ConstantFolder outerConstants = constants;
+        String outerLoopNext = loopNext;
+        String outerEnd = inlineEnd;
+
+        symbols.enterInline();
+        for (int i = 0; i < parameters.size(); i++) {
+            symbols.bind(parameters.get(i).getName(), operands.get(i));
+        }
+
+        inlining.push(callee);
+        inlineEnd = end;
+        constants = createConstantFolder(callee);
+        known = Collections.emptyMap();
+        comment = null;
+        loopNext = null;
+        relabel(start, compileBlock(callee.getContents(), null, Function.class, true), end);
+
+        // The last return doesn't have to jump.
+        int last = instructions.size() - 1;
+        if (last >= start && instructions.get(last).getLabel() == null &&
+                instructions.get(last).getOpcode() == Opcode.BRA &&
+                new Operand.Symbol(end).equals(instructions.get(last).getFirst())) {
+            instructions.remove(last);
         }
 
+        symbols.exitInline();
+        inlining.pop();
+        inlineEnd = outerEnd;
+        constants = outerConstants;
+        known = outerKnown;
+        comment = outerComment;
+        operationComment = outerOperationComment;
+        loopNext = outerLoopNext;
+
+        boolean jumps = false;
+        for (int i = start; i < instructions.size(); i++) {
+            jumps |= new Operand.Symbol(end).equals(instructions.get(i).getFirst());
+        }
+
+        String endLabel = jumps ? end + ":" : "";
+        if (pushed > 0) {
+            symbols.pop(pushed);
+            emit(endLabel, Opcode.ADD, Register.STACK_POINTER, new Operand.Immediate(pushed),
+                    "Remove the arguments of inlined function " + callee.getName() + ".\n");
+        }
+        else if (jumps) {
+            emit(endLabel, Opcode.LOAD, Register.R0, new Operand.Immediate(0),
+                    "Dummy instruction to always make the label work.\n");
+        }
+
+        labelFirst(start, label);
+        optimiser.countInlined();
+    }
+
+    /**
+     * Compiles a return from the body of an inlined function: a jump to the end of the body.
+     *
+     * @param ret
+     *         The Return element.
+     * @param label
+     *         The label to print before the statement.
+     */
+    private void compileInlineReturn(Return ret, String label) {
+        label = compileReturnValue(ret, label);
+
         // Reset stack pointer.
         if (resetStackPointer(label)) {
             label = "";
         }
 
-        assembly.append(Template.fillStatement(label, "RTS", "", "",
-                "Return from function " + function.getName() + ".\n"));
+        emit(label, Opcode.BRA, new Operand.Symbol(inlineEnd), null,
+                "Return from inlined function " + inlining.peek().getName() + ".\n");
     }
 
     /**
@@ -1405,10 +2520,10 @@ public class Compiler {
      * the stack pointer.
      */
     private boolean resetStackPointer(String label) {
-        if (function.variableCount() > 0) {
-            assembly.append(Template.fillStatement(label, "ADD", Constants.REG_STACK_POINTER,
-                    function.variableCount() + "",
-                    "Reset stack pointer.\n"));
+        if (symbols.localCount() > 0) {
+            emit(label, Opcode.ADD, Register.STACK_POINTER,
+                    new Operand.Immediate(symbols.localCount()),
+                    "Reset stack pointer.\n");
             return true;
         }
 
@@ -1430,15 +2545,15 @@ public class Compiler {
         }
 
         // Reset stack pointer.
-        if (function.variableCount() > 0) {
-            assembly.append(Template.fillStatement(label, "ADD", Constants.REG_STACK_POINTER,
-                    function.variableCount() + "",
-                    "Reset stack pointer.\n"));
+        if (symbols.localCount() > 0) {
+            emit(label, Opcode.ADD, Register.STACK_POINTER,
+                    new Operand.Immediate(symbols.localCount()),
+                    "Reset stack pointer.\n");
             label = "";
         }
 
-        assembly.append(Template.fillStatement(label, "RTE", "", "",
-                "Return from interrupt " + function.getName() + ".\n"));
+        emit(label, Opcode.RTE, null, null,
+                "Return from interrupt " + function.getName() + ".\n");
     }
 
     /**
@@ -1449,15 +2564,15 @@ public class Compiler {
      */
     private void compileFunctionContinue(String label) {
         // Reset stack pointer.
-        if (function.variableCount() > 0) {
-            assembly.append(Template.fillStatement(label, "ADD", Constants.REG_STACK_POINTER,
-                    function.variableCount() + "",
-                    "Reset stack pointer.\n"));
+        if (symbols.localCount() > 0) {
+            emit(label, Opcode.ADD, Register.STACK_POINTER,
+                    new Operand.Immediate(symbols.localCount()),
+                    "Reset stack pointer.\n");
             label = "";
         }
 
-        assembly.append(Template.fillStatement(label, "BRA", function.getName(), "",
-                "Repeat function " + function.getName() + ".\n"));
+        emit(label, Opcode.BRA, new Operand.Symbol(function.getName()), null,
+                "Repeat function " + function.getName() + ".\n");
     }
 
     /**
@@ -1468,21 +2583,21 @@ public class Compiler {
      */
     private void compileInterruptContinue(String label) {
         // Reset stack pointer.
-        if (function.variableCount() > 0) {
-            assembly.append(Template.fillStatement(label, "ADD", Constants.REG_STACK_POINTER,
-                    function.variableCount() + "",
-                    "Reset stack pointer.\n"));
+        if (symbols.localCount() > 0) {
+            emit(label, Opcode.ADD, Register.STACK_POINTER,
+                    new Operand.Immediate(symbols.localCount()),
+                    "Reset stack pointer.\n");
             label = "";
         }
 
-        assembly.append(Template.fillStatement(label, "BRS", "enable_" + function.getName(), "", "Re-enable interrupt.\n"));
+        emit(label, Opcode.BRS, new Operand.Symbol("enable_" + function.getName()), null, "Re-enable interrupt.\n");
 
-        assembly.append(Template.fillStatement("", "RTE", "", "",
-                "Return from interrupt " + function.getName() + ".\n"));
+        emit("", Opcode.RTE, null, null,
+                "Return from interrupt " + function.getName() + ".\n");
     }
 
     /**
-     * Writes all the definitions to the assembly-StringBuilder.
+     * Adds all the definitions to the instructions.
      */
     private void compileDefinitions() {
         for (Definition def : input.getDefinitions()) {
@@ -1494,14 +2609,13 @@ public class Compiler {
                 comment = docString.get();
             }
 
-            assembly.append(Template.EQU.replace("NAME", def.getName(), "VALUE",
-                    def.getValue().stringRepresentation()).replace("{$COMMENT}", comment));
-            assembly.append("\n");
+            text(Template.EQU.replace("NAME", def.getName(), "VALUE",
+                    def.getValue().stringRepresentation()).replace("{$COMMENT}", comment) + "\n");
         }
     }
 
     /**
-     * Writes all the global variables and arrays of the program to the assembly-StringBuilder.
+     * Adds all the global variables and arrays of the program to the instructions.
      */
     private void compileGlobal() {
         compileGlobalVariableDefinitions();
@@ -1509,7 +2623,7 @@ public class Compiler {
     }
 
     /**
-     * Writes all the global variable definitions to the assembly-StringBuilder.
+     * Adds all the global variable definitions to the instructions.
      */
     private void compileGlobalVariableDefinitions() {
         for (GlobalVariable global : input.getGlobalVariables()) {
@@ -1518,7 +2632,7 @@ public class Compiler {
     }
 
     /**
-     * Writes all the global array definitions to the assembly-StringBuilder.
+     * Adds all the global array definitions to the instructions.
      */
     private void compileGlobalArrayDefinitions() {
         for (GlobalArray array : input.getGlobalArrays()) {
@@ -1527,14 +2641,14 @@ public class Compiler {
     }
 
     /**
-     * Writes the definition of the given global variable to the assembly-StringBuilder.
+     * Adds the definition of the given global variable to the instructions.
      */
     private void compileGlobalVariableDefinition(GlobalVariable global) {
         compileGlobalVariableDefinition(global, null);
     }
 
     /**
-     * Writes the definition of the given global variable to the assembly-StringBuilder.
+     * Adds the definition of the given global variable to the instructions.
      *
      * @param extraComment Extra info to append to the comment.
      */
@@ -1547,8 +2661,7 @@ public class Compiler {
                 .replace("NAME", global.getName(), "VALUE", global.getPointer() + "")
                 .replace("{$COMMENT}", comment + extra);
 
-        assembly.append(code);
-        assembly.append("\n");
+        text(code + "\n");
     }
 
     /**
@@ -1567,18 +2680,66 @@ public class Compiler {
         }
 
         for (String line : inject.getContents().split("\n")) {
-            assembly.append(Template.fillStatement(label, line, "", "", inj_comment));
-            assembly.append("\n");
+            instructions.add(Instruction.inject(labelName(label), line, inj_comment));
             label = "";
             inj_comment = null;
         }
     }
 
     /**
-     * Writes the compiled output to the output file.
+     * Adds an instruction to the output.
+     *
+     * @param label
+     *         The label to put in front of the instruction, e.g. {@code "main:"}, or an empty
+     *         string for no label.
+     * @param comment
+     *         The comment without the ";", the line break at the end is optional.
+     */
+    private void emit(String label, Opcode opcode, Operand first, Operand second, String comment) {
+        if (comment != null && comment.endsWith("\n")) {
+            comment = comment.substring(0, comment.length() - 1);
+        }
+
+        instructions.add(new Instruction(labelName(label), opcode, first, second, comment));
+    }
+
+    /**
+     * Adds text to the output as is.
+     */
+    private void text(String text) {
+        instructions.add(Instruction.text(null, text));
+    }
+
+    /**
+     * Adds text to the output with the given label in place of the spaces at the start.
+     */
+    private void text(String label, String text) {
+        instructions.add(Instruction.text(labelName(label), text));
+    }
+
+    /**
+     * Turns a label like {@code "main:"} into the name of the label, or {@code null} for an empty
+     * string.
+     */
+    private static String labelName(String label) {
+        if (label == null || label.isEmpty()) {
+            return null;
+        }
+
+        return label.endsWith(":") ? label.substring(0, label.length() - 1) : label;
+    }
+
+    /**
+     * Renders all instructions that have been compiled so far and writes them to the output.
      */
-    private void write() {
-        new FileWorker(output).write(assembly.toString(), false);
+    private void flush() {
+        for (Instruction instruction : instructions) {
+            instruction.render(rendered);
+        }
+
+        writer.write(rendered);
+        rendered.setLength(0);
+        instructions.clear();
     }
 
 }
@@ -0,0 +1,531 @@
+package nl.hannahsten.pp2lal2pp.compiler;
+
+import nl.hannahsten.pp2lal2pp.lang.Number;
+import nl.hannahsten.pp2lal2pp.lang.*;
+
+import java.util.*;
+
+/**
+ * Finds the values of a function that are known at compile time, so they can be loaded as
+ * immediates instead of being calculated while the program runs.
+ * <p>
+ * The statements of the function are followed in the order they are executed, keeping track of
+ * the local variables that hold a known value. A variable gets a known value from a declaration
+ * or an assignment of a known value, and loses it when anything else is assigned to it. After an
+ * if-statement only the values that both blocks agree on are known, variables that are assigned
+ * in a loop aren't known anywhere in that loop, and injected assembly might change every
+ * variable. Global variables are never known, because called functions and interrupts can
+ * change them.
+ * <p>
+ * Constants of {@code define} are replaced by their values in calculations. Calculations with
+ * results that don't fit in a word are left for the processor, so they overflow the same way.
+ *
+ * @author Hannah Schellekens
+ */
+public class ConstantFolder {
+
+    /**
+     * The smallest number that fits in a word of 18 bits.
+     */
+    private static final int MIN_WORD = -(1 << 17);
+
+    /**
+     * The largest number that fits in a word of 18 bits.
+     */
+    private static final int MAX_WORD = (1 << 17) - 1;
+
+    private final Program program;
+
+    /**
+     * The local variables with a known value right before every statement, only for statements
+     * where at least one value is known.
+     */
+    private final Map<Element, Map<String, Integer>> known = new IdentityHashMap<>();
+
+    /**
+     * Finds the known values of the given function.
+     */
+    public ConstantFolder(Program program, Function function) {
+        this.program = program;
+
+        // Arguments can get a known value by assigning to them.
+        Map<String, Integer> values = new HashMap<>();
+        for (Variable argument : function.getArguments()) {
+            if (!isGlobal(argument.getName())) {
+                values.put(argument.getName(), null);
+            }
+        }
+
+        analyse(function.getContents(), values);
+    }
+
+    /**
+     * @return The local variables with a known value right before the given statement, by name.
+     */
+    public Map<String, Integer> before(Element statement) {
+        return known.getOrDefault(statement, Collections.emptyMap());
+    }
+
+    /**
+     * Calculates the value of an operation, or finds the operand that has the same value.
+     * Assignment operators like {@code +=} give the new value of the variable.
+     *
+     * @param values
+     *         The local variables with a known value, see {@link #before(Element)}.
+     * @return A {@link Number} when the value is known, the operand that has the same value as
+     * the operation (e.g. {@code x} for {@code x + 0}), or {@code null} when the operation has
+     * to be executed.
+     */
+    public Element fold(Operation operation, Map<String, Integer> values) {
+        if (!operation.getOperator().isPresent() || !operation.getSecondElement().isPresent()) {
+            return null;
+        }
+
+        Operator operator = operation.getOperator().get();
+        Element first = operation.getFirstElement();
+        Element second = operation.getSecondElement().get();
+        if (operator.isAssignOperator() || !isCalculation(operator)) {
+            return null;
+        }
+
+        Integer value = calculate(operator, first, second, values);
+        if (value != null) {
+            return new Number(value);
+        }
+
+        return identity(operator, first, second, values);
+    }
+
+    /**
+     * Calculates the value of an element.
+     *
+     * @param values
+     *         The local variables with a known value, see {@link #before(Element)}.
+     * @return The value, or {@code null} when it isn't known at compile time.
+     */
+    public Integer evaluate(Element element, Map<String, Integer> values) {
+        if (element instanceof Number) {
+            return resolve(element, 0);
+        }
+        if (element instanceof Variable) {
+            return values.get(((Variable)element).getName());
+        }
+        if (element instanceof Operation) {
+            Operation operation = (Operation)element;
+            if (!operation.getOperator().isPresent()) {
+                return operation.getSecondElement().isPresent() ? null :
+                        evaluate(operation.getFirstElement(), values);
+            }
+
+            Element folded = fold(operation, values);
+            return folded instanceof Number ? ((Number)folded).getIntValue() : null;
+        }
+        if (element instanceof Value && !(element instanceof FunctionCall)) {
+            return values.get(((Value)element).stringRepresentation());
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the value of a number, looking up the value of number constants.
+     *
+     * @param depth
+     *         How many constants have been looked up to get here, to stop at constants that are
+     *         defined as themselves.
+     */
+    private Integer resolve(Element element, int depth) {
+        if (!(element instanceof NumberConstant)) {
+            return element instanceof Number ? ((Number)element).getIntValue() : null;
+        }
+
+        Optional<Definition> definition = program.getDefinition(((NumberConstant)element).getName());
+        if (!definition.isPresent() || depth > program.getDefinitions().size()) {
+            return null;
+        }
+
+        return resolve(definition.get().getValue(), depth + 1);
+    }
+
+    /**
+     * @return The value of {@code first [operator] second}, or {@code null} when it isn't known.
+     */
+    private Integer calculate(Operator operator, Element first, Element second,
+                              Map<String, Integer> values) {
+        Integer left = evaluate(first, values);
+        Integer right = evaluate(second, values);
+        if (left == null || right == null) {
+            return null;
+        }
+
+        long result;
+        switch (operator) {
+            case ADDITION:
+            case ADD_ASSIGN:
+                result = (long)left + right;
+                break;
+            case SUBSTRACTION:
+            case SUBSTRACT_ASSIGN:
+                result = (long)left - right;
+                break;
+            case MULTIPLICATION:
+            case MULTIPLY_ASSIGN:
+                result = (long)left * right;
+                break;
+            // Leave the rounding of negative numbers and dividing by zero to the processor.
+            case INTEGER_DIVISION:
+            case DIVIDE_ASSIGN:
+                if (left < 0 || right <= 0) {
+                    return null;
+                }
+                result = left / right;
+                break;
+            case REMAINDER:
+            case REMAINDER_ASSIGN:
+                if (left < 0 || right <= 0) {
+                    return null;
+                }
+                result = left % right;
+                break;
+            case BITWISE_AND:
+            case BITWISE_AND_ASSIGN:
+                result = left & right;
+                break;
+            case BITWISE_OR:
+            case BITWISE_OR_ASSIGN:
+                result = left | right;
+                break;
+            case BITWISE_XOR:
+            case BITWISE_XOR_ASSIGN:
+                result = left ^ right;
+                break;
+            default:
+                return null;
+        }
+
+        return result < MIN_WORD || result > MAX_WORD ? null : (int)result;
+    }
+
+    /**
+     * Applies the algebraic identities {@code x + 0 = x}, {@code x - 0 = x}, {@code x * 1 = x},
+     * {@code x * 0 = 0}, {@code x & 0 = 0}, {@code x | 0 = x}, {@code x ^ 0 = x} and {@code x ^ x
+     * = 0}.
+     *
+     * @return The element with the same value as the operation, or {@code null} when no identity
+     * applies.
+     */
+    private Element identity(Operator operator, Element first, Element second,
+                             Map<String, Integer> values) {
+        Integer left = evaluate(first, values);
+        Integer right = evaluate(second, values);
+        boolean commutative = !operator.equals(Operator.SUBSTRACTION) &&
+                !operator.equals(Operator.SUBSTRACT_ASSIGN);
+
+        // Keep the operand that isn't known in front.
+        if (left != null && right == null && commutative && !isAssignment(operator)) {
+            return identity(operator, second, first, values);
+        }
+        if (right == null) {
+            return first instanceof Variable && second instanceof Variable &&
+                    ((Variable)first).getName().equals(((Variable)second).getName()) &&
+                    (operator == Operator.BITWISE_XOR || operator == Operator.BITWISE_XOR_ASSIGN) ?
+                    Number.ZERO : null;
+        }
+
+        switch (operator) {
+            case ADDITION:
+            case ADD_ASSIGN:
+            case SUBSTRACTION:
+            case SUBSTRACT_ASSIGN:
+            case BITWISE_OR:
+            case BITWISE_OR_ASSIGN:
+            case BITWISE_XOR:
+            case BITWISE_XOR_ASSIGN:
+                return right == 0 && isOperand(first) ? first : null;
+            case MULTIPLICATION:
+            case MULTIPLY_ASSIGN:
+                if (right == 1) {
+                    return isOperand(first) ? first : null;
+                }
+                return right == 0 && !calls(first) ? Number.ZERO : null;
+            case BITWISE_AND:
+            case BITWISE_AND_ASSIGN:
+                return right == 0 && !calls(first) ? Number.ZERO : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return {@code true} if the operator calculates a value that can be folded, including
+     * assignments like {@code +=}.
+     */
+    private static boolean isCalculation(Operator operator) {
+        return operator.getType() == Operator.OperatorType.ARITHMETIC ||
+                operator.getType() == Operator.OperatorType.BITWISE || isAssignment(operator);
+    }
+
+    /**
+     * @return {@code true} if the operator calculates a value and assigns it, like {@code +=}.
+     */
+    private static boolean isAssignment(Operator operator) {
+        return operator.getType() == Operator.OperatorType.ASSIGNMENT && !operator.isAssignOperator();
+    }
+
+    /**
+     * @return {@code true} if the element can be loaded with a single instruction.
+     */
+    private static boolean isOperand(Element element) {
+        return element instanceof Variable || (element instanceof Value &&
+                !(element instanceof FunctionCall) && !(element instanceof GlobalArrayRead));
+    }
+
+    /**
+     * @return {@code true} if calculating the element calls a function.
+     */
+    static boolean calls(Element element) {
+        if (element instanceof FunctionCall) {
+            return true;
+        }
+        if (element instanceof Operation) {
+            Operation operation = (Operation)element;
+            return calls(operation.getFirstElement()) ||
+                    (operation.getSecondElement().isPresent() && calls(operation.getSecondElement().get()));
+        }
+
+        return !isOperand(element) && !(element instanceof GlobalArrayRead);
+    }
+
+    /**
+     * @return {@code true} if the name refers to a global variable, also when a local variable
+     * has the same name, see {@link SymbolTable#operand(String)}.
+     */
+    private boolean isGlobal(String name) {
+        return program.getGlobalVariable(name).isPresent();
+    }
+
+    /**
+     * Finds the known values in a block.
+     *
+     * @param in
+     *         The local variables in scope, by name, with their value or {@code null} when the
+     *         value isn't known.
+     * @return The local variables after the block, or {@code null} when the block never ends
+     * because it always returns or continues.
+     */
+    private Map<String, Integer> analyse(Block block, Map<String, Integer> in) {
+        Map<String, Integer> values = new HashMap<>(in);
+
+        // The variables that are declared in the block, and whether they hide an earlier one.
+        Map<String, Boolean> declared = new HashMap<>();
+        Map<String, Integer> hidden = new HashMap<>();
+
+        for (Element element : block.getContents()) {
+            record(element, values);
+
+            if (element instanceof Return || element instanceof Continue) {
+                return null;
+            }
+
+            if (element instanceof Declaration &&
+                    ((Declaration)element).getScope() == Declaration.DeclarationScope.LOCAL &&
+                    !isGlobal(((Declaration)element).getVariable().getName())) {
+                Declaration declaration = (Declaration)element;
+                String name = declaration.getVariable().getName();
+                if (!declared.containsKey(name)) {
+                    declared.put(name, values.containsKey(name));
+                    hidden.put(name, values.get(name));
+                }
+
+                Integer value = declaration instanceof DeclarationFromGlobalArray ? null :
+                        evaluate(declaration.getDeclaration(), values);
+                values.put(name, value);
+            }
+            else if (element instanceof Operation) {
+                assign((Operation)element, values);
+            }
+            else if (element instanceof IfElse) {
+                IfElse ifElse = (IfElse)element;
+                values = meet(analyse(ifElse.getIfBlock(), values), analyse(ifElse.getElseBlock(), values));
+                if (values == null) {
+                    return null;
+                }
+            }
+            else if (element instanceof Loop) {
+                analyseLoop((Loop)element, values);
+            }
+            else if (element instanceof Inject) {
+                forget(values);
+            }
+        }
+
+        // Variables that are declared in the block end with it.
+        for (Map.Entry<String, Boolean> entry : declared.entrySet()) {
+            if (entry.getValue()) {
+                values.put(entry.getKey(), hidden.get(entry.getKey()));
+            }
+            else {
+                values.remove(entry.getKey());
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Finds the known values in a loop, and forgets the values of the variables that the loop
+     * changes.
+     */
+    private void analyseLoop(Loop loop, Map<String, Integer> values) {
+        Set<String> changed = new HashSet<>();
+        if (assigned(loop.getContent(), changed)) {
+            for (String name : changed) {
+                if (values.containsKey(name)) {
+                    values.put(name, null);
+                }
+            }
+        }
+        else {
+            forget(values);
+        }
+
+        // The counter only exists in the loop.
+        String counter = loop.getBase().getName();
+        Map<String, Integer> body = new HashMap<>(values);
+        body.put(counter, null);
+        analyse(loop.getContent(), body);
+
+        if (values.containsKey(counter) && changed.contains(counter)) {
+            values.put(counter, null);
+        }
+    }
+
+    /**
+     * Updates the value of the variable that an assignment changes.
+     */
+    private void assign(Operation operation, Map<String, Integer> values) {
+        if (!operation.getOperator().isPresent() || !operation.getSecondElement().isPresent()) {
+            return;
+        }
+
+        Operator operator = operation.getOperator().get();
+        Element first = operation.getFirstElement();
+        Element second = operation.getSecondElement().get();
+
+        // The compiler swaps the elements of =: in place, so both might be the variable.
+        if (operator == Operator.ASSIGN_ALT_RIGHT) {
+            forget(first, values);
+            forget(second, values);
+            return;
+        }
+
+        if (!(first instanceof Variable) || !values.containsKey(((Variable)first).getName())) {
+            return;
+        }
+
+        String name = ((Variable)first).getName();
+        if (operator.isAssignOperator()) {
+            values.put(name, evaluate(second, values));
+        }
+        else if (operator.getType() == Operator.OperatorType.ASSIGNMENT) {
+            Element folded = fold(operation, values);
+            values.put(name, folded instanceof Number ? ((Number)folded).getIntValue() : null);
+        }
+    }
+
+    /**
+     * Stores the known values before a statement.
+     */
+    private void record(Element statement, Map<String, Integer> values) {
+        Map<String, Integer> snapshot = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : values.entrySet()) {
+            if (entry.getValue() != null) {
+                snapshot.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        if (!snapshot.isEmpty()) {
+            known.put(statement, snapshot);
+        }
+    }
+
+    /**
+     * @return The values that are known after both blocks, where {@code null} is a block that
+     * never ends.
+     */
+    private static Map<String, Integer> meet(Map<String, Integer> first, Map<String, Integer> second) {
+        if (first == null || second == null) {
+            return first == null ? second : first;
+        }
+
+        Map<String, Integer> values = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : first.entrySet()) {
+            if (second.containsKey(entry.getKey())) {
+                Integer value = entry.getValue();
+                values.put(entry.getKey(), Objects.equals(value, second.get(entry.getKey())) ? value : null);
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Forgets the values of all variables.
+     */
+    private static void forget(Map<String, Integer> values) {
+        values.replaceAll((name, value) -> null);
+    }
+
+    /**
+     * Forgets the value of the element when it is a variable.
+     */
+    private static void forget(Element element, Map<String, Integer> values) {
+        if (element instanceof Variable && values.containsKey(((Variable)element).getName())) {
+            values.put(((Variable)element).getName(), null);
+        }
+    }
+
+    /**
+     * Adds the names of all variables that the block assigns a value to.
+     *
+     * @return {@code false} if the block injects assembly, which might change any variable,
+     * {@code true} otherwise.
+     */
+    private static boolean assigned(Block block, Set<String> names) {
+        for (Element element : block.getContents()) {
+            if (element instanceof Inject) {
+                return false;
+            }
+
+            if (element instanceof IfElse) {
+                IfElse ifElse = (IfElse)element;
+                if (!assigned(ifElse.getIfBlock(), names) || !assigned(ifElse.getElseBlock(), names)) {
+                    return false;
+                }
+            }
+            else if (element instanceof Loop) {
+                if (!assigned(((Loop)element).getContent(), names)) {
+                    return false;
+                }
+            }
+            else if (element instanceof Operation && ((Operation)element).getOperator().isPresent()) {
+                Operation operation = (Operation)element;
+                if (operation.getOperator().get().getType() != Operator.OperatorType.ASSIGNMENT) {
+                    continue;
+                }
+
+                for (Element target : Arrays.asList(operation.getFirstElement(),
+                        operation.getSecondElement().orElse(null))) {
+                    if (target instanceof Variable) {
+                        names.add(((Variable)target).getName());
+                    }
+                    if (operation.getOperator().get() != Operator.ASSIGN_ALT_RIGHT) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+}
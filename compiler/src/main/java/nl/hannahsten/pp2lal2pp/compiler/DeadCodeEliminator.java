@@ -0,0 +1,206 @@
+package nl.hannahsten.pp2lal2pp.compiler;
+
+import nl.hannahsten.pp2lal2pp.lang.Number;
+import nl.hannahsten.pp2lal2pp.lang.*;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the functions, global variables, global arrays and API functions that a program never
+ * uses, and removes them from the program.
+ * <p>
+ * The functions that are used are the main function, all interrupts, and every function they
+ * call, directly or through other functions. Global variables and arrays are only used when one
+ * of these functions reads them: a global that only gets values assigned doesn't change what the
+ * program does. Every word in injected assembly counts as used, because the compiler can't tell
+ * what the assembly does with it.
+ * <p>
+ * Functions that are inlined are only kept on their own when something else than a call refers
+ * to them, but everything their body uses is kept.
+ *
+ * @author Hannah Schellekens
+ */
+public class DeadCodeEliminator {
+
+    /**
+     * Matches the names in injected assembly.
+     */
+    private static final Pattern NAME = Pattern.compile("[A-Za-z_]\\w*");
+
+    private final Program program;
+
+    /**
+     * All functions that can be reached from the main function or an interrupt.
+     */
+    private final Set<Function> functions = new HashSet<>();
+
+    /**
+     * All inlined functions that are called by a reachable function.
+     */
+    private final Set<Function> inlined = new HashSet<>();
+
+    /**
+     * The functions whose body has been looked at or will be looked at.
+     */
+    private final Set<Function> visited = new HashSet<>();
+
+    /**
+     * The functions that have been reached, but not looked at yet.
+     */
+    private final Deque<Function> worklist = new ArrayDeque<>();
+
+    /**
+     * The names of all variables, arrays and functions that are read or called.
+     */
+    private final Set<String> used = new HashSet<>();
+
+    /**
+     * Finds everything the given program uses.
+     */
+    public DeadCodeEliminator(Program program) {
+        this.program = program;
+
+        reach(program.getMainFunction());
+        for (Function function : program.getFunctions()) {
+            if (function instanceof Interrupt) {
+                reach(function);
+            }
+        }
+
+        while (!worklist.isEmpty()) {
+            visit(worklist.pop().getContents());
+        }
+    }
+
+    /**
+     * Removes everything that is never used from the program.
+     */
+    public void eliminate() {
+        program.removeUnused(functions, inlined, used);
+    }
+
+    private void reach(Function function) {
+        functions.add(function);
+        if (visited.add(function)) {
+            worklist.push(function);
+        }
+    }
+
+    /**
+     * Marks the name of a called function as used. Inlined functions don't have to be reached,
+     * but the body is looked at because it ends up in the caller.
+     */
+    private void call(String name) {
+        Optional<Function> function = program.getFunction(name);
+        if (!function.isPresent() || !program.isInlined(function.get())) {
+            use(name);
+            return;
+        }
+
+        used.add(name);
+        inlined.add(function.get());
+        if (visited.add(function.get())) {
+            worklist.push(function.get());
+        }
+    }
+
+    /**
+     * Marks the name as used. Function names also come from the arguments of {@code
+     * enableTimerInterrupt} and from injected assembly, so every name might be a function.
+     */
+    private void use(String name) {
+        used.add(name);
+        program.getFunction(name).ifPresent(this::reach);
+    }
+
+    /**
+     * Looks at all statements in the block and its nested blocks.
+     */
+    private void visit(Block block) {
+        for (Element element : block.getContents()) {
+            if (element instanceof IfElse) {
+                IfElse ifElse = (IfElse)element;
+                read(ifElse.getExpression());
+                visit(ifElse.getIfBlock());
+                visit(ifElse.getElseBlock());
+            }
+            else if (element instanceof Loop) {
+                // The counter is read every iteration.
+                Loop loop = (Loop)element;
+                use(loop.getBase().getName());
+                read(loop.getFrom());
+                read(loop.getTo());
+                read(loop.getStep());
+                visit(loop.getContent());
+            }
+            else if (element instanceof Inject) {
+                Matcher matcher = NAME.matcher(((Inject)element).getContents());
+                while (matcher.find()) {
+                    use(matcher.group());
+                }
+            }
+            else {
+                read(element);
+            }
+        }
+    }
+
+    /**
+     * Marks everything the element reads or calls as used.
+     */
+    private void read(Element element) {
+        if (element == null) {
+            return;
+        }
+
+        if (element instanceof FunctionCall) {
+            FunctionCall call = (FunctionCall)element;
+            call(call.getCalled());
+            for (Variable argument : call.getArguments()) {
+                read(argument);
+            }
+        }
+        else if (element instanceof Variable) {
+            use(((Variable)element).getName());
+        }
+        else if (element instanceof GlobalArrayIndexedAssignment) {
+            GlobalArrayIndexedAssignment assignment = (GlobalArrayIndexedAssignment)element;
+            read(assignment.getAccess());
+            read(assignment.getSecondElement().orElse(null));
+        }
+        else if (element instanceof Operation) {
+            // The variable that gets a value is not read, except by operators like +=.
+            Operation operation = (Operation)element;
+            boolean assigns = operation.getOperator().isPresent() &&
+                    operation.getOperator().get().isAssignOperator() &&
+                    operation.getOperator().get() != Operator.ASSIGN_ALT_RIGHT;
+            if (!assigns) {
+                read(operation.getFirstElement());
+            }
+            read(operation.getSecondElement().orElse(null));
+        }
+        else if (element instanceof DeclarationFromGlobalArray) {
+            read(((DeclarationFromGlobalArray)element).getArrayRead());
+        }
+        else if (element instanceof Declaration) {
+            read(((Declaration)element).getDeclaration());
+        }
+        else if (element instanceof GlobalArrayRead) {
+            GlobalArrayRead arrayRead = (GlobalArrayRead)element;
+            use(arrayRead.getArray().getName());
+            read(arrayRead.getAccess());
+        }
+        else if (element instanceof ArrayAccess) {
+            read(((ArrayAccess)element).getAccessingVariable());
+            read(((ArrayAccess)element).getAccessingIndex());
+        }
+        else if (element instanceof ElementReturn) {
+            read(((ElementReturn)element).getElement());
+        }
+        else if (element instanceof Value && !(element instanceof Number)) {
+            use(((Value)element).stringRepresentation());
+        }
+    }
+}
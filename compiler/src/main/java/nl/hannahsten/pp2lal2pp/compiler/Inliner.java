@@ -0,0 +1,139 @@
+package nl.hannahsten.pp2lal2pp.compiler;
+
+import nl.hannahsten.pp2lal2pp.lang.*;
+
+import java.util.*;
+
+/**
+ * Chooses the functions whose calls are replaced by the body of the function, so the arguments
+ * don't have to be pushed and there is no jump to the function and back.
+ * <p>
+ * Functions that are declared with {@code inline} are always inlined, and so are small functions
+ * that don't call other functions of the program. Functions are never inlined when they would
+ * end up in their own body, and neither are functions that use {@code continue} or injected
+ * assembly, as those depend on having their own place on the stack.
+ *
+ * @author Hannah Schellekens
+ */
+public class Inliner {
+
+    /**
+     * The maximum amount of statements of functions that are inlined without {@code inline}.
+     */
+    public static final int SIZE_LIMIT = 3;
+
+    private final Program program;
+
+    /**
+     * The functions to inline, in the order of the program.
+     */
+    private final Set<Function> functions = new LinkedHashSet<>();
+
+    /**
+     * Chooses the functions of the given program to inline.
+     */
+    public Inliner(Program program) {
+        this.program = program;
+
+        for (Function function : program.getFunctions()) {
+            if (!(function instanceof Interrupt) && !function.getName().equals("main") &&
+                    !Compiler.contains(function.getContents(), Continue.class) &&
+                    !Compiler.contains(function.getContents(), Inject.class) &&
+                    (function.isInline() || isSmallLeaf(function))) {
+                functions.add(function);
+            }
+        }
+
+        // A function that calls itself can't be replaced by its body.
+        functions.removeIf(function -> reaches(function, function, new HashSet<>()));
+    }
+
+    /**
+     * @return The functions whose calls must be replaced by their body.
+     */
+    public Set<Function> getFunctions() {
+        return Collections.unmodifiableSet(functions);
+    }
+
+    /**
+     * @return {@code true} if the function doesn't call other functions of the program and has
+     * at most {@link #SIZE_LIMIT} statements.
+     */
+    private boolean isSmallLeaf(Function function) {
+        List<FunctionCall> calls = new ArrayList<>();
+        int size = size(function.getContents(), calls);
+        return size <= SIZE_LIMIT &&
+                calls.stream().noneMatch(call -> program.getFunction(call.getCalled()).isPresent());
+    }
+
+    /**
+     * @return {@code true} if the function calls the target through functions that are inlined.
+     */
+    private boolean reaches(Function function, Function target, Set<Function> visited) {
+        List<FunctionCall> calls = new ArrayList<>();
+        size(function.getContents(), calls);
+
+        for (FunctionCall call : calls) {
+            Optional<Function> called = program.getFunction(call.getCalled());
+            if (!called.isPresent() || !functions.contains(called.get())) {
+                continue;
+            }
+            if (called.get() == target) {
+                return true;
+            }
+            if (visited.add(called.get()) && reaches(called.get(), target, visited)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Counts the statements in the block and its nested blocks, not counting comments, and
+     * collects all calls in them.
+     */
+    private static int size(Block block, List<FunctionCall> calls) {
+        int size = 0;
+        for (Element element : block.getContents()) {
+            if (element instanceof Comment) {
+                continue;
+            }
+
+            size++;
+            collectCalls(element, calls);
+            if (element instanceof IfElse) {
+                size += size(((IfElse)element).getIfBlock(), calls);
+                size += size(((IfElse)element).getElseBlock(), calls);
+            }
+            else if (element instanceof Loop) {
+                size += size(((Loop)element).getContent(), calls);
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Adds the calls in the statement to the list, without looking into nested blocks.
+     */
+    private static void collectCalls(Element element, List<FunctionCall> calls) {
+        if (element instanceof FunctionCall) {
+            calls.add((FunctionCall)element);
+        }
+        else if (element instanceof Operation) {
+            Operation operation = (Operation)element;
+            collectCalls(operation.getFirstElement(), calls);
+            operation.getSecondElement().ifPresent(second -> collectCalls(second, calls));
+        }
+        else if (element instanceof Declaration && !(element instanceof DeclarationFromGlobalArray)) {
+            collectCalls(((Declaration)element).getDeclaration(), calls);
+        }
+        else if (element instanceof IfElse) {
+            collectCalls(((IfElse)element).getExpression(), calls);
+        }
+        else if (element instanceof ElementReturn) {
+            collectCalls(((ElementReturn)element).getElement(), calls);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package nl.hannahsten.pp2lal2pp.compiler;
+
+import nl.hannahsten.pp2lal2pp.util.Template;
+
+/**
+ * A single line of generated assembly: an optional label, an instruction with up to two
+ * operands and an optional comment.
+ * <p>
+ * Assembly that doesn't come from the compiler itself is stored as text: lines written by the
+ * programmer with {@link Opcode#INJECT} and filled in templates with {@link Opcode#TEXT}.
+ *
+ * @author Hannah Schellekens
+ */
+public class Instruction {
+
+    /**
+     * The name of the label in front of the instruction without colon, or {@code null} if there
+     * is no label.
+     */
+    private final String label;
+
+    private final Opcode opcode;
+
+    /**
+     * The first operand, or {@code null} if there is none.
+     */
+    private final Operand first;
+
+    /**
+     * The second operand, or {@code null} if there is none.
+     */
+    private final Operand second;
+
+    /**
+     * The comment without the ";", or {@code null} if there is none.
+     */
+    private final String comment;
+
+    /**
+     * The line or text for {@link Opcode#INJECT} and {@link Opcode#TEXT}, {@code null} for all
+     * other opcodes.
+     */
+    private final String text;
+
+    private Instruction(String label, Opcode opcode, Operand first, Operand second,
+                        String comment, String text) {
+        this.label = label;
+        this.opcode = opcode;
+        this.first = first;
+        this.second = second;
+        this.comment = comment;
+        this.text = text;
+    }
+
+    public Instruction(String label, Opcode opcode, Operand first, Operand second,
+                       String comment) {
+        this(label, opcode, first, second, comment, null);
+    }
+
+    /**
+     * Creates a line of assembly written by the programmer.
+     */
+    public static Instruction inject(String label, String line, String comment) {
+        return new Instruction(label, Opcode.INJECT, null, null, comment, line);
+    }
+
+    /**
+     * Creates text that is copied to the output as is. When there is a label, it replaces the
+     * spaces at the start of the text, or all of them but one when the label is longer.
+     */
+    public static Instruction text(String label, String text) {
+        return new Instruction(label, Opcode.TEXT, null, null, null, text);
+    }
+
+    /**
+     * @return A copy of this instruction with the given label.
+     */
+    public Instruction withLabel(String label) {
+        return new Instruction(label, opcode, first, second, comment, text);
+    }
+
+    /**
+     * @return A copy of this instruction with the given comment.
+     */
+    public Instruction withComment(String comment) {
+        return new Instruction(label, opcode, first, second, comment, text);
+    }
+
+    /**
+     * @return A copy of this instruction with the given operands.
+     */
+    public Instruction withOperands(Operand first, Operand second) {
+        return new Instruction(label, opcode, first, second, comment, text);
+    }
+
+    /**
+     * Appends the assembly of the instruction, including a line break for instructions.
+     */
+    public void render(StringBuilder out) {
+        if (opcode == Opcode.TEXT) {
+            if (label == null || !startsWithSpaces(text, 1)) {
+                out.append(text);
+            }
+            else if (!startsWithSpaces(text, label.length() + 1)) {
+                int start = 0;
+                while (start < text.length() && text.charAt(start) == ' ') {
+                    start++;
+                }
+                out.append(label).append(": ").append(text, start, text.length());
+            }
+            else {
+                out.append(label).append(':').append(text, label.length() + 1, text.length());
+            }
+            return;
+        }
+
+        Template.appendStatement(out,
+                label == null ? "" : label + ":",
+                opcode == Opcode.INJECT ? text : opcode.name(),
+                first == null ? "" : first.toString(),
+                second == null ? "" : second.toString(),
+                comment
+        );
+        out.append("\n");
+    }
+
+    private static boolean startsWithSpaces(String text, int count) {
+        if (text.length() < count) {
+            return false;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (text.charAt(i) != ' ') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    public Operand getFirst() {
+        return first;
+    }
+
+    public Operand getSecond() {
+        return second;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        render(sb);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package nl.hannahsten.pp2lal2pp.compiler;
+
+/**
+ * All kinds of lines the compiler can generate: the PP2 instructions and two pseudo
+ * instructions for assembly that doesn't come from the compiler itself.
+ *
+ * @author Hannah Schellekens
+ */
+public enum Opcode {
+
+    LOAD,
+    STOR,
+    ADD,
+    SUB,
+    MULS,
+    DIV,
+    MOD,
+    AND,
+    OR,
+    XOR,
+    CMP,
+    BRA,
+    BRS,
+    BEQ,
+    BNE,
+    BLT,
+    BGT,
+    BLE,
+    BGE,
+    PUSH,
+    PULL,
+    RTS,
+    RTE,
+    SETI,
+    CLRI,
+
+    /**
+     * A line of assembly written by the programmer, which is placed in the instruction column.
+     */
+    INJECT,
+
+    /**
+     * Text that is copied to the output as is, like templates and comments.
+     */
+    TEXT;
+
+    /**
+     * @return {@code true} if this is a branch instruction that can jump to a label, {@code
+     * false} otherwise.
+     */
+    public boolean isBranch() {
+        switch (this) {
+            case BRA:
+            case BRS:
+            case BEQ:
+            case BNE:
+            case BLT:
+            case BGT:
+            case BLE:
+            case BGE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return The conditional branch that jumps exactly when this one doesn't.
+     * @throws IllegalStateException
+     *         if this is no conditional branch.
+     */
+    public Opcode inverse() throws IllegalStateException {
+        switch (this) {
+            case BEQ:
+                return BNE;
+            case BNE:
+                return BEQ;
+            case BLT:
+                return BGE;
+            case BGE:
+                return BLT;
+            case BGT:
+                return BLE;
+            case BLE:
+                return BGT;
+            default:
+                throw new IllegalStateException(this + " is no conditional branch.");
+        }
+    }
+}
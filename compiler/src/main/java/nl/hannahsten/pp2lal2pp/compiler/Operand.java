@@ -0,0 +1,207 @@
+package nl.hannahsten.pp2lal2pp.compiler;
+
+import nl.hannahsten.pp2lal2pp.lang.Number;
+import nl.hannahsten.pp2lal2pp.lang.NumberConstant;
+
+import java.util.Objects;
+
+/**
+ * An operand of an {@link Instruction}. {@link Object#toString()} gives the operand as it is
+ * written in assembly.
+ *
+ * @author Hannah Schellekens
+ */
+public interface Operand {
+
+    /**
+     * @return The operand for the value of the given number, or its name for number constants.
+     */
+    static Operand of(Number number) {
+        if (number instanceof NumberConstant) {
+            return new Symbol(((NumberConstant)number).getName());
+        }
+
+        return new Immediate(number.getIntValue());
+    }
+
+    /**
+     * A number that is used as is, e.g. {@code 5}.
+     */
+    final class Immediate implements Operand {
+
+        private final int value;
+
+        public Immediate(int value) {
+            this.value = value;
+        }
+
+        public int getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Immediate && ((Immediate)o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(value);
+        }
+    }
+
+    /**
+     * A name that is resolved by the assembler: a label, a function or a constant, e.g. {@code
+     * IOAREA}.
+     */
+    final class Symbol implements Operand {
+
+        private final String name;
+
+        public Symbol(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Symbol && ((Symbol)o).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * A location in the global data segment, e.g. {@code [GB+name]} or {@code [GB+name+3]}.
+     */
+    final class Global implements Operand {
+
+        /**
+         * The name of the global variable or array.
+         */
+        private final String name;
+
+        /**
+         * The offset from the start of the array, or {@code null} if there is none.
+         */
+        private final Operand offset;
+
+        public Global(String name, Operand offset) {
+            this.name = name;
+            this.offset = offset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Operand getOffset() {
+            return offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Global)) {
+                return false;
+            }
+
+            Global global = (Global)o;
+            return global.name.equals(name) && Objects.equals(global.offset, offset);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, offset);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + Register.GLOBAL_BASE + "+" + name + (offset == null ? "" : "+" + offset) + "]";
+        }
+    }
+
+    /**
+     * A location on the stack relative to the stack pointer, e.g. {@code [SP+2]}.
+     */
+    final class Stack implements Operand {
+
+        private final int offset;
+
+        public Stack(int offset) {
+            this.offset = offset;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Stack && ((Stack)o).offset == offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return offset;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + Register.STACK_POINTER + "+" + offset + "]";
+        }
+    }
+
+    /**
+     * A location that is the sum of two registers, e.g. {@code [GB+R2]}.
+     */
+    final class Indexed implements Operand {
+
+        private final Register base;
+
+        private final Register index;
+
+        public Indexed(Register base, Register index) {
+            this.base = base;
+            this.index = index;
+        }
+
+        public Register getBase() {
+            return base;
+        }
+
+        public Register getIndex() {
+            return index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Indexed && ((Indexed)o).base == base && ((Indexed)o).index == index;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(base, index);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + base + "+" + index + "]";
+        }
+    }
+}
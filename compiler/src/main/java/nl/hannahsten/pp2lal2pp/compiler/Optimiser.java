@@ -0,0 +1,324 @@
+package nl.hannahsten.pp2lal2pp.compiler;
+
+import nl.hannahsten.pp2lal2pp.lang.Program;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The optimisations to apply while compiling a program, together with statistics about what they
+ * did.
+ * <p>
+ * One optimiser can be shared by all compilers of a compilation, also on multiple threads.
+ * Functions that are taken from a {@link CodeCache} are not counted in the statistics.
+ *
+ * @author Hannah Schellekens
+ */
+public class Optimiser {
+
+    /**
+     * The default maximum amount of iterations of loops that are unrolled.
+     */
+    public static final int DEFAULT_UNROLL_LIMIT = 4;
+
+    /**
+     * The optimisations to apply.
+     */
+    private final Set<Optimisation> optimisations;
+
+    /**
+     * The peephole optimiser, or {@code null} when {@link Optimisation#PEEPHOLE} is disabled.
+     */
+    private final Peephole peephole;
+
+    /**
+     * The maximum amount of iterations of loops that are unrolled.
+     */
+    private final int unrollLimit;
+
+    /**
+     * The amount of functions that have been left out because they are never called.
+     */
+    private final AtomicInteger removedFunctions = new AtomicInteger();
+
+    /**
+     * The amount of global variables and arrays that have been left out because they are never
+     * read.
+     */
+    private final AtomicInteger removedGlobals = new AtomicInteger();
+
+    /**
+     * The amount of API functions that have been left out because they are never called.
+     */
+    private final AtomicInteger removedApiFunctions = new AtomicInteger();
+
+    /**
+     * The amount of calls that have been replaced by the body of the called function.
+     */
+    private final AtomicInteger inlined = new AtomicInteger();
+
+    /**
+     * The amount of calls at the end of a function that have been replaced by a jump.
+     */
+    private final AtomicInteger tailCalls = new AtomicInteger();
+
+    /**
+     * The amount of operations that have been calculated while compiling.
+     */
+    private final AtomicInteger folded = new AtomicInteger();
+
+    /**
+     * The amount of local variables that have been compiled.
+     */
+    private final AtomicInteger locals = new AtomicInteger();
+
+    /**
+     * The amount of local variables that have been kept in a register.
+     */
+    private final AtomicInteger registerLocals = new AtomicInteger();
+
+    /**
+     * Creates an optimiser that applies all optimisations and all peephole rules.
+     */
+    public Optimiser() {
+        this(EnumSet.allOf(Optimisation.class), EnumSet.allOf(Peephole.Rule.class));
+    }
+
+    /**
+     * @param rules
+     *         The rules of the peephole optimiser, when {@link Optimisation#PEEPHOLE} is enabled.
+     */
+    public Optimiser(Set<Optimisation> optimisations, Set<Peephole.Rule> rules) {
+        this(optimisations, rules, DEFAULT_UNROLL_LIMIT);
+    }
+
+    /**
+     * @param rules
+     *         The rules of the peephole optimiser, when {@link Optimisation#PEEPHOLE} is enabled.
+     * @param unrollLimit
+     *         The maximum amount of iterations of loops that are unrolled, when {@link
+     *         Optimisation#UNROLL} is enabled.
+     */
+    public Optimiser(Set<Optimisation> optimisations, Set<Peephole.Rule> rules, int unrollLimit) {
+        this.optimisations = optimisations.isEmpty() ? EnumSet.noneOf(Optimisation.class) :
+                EnumSet.copyOf(optimisations);
+        this.peephole = isEnabled(Optimisation.PEEPHOLE) ? new Peephole(rules) : null;
+        this.unrollLimit = unrollLimit;
+    }
+
+    /**
+     * @return {@code true} if the optimisation must be applied, {@code false} otherwise.
+     */
+    public boolean isEnabled(Optimisation optimisation) {
+        return optimisations.contains(optimisation);
+    }
+
+    /**
+     * @return The peephole optimiser, or {@code null} when peephole optimisation is disabled.
+     */
+    public Peephole getPeephole() {
+        return peephole;
+    }
+
+    /**
+     * @return {@code true} if a loop with the given amount of iterations must be unrolled.
+     */
+    public boolean isUnrolled(int iterations) {
+        return isEnabled(Optimisation.UNROLL) && iterations <= unrollLimit;
+    }
+
+    /**
+     * Applies the optimisations that change the whole program, before the global variables are
+     * given their place in memory.
+     */
+    public void optimise(Program program) {
+        if (isEnabled(Optimisation.INLINE)) {
+            program.setInlined(new Inliner(program).getFunctions());
+        }
+        if (!isEnabled(Optimisation.DEAD_CODE)) {
+            return;
+        }
+
+        int functions = program.getFunctions().size();
+        int globals = program.getGlobalVariables().size() + program.getGlobalArrays().size();
+        int apiFunctions = program.getApiFunctions().size();
+
+        new DeadCodeEliminator(program).eliminate();
+
+        removedFunctions.addAndGet(functions - program.getFunctions().size());
+        removedGlobals.addAndGet(globals - program.getGlobalVariables().size() - program.getGlobalArrays().size());
+        removedApiFunctions.addAndGet(apiFunctions - program.getApiFunctions().size());
+    }
+
+    /**
+     * Registers that a call has been replaced by the body of the called function.
+     */
+    void countInlined() {
+        inlined.incrementAndGet();
+    }
+
+    /**
+     * Registers that a call at the end of a function has been replaced by a jump.
+     */
+    void countTailCall() {
+        tailCalls.incrementAndGet();
+    }
+
+    /**
+     * Registers that an operation has been calculated while compiling.
+     */
+    void countFolded() {
+        folded.incrementAndGet();
+    }
+
+    /**
+     * Registers how many local variables a compiled function has, and how many of them are kept
+     * in a register.
+     */
+    void countLocals(int count, int inRegisters) {
+        locals.addAndGet(count);
+        registerLocals.addAndGet(inRegisters);
+    }
+
+    /**
+     * @return A description of everything that influences the optimised code, for the keys of
+     * the {@link CodeCache}.
+     */
+    String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Optimisation optimisation : optimisations) {
+            sb.append(optimisation.getName()).append(',');
+        }
+        sb.append(unrollLimit).append(',');
+
+        if (peephole != null) {
+            for (Peephole.Rule rule : peephole.getRules()) {
+                sb.append(rule.getName()).append(',');
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Prints what all optimisations have done.
+     */
+    public void printStatistics() {
+        if (isEnabled(Optimisation.DEAD_CODE)) {
+            System.out.println("Dead code elimination left out " + removedFunctions.get() + " functions, " +
+                    removedGlobals.get() + " global variables and arrays, and " +
+                    removedApiFunctions.get() + " API functions.");
+        }
+        if (isEnabled(Optimisation.INLINE)) {
+            System.out.println("Inlining replaced " + inlined.get() + " calls by the body of the called function.");
+        }
+        if (isEnabled(Optimisation.TAIL_CALLS)) {
+            System.out.println("Tail call optimisation replaced " + tailCalls.get() + " calls at the end of a function by a jump.");
+        }
+        if (isEnabled(Optimisation.CONSTANTS)) {
+            System.out.println("Constant folding calculated " + folded.get() + " operations while compiling.");
+        }
+        if (isEnabled(Optimisation.REGISTERS)) {
+            System.out.println("Register allocation kept " + registerLocals.get() + " of " +
+                    locals.get() + " local variables in registers.");
+        }
+
+        if (peephole != null) {
+            peephole.printStatistics();
+        }
+        else {
+            System.out.println();
+        }
+    }
+
+    /**
+     * All optimisations the compiler can apply.
+     */
+    public enum Optimisation {
+
+        /**
+         * Leaves out functions that are never called and global variables that are never read,
+         * see {@link DeadCodeEliminator}.
+         */
+        DEAD_CODE("dead-code", "leave out functions and global variables that are never used"),
+
+        /**
+         * Replaces calls to small functions and functions declared with {@code inline} by the
+         * body of the function, see {@link Inliner}.
+         */
+        INLINE("inline", "replace calls to small functions by their body"),
+
+        /**
+         * Replaces a call whose value is returned straight away by a jump that reuses the
+         * arguments of the function on the stack.
+         */
+        TAIL_CALLS("tail-calls", "jump to functions that are called at the end of a function"),
+
+        /**
+         * Calculates operations with values that are known at compile time, see {@link
+         * ConstantFolder}.
+         */
+        CONSTANTS("constants", "calculate values that are known at compile time"),
+
+        /**
+         * Keeps local variables in free registers instead of on the stack, see {@link
+         * RegisterAllocator}.
+         */
+        REGISTERS("registers", "keep local variables in registers"),
+
+        /**
+         * Lays out if-statements so the if-block directly follows the compare, without dummy
+         * instructions for the labels.
+         */
+        BRANCHES("branches", "let if-blocks follow the check of their condition"),
+
+        /**
+         * Repeats the body of loops with few iterations instead of looping.
+         */
+        UNROLL("unroll", "unroll loops with few iterations"),
+
+        /**
+         * Removes redundant instructions from compiled functions, see {@link Peephole}.
+         */
+        PEEPHOLE("peephole", "remove redundant instructions");
+
+        /**
+         * The name of the optimisation on the command line.
+         */
+        private final String name;
+
+        /**
+         * What the optimisation does.
+         */
+        private final String description;
+
+        Optimisation(String name, String description) {
+            this.name = name;
+            this.description = description;
+        }
+
+        /**
+         * Gets the optimisation with the given name.
+         *
+         * @return The optimisation, or {@code null} when there is no optimisation with the given
+         * name.
+         */
+        public static Optimisation forName(String name) {
+            for (Optimisation optimisation : values()) {
+                if (optimisation.name.equals(name)) {
+                    return optimisation;
+                }
+            }
+
+            return null;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+}
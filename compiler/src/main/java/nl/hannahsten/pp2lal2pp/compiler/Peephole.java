@@ -0,0 +1,408 @@
+package nl.hannahsten.pp2lal2pp.compiler;
+
+import nl.hannahsten.pp2lal2pp.util.Util;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Removes redundant instructions from compiled functions by looking at a few instructions at a
+ * time.
+ * <p>
+ * Every {@link Rule} looks at the instruction at a position and the ones right after it, and
+ * removes an instruction when that doesn't change what the program does. The rules are applied
+ * until none of them applies anymore. Lines written by the programmer and templates are never
+ * changed, and are assumed to use every register and the status flags.
+ * <p>
+ * One optimiser can be used by multiple threads at the same time. It counts how many
+ * instructions every rule has removed. Functions that are taken from a {@link CodeCache} are not
+ * counted again.
+ *
+ * @author Hannah Schellekens
+ */
+public class Peephole {
+
+    /**
+     * The comment of an instruction that continues the comment of the instruction above.
+     */
+    private static final String CONTINUATION = ">";
+
+    /**
+     * The rules to apply.
+     */
+    private final Set<Rule> rules;
+
+    /**
+     * For every rule, by ordinal, the amount of instructions it has removed.
+     */
+    private final AtomicIntegerArray eliminated = new AtomicIntegerArray(Rule.values().length);
+
+    /**
+     * Creates an optimiser that applies all rules.
+     */
+    public Peephole() {
+        this(EnumSet.allOf(Rule.class));
+    }
+
+    public Peephole(Set<Rule> rules) {
+        this.rules = rules.isEmpty() ? EnumSet.noneOf(Rule.class) : EnumSet.copyOf(rules);
+    }
+
+    /**
+     * Removes redundant instructions.
+     *
+     * @param instructions
+     *         The instructions of a single function.
+     * @return The optimised instructions.
+     */
+    public List<Instruction> optimise(List<Instruction> instructions) {
+        List<Instruction> code = new ArrayList<>(instructions);
+
+        int index = 0;
+        while (index < code.size()) {
+            boolean applied = false;
+            for (Rule rule : rules) {
+                if (rule.apply(code, index)) {
+                    eliminated.incrementAndGet(rule.ordinal());
+                    applied = true;
+                    break;
+                }
+            }
+
+            // A removed instruction can make the previous instruction match a rule.
+            index = applied ? Math.max(0, index - 1) : index + 1;
+        }
+
+        return code;
+    }
+
+    /**
+     * @return The rules that are applied.
+     */
+    public Set<Rule> getRules() {
+        return Collections.unmodifiableSet(rules);
+    }
+
+    /**
+     * @return The amount of instructions the given rule has removed so far.
+     */
+    public int getEliminated(Rule rule) {
+        return eliminated.get(rule.ordinal());
+    }
+
+    /**
+     * Prints how many instructions every rule has removed.
+     */
+    public void printStatistics() {
+        int total = 0;
+        for (Rule rule : rules) {
+            total += getEliminated(rule);
+        }
+
+        System.out.println("Peephole optimisation removed " + total + " instructions:");
+        for (Rule rule : rules) {
+            String count = Integer.toString(getEliminated(rule));
+            System.out.println("    " + pad(rule.getName(), 20) + pad(count, 8) + rule.getDescription());
+        }
+        System.out.println();
+    }
+
+    private static String pad(String string, int length) {
+        return string + Util.makeString(" ", length - string.length());
+    }
+
+    /**
+     * Removes the instruction at the given position. When the next instruction continues its
+     * comment, the comment is moved to the next instruction.
+     */
+    private static void remove(List<Instruction> code, int index) {
+        Instruction removed = code.remove(index);
+        Instruction next = at(code, index);
+
+        if (next != null && removed.getComment() != null && CONTINUATION.equals(next.getComment())) {
+            code.set(index, next.withComment(removed.getComment()));
+        }
+    }
+
+    /**
+     * @return The instruction at the given position, or {@code null} when there is none.
+     */
+    private static Instruction at(List<Instruction> code, int index) {
+        return index < code.size() ? code.get(index) : null;
+    }
+
+    /**
+     * @return {@code true} if the instruction is generated by the compiler and has the given
+     * opcode.
+     */
+    private static boolean is(Instruction instruction, Opcode opcode) {
+        return instruction != null && instruction.getOpcode() == opcode;
+    }
+
+    /**
+     * @return {@code true} if a location can only be changed by storing to it: a local or global
+     * variable. Other locations, like the I/O area, can change by themselves.
+     */
+    private static boolean isVariable(Operand operand) {
+        return operand instanceof Operand.Stack || operand instanceof Operand.Global;
+    }
+
+    /**
+     * @return {@code true} if the operand uses the value of the given register.
+     */
+    private static boolean uses(Operand operand, Operand register) {
+        if (operand == null) {
+            return false;
+        }
+        if (operand == register) {
+            return true;
+        }
+        if (operand instanceof Operand.Indexed) {
+            Operand.Indexed indexed = (Operand.Indexed)operand;
+            return indexed.getBase() == register || indexed.getIndex() == register;
+        }
+        if (operand instanceof Operand.Global) {
+            return uses(((Operand.Global)operand).getOffset(), register);
+        }
+        if (operand instanceof Operand.Stack) {
+            return register == Register.STACK_POINTER;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return {@code true} if the instruction might use the status flags of the instruction
+     * before it.
+     */
+    private static boolean readsFlags(Instruction instruction) {
+        if (instruction == null) {
+            return false;
+        }
+
+        Opcode opcode = instruction.getOpcode();
+        return opcode == Opcode.INJECT || opcode == Opcode.TEXT ||
+                (opcode.isBranch() && opcode != Opcode.BRA && opcode != Opcode.BRS);
+    }
+
+    /**
+     * @return {@code true} if the instruction might use the value of the register before
+     * writing it. Only the next instruction has to be checked for R0, because every statement
+     * loads R0 before using it.
+     */
+    private static boolean reads(Instruction instruction, Register register) {
+        switch (instruction.getOpcode()) {
+            case LOAD:
+                return uses(instruction.getSecond(), register);
+            case BRA:
+            case BEQ:
+            case BNE:
+            case BLT:
+            case BGT:
+            case BLE:
+            case BGE:
+            case SETI:
+            case CLRI:
+                return false;
+            case BRS:
+            case RTS:
+            case RTE:
+            case INJECT:
+            case TEXT:
+                return true;
+            default:
+                return uses(instruction.getFirst(), register) || uses(instruction.getSecond(), register);
+        }
+    }
+
+    /**
+     * Looks at the instruction at a position and the ones after it, and changes them when they
+     * match.
+     */
+    @FunctionalInterface
+    private interface Matcher {
+
+        /**
+         * @return {@code true} if an instruction has been removed, {@code false} if nothing has
+         * changed.
+         */
+        boolean apply(List<Instruction> code, int index);
+    }
+
+    /**
+     * All rules of the optimiser, in the order they are tried.
+     */
+    public enum Rule {
+
+        /**
+         * A dummy {@code LOAD R0 0} that only exists to hold a label: the label is moved to the
+         * next instruction, as long as that instruction doesn't use R0 or the status flags.
+         */
+        DUMMY_LABEL("dummy-label", "instructions that only hold a label", (code, index) -> {
+            Instruction dummy = code.get(index);
+            Instruction next = at(code, index + 1);
+            if (!is(dummy, Opcode.LOAD) || dummy.getLabel() == null || dummy.getFirst() != Register.R0 ||
+                    !new Operand.Immediate(0).equals(dummy.getSecond()) || next == null ||
+                    next.getLabel() != null || reads(next, Register.R0) || readsFlags(next)) {
+                return false;
+            }
+
+            code.set(index + 1, next.withLabel(dummy.getLabel()));
+            code.remove(index);
+            return true;
+        }),
+
+        /**
+         * {@code STOR R0 [SP+0]} followed by {@code LOAD R0 [SP+0]}, or {@code LOAD R1 R0}
+         * followed by {@code LOAD R0 R1}: the register already holds the value.
+         */
+        STORE_LOAD("store-load", "loads of a value that has just been stored", (code, index) -> {
+            Instruction store = code.get(index);
+            Instruction load = at(code, index + 1);
+            if (!is(load, Opcode.LOAD) || load.getLabel() != null || readsFlags(at(code, index + 2))) {
+                return false;
+            }
+
+            boolean stored = is(store, Opcode.STOR) && store.getFirst() == load.getFirst() &&
+                    isVariable(store.getSecond()) && store.getSecond().equals(load.getSecond());
+            boolean copied = is(store, Opcode.LOAD) && store.getFirst() instanceof Register &&
+                    store.getFirst() == load.getSecond() && store.getSecond() == load.getFirst();
+            if (!stored && !copied) {
+                return false;
+            }
+
+            remove(code, index + 1);
+            return true;
+        }),
+
+        /**
+         * {@code PUSH R0} followed by {@code LOAD R0 [SP+0]}: the register already holds the
+         * value on top of the stack.
+         */
+        PUSH_LOAD("push-load", "loads of a value that has just been pushed", (code, index) -> {
+            Instruction push = code.get(index);
+            Instruction load = at(code, index + 1);
+            if (!is(push, Opcode.PUSH) || !is(load, Opcode.LOAD) || load.getLabel() != null ||
+                    push.getFirst() != load.getFirst() || !new Operand.Stack(0).equals(load.getSecond()) ||
+                    readsFlags(at(code, index + 2))) {
+                return false;
+            }
+
+            remove(code, index + 1);
+            return true;
+        }),
+
+        /**
+         * {@code LOAD R0 [SP+0]} followed by {@code STOR R0 [SP+0]}: the location already holds
+         * the value.
+         */
+        LOAD_STORE("load-store", "stores of a value that has just been loaded", (code, index) -> {
+            Instruction load = code.get(index);
+            Instruction store = at(code, index + 1);
+            if (!is(load, Opcode.LOAD) || !is(store, Opcode.STOR) || store.getLabel() != null ||
+                    load.getFirst() != store.getFirst() || !isVariable(load.getSecond()) ||
+                    uses(load.getSecond(), load.getFirst()) ||
+                    !load.getSecond().equals(store.getSecond())) {
+                return false;
+            }
+
+            remove(code, index + 1);
+            return true;
+        }),
+
+        /**
+         * The same load twice in a row: the register already holds the value. A push of the
+         * register may be in between when the value is a number.
+         */
+        DUPLICATE_LOAD("duplicate-load", "loads that are the same as the load before", (code, index) -> {
+            Instruction first = code.get(index);
+            int duplicate = index + 1;
+            Instruction push = at(code, duplicate);
+            if (is(push, Opcode.PUSH) && push.getLabel() == null && push.getFirst() == first.getFirst() &&
+                    (first.getSecond() instanceof Operand.Immediate || first.getSecond() instanceof Operand.Symbol)) {
+                duplicate++;
+            }
+
+            Instruction second = at(code, duplicate);
+
+            if (!is(first, Opcode.LOAD) || !is(second, Opcode.LOAD) || second.getLabel() != null ||
+                    first.getFirst() != second.getFirst() || first.getSecond() == null ||
+                    !first.getSecond().equals(second.getSecond()) ||
+                    uses(first.getSecond(), first.getFirst()) ||
+                    !(isVariable(first.getSecond()) || first.getSecond() instanceof Operand.Immediate ||
+                            first.getSecond() instanceof Operand.Symbol)) {
+                return false;
+            }
+
+            remove(code, duplicate);
+            return true;
+        }),
+
+        /**
+         * A branch to the instruction right after it.
+         */
+        BRANCH_TO_NEXT("branch-to-next", "branches to the next instruction", (code, index) -> {
+            Instruction branch = code.get(index);
+            Instruction next = at(code, index + 1);
+            if (branch.getOpcode() == Opcode.BRS || !branch.getOpcode().isBranch() ||
+                    branch.getLabel() != null || next == null || next.getLabel() == null ||
+                    !new Operand.Symbol(next.getLabel()).equals(branch.getFirst())) {
+                return false;
+            }
+
+            remove(code, index);
+            return true;
+        });
+
+        /**
+         * The name of the rule on the command line.
+         */
+        private final String name;
+
+        /**
+         * What the rule removes.
+         */
+        private final String description;
+
+        private final Matcher matcher;
+
+        Rule(String name, String description, Matcher matcher) {
+            this.name = name;
+            this.description = description;
+            this.matcher = matcher;
+        }
+
+        /**
+         * Gets the rule with the given name.
+         *
+         * @return The rule, or {@code null} when there is no rule with the given name.
+         */
+        public static Rule forName(String name) {
+            for (Rule rule : values()) {
+                if (rule.name.equals(name)) {
+                    return rule;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Applies the rule to the instruction at the given position.
+         *
+         * @return {@code true} if an instruction has been removed, {@code false} if nothing has
+         * changed.
+         */
+        boolean apply(List<Instruction> code, int index) {
+            return matcher.apply(code, index);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package nl.hannahsten.pp2lal2pp.compiler;
+
+import nl.hannahsten.pp2lal2pp.Constants;
+
+/**
+ * The registers of the PP2 processor.
+ *
+ * @author Hannah Schellekens
+ */
+public enum Register implements Operand {
+
+    R0,
+    R1,
+    R2,
+    R3,
+    R4,
+    R5,
+    R6,
+    R7,
+
+    /**
+     * Stack pointer, same as R7.
+     */
+    SP,
+
+    /**
+     * Global base, same as R6.
+     */
+    GB;
+
+    public static final Register GENERAL = valueOf(Constants.REG_GENERAL);
+    public static final Register INDEX = valueOf(Constants.REG_INDEX);
+    public static final Register VARIABLE = valueOf(Constants.REG_VARIABLE);
+    public static final Register RETURN = valueOf(Constants.REG_RETURN);
+    public static final Register IOAREA = valueOf(Constants.REG_IOAREA);
+    public static final Register GLOBAL_BASE = valueOf(Constants.REG_GLOBAL_BASE);
+    public static final Register STACK_POINTER = valueOf(Constants.REG_STACK_POINTER);
+}
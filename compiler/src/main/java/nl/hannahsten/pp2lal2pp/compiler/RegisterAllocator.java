@@ -0,0 +1,529 @@
+package nl.hannahsten.pp2lal2pp.compiler;
+
+import nl.hannahsten.pp2lal2pp.api.APIFunction;
+import nl.hannahsten.pp2lal2pp.lang.Number;
+import nl.hannahsten.pp2lal2pp.lang.*;
+import nl.hannahsten.pp2lal2pp.util.Template;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Chooses which local variables of a function are kept in a register instead of on the stack.
+ * <p>
+ * Every statement of a function gets a position, so that every local variable lives from the
+ * statement that declares it up to the end of its block, and the counter of a loop lives during
+ * the loop. The local variables that are used most,
+ * where uses in loops count more, get a register first. Two variables only share a register
+ * when they don't live at the same time.
+ * <p>
+ * A variable never gets a register that might be changed while it lives: by API functions (all
+ * registers in their templates), by array accesses with a variable index ({@link
+ * Register#INDEX}), by injected assembly (all registers in it), or by called functions (the
+ * registers they change themselves and the registers of their local variables). Interrupts can
+ * happen at any moment, so registers that any interrupt changes are never used. Interrupts
+ * themselves keep all their local variables on the stack.
+ *
+ * @author Hannah Schellekens
+ */
+public class RegisterAllocator {
+
+    /**
+     * The registers that can hold local variables, in the order they are handed out. All other
+     * registers have a fixed purpose.
+     */
+    private static final List<Register> CANDIDATES = Collections.unmodifiableList(
+            Arrays.asList(Register.R1, Register.R2, Register.R3));
+
+    /**
+     * How many times more a use of a variable inside a loop counts, for every loop around it.
+     */
+    private static final int LOOP_WEIGHT = 8;
+
+    /**
+     * Matches the names of the general purpose registers.
+     */
+    private static final Pattern REGISTER = Pattern.compile("\\bR[0-7]\\b");
+
+    /**
+     * The API functions that aren't in {@link APIFunction}, but call their own templates.
+     */
+    private static final Set<String> INTERRUPT_FUNCTIONS = new HashSet<>(Arrays.asList(
+            "enableTimerInterrupt", "disableTimerInterrupt"));
+
+    private final Program program;
+
+    /**
+     * The candidates that an interrupt might change.
+     */
+    private final Set<Register> interruptClobbers = EnumSet.noneOf(Register.class);
+
+    /**
+     * The chosen registers of every function that has been allocated.
+     */
+    private final Map<Function, Allocation> allocations = new HashMap<>();
+
+    /**
+     * The candidates every function might change, including the functions it calls.
+     */
+    private final Map<Function, Set<Register>> clobbers = new HashMap<>();
+
+    /**
+     * The functions of which the changed registers are being determined, to detect recursion.
+     */
+    private final Set<Function> inProgress = new HashSet<>();
+
+    public RegisterAllocator(Program program) {
+        this.program = program;
+
+        // Functions called from interrupts might change every candidate, because their own
+        // registers depend on the registers interrupts change.
+        for (Function function : program.getFunctions()) {
+            if (function instanceof Interrupt) {
+                for (Statement statement : statements(function, true)) {
+                    interruptClobbers.addAll(statement.clobbers);
+                }
+
+                // Continuing an interrupt enables it again.
+                if (function.getContents().getContents().stream().anyMatch(e -> e instanceof Continue)) {
+                    interruptClobbers.addAll(templateRegisters(Template.INTERRUPT_BOILERPLATE_AFTER));
+                }
+            }
+        }
+        interruptClobbers.retainAll(CANDIDATES);
+
+        // Allocate in a fixed order, so recursive functions always get the same registers.
+        for (Function function : program.getFunctions()) {
+            allocate(function);
+        }
+    }
+
+    /**
+     * Chooses the registers for the local variables of the given function. Interrupts keep all
+     * their local variables on the stack.
+     */
+    public synchronized Allocation allocate(Function function) {
+        Allocation allocation = allocations.get(function);
+        if (allocation != null) {
+            return allocation;
+        }
+
+        List<Statement> statements = statements(function, false);
+
+        // A recursive call might already have allocated the function, and the registers it
+        // changes are based on that allocation.
+        allocation = allocations.get(function);
+        if (allocation != null) {
+            return allocation;
+        }
+
+        allocation = new Allocation();
+
+        if (!(function instanceof Interrupt)) {
+            List<Statement> declarations = new ArrayList<>();
+            for (Statement statement : statements) {
+                if (statement.declared != null) {
+                    declarations.add(statement);
+                }
+            }
+            weigh(statements, declarations);
+
+            // Most used first, then in order of declaration.
+            declarations.sort(Comparator.comparingInt((Statement s) -> -s.weight)
+                    .thenComparingInt(s -> s.position));
+
+            Map<Statement, Register> chosen = new HashMap<>();
+            for (Statement declaration : declarations) {
+                Register register = choose(statements, declaration, chosen);
+                if (register != null) {
+                    chosen.put(declaration, register);
+                }
+            }
+
+            for (Statement statement : statements) {
+                if (statement.declared != null) {
+                    allocation.add(statement.declared, chosen.get(statement));
+                }
+            }
+        }
+
+        allocations.put(function, allocation);
+        return allocation;
+    }
+
+    /**
+     * Chooses a register for a declared variable that is not changed while the variable lives and
+     * that is not used by another variable that lives at the same time.
+     *
+     * @return The register, or {@code null} when the variable must be kept on the stack.
+     */
+    private Register choose(List<Statement> statements, Statement declaration,
+                            Map<Statement, Register> chosen) {
+        Set<Register> available = EnumSet.copyOf(CANDIDATES);
+        available.removeAll(interruptClobbers);
+
+        // The statement that declares the variable may change registers before it is stored.
+        for (int i = declaration.position + 1; i <= declaration.end; i++) {
+            available.removeAll(statements.get(i).clobbers);
+        }
+
+        for (Map.Entry<Statement, Register> entry : chosen.entrySet()) {
+            Statement other = entry.getKey();
+            if (other.position <= declaration.end && declaration.position <= other.end) {
+                available.remove(entry.getValue());
+            }
+        }
+
+        for (Register register : CANDIDATES) {
+            if (available.contains(register)) {
+                return register;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Calculates for every declared variable how often it is used while it lives.
+     */
+    private static void weigh(List<Statement> statements, List<Statement> declarations) {
+        Map<String, List<Statement>> byName = new HashMap<>();
+        for (Statement declaration : declarations) {
+            byName.computeIfAbsent(declaration.declared.getName(), n -> new ArrayList<>())
+                    .add(declaration);
+        }
+
+        for (Statement statement : statements) {
+            int factor = 1;
+            for (int depth = 0; depth < statement.loopDepth; depth++) {
+                factor *= LOOP_WEIGHT;
+            }
+
+            for (String name : statement.references) {
+                for (Statement declaration : byName.getOrDefault(name, Collections.emptyList())) {
+                    if (declaration.position <= statement.position &&
+                            statement.position <= declaration.end) {
+                        declaration.weight += factor;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the candidates a call to the function with the given name might change.
+     */
+    private Set<Register> callClobbers(String name) {
+        if (APIFunction.isAPIFunction(name)) {
+            Set<Register> registers = EnumSet.noneOf(Register.class);
+            APIFunction.getInvokeTemplate(name).ifPresent(t -> registers.addAll(templateRegisters(t)));
+            APIFunction.getImplementationTemplate(name).ifPresent(t -> registers.addAll(templateRegisters(t)));
+            return registers;
+        }
+
+        if (INTERRUPT_FUNCTIONS.contains(name)) {
+            Set<Register> registers = EnumSet.noneOf(Register.class);
+            registers.addAll(templateRegisters(Template.ENABLE_INTERRUPT));
+            registers.addAll(templateRegisters(Template.DISABLE_INTERRUPT));
+            registers.addAll(templateRegisters(Template.INTERRUPT_BOILERPLATE_BEFORE));
+            registers.addAll(templateRegisters(Template.INTERRUPT_BOILERPLATE_AFTER));
+            return registers;
+        }
+
+        Optional<Function> function = program.getFunction(name);
+        if (!function.isPresent() || inProgress.contains(function.get())) {
+            return EnumSet.copyOf(CANDIDATES);
+        }
+
+        return clobbers(function.get());
+    }
+
+    /**
+     * Gets the candidates the function might change, including the registers of its local
+     * variables and everything the functions it calls change.
+     */
+    private Set<Register> clobbers(Function function) {
+        Set<Register> registers = clobbers.get(function);
+        if (registers != null) {
+            return registers;
+        }
+
+        inProgress.add(function);
+        try {
+            registers = EnumSet.noneOf(Register.class);
+            for (Statement statement : statements(function, false)) {
+                registers.addAll(statement.clobbers);
+            }
+            // The local variables of inlined functions are kept on the stack of the caller.
+            if (!program.isInlined(function)) {
+                registers.addAll(allocate(function).getRegisters());
+            }
+        }
+        finally {
+            inProgress.remove(function);
+        }
+
+        clobbers.put(function, registers);
+        return registers;
+    }
+
+    /**
+     * Splits the function into statements in the order they appear in the code.
+     *
+     * @param conservative
+     *         {@code true} if calls to user functions change all candidates, {@code false} if
+     *         they change the registers of the called function.
+     */
+    private List<Statement> statements(Function function, boolean conservative) {
+        List<Statement> statements = new ArrayList<>();
+        walk(function.getContents(), 0, conservative, statements);
+        return statements;
+    }
+
+    /**
+     * Adds all statements in the block and its nested blocks.
+     */
+    private void walk(Block block, int loopDepth, boolean conservative, List<Statement> statements) {
+        List<Statement> declarations = new ArrayList<>();
+
+        for (Element element : block.getContents()) {
+            Statement statement = new Statement(statements.size(), loopDepth);
+            statements.add(statement);
+            inspect(element, statement, conservative);
+
+            if (element instanceof Declaration &&
+                    ((Declaration)element).getScope() == Declaration.DeclarationScope.LOCAL) {
+                statement.declared = ((Declaration)element).getVariable();
+                declarations.add(statement);
+            }
+            else if (element instanceof IfElse) {
+                walk(((IfElse)element).getIfBlock(), loopDepth, conservative, statements);
+                walk(((IfElse)element).getElseBlock(), loopDepth, conservative, statements);
+            }
+            else if (element instanceof Loop) {
+                walk(((Loop)element).getContent(), loopDepth + 1, conservative, statements);
+
+                // The counter lives during the loop, and is changed and tested every iteration.
+                Statement step = new Statement(statements.size(), loopDepth + 1);
+                step.references.add(((Loop)element).getBase().getName());
+                step.references.add(((Loop)element).getBase().getName());
+                statements.add(step);
+
+                statement.declared = ((Loop)element).getBase();
+                statement.end = step.position;
+            }
+        }
+
+        // Variables live up to the end of their block.
+        for (Statement declaration : declarations) {
+            declaration.end = statements.size() - 1;
+        }
+    }
+
+    /**
+     * Collects the variables a statement uses and the registers it changes, without looking into
+     * nested blocks.
+     */
+    private void inspect(Object element, Statement statement, boolean conservative) {
+        if (element == null) {
+            return;
+        }
+
+        if (element instanceof FunctionCall) {
+            FunctionCall call = (FunctionCall)element;
+            statement.clobbers.addAll(conservative && program.getFunction(call.getCalled()).isPresent()
+                    ? CANDIDATES : callClobbers(call.getCalled()));
+            for (Variable argument : call.getArguments()) {
+                inspect(argument, statement, conservative);
+            }
+        }
+        else if (element instanceof Variable) {
+            statement.references.add(((Variable)element).getName());
+        }
+        else if (element instanceof Operation) {
+            Operation operation = (Operation)element;
+            inspect(operation.getFirstElement(), statement, conservative);
+            inspect(operation.getSecondElement().orElse(null), statement, conservative);
+            if (operation instanceof GlobalArrayIndexedAssignment) {
+                inspect(((GlobalArrayIndexedAssignment)operation).getAccess(), statement, conservative);
+            }
+        }
+        else if (element instanceof DeclarationFromGlobalArray) {
+            inspect(((DeclarationFromGlobalArray)element).getArrayRead(), statement, conservative);
+        }
+        else if (element instanceof Declaration) {
+            inspect(((Declaration)element).getDeclaration(), statement, conservative);
+        }
+        else if (element instanceof GlobalArrayRead) {
+            inspect(((GlobalArrayRead)element).getAccess(), statement, conservative);
+        }
+        else if (element instanceof ArrayAccess) {
+            Variable index = ((ArrayAccess)element).getAccessingVariable();
+            if (index != null) {
+                statement.clobbers.add(Register.INDEX);
+                inspect(index, statement, conservative);
+            }
+        }
+        else if (element instanceof IfElse) {
+            inspect(((IfElse)element).getExpression(), statement, conservative);
+        }
+        else if (element instanceof Loop) {
+            Loop loop = (Loop)element;
+            inspect(loop.getFrom(), statement, conservative);
+            inspect(loop.getTo(), statement, conservative);
+            inspect(loop.getStep(), statement, conservative);
+        }
+        else if (element instanceof ElementReturn) {
+            inspect(((ElementReturn)element).getElement(), statement, conservative);
+        }
+        else if (element instanceof Inject) {
+            String contents = ((Inject)element).getContents();
+            statement.clobbers.addAll(contents.contains("BRS") ? CANDIDATES : registers(contents));
+        }
+        else if (element instanceof Value && !(element instanceof Number)) {
+            statement.references.add(((Value)element).stringRepresentation());
+        }
+    }
+
+    /**
+     * Gets the candidates that are used in the given template.
+     */
+    private static Set<Register> templateRegisters(Template template) {
+        return registers(template.load());
+    }
+
+    /**
+     * Gets the candidates that are mentioned in the given assembly.
+     */
+    private static Set<Register> registers(String assembly) {
+        Set<Register> registers = EnumSet.noneOf(Register.class);
+        Matcher matcher = REGISTER.matcher(assembly);
+        while (matcher.find()) {
+            Register register = Register.valueOf(matcher.group());
+            if (CANDIDATES.contains(register)) {
+                registers.add(register);
+            }
+        }
+
+        return registers;
+    }
+
+    /**
+     * The registers chosen for the local variables of a single function.
+     */
+    public static class Allocation {
+
+        /**
+         * The register of every declared local variable, {@code null} for variables on the
+         * stack.
+         */
+        private final Map<Variable, Register> registers = new IdentityHashMap<>();
+
+        /**
+         * The registers in order of declaration, {@code null} for variables on the stack.
+         */
+        private final List<Register> order = new ArrayList<>();
+
+        private void add(Variable variable, Register register) {
+            registers.put(variable, register);
+            order.add(register);
+        }
+
+        /**
+         * @return The register of the declared variable, or {@code null} when it must be kept on
+         * the stack.
+         */
+        public Register get(Variable variable) {
+            return registers.get(variable);
+        }
+
+        /**
+         * @return All registers that are used for local variables.
+         */
+        public Set<Register> getRegisters() {
+            Set<Register> used = EnumSet.noneOf(Register.class);
+            for (Register register : order) {
+                if (register != null) {
+                    used.add(register);
+                }
+            }
+            return used;
+        }
+
+        /**
+         * @return The amount of declared local variables.
+         */
+        public int size() {
+            return order.size();
+        }
+
+        /**
+         * @return The amount of local variables that are kept in a register.
+         */
+        public int registerCount() {
+            return (int)order.stream().filter(Objects::nonNull).count();
+        }
+
+        /**
+         * @return The registers in order of declaration, e.g. {@code "R1,-,R3"}.
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Register register : order) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(register == null ? "-" : register.name());
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A single statement of a function.
+     */
+    private static class Statement {
+
+        /**
+         * The position of the statement in the function.
+         */
+        private final int position;
+
+        /**
+         * The amount of loops around the statement.
+         */
+        private final int loopDepth;
+
+        /**
+         * The names of all variables the statement uses, once for every use.
+         */
+        private final List<String> references = new ArrayList<>();
+
+        /**
+         * The candidates the statement might change.
+         */
+        private final Set<Register> clobbers = EnumSet.noneOf(Register.class);
+
+        /**
+         * The local variable the statement declares, or {@code null} when it declares none.
+         */
+        private Variable declared;
+
+        /**
+         * The position of the last statement in which the declared variable lives.
+         */
+        private int end;
+
+        /**
+         * How often the declared variable is used.
+         */
+        private int weight;
+
+        Statement(int position, int loopDepth) {
+            this.position = position;
+            this.loopDepth = loopDepth;
+        }
+    }
+}
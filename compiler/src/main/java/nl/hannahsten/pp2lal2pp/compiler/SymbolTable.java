@@ -0,0 +1,319 @@
+package nl.hannahsten.pp2lal2pp.compiler;
+
+import nl.hannahsten.pp2lal2pp.CompilerException;
+import nl.hannahsten.pp2lal2pp.lang.Program;
+import nl.hannahsten.pp2lal2pp.lang.Variable;
+
+import java.util.*;
+
+/**
+ * Keeps track of the global variables, arguments and local variables that can be used in the
+ * function that is being compiled, and where they are stored.
+ * <p>
+ * Local variables are declared in block scopes. Instead of storing a pointer in every variable
+ * that has to be updated on every push and pop, the table counts how many values have been
+ * pushed since the start of the function. The offset of a variable from the stack pointer is the
+ * difference between that count and the count right after the variable was pushed.
+ * <p>
+ * Local variables that have been given a register by the {@link RegisterAllocator} are not
+ * pushed at all, they are referred to by their register.
+ * <p>
+ * The body of an inlined function gets its own names, see {@link #enterInline()}. Its arguments
+ * are bound to values on the stack or to operands of the caller.
+ *
+ * @author Hannah Schellekens
+ */
+public class SymbolTable {
+
+    /**
+     * The program with the global variables.
+     */
+    private final Program program;
+
+    /**
+     * Maps the names of the arguments to the amount of values that had been pushed right after
+     * them. For the arguments of the function itself this is negative: they are pushed before the
+     * function starts.
+     */
+    private Map<String, Integer> arguments = new HashMap<>();
+
+    /**
+     * Maps the names of the arguments of an inlined function that don't have their own place on
+     * the stack to the register or number that holds their value.
+     */
+    private Map<String, Operand> bound = new HashMap<>();
+
+    /**
+     * Maps the names of the declared local variables to the amount of values that had been
+     * pushed right after they were pushed.
+     */
+    private Map<String, Integer> locals = new HashMap<>();
+
+    /**
+     * Maps the names of the declared local variables that are kept in a register to their
+     * register.
+     */
+    private Map<String, Register> registerLocals = new HashMap<>();
+
+    /**
+     * The registers chosen for the local variables of the function.
+     */
+    private final RegisterAllocator.Allocation allocation;
+
+    /**
+     * The names of the local variables declared in every open scope, innermost scope last.
+     */
+    private Deque<List<String>> scopes = new ArrayDeque<>();
+
+    /**
+     * The symbols of the functions that inlined functions are compiled into, innermost caller
+     * first.
+     */
+    private final Deque<Frame> callers = new ArrayDeque<>();
+
+    /**
+     * The amount of values that have been pushed onto the stack since the start of the function.
+     */
+    private int depth = 0;
+
+    /**
+     * @param arguments
+     *         The arguments of the function, in order.
+     */
+    public SymbolTable(Program program, List<Variable> arguments) {
+        this(program, arguments, null);
+    }
+
+    /**
+     * @param arguments
+     *         The arguments of the function, in order.
+     * @param allocation
+     *         The registers chosen for the local variables, or {@code null} to keep all local
+     *         variables on the stack.
+     */
+    public SymbolTable(Program program, List<Variable> arguments,
+                       RegisterAllocator.Allocation allocation) {
+        this.program = program;
+        this.allocation = allocation;
+
+        // The return address is on top of the arguments.
+        for (int i = 0; i < arguments.size(); i++) {
+            this.arguments.put(arguments.get(i).getName(), -(i + 1));
+        }
+    }
+
+    /**
+     * Starts the body of an inlined function. The names of the caller can't be used until
+     * {@link #exitInline()}, except for global variables.
+     */
+    public void enterInline() {
+        callers.push(new Frame(this));
+        arguments = new HashMap<>();
+        bound = new HashMap<>();
+        locals = new HashMap<>();
+        registerLocals = new HashMap<>();
+        scopes = new ArrayDeque<>();
+    }
+
+    /**
+     * Ends the body of an inlined function, and forgets everything it has pushed.
+     */
+    public void exitInline() {
+        Frame caller = callers.pop();
+        arguments = caller.arguments;
+        bound = caller.bound;
+        locals = caller.locals;
+        registerLocals = caller.registerLocals;
+        scopes = caller.scopes;
+        depth = caller.depth;
+    }
+
+    /**
+     * Gives an argument of an inlined function the value of the given operand of the caller.
+     * Arguments that are bound to a place on the stack keep referring to it when more values are
+     * pushed.
+     *
+     * @param operand
+     *         A register, a number, or a place on the stack, relative to the current stack
+     *         pointer.
+     */
+    public void bind(String name, Operand operand) {
+        if (operand instanceof Operand.Stack) {
+            arguments.put(name, depth - ((Operand.Stack)operand).getOffset());
+        }
+        else {
+            bound.put(name, operand);
+        }
+    }
+
+    /**
+     * Opens a new scope for local variables.
+     */
+    public void enterScope() {
+        scopes.push(new ArrayList<>());
+    }
+
+    /**
+     * Closes the innermost scope and removes its local variables from the stack.
+     */
+    public void exitScope() {
+        List<String> scope = scopes.pop();
+        for (String name : scope) {
+            if (registerLocals.remove(name) == null) {
+                locals.remove(name);
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * @return The amount of local variables of the innermost scope that are on the stack.
+     */
+    public int scopeStackSize() {
+        int size = 0;
+        for (String name : scopes.peek()) {
+            if (!registerLocals.containsKey(name)) {
+                size++;
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Declares a local variable in the innermost scope, that is pushed onto the stack unless it
+     * has been given a register.
+     *
+     * @return The register of the variable, or {@code null} when it is pushed onto the stack.
+     * @throws CompilerException
+     *         if there already is a local variable declared with the same name.
+     */
+    public Register declare(Variable variable) throws CompilerException {
+        String name = variable.getName();
+        if (locals.containsKey(name) || registerLocals.containsKey(name)) {
+            throw new CompilerException("you can't declare " + name + " twice");
+        }
+
+        Register register = allocation == null ? null : allocation.get(variable);
+        if (register != null) {
+            registerLocals.put(name, register);
+        }
+        else {
+            locals.put(name, ++depth);
+        }
+
+        scopes.peek().add(name);
+        return register;
+    }
+
+    /**
+     * Registers values that are pushed onto the stack that are no variables.
+     */
+    public void push(int count) {
+        depth += count;
+    }
+
+    /**
+     * Registers values that are removed from the stack that are no variables.
+     */
+    public void pop(int count) {
+        depth -= count;
+    }
+
+    /**
+     * @return The amount of local variables that are on the stack.
+     */
+    public int localCount() {
+        return locals.size();
+    }
+
+    /**
+     * @return {@code true} when the name refers to a global variable, {@code false} otherwise.
+     */
+    public boolean isGlobal(String name) {
+        return program.getGlobalVariable(name).isPresent();
+    }
+
+    /**
+     * Gets the offset from the stack pointer of a local variable or argument.
+     *
+     * @throws CompilerException
+     *         if there is no variable declared with the given name.
+     */
+    public int pointer(String name) throws CompilerException {
+        Integer slot = locals.get(name);
+        if (slot == null) {
+            slot = arguments.get(name);
+        }
+
+        if (slot == null) {
+            throw new CompilerException("variable " + name + " hasn't been declared");
+        }
+
+        return depth - slot;
+    }
+
+    /**
+     * Gets the offset from the stack pointer of an argument of the function itself by its
+     * position, whatever its name is.
+     *
+     * @param index
+     *         The position of the argument, starting at 0.
+     */
+    public int argumentPointer(int index) {
+        return depth + index + 1;
+    }
+
+    /**
+     * Get the operand that refers to the location of the variable with the given name, e.g.
+     * {@code [GB+name]} for global variables, {@code [SP+1]} for local variables and {@code R1}
+     * for local variables that are kept in a register.
+     *
+     * @throws CompilerException
+     *         if there is no variable with the given name.
+     */
+    public Operand operand(String name) throws CompilerException {
+        if (isGlobal(name)) {
+            return new Operand.Global(name, null);
+        }
+
+        Register register = registerLocals.get(name);
+        if (register != null) {
+            return register;
+        }
+
+        // Local variables hide arguments.
+        Operand value = bound.get(name);
+        if (value != null && !locals.containsKey(name)) {
+            return value;
+        }
+
+        return new Operand.Stack(pointer(name));
+    }
+
+    /**
+     * The names of a function that is being compiled, while a function is inlined into it.
+     */
+    private static class Frame {
+
+        private final Map<String, Integer> arguments;
+        private final Map<String, Operand> bound;
+        private final Map<String, Integer> locals;
+        private final Map<String, Register> registerLocals;
+        private final Deque<List<String>> scopes;
+
+        /**
+         * The amount of values that had been pushed when the inlined function started.
+         */
+        private final int depth;
+
+        private Frame(SymbolTable table) {
+            this.arguments = table.arguments;
+            this.bound = table.bound;
+            this.locals = table.locals;
+            this.registerLocals = table.registerLocals;
+            this.scopes = table.scopes;
+            this.depth = table.depth;
+        }
+    }
+}
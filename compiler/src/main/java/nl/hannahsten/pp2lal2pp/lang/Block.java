@@ -17,7 +17,7 @@ public class Block implements Iterable<Element>, Identifyable {
      * <p>
      * The contents can't be modified.
      */
-    public static final Block EMPTY = new Block(Collections.emptyList());
+    public static final Block EMPTY = new Block(Collections.emptyList(), IDManager.newSharedId());
 
     /**
      * The unique id of the code block.
@@ -38,7 +38,11 @@ public class Block implements Iterable<Element>, Identifyable {
     }
 
     public Block(List<Element> contents) {
-        this.id = IDManager.newId();
+        this(contents, IDManager.newId());
+    }
+
+    private Block(List<Element> contents, int id) {
+        this.id = id;
         this.contents = contents;
     }
 
@@ -1,6 +1,5 @@
 package nl.hannahsten.pp2lal2pp.lang;
 
-import nl.hannahsten.pp2lal2pp.CompilerException;
 import nl.hannahsten.pp2lal2pp.Constants;
 import nl.hannahsten.pp2lal2pp.IDManager;
 
@@ -31,13 +30,6 @@ public class Function implements Identifyable, Element {
      */
     protected List<Variable> arguments;
 
-    /**
-     * A list of all local variables with pointers relative to the stack pointer.
-     * <p>
-     * List is empty if there are no variables.
-     */
-    protected List<Variable> variables;
-
     /**
      * The statements that have to be executed in the block.
      */
@@ -50,6 +42,12 @@ public class Function implements Identifyable, Element {
      */
     protected List<String> pp2doc;
 
+    /**
+     * Whether the function has been declared with {@code inline}, so its calls must be replaced
+     * by its body when optimising.
+     */
+    protected boolean inline;
+
     /**
      * Automatically assigns pointers to the variables.
      */
@@ -58,7 +56,6 @@ public class Function implements Identifyable, Element {
         this.name = name;
         this.pp2doc = pp2doc;
         this.arguments = new ArrayList<>();
-        this.variables = new ArrayList<>();
 
         for (int i = 0; i < arguments.length; i++) {
             Variable var = arguments[i];
@@ -74,7 +71,6 @@ public class Function implements Identifyable, Element {
         this.name = name;
         this.pp2doc = pp2doc;
         this.arguments = new ArrayList<>(arguments);
-        this.variables = new ArrayList<>();
 
         for (int i = 0; i < arguments.size(); i++) {
             Variable var = arguments.get(i);
@@ -83,106 +79,10 @@ public class Function implements Identifyable, Element {
     }
 
     /**
-     * Returns the amount of local variables.
-     */
-    public int variableCount() {
-        return variables.size();
-    }
-
-    /**
-     * Declares a new local variable.
-     *
-     * @param variable
-     *         The variable to declare.
-     * @throws CompilerException
-     *         if there already is a variable declared with the same name.
-     */
-    public void declareLocal(Variable variable) throws CompilerException {
-        if (variables.parallelStream().anyMatch(v -> v.getName().equals(variable.getName()))) {
-            throw new CompilerException("you can't declare " + variable.getName() + " twice");
-        }
-
-        variable.setPointer(newPointer());
-        variables.add(variable);
-    }
-
-    /**
-     * Unregisters a local variable. This will also reset the other pointers.
-     *
-     * @param variable
-     *         The variable to deregister.
-     * @throws CompilerException
-     *         If the variable doesn't exist.
-     */
-    public void unregisterLocal(Variable variable) throws CompilerException {
-        if (!variables.parallelStream().anyMatch(v -> v.getName().equals(variable.getName()))) {
-            throw new CompilerException("there is no declared variable called '" + variable
-                    .getName() + "'");
-        }
-
-        variables.removeIf(v -> v.getName().equals(variable.getName()));
-        updatePointers(-1);
-    }
-
-    /**
-     * Updates all the pointers of all registers variables and arguments.
-     * @param change The amount to change the pointers with.
+     * @return The arguments of the function in order.
      */
-    public void updatePointers(int change) {
-        for (Variable var : variables) {
-            var.setPointer(var.getPointer() + change);
-        }
-
-        for (Variable var : arguments) {
-            var.setPointer(var.getPointer() + change);
-        }
-    }
-
-    /**
-     * Looks what the last pointer used was and creates a new pointer value based on that.
-     */
-    protected int newPointer() {
-        updatePointers(1);
-        return 0;
-    }
-
-    /**
-     * Finds the variable or argument object with the name of the given variable.
-     *
-     * @param other
-     *         The variable from which the name will be used to get the variable with the same
-     *         name.
-     * @return The stored function-variable with the name of variable <code>other</code>.
-     * @throws CompilerException
-     *         if there is no variable declared with the name of the given variable.
-     */
-    public Variable getVariableByVariable(Variable other) throws CompilerException {
-        return getVariableByName(other.getName());
-    }
-
-    /**
-     * Finds the variable or argument object with the given name.
-     *
-     * @param name
-     *         The name of the variable to look up.
-     * @return The variable that carries the given name.
-     * @throws CompilerException
-     *         if there is no variable declared with the given name.
-     */
-    public Variable getVariableByName(String name) throws CompilerException {
-        for (Variable var : variables) {
-            if (var.getName().equals(name)) {
-                return var;
-            }
-        }
-
-        for (Variable arg : arguments) {
-            if (arg.getName().equals(name)) {
-                return arg;
-            }
-        }
-
-        throw new CompilerException("variable " + name + " hasn't been declared");
+    public List<Variable> getArguments() {
+        return arguments;
     }
 
     /**
@@ -210,6 +110,14 @@ public class Function implements Identifyable, Element {
         return name;
     }
 
+    public boolean isInline() {
+        return inline;
+    }
+
+    public void setInline(boolean inline) {
+        this.inline = inline;
+    }
+
     public void setContents(Block contents) {
         this.contents = contents;
     }
@@ -234,8 +142,8 @@ public class Function implements Identifyable, Element {
                 ", id=" + id +
                 ", name='" + name + '\'' +
                 ", contents=" + contents +
-                ", variables=" + variables +
                 ", pp2doc=" + pp2doc +
+                ", inline=" + inline +
                 '}';
     }
 }
\ No newline at end of file
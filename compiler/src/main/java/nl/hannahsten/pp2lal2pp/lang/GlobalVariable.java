@@ -1,7 +1,7 @@
 package nl.hannahsten.pp2lal2pp.lang;
 
-import java.util.Collections;
-import java.util.HashSet;
+import nl.hannahsten.pp2lal2pp.CompilationContext;
+
 import java.util.Set;
 
 /**
@@ -10,23 +10,13 @@ import java.util.Set;
 public class GlobalVariable extends Variable {
 
     /**
-     * Counter that tracks the location of the previous global variable.
-     */
-    private static int pointerCounter = 2;
-
-    /**
-     * A list containing all the global base addresses that can't be used to store values.
-     */
-    private static final Set<Integer> bannedLocations = new HashSet<>();
-
-    /**
-     * Prevents the given pointer from being used.
+     * Prevents the given pointer from being used in the current compilation context.
      *
      * @param pointer
      *         The global base address  to ban from being used.
      */
     public static void banPointer(int pointer) {
-        bannedLocations.add(pointer);
+        CompilationContext.current().banPointer(pointer);
     }
 
     /**
@@ -37,23 +27,21 @@ public class GlobalVariable extends Variable {
      * @return <code>true</code> if the pointer is banned, <code>false</code> if it is available.
      */
     public static boolean isBanned(int pointer) {
-        return bannedLocations.contains(pointer);
+        return CompilationContext.current().getBannedLocations().contains(pointer);
     }
 
     /**
      * Updates the pointer counter to make sure the counter doesn't contain a banned number.
      */
     public static void adjustCounter() {
-        while (bannedLocations.contains(pointerCounter)) {
-            pointerCounter++;
-        }
+        CompilationContext.current().adjustPointer();
     }
 
     /**
      * Get an unmodifiable set containing all banned global base locations.
      */
     public static Set<Integer> getBannedLocations() {
-        return Collections.unmodifiableSet(bannedLocations);
+        return CompilationContext.current().getBannedLocations();
     }
 
     /**
@@ -63,14 +51,12 @@ public class GlobalVariable extends Variable {
 
     public GlobalVariable(String name) {
         super(name);
-        adjustCounter();
-        setPointer(pointerCounter++);
+        setPointer(CompilationContext.current().newPointer());
     }
 
     public GlobalVariable(String name, Value value) {
         super(name, value);
-        adjustCounter();
-        setPointer(pointerCounter++);
+        setPointer(CompilationContext.current().newPointer());
     }
 
     public GlobalVariable(String name, Value value, Comment comment) {
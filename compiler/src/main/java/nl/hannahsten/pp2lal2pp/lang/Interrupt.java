@@ -16,7 +16,6 @@ public class Interrupt extends Function {
         return "Interrupt{" + "id=" + id +
                 ", name='" + name + '\'' +
                 ", contents=" + contents +
-                ", variables=" + variables +
                 ", pp2doc=" + pp2doc +
                 '}';
     }
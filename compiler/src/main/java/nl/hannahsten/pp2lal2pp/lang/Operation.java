@@ -40,8 +40,9 @@ public class Operation implements Element {
             return;
         }
 
-        boolean firstNum = first instanceof Number;
-        boolean secondNum = second instanceof Number;
+        // Constants are only known when compiling, see ConstantFolder.
+        boolean firstNum = isLiteral(first);
+        boolean secondNum = isLiteral(second);
         boolean firstOp = first instanceof Operation;
         boolean secondOp = second instanceof Operation;
 
@@ -51,28 +52,30 @@ public class Operation implements Element {
         }
         else if (firstNum && secondOp) {
             Operation op2 = (Operation)second;
-            if (!op2.getSecondElement().isPresent()) {
-                setNumber(op2.toNumber().get());
-            }
+            op2.toNumber().ifPresent(this::setNumber);
         }
         else if (secondNum && firstOp) {
             Operation op1 = (Operation)first;
-            if (!op1.getSecondElement().isPresent()) {
-                setNumber(op1.toNumber().get());
-            }
+            op1.toNumber().ifPresent(this::setNumber);
         }
         else if (firstOp && secondOp) {
-            Operation op1 = (Operation)first;
-            Operation op2 = (Operation)second;
+            Optional<Number> num1 = ((Operation)first).toNumber();
+            Optional<Number> num2 = ((Operation)second).toNumber();
 
-            if (!op1.getSecondElement().isPresent() && !op2.getSecondElement().isPresent()) {
-                Number num1 = op1.toNumber().get();
-                Number num2 = op2.toNumber().get();
-                setNumber(operator.calculateNumbers(num1, num2));
+            if (num1.isPresent() && num2.isPresent()) {
+                setNumber(operator.calculateNumbers(num1.get(), num2.get()));
             }
         }
     }
 
+    /**
+     * @return {@code true} if the element is a number that is written in the code, {@code false}
+     * for anything else, including number constants.
+     */
+    private static boolean isLiteral(Element element) {
+        return element instanceof Number && !(element instanceof NumberConstant);
+    }
+
     private void setNumber(Number number) {
         this.firstElement = number;
         this.operator = null;
@@ -84,12 +87,11 @@ public class Operation implements Element {
      * optional if it is not a number.
      */
     public Optional<Number> toNumber() {
-        if (secondElement != null) {
+        if (secondElement != null || !isLiteral(firstElement)) {
             return Optional.empty();
         }
 
-        return Optional.of(new Number(Integer.parseInt(getFirstElement().getValue()
-                .stringRepresentation())));
+        return Optional.of(new Number(((Number)firstElement).getIntValue()));
     }
 
     public Element getFirstElement() {
@@ -118,7 +120,12 @@ public class Operation implements Element {
         String first = "";
         String firstOpen = "";
         String firstClose = "";
-        String op = (operator == null ? "" : " " + operator.getSign() + " ");
+        String op = "";
+        if (operator != null) {
+            // Unary operators go right in front of the function call, see below.
+            op = operator.getType() == Operator.OperatorType.UNARY ? operator.getSign() :
+                    " " + operator.getSign().trim() + " ";
+        }
         String second = "";
         String secondOpen = "";
         String secondClose = "";
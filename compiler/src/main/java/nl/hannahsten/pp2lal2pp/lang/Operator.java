@@ -193,7 +193,7 @@ public enum Operator implements Identifyable {
     Operator(String sign, String regexSign, OperatorType type, String instruction,
              OperationFunction<Number>
             numbersFunction) {
-        this.id = IDManager.newId();
+        this.id = IDManager.newSharedId();
         this.sign = sign;
         this.regexSign = regexSign;
         this.type = type;
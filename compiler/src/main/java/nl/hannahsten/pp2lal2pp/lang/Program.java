@@ -59,6 +59,23 @@ public class Program {
      */
     private final List<Definition> definitions;
 
+    /**
+     * The names of the global variables and arrays that have been removed because they are never
+     * read.
+     */
+    private final Set<String> unusedGlobals;
+
+    /**
+     * The functions whose calls are replaced by the body of the function.
+     */
+    private final Set<Function> inlined;
+
+    /**
+     * The functions that are only used by inlining them, and don't have to be compiled on their
+     * own.
+     */
+    private final Set<Function> onlyInlined;
+
     /**
      * Squishes all global variables and arrays together while skipping banned global base
      * segments.
@@ -100,6 +117,9 @@ public class Program {
         globalArrayIndices = new HashMap<>();
         apiFunctions = new HashSet<>();
         definitions = new ArrayList<>();
+        unusedGlobals = new HashSet<>();
+        inlined = new HashSet<>();
+        onlyInlined = new HashSet<>();
     }
 
     /**
@@ -266,6 +286,98 @@ public class Program {
         return Optional.empty();
     }
 
+    /**
+     * Removes all functions, global variables, global arrays and API functions that are not used.
+     *
+     * @param usedFunctions
+     *         The functions to keep.
+     * @param inlinedFunctions
+     *         The functions to keep because they are inlined. The ones that are not in {@code
+     *         usedFunctions} don't have to be compiled on their own.
+     * @param usedNames
+     *         The names of the global variables, global arrays and API functions to keep.
+     */
+    public void removeUnused(Set<Function> usedFunctions, Set<Function> inlinedFunctions,
+                             Set<String> usedNames) {
+        List<Function> allFunctions = new ArrayList<>(functions);
+        functions.clear();
+        functionIndices.clear();
+        for (Function function : allFunctions) {
+            if (usedFunctions.contains(function)) {
+                addFunction(function);
+            }
+            else if (inlinedFunctions.contains(function)) {
+                addFunction(function);
+                onlyInlined.add(function);
+            }
+        }
+
+        List<GlobalVariable> allGlobals = new ArrayList<>(globalVariables);
+        globalVariables.clear();
+        globalVariableIndices.clear();
+        for (GlobalVariable global : allGlobals) {
+            if (usedNames.contains(global.getName())) {
+                addGlobalVariable(global);
+            }
+            else {
+                unusedGlobals.add(global.getName());
+            }
+        }
+
+        List<GlobalArray> allArrays = new ArrayList<>(globalArrays);
+        globalArrays.clear();
+        globalArrayIndices.clear();
+        for (GlobalArray array : allArrays) {
+            if (usedNames.contains(array.getName())) {
+                addGlobalArray(array);
+            }
+            else {
+                unusedGlobals.add(array.getName());
+            }
+        }
+
+        apiFunctions.retainAll(usedNames);
+    }
+
+    /**
+     * Sets the functions whose calls are replaced by the body of the function.
+     */
+    public void setInlined(Set<Function> functions) {
+        inlined.clear();
+        inlined.addAll(functions);
+    }
+
+    /**
+     * @return {@code true} if calls to the function are replaced by the body of the function.
+     */
+    public boolean isInlined(Function function) {
+        return inlined.contains(function);
+    }
+
+    /**
+     * @return {@code true} if the function is only used by inlining it, so it doesn't have to
+     * be compiled on its own.
+     */
+    public boolean isOnlyInlined(Function function) {
+        return onlyInlined.contains(function);
+    }
+
+    /**
+     * @return {@code true} if the global variable or array with the given name has been removed,
+     * because it is never read.
+     */
+    public boolean isUnusedGlobal(String name) {
+        return unusedGlobals.contains(name);
+    }
+
+    /**
+     * @return An <b>unmodifyable</b> set with the names of the global variables and arrays that
+     * have been removed, because they are never read.
+     */
+    public Set<String> getUnusedGlobals() {
+        return Collections.unmodifiableSet(unusedGlobals);
+    }
+
     public void setHeader(List<String> header) {
         this.header = header;
     }
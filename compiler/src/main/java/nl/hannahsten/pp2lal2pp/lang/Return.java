@@ -7,6 +7,12 @@ import nl.hannahsten.pp2lal2pp.IDManager;
  */
 public class Return implements Element, Identifyable {
 
+    /**
+     * A return without value that isn't part of a program, for functions that don't end with a
+     * return statement.
+     */
+    public static final Return EMPTY = new Return(IDManager.newSharedId());
+
     /**
      * The unique ID of the return statement.
      */
@@ -18,7 +24,11 @@ public class Return implements Element, Identifyable {
     private Value returnValue;
 
     public Return() {
-        this.id = IDManager.newId();
+        this(IDManager.newId());
+    }
+
+    private Return(int id) {
+        this.id = id;
         this.returnValue = null;
     }
 
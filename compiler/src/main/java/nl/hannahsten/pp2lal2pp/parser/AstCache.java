@@ -0,0 +1,247 @@
+package nl.hannahsten.pp2lal2pp.parser;
+
+import nl.hannahsten.pp2lal2pp.PP2LAL2PP;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Directory of parsed segments of included files, so that libraries like the standard library
+ * don't have to be parsed again on every compile.
+ * <p>
+ * Entries are keyed by a hash of the compiler version, the code of the segment and the state of
+ * the parser at the start of the segment. When the entries take more space than the maximum
+ * size, the least recently used entries are removed. The cache never fails a compile: entries
+ * that can't be read or written are ignored.
+ * <p>
+ * Entries are also kept in memory up to the same maximum size, so a cache that is used for many
+ * compiles doesn't have to read the same entries from disk over and over.
+ *
+ * @author Hannah Schellekens
+ */
+public class AstCache {
+
+    /**
+     * The default maximum size of all entries together in bytes.
+     */
+    public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Must be increased whenever the format of the entries or the parsed elements change.
+     */
+    private static final int FORMAT_VERSION = 4;
+
+    /**
+     * The first bytes of every entry: "PPAC".
+     */
+    private static final int MAGIC = 0x50504143;
+
+    private static final String EXTENSION = ".ast";
+
+    /**
+     * The directory where the entries are stored.
+     */
+    private final File directory;
+
+    /**
+     * The maximum size of all entries together in bytes.
+     */
+    private final long maxSize;
+
+    /**
+     * The entries that have been read or written by this cache, least recently used first.
+     */
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The size of all entries in {@link AstCache#memory} together in bytes.
+     */
+    private long memorySize = 0;
+
+    public AstCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return A cache in the {@code .pp2lal2pp/cache} directory of the user's home directory.
+     */
+    public static AstCache inUserHome() {
+        File home = new File(System.getProperty("user.home"));
+        return new AstCache(new File(home, ".pp2lal2pp" + File.separator + "cache"), DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Generates the key of a segment.
+     *
+     * @param code
+     *         The code of the segment.
+     * @param context
+     *         Description of everything outside the segment that influences how it is parsed.
+     */
+    String key(String code, String context) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((PP2LAL2PP.VERSION + "\0" + FORMAT_VERSION + "\0").getBytes(StandardCharsets.UTF_8));
+            digest.update(context.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)0);
+            digest.update(code.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+    }
+
+    /**
+     * Reads the entry with the given key.
+     *
+     * @return The stored data, or {@code null} when there is no (valid) entry.
+     */
+    byte[] read(String key) {
+        synchronized (memory) {
+            byte[] data = memory.get(key);
+            if (data != null) {
+                return data;
+            }
+        }
+
+        File file = new File(directory, key + EXTENSION);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+                return invalid(file);
+            }
+
+            long checksum = input.readLong();
+            int length = input.readInt();
+            if (length < 0 || length > file.length()) {
+                return invalid(file);
+            }
+
+            byte[] data = new byte[length];
+            input.readFully(data);
+            if (input.read() != -1 || checksum(data) != checksum) {
+                return invalid(file);
+            }
+
+            // Mark as recently used.
+            file.setLastModified(System.currentTimeMillis());
+            remember(key, data);
+            return data;
+        }
+        catch (IOException e) {
+            return invalid(file);
+        }
+    }
+
+    private byte[] invalid(File file) {
+        file.delete();
+        return null;
+    }
+
+    /**
+     * Stores data under the given key, removing the least recently used entries when the cache
+     * gets too big.
+     */
+    void write(String key, byte[] data) {
+        remember(key, data);
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+
+        File temp = null;
+        try {
+            temp = File.createTempFile("entry", ".tmp", directory);
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(FORMAT_VERSION);
+                output.writeLong(checksum(data));
+                output.writeInt(data.length);
+                output.write(data);
+            }
+
+            File file = new File(directory, key + EXTENSION);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            if (temp != null) {
+                temp.delete();
+            }
+            return;
+        }
+
+        evict();
+    }
+
+    /**
+     * Keeps the entry in memory, forgetting the least recently used entries when they take more
+     * than the maximum size.
+     */
+    private void remember(String key, byte[] data) {
+        synchronized (memory) {
+            byte[] previous = memory.put(key, data);
+            memorySize += data.length - (previous == null ? 0 : previous.length);
+
+            Iterator<byte[]> entries = memory.values().iterator();
+            while (memorySize > maxSize && entries.hasNext()) {
+                memorySize -= entries.next().length;
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits in its maximum size.
+     */
+    private void evict() {
+        File[] entries = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (entries == null) {
+            return;
+        }
+
+        long size = 0;
+        Map<File, Long> lastUsed = new HashMap<>();
+        for (File entry : entries) {
+            size += entry.length();
+            lastUsed.put(entry, entry.lastModified());
+        }
+
+        if (size <= maxSize) {
+            return;
+        }
+
+        Arrays.sort(entries, Comparator.comparing(lastUsed::get));
+        for (File entry : entries) {
+            if (size <= maxSize) {
+                break;
+            }
+
+            long length = entry.length();
+            if (entry.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,764 @@
+package nl.hannahsten.pp2lal2pp.parser;
+
+import nl.hannahsten.pp2lal2pp.IDManager;
+import nl.hannahsten.pp2lal2pp.lang.Number;
+import nl.hannahsten.pp2lal2pp.lang.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Writes parsed segments to a compact binary format and reads them back.
+ * <p>
+ * Every element is written as a tag followed by its fields. Elements that are referred to more
+ * than once are written only the first time, after that a reference to the earlier element is
+ * written. Global arrays that were declared before the segment are written by name and looked up
+ * in the program when reading. IDs are stored relative to the first ID of the segment, so that
+ * restored elements get the same IDs as when the segment would have been parsed in their place.
+ *
+ * @author Hannah Schellekens
+ */
+class AstCodec {
+
+    private static final int REFERENCE = 0;
+    private static final int NULL = 1;
+    private static final int NUMBER = 2;
+    private static final int NUMBER_CONSTANT = 3;
+    private static final int VALUE = 4;
+    private static final int FUNCTION_CALL = 5;
+    private static final int VARIABLE = 6;
+    private static final int GLOBAL_VARIABLE = 7;
+    private static final int GLOBAL_ARRAY = 8;
+    private static final int GLOBAL_ARRAY_NAME = 9;
+    private static final int COMMENT = 10;
+    private static final int DEFINITION = 11;
+    private static final int FUNCTION = 12;
+    private static final int INTERRUPT = 13;
+    private static final int BLOCK = 14;
+    private static final int CONSTANT = 15;
+    private static final int OPERATION = 16;
+    private static final int GLOBAL_ARRAY_ASSIGNMENT = 17;
+    private static final int GLOBAL_ARRAY_INDEXED_ASSIGNMENT = 18;
+    private static final int GLOBAL_ARRAY_READ = 19;
+    private static final int ARRAY_ACCESS = 20;
+    private static final int DECLARATION = 21;
+    private static final int DECLARATION_FROM_GLOBAL_ARRAY = 22;
+    private static final int IF_ELSE = 23;
+    private static final int LOOP = 24;
+    private static final int CONTINUE = 25;
+    private static final int RETURN = 26;
+    private static final int ELEMENT_RETURN = 27;
+    private static final int INJECT = 28;
+
+    /**
+     * Shared elements that are written by their index in this array.
+     */
+    private static final Object[] CONSTANTS = {
+            Number.MINUS_ONE, Number.ZERO, Number.ONE, Number.ALL_1S, Value.EMPTY, Block.EMPTY
+    };
+
+    /**
+     * Writes the given segment.
+     *
+     * @throws IllegalArgumentException
+     *         When the segment contains something that can't be written.
+     */
+    static byte[] encode(ParsedSegment segment) throws IllegalArgumentException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new Writer(new DataOutputStream(bytes), segment).write();
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Could not write segment: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the given elements without their IDs, so elements that have been parsed from the
+     * same code give the same bytes wherever they are in the program. Global arrays are always
+     * written in full. The result can't be read back.
+     *
+     * @throws IllegalArgumentException
+     *         When the elements contain something that can't be written.
+     */
+    static byte[] encodeWithoutIds(Collection<?> elements) throws IllegalArgumentException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new Writer(new DataOutputStream(bytes), null).writeElements(elements);
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Could not write elements: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a segment that has been written with {@link AstCodec#encode(ParsedSegment)}.
+     * <p>
+     * The IDs of the segment are taken from the {@link IDManager}, starting with the next ID.
+     *
+     * @param program
+     *         The program to look up global arrays that are declared outside the segment.
+     * @throws IllegalArgumentException
+     *         When the data is not a valid segment.
+     */
+    static ParsedSegment decode(byte[] data, Program program) throws IllegalArgumentException {
+        int firstId = IDManager.getNextId();
+
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+            return new Reader(input, program, firstId).read();
+        }
+        catch (IOException | RuntimeException e) {
+            IDManager.setNextId(firstId);
+            throw new IllegalArgumentException("Could not read segment: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a single segment.
+     */
+    private static class Writer {
+
+        private final DataOutputStream output;
+
+        /**
+         * The segment to write, or {@code null} when IDs must be left out.
+         */
+        private final ParsedSegment segment;
+
+        /**
+         * For every element that has been written the index to refer to it.
+         */
+        private final Map<Object, Integer> written = new IdentityHashMap<>();
+
+        /**
+         * For every string that has been written the index to refer to it.
+         */
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer(DataOutputStream output, ParsedSegment segment) {
+            this.output = output;
+            this.segment = segment;
+        }
+
+        void write() throws IOException {
+            writeInt(segment.getIdCount());
+
+            writeInt(segment.getElements().size());
+            for (Element element : segment.getElements()) {
+                writeElement(element);
+            }
+
+            writeInt(segment.getCalledFunctions().size());
+            for (String name : segment.getCalledFunctions()) {
+                writeString(name);
+            }
+
+            Comment lastComment = segment.getLastComment();
+            writeString(lastComment == null ? null : lastComment.getContents());
+            writeStrings(segment.getPp2doc());
+        }
+
+        private void writeElement(Object element) throws IOException {
+            if (element == null) {
+                output.writeByte(NULL);
+                return;
+            }
+
+            Integer index = written.get(element);
+            if (index != null) {
+                output.writeByte(REFERENCE);
+                writeInt(index);
+                return;
+            }
+
+            for (int i = 0; i < CONSTANTS.length; i++) {
+                if (element == CONSTANTS[i]) {
+                    output.writeByte(CONSTANT);
+                    writeInt(i);
+                    return;
+                }
+            }
+
+            Class<?> type = element.getClass();
+            if (type == Number.class) {
+                output.writeByte(NUMBER);
+                writeSignedInt(((Number)element).getIntValue());
+            }
+            else if (type == NumberConstant.class) {
+                output.writeByte(NUMBER_CONSTANT);
+                writeString(((NumberConstant)element).getName());
+            }
+            else if (type == Value.class) {
+                Object object = ((Value)element).getObject();
+                if (!(object instanceof String)) {
+                    throw new IllegalArgumentException("Unsupported value " + object);
+                }
+
+                output.writeByte(VALUE);
+                writeString((String)object);
+            }
+            else if (type == FunctionCall.class) {
+                FunctionCall call = (FunctionCall)element;
+                output.writeByte(FUNCTION_CALL);
+                writeId(call);
+                writeString(call.getCalled());
+                writeElements(call.getArguments());
+            }
+            else if (type == Variable.class) {
+                Variable variable = (Variable)element;
+                output.writeByte(VARIABLE);
+                writeId(variable);
+                writeString(variable.getName());
+                writeElement(variable.getDefaultValue());
+                output.writeBoolean(variable.isJustNumber());
+            }
+            else if (type == GlobalVariable.class) {
+                GlobalVariable variable = (GlobalVariable)element;
+                output.writeByte(GLOBAL_VARIABLE);
+                writeId(variable);
+                writeString(variable.getName());
+                writeElement(variable.getDefaultValue());
+                writeElement(variable.getComment());
+            }
+            else if (type == GlobalArray.class) {
+                GlobalArray array = (GlobalArray)element;
+                if (segment == null || segment.getElements().contains(array)) {
+                    output.writeByte(GLOBAL_ARRAY);
+                    writeId(array);
+                    writeString(array.getName());
+                    writeElements(array.getVariables());
+                    writeElement(array.getDefaultValue());
+                }
+                else {
+                    output.writeByte(GLOBAL_ARRAY_NAME);
+                    writeString(array.getName());
+                }
+            }
+            else if (type == Comment.class) {
+                output.writeByte(COMMENT);
+                writeString(((Comment)element).getContents());
+            }
+            else if (type == Definition.class) {
+                Definition definition = (Definition)element;
+                output.writeByte(DEFINITION);
+                writeString(definition.getName());
+                writeElement(definition.getValue());
+                writeString(definition.getDocString().orElse(null));
+            }
+            else if (type == Function.class) {
+                Function function = (Function)element;
+                output.writeByte(FUNCTION);
+                writeId(function);
+                writeString(function.getName());
+                writeStrings(function.getPp2doc());
+                writeElements(function.getArguments());
+                output.writeBoolean(function.isInline());
+                writeElement(function.getContents());
+            }
+            else if (type == Interrupt.class) {
+                Interrupt interrupt = (Interrupt)element;
+                output.writeByte(INTERRUPT);
+                writeId(interrupt);
+                writeString(interrupt.getName());
+                writeStrings(interrupt.getPp2doc());
+                writeElement(interrupt.getContents());
+            }
+            else if (type == Block.class) {
+                Block block = (Block)element;
+                output.writeByte(BLOCK);
+                writeId(block);
+                writeElements(block.getContents());
+            }
+            else if (type == Operation.class) {
+                Operation operation = (Operation)element;
+                output.writeByte(OPERATION);
+                writeElement(operation.getFirstElement());
+                writeOperator(operation.getOperator().orElse(null));
+                writeElement(operation.getSecondElement().orElse(null));
+            }
+            else if (type == GlobalArrayAssignment.class) {
+                GlobalArrayAssignment assignment = (GlobalArrayAssignment)element;
+                output.writeByte(GLOBAL_ARRAY_ASSIGNMENT);
+                writeElement(assignment.getArray());
+                writeElement(assignment.getSecondElement().orElse(null));
+            }
+            else if (type == GlobalArrayIndexedAssignment.class) {
+                GlobalArrayIndexedAssignment assignment = (GlobalArrayIndexedAssignment)element;
+                output.writeByte(GLOBAL_ARRAY_INDEXED_ASSIGNMENT);
+                writeElement(assignment.getArray());
+                writeElement(assignment.getAccess());
+                writeElement(assignment.getSecondElement().orElse(null));
+            }
+            else if (type == GlobalArrayRead.class) {
+                GlobalArrayRead read = (GlobalArrayRead)element;
+                output.writeByte(GLOBAL_ARRAY_READ);
+                writeElement(read.getArray());
+                writeElement(read.getAccess());
+            }
+            else if (type == ArrayAccess.class) {
+                ArrayAccess access = (ArrayAccess)element;
+                output.writeByte(ARRAY_ACCESS);
+                writeId(access);
+                writeElement(access.getAccessingIndex());
+                writeElement(access.getAccessingVariable());
+            }
+            else if (type == Declaration.class) {
+                Declaration declaration = (Declaration)element;
+                output.writeByte(DECLARATION);
+                writeElement(declaration.getVariable());
+                writeElement(declaration.getDeclaration());
+                writeInt(declaration.getScope().ordinal());
+            }
+            else if (type == DeclarationFromGlobalArray.class) {
+                DeclarationFromGlobalArray declaration = (DeclarationFromGlobalArray)element;
+                output.writeByte(DECLARATION_FROM_GLOBAL_ARRAY);
+                writeElement(declaration.getVariable());
+                writeElement(declaration.getArrayRead());
+            }
+            else if (type == IfElse.class) {
+                IfElse ifElse = (IfElse)element;
+                output.writeByte(IF_ELSE);
+                writeId(ifElse);
+                writeElement(ifElse.getExpression());
+                writeElement(ifElse.getIfBlock());
+                writeElement(ifElse.getElseBlock());
+            }
+            else if (type == Loop.class) {
+                Loop loop = (Loop)element;
+                output.writeByte(LOOP);
+                writeId(loop);
+                writeElement(loop.getBase());
+                writeElement(loop.getFrom());
+                writeElement(loop.getTo());
+                writeElement(loop.getStep());
+                writeElement(loop.getContent());
+            }
+            else if (type == Continue.class) {
+                output.writeByte(CONTINUE);
+                writeId((Continue)element);
+            }
+            else if (type == Return.class) {
+                Return ret = (Return)element;
+                output.writeByte(RETURN);
+                writeId(ret);
+                writeElement(ret.getReturnValue());
+            }
+            else if (type == ElementReturn.class) {
+                ElementReturn ret = (ElementReturn)element;
+                output.writeByte(ELEMENT_RETURN);
+                writeId(ret);
+                writeElement(ret.getElement());
+            }
+            else if (type == Inject.class) {
+                Inject inject = (Inject)element;
+                output.writeByte(INJECT);
+                writeId(inject);
+                writeString(inject.getContents());
+            }
+            else {
+                throw new IllegalArgumentException("Unsupported element " + type.getSimpleName());
+            }
+
+            written.put(element, written.size());
+        }
+
+        private void writeElements(Collection<?> elements) throws IOException {
+            writeInt(elements.size());
+            for (Object element : elements) {
+                writeElement(element);
+            }
+        }
+
+        private void writeId(Identifyable identifyable) throws IOException {
+            if (segment == null) {
+                return;
+            }
+
+            int offset = identifyable.getId() - segment.getFirstId();
+            if (offset < 0 || offset >= segment.getIdCount()) {
+                throw new IllegalArgumentException("ID " + identifyable.getId() + " is not part of the segment.");
+            }
+
+            writeInt(offset);
+        }
+
+        private void writeOperator(Operator operator) throws IOException {
+            writeInt(operator == null ? 0 : operator.ordinal() + 1);
+        }
+
+        private void writeStrings(List<String> strings) throws IOException {
+            writeInt(strings.size());
+            for (String string : strings) {
+                writeString(string);
+            }
+        }
+
+        /**
+         * Writes {@code 0} for {@code null}, {@code 1} followed by the string the first time a
+         * string is written, and its index plus {@code 2} after that.
+         */
+        private void writeString(String string) throws IOException {
+            if (string == null) {
+                writeInt(0);
+                return;
+            }
+
+            Integer index = strings.get(string);
+            if (index != null) {
+                writeInt(index + 2);
+                return;
+            }
+
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeInt(1);
+            writeInt(bytes.length);
+            output.write(bytes);
+            strings.put(string, strings.size());
+        }
+
+        private void writeSignedInt(int value) throws IOException {
+            writeInt((value << 1) ^ (value >> 31));
+        }
+
+        /**
+         * Writes an unsigned integer using 7 bits per byte.
+         */
+        private void writeInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                output.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            output.writeByte(value);
+        }
+    }
+
+    /**
+     * Reads a single segment.
+     */
+    private static class Reader {
+
+        private final DataInputStream input;
+
+        private final Program program;
+
+        private final int firstId;
+
+        /**
+         * All elements that have been read, in order of reading.
+         */
+        private final List<Object> read = new ArrayList<>();
+
+        /**
+         * All strings that have been read, in order of reading.
+         */
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(DataInputStream input, Program program, int firstId) {
+            this.input = input;
+            this.program = program;
+            this.firstId = firstId;
+        }
+
+        ParsedSegment read() throws IOException {
+            ParsedSegment segment = new ParsedSegment(firstId);
+            int idCount = readInt();
+
+            int elementCount = readInt();
+            for (int i = 0; i < elementCount; i++) {
+                segment.addElement(readElement(Element.class));
+            }
+
+            int calledCount = readInt();
+            for (int i = 0; i < calledCount; i++) {
+                segment.addCalledFunction(readString());
+            }
+
+            String lastComment = readString();
+            List<String> pp2doc = readStrings();
+
+            if (input.read() != -1) {
+                throw new IOException("Unexpected data after segment.");
+            }
+
+            segment.finish(firstId + idCount, lastComment == null ? null : new Comment(lastComment), pp2doc);
+            IDManager.setNextId(firstId + idCount);
+            return segment;
+        }
+
+        private <T> T readElement(Class<T> type) throws IOException {
+            int tag = input.readUnsignedByte();
+            if (tag == NULL) {
+                return null;
+            }
+            if (tag == REFERENCE) {
+                return type.cast(read.get(readInt()));
+            }
+            if (tag == CONSTANT) {
+                return type.cast(CONSTANTS[readInt()]);
+            }
+
+            Object element;
+            switch (tag) {
+                case NUMBER:
+                    element = new Number(readSignedInt());
+                    break;
+                case NUMBER_CONSTANT:
+                    element = new NumberConstant(readString());
+                    break;
+                case VALUE:
+                    element = new Value(readString());
+                    break;
+                case FUNCTION_CALL: {
+                    int id = readInt();
+                    String called = readString();
+                    List<Variable> arguments = readElements(Variable.class);
+                    setId(id);
+                    element = new FunctionCall(called, arguments);
+                    break;
+                }
+                case VARIABLE: {
+                    int id = readInt();
+                    String name = readString();
+                    Value defaultValue = readElement(Value.class);
+                    boolean justNumber = input.readBoolean();
+                    setId(id);
+                    element = new Variable(name, defaultValue).setJustNumber(justNumber);
+                    break;
+                }
+                case GLOBAL_VARIABLE: {
+                    int id = readInt();
+                    String name = readString();
+                    Value defaultValue = readElement(Value.class);
+                    Comment comment = readElement(Comment.class);
+                    setId(id);
+                    element = new GlobalVariable(name, defaultValue, comment);
+                    break;
+                }
+                case GLOBAL_ARRAY: {
+                    int id = readInt();
+                    String name = readString();
+                    List<GlobalVariable> variables = readElements(GlobalVariable.class);
+                    Value defaultValue = readElement(Value.class);
+                    setId(id);
+                    GlobalArray array = new GlobalArray(name, variables);
+                    array.setDefaultValue(defaultValue);
+                    element = array;
+                    break;
+                }
+                case GLOBAL_ARRAY_NAME: {
+                    String name = readString();
+                    element = program.getGlobalArray(name).orElseThrow(() ->
+                            new IOException("Undefined global array '" + name + "'.")
+                    );
+                    break;
+                }
+                case COMMENT:
+                    element = new Comment(readString());
+                    break;
+                case DEFINITION: {
+                    String name = readString();
+                    Value value = readElement(Value.class);
+                    String docString = readString();
+                    element = new Definition(name, value, docString);
+                    break;
+                }
+                case FUNCTION: {
+                    int id = readInt();
+                    String name = readString();
+                    List<String> pp2doc = readStrings();
+                    List<Variable> arguments = readElements(Variable.class);
+                    boolean inline = input.readBoolean();
+                    Block contents = readElement(Block.class);
+                    setId(id);
+                    Function function = new Function(name, pp2doc, arguments);
+                    function.setInline(inline);
+                    function.setContents(contents);
+                    element = function;
+                    break;
+                }
+                case INTERRUPT: {
+                    int id = readInt();
+                    String name = readString();
+                    List<String> pp2doc = readStrings();
+                    Block contents = readElement(Block.class);
+                    setId(id);
+                    Interrupt interrupt = new Interrupt(name, pp2doc);
+                    interrupt.setContents(contents);
+                    element = interrupt;
+                    break;
+                }
+                case BLOCK: {
+                    int id = readInt();
+                    List<Element> contents = readElements(Element.class);
+                    setId(id);
+                    element = new Block(contents);
+                    break;
+                }
+                case OPERATION: {
+                    Element first = readElement(Element.class);
+                    Operator operator = readOperator();
+                    Element second = readElement(Element.class);
+                    element = new Operation(first, operator, second);
+                    break;
+                }
+                case GLOBAL_ARRAY_ASSIGNMENT: {
+                    GlobalArray array = readElement(GlobalArray.class);
+                    Element value = readElement(Element.class);
+                    element = new GlobalArrayAssignment(array, value);
+                    break;
+                }
+                case GLOBAL_ARRAY_INDEXED_ASSIGNMENT: {
+                    GlobalArray array = readElement(GlobalArray.class);
+                    ArrayAccess access = readElement(ArrayAccess.class);
+                    Element value = readElement(Element.class);
+                    element = new GlobalArrayIndexedAssignment(array, access, value);
+                    break;
+                }
+                case GLOBAL_ARRAY_READ: {
+                    GlobalArray array = readElement(GlobalArray.class);
+                    ArrayAccess access = readElement(ArrayAccess.class);
+                    element = new GlobalArrayRead(array, access);
+                    break;
+                }
+                case ARRAY_ACCESS: {
+                    int id = readInt();
+                    Value index = readElement(Value.class);
+                    Variable variable = readElement(Variable.class);
+                    setId(id);
+                    element = index != null ? ArrayAccess.newValueIndex(index) : ArrayAccess.newVariableIndex(variable);
+                    break;
+                }
+                case DECLARATION: {
+                    Variable variable = readElement(Variable.class);
+                    Value value = readElement(Value.class);
+                    Declaration.DeclarationScope scope = Declaration.DeclarationScope.values()[readInt()];
+                    element = new Declaration(variable, value, scope);
+                    break;
+                }
+                case DECLARATION_FROM_GLOBAL_ARRAY: {
+                    Variable variable = readElement(Variable.class);
+                    GlobalArrayRead arrayRead = readElement(GlobalArrayRead.class);
+                    element = new DeclarationFromGlobalArray(variable, arrayRead);
+                    break;
+                }
+                case IF_ELSE: {
+                    int id = readInt();
+                    Operation expression = readElement(Operation.class);
+                    Block ifBlock = readElement(Block.class);
+                    Block elseBlock = readElement(Block.class);
+                    setId(id);
+                    element = new IfElse(expression, ifBlock, elseBlock);
+                    break;
+                }
+                case LOOP: {
+                    int id = readInt();
+                    Variable base = readElement(Variable.class);
+                    Value from = readElement(Value.class);
+                    Value to = readElement(Value.class);
+                    Value step = readElement(Value.class);
+                    Block content = readElement(Block.class);
+                    setId(id);
+                    element = new Loop(content, base, from, to, step);
+                    break;
+                }
+                case CONTINUE:
+                    setId(readInt());
+                    element = new Continue();
+                    break;
+                case RETURN: {
+                    int id = readInt();
+                    Value value = readElement(Value.class);
+                    setId(id);
+                    element = value == null ? new Return() : new Return(value);
+                    break;
+                }
+                case ELEMENT_RETURN: {
+                    int id = readInt();
+                    Element value = readElement(Element.class);
+                    setId(id);
+                    element = new ElementReturn(value);
+                    break;
+                }
+                case INJECT: {
+                    int id = readInt();
+                    String contents = readString();
+                    setId(id);
+                    element = new Inject(contents);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown tag " + tag + ".");
+            }
+
+            read.add(element);
+            return type.cast(element);
+        }
+
+        private <T> List<T> readElements(Class<T> type) throws IOException {
+            int size = readInt();
+            List<T> elements = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                elements.add(readElement(type));
+            }
+            return elements;
+        }
+
+        /**
+         * Makes sure the next element that gets constructed gets the ID with the given offset.
+         */
+        private void setId(int offset) {
+            IDManager.setNextId(firstId + offset);
+        }
+
+        private Operator readOperator() throws IOException {
+            int operator = readInt();
+            return operator == 0 ? null : Operator.values()[operator - 1];
+        }
+
+        private List<String> readStrings() throws IOException {
+            int size = readInt();
+            List<String> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(readString());
+            }
+            return result;
+        }
+
+        private String readString() throws IOException {
+            int index = readInt();
+            if (index == 0) {
+                return null;
+            }
+            if (index > 1) {
+                return strings.get(index - 2);
+            }
+
+            byte[] bytes = new byte[readInt()];
+            input.readFully(bytes);
+            String string = new String(bytes, StandardCharsets.UTF_8).intern();
+            strings.add(string);
+            return string;
+        }
+
+        private int readSignedInt() throws IOException {
+            int value = readInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private int readInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = input.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed number.");
+        }
+    }
+}
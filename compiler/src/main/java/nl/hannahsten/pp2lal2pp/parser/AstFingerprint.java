@@ -0,0 +1,23 @@
+package nl.hannahsten.pp2lal2pp.parser;
+
+import java.util.Collection;
+
+/**
+ * Turns parsed elements into bytes that only depend on what the elements mean, not on where
+ * they are in the program. Elements that have been parsed from the same code in the same
+ * surroundings have the same fingerprint, even when they got other IDs.
+ *
+ * @author Hannah Schellekens
+ */
+public class AstFingerprint {
+
+    /**
+     * Gets the fingerprint of the given elements.
+     *
+     * @throws IllegalArgumentException
+     *         When the elements contain something that has no fingerprint.
+     */
+    public static byte[] of(Collection<?> elements) throws IllegalArgumentException {
+        return AstCodec.encodeWithoutIds(elements);
+    }
+}
@@ -1,10 +1,13 @@
 package nl.hannahsten.pp2lal2pp.parser;
 
-import nl.hannahsten.pp2lal2pp.ParseException;
-import nl.hannahsten.pp2lal2pp.util.FileWorker;
+import nl.hannahsten.pp2lal2pp.IDManager;
+import nl.hannahsten.pp2lal2pp.lang.*;
 
 import java.io.File;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
 
 /**
  * @author Hannah Schellekens
@@ -16,110 +19,214 @@ public class FileParser extends Parser {
      */
     private File file;
 
+    /**
+     * The cache for parsed included code, or {@code null} when no cache must be used.
+     */
+    private final AstCache cache;
+
+    /**
+     * All runs of included lines that can be cached.
+     */
+    private List<IncludeSegment> segments;
+
+    /**
+     * The canonical paths of the file and all files it (indirectly) includes.
+     */
+    private Set<String> includedFiles;
+
     public FileParser(File file) {
-        this((String)null);
+        this(file, null);
+    }
+
+    /**
+     * @param cache
+     *         The cache to get parsed included files from, or {@code null} to parse everything.
+     */
+    public FileParser(File file, AstCache cache) {
+        super(null);
         this.file = file;
+        this.cache = cache;
 
         readInput();
-        includeFiles();
     }
 
-    private FileParser(String input) {
-        super(input);
+    /**
+     * Reads all the text in the file, includes all files that have to be included and stores
+     * the result in {@link Parser#input}.
+     */
+    private void readInput() {
+        IncludeResolver resolver = new IncludeResolver(file);
+        this.input = resolver.resolve(file);
+        this.segments = resolver.getSegments();
+        this.includedFiles = resolver.getIncludedFiles();
     }
 
     /**
-     * Reads all the text in the file and stores it in {@link Parser#input}.
+     * @return The canonical paths of the file and all files it (indirectly) includes.
      */
-    private void readInput() throws ParseException {
-        this.input = getFileContents(file);
+    public Set<String> getIncludedFiles() {
+        return includedFiles;
+    }
+
+    @Override
+    void parseInput() {
+        if (cache == null || segments.isEmpty()) {
+            super.parseInput();
+            return;
+        }
+
+        LineTokeniser lines = new LineTokeniser(input);
+        List<int[]> ranges = segmentRanges(lines);
+        int segment = 0;
+
+        ListIterator<Tokeniser> it = lines.listIterator();
+        while (it.hasNext()) {
+            int index = it.nextIndex();
+
+            // Segments can only be cached when they start at top level.
+            while (segment < ranges.size() && ranges.get(segment)[1] < index) {
+                segment++;
+            }
+
+            if (segment < ranges.size() && ranges.get(segment)[1] == index) {
+                int[] range = ranges.get(segment++);
+                it = parseSegment(segments.get(range[0]), lines, it, range[2]);
+                continue;
+            }
+
+            parseTopLevel(it, it.next());
+        }
     }
 
     /**
-     * Includes all files that have to be included.
+     * Finds the lines of all segments.
+     *
+     * @return For every segment that contains lines: the index of the segment, the index of its
+     * first line and the index after its last line.
      */
-    private void includeFiles() {
-        List<String> includedFiles = new ArrayList<>();
-        includedFiles.add(file.getAbsolutePath());
-
-        while (hasIncludes()) {
-            Map<String, String> toReplace = new HashMap<>();
-
-            for (String line : input.split("\n")) {
-                line = line.trim();
-
-                if (line.toLowerCase().startsWith("include")) {
-                    String[] parts = line.split("^(include(\\s)+)");
-                    String toInclude = parts[1];
-
-                    Optional<File> opFile = getIncludeFile(toInclude);
-                    if (!opFile.isPresent()) {
-                        throw new ParseException("Could not find a file to include for '" +
-                                toInclude + "'.");
-                    }
-
-                    File includeFile = opFile.get();
-                    if (includedFiles.contains(includeFile.getAbsolutePath())) {
-                        throw new ParseException("File " + toInclude + " has already been included.");
-                    }
-
-                    toReplace.put("include " + toInclude, getFileContents(includeFile));
-                    includedFiles.add(includeFile.getAbsolutePath());
-                }
+    private List<int[]> segmentRanges(LineTokeniser lines) {
+        List<int[]> ranges = new ArrayList<>();
+        int line = 0;
+
+        for (int i = 0; i < segments.size(); i++) {
+            IncludeSegment segment = segments.get(i);
+            while (line < lines.size() && lines.getLineNumber(line) < segment.getFirstLine()) {
+                line++;
+            }
+
+            int start = line;
+            while (line < lines.size() && lines.getLineNumber(line) <= segment.getLastLine()) {
+                line++;
             }
 
-            for (String key : toReplace.keySet()) {
-                String replacement = toReplace.get(key);
-                input = input.replace(key, replacement.trim());
+            if (start < line) {
+                ranges.add(new int[]{i, start, line});
             }
         }
+
+        return ranges;
     }
 
     /**
-     * Checks if the input hsa include statements left.
+     * Parses the lines of the segment, or restores them from the cache.
+     *
+     * @param it
+     *         The line iterator, positioned at the first line of the segment.
+     * @param end
+     *         The index after the last line of the segment.
+     * @return The line iterator to continue parsing with.
      */
-    private boolean hasIncludes() {
-        for (String line : input.split("\n")) {
-            if (line.trim().startsWith("include")) {
-                return true;
+    private ListIterator<Tokeniser> parseSegment(IncludeSegment segment, LineTokeniser lines,
+                                                 ListIterator<Tokeniser> it, int end) {
+        String key = cache.key(segment.getCode(), context());
+
+        byte[] data = cache.read(key);
+        if (data != null) {
+            try {
+                apply(AstCodec.decode(data, program));
+                return lines.listIterator(end);
+            }
+            catch (IllegalArgumentException e) {
+                // Parse the segment instead.
+            }
+        }
+
+        // The segment must only record the bodies of its own functions.
+        parseBodies();
+
+        ParsedSegment parsed = new ParsedSegment(IDManager.getNextId());
+        recording = parsed;
+        try {
+            while (it.hasNext() && it.nextIndex() < end) {
+                parseTopLevel(it, it.next());
+            }
+
+            parseBodies();
+        }
+        finally {
+            recording = null;
+        }
+
+        // Only cache segments that end at top level as well.
+        if (it.nextIndex() == end) {
+            parsed.finish(IDManager.getNextId(), lastComment, pp2doc);
+
+            try {
+                cache.write(key, AstCodec.encode(parsed));
+            }
+            catch (IllegalArgumentException e) {
+                // Not cacheable.
             }
         }
 
-        return false;
+        return it;
     }
 
     /**
-     * Reads all the contents of the given file.
+     * Adds everything in the segment to the program, as if it was parsed.
      */
-    private String getFileContents(File file) {
-        return new FileWorker(file).read();
+    private void apply(ParsedSegment segment) {
+        for (Element element : segment.getElements()) {
+            addToProgram(element);
+        }
+
+        for (String function : segment.getCalledFunctions()) {
+            program.registerAPIFunction(function);
+        }
+
+        lastComment = segment.getLastComment();
+        pp2doc.clear();
+        pp2doc.addAll(segment.getPp2doc());
     }
 
     /**
-     * Generates the filename from an include statement's value.
+     * Describes everything parsed so far that influences how the next segment is parsed.
      */
-    private Optional<File> getIncludeFile(String include) {
-        String base = file.getAbsolutePath().replace(file.getName(), include);
+    private String context() {
+        StringBuilder sb = new StringBuilder();
+
+        for (Definition definition : program.getDefinitions()) {
+            sb.append("define ").append(definition.getName()).append(' ')
+                    .append(definition.getValue().stringRepresentation()).append('\n');
+        }
+
+        for (Function function : program.getFunctions()) {
+            sb.append("function ").append(function.getName()).append('\n');
+        }
 
-        // First check if the include file is valid.
-        File file = new File(base);
-        if (file.exists()) {
-            return Optional.of(file);
+        for (GlobalArray array : program.getGlobalArrays()) {
+            sb.append("array ").append(array.getName()).append('\n');
         }
 
-        // Then check .pp2lal2pp
-        file = new File(base + ".pp2lal2pp");
-        if (file.exists()) {
-            return Optional.of(file);
+        if (lastComment != null) {
+            sb.append("comment ").append(lastComment.getContents()).append('\n');
         }
 
-        // Then check .pp2
-        file = new File(base + ".pp2");
-        if (file.exists()) {
-            return Optional.of(file);
+        for (String doc : pp2doc) {
+            sb.append("doc ").append(doc).append('\n');
         }
 
-        return Optional.empty();
+        return sb.toString();
     }
 
 }
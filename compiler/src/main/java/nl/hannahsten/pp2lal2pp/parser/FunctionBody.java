@@ -0,0 +1,117 @@
+package nl.hannahsten.pp2lal2pp.parser;
+
+import nl.hannahsten.pp2lal2pp.lang.Block;
+import nl.hannahsten.pp2lal2pp.lang.Function;
+
+import java.util.List;
+
+/**
+ * The body of a function that is parsed after all top level lines, together with the outcome
+ * of parsing it.
+ *
+ * @author Hannah Schellekens
+ */
+class FunctionBody {
+
+    /**
+     * The function the body belongs to.
+     */
+    private final Function function;
+
+    /**
+     * The name of the function as written in the header.
+     */
+    private final String name;
+
+    /**
+     * All lines of the body, including the line with the closing brace.
+     */
+    private final List<Tokeniser> lines;
+
+    /**
+     * The program as it was when the parser got to the function.
+     */
+    private final ProgramView view;
+
+    /**
+     * The first ID that is reserved for the body.
+     */
+    private final int firstId;
+
+    /**
+     * The amount of IDs that are reserved for the body.
+     */
+    private final int idCount;
+
+    /**
+     * The parsed body, or {@code null} when it hasn't been parsed (successfully).
+     */
+    private Block contents;
+
+    /**
+     * The exception that was thrown while parsing the body, or {@code null} if there was none.
+     */
+    private RuntimeException error;
+
+    /**
+     * The amount of IDs that were given out while parsing the body.
+     */
+    private int idsUsed;
+
+    FunctionBody(Function function, String name, List<Tokeniser> lines, ProgramView view, int firstId, int idCount) {
+        this.function = function;
+        this.name = name;
+        this.lines = lines;
+        this.view = view;
+        this.firstId = firstId;
+        this.idCount = idCount;
+    }
+
+    Function getFunction() {
+        return function;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    List<Tokeniser> getLines() {
+        return lines;
+    }
+
+    ProgramView getView() {
+        return view;
+    }
+
+    int getFirstId() {
+        return firstId;
+    }
+
+    /**
+     * @return {@code true} when the body ended at its last line without using more IDs than
+     * were reserved, {@code false} when it must be parsed together with the rest of the program.
+     */
+    boolean isSeparable() {
+        return idsUsed <= idCount && (contents != null || error != null);
+    }
+
+    Block getContents() {
+        return contents;
+    }
+
+    void setContents(Block contents) {
+        this.contents = contents;
+    }
+
+    RuntimeException getError() {
+        return error;
+    }
+
+    void setError(RuntimeException error) {
+        this.error = error;
+    }
+
+    void setIdsUsed(int idsUsed) {
+        this.idsUsed = idsUsed;
+    }
+}
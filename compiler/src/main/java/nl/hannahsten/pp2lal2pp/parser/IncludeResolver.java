@@ -0,0 +1,227 @@
+package nl.hannahsten.pp2lal2pp.parser;
+
+import nl.hannahsten.pp2lal2pp.PP2LAL2PPException;
+import nl.hannahsten.pp2lal2pp.ParseException;
+import nl.hannahsten.pp2lal2pp.util.FileWorker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Replaces all include statements in a file by the contents of the included files.
+ * <p>
+ * The includes form a graph that is walked depth first: every file is read once (by canonical
+ * path) and its lines are appended to a single buffer, where an include statement is replaced by
+ * the resolved contents of the included file. A file that is included again is left out, a file
+ * that (indirectly) includes itself is an error.
+ *
+ * @author Hannah Schellekens
+ */
+class IncludeResolver {
+
+    /**
+     * The directory against which all include statements are resolved.
+     */
+    private final File directory;
+
+    /**
+     * Canonical paths of all files that have been included so far.
+     */
+    private final Set<String> includedFiles = new HashSet<>();
+
+    /**
+     * Canonical paths of the files that are currently being resolved, in order of inclusion.
+     */
+    private final LinkedHashSet<String> resolving = new LinkedHashSet<>();
+
+    /**
+     * All runs of lines of included files without include statements, in order of appearance.
+     */
+    private final List<IncludeSegment> segments = new ArrayList<>();
+
+    /**
+     * The number of the line that is currently being written, starting with 1.
+     */
+    private int line = 1;
+
+    /**
+     * @param file
+     *         The main file, includes are resolved relative to its directory.
+     */
+    IncludeResolver(File file) {
+        this.directory = file.getAbsoluteFile().getParentFile();
+    }
+
+    /**
+     * Reads the given file and resolves all its includes.
+     *
+     * @return The code of the file with all includes replaced.
+     * @throws ParseException
+     *         When an included file could not be found, or when the includes contain a cycle.
+     */
+    String resolve(File file) throws ParseException {
+        StringBuilder sb = new StringBuilder();
+        resolve(file, sb, false);
+        return sb.toString();
+    }
+
+    private void resolve(File file, StringBuilder sb, boolean included) {
+        String path = canonicalPath(file);
+        if (resolving.contains(path)) {
+            List<String> cycle = new ArrayList<>(resolving);
+            cycle = cycle.subList(cycle.indexOf(path), cycle.size());
+            throw new ParseException("Cyclic include: " + String.join(" -> ", cycle) + " -> " + path + ".");
+        }
+        if (!includedFiles.add(path)) {
+            return;
+        }
+
+        resolving.add(path);
+
+        String code = new FileWorker(file).read();
+        if (included) {
+            code = code.trim();
+        }
+
+        int segmentStart = -1;
+        int segmentEnd = 0;
+        int segmentFirstLine = 0;
+
+        int start = 0;
+        int length = code.length();
+        while (start <= length) {
+            int end = code.indexOf('\n', start);
+            if (end < 0) {
+                end = length;
+            }
+
+            String include = includeName(code, start, end);
+            if (include == null) {
+                if (included && segmentStart < 0) {
+                    segmentStart = start;
+                    segmentFirstLine = line;
+                }
+                segmentEnd = end;
+
+                sb.append(code, start, end);
+            }
+            else {
+                if (segmentStart >= 0) {
+                    addSegment(code.substring(segmentStart, segmentEnd), segmentFirstLine);
+                    segmentStart = -1;
+                }
+
+                Optional<File> includeFile = getIncludeFile(include);
+                if (!includeFile.isPresent()) {
+                    throw new ParseException("Could not find a file to include for '" + include + "'.");
+                }
+
+                resolve(includeFile.get(), sb, true);
+            }
+
+            if (end < length) {
+                sb.append('\n');
+                line++;
+            }
+            start = end + 1;
+        }
+
+        if (segmentStart >= 0) {
+            addSegment(code.substring(segmentStart, segmentEnd), segmentFirstLine);
+        }
+
+        resolving.remove(path);
+    }
+
+    private void addSegment(String code, int firstLine) {
+        int lastLine = firstLine;
+        for (int i = 0; i < code.length(); i++) {
+            if (code.charAt(i) == '\n') {
+                lastLine++;
+            }
+        }
+
+        segments.add(new IncludeSegment(code, firstLine, lastLine));
+    }
+
+    /**
+     * @return All runs of lines of included files that contain no include statements, in order
+     * of appearance in the resolved code.
+     */
+    List<IncludeSegment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * @return The canonical paths of the main file and all files it (indirectly) includes.
+     */
+    Set<String> getIncludedFiles() {
+        return Collections.unmodifiableSet(includedFiles);
+    }
+
+    /**
+     * Gets the name of the included file when the line {@code code[start, end)} is an include
+     * statement.
+     *
+     * @return The name of the file to include, or {@code null} when the line is no include
+     * statement.
+     */
+    private static String includeName(String code, int start, int end) {
+        while (start < end && Character.isWhitespace(code.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(code.charAt(end - 1))) {
+            end--;
+        }
+
+        if (!code.startsWith("include", start)) {
+            return null;
+        }
+
+        int nameStart = start + "include".length();
+        if (nameStart >= end || !Character.isWhitespace(code.charAt(nameStart))) {
+            return null;
+        }
+
+        while (Character.isWhitespace(code.charAt(nameStart))) {
+            nameStart++;
+        }
+
+        return code.substring(nameStart, end);
+    }
+
+    /**
+     * Generates the filename from an include statement's value.
+     */
+    private Optional<File> getIncludeFile(String include) {
+        // First check if the include file is valid.
+        File file = new File(directory, include);
+        if (file.exists()) {
+            return Optional.of(file);
+        }
+
+        // Then check .pp2lal2pp
+        file = new File(directory, include + ".pp2lal2pp");
+        if (file.exists()) {
+            return Optional.of(file);
+        }
+
+        // Then check .pp2
+        file = new File(directory, include + ".pp2");
+        if (file.exists()) {
+            return Optional.of(file);
+        }
+
+        return Optional.empty();
+    }
+
+    private static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        }
+        catch (IOException e) {
+            throw new PP2LAL2PPException("Could not resolve path: " + file.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package nl.hannahsten.pp2lal2pp.parser;
+
+/**
+ * A run of lines of an included file that contains no include statements, as it ends up in the
+ * code with all includes resolved.
+ *
+ * @author Hannah Schellekens
+ */
+class IncludeSegment {
+
+    /**
+     * The lines of the segment.
+     */
+    private final String code;
+
+    /**
+     * The line number of the first line of the segment in the resolved code, starting with 1.
+     */
+    private final int firstLine;
+
+    /**
+     * The line number of the last line of the segment in the resolved code, starting with 1.
+     */
+    private final int lastLine;
+
+    IncludeSegment(String code, int firstLine, int lastLine) {
+        this.code = code;
+        this.firstLine = firstLine;
+        this.lastLine = lastLine;
+    }
+
+    String getCode() {
+        return code;
+    }
+
+    int getFirstLine() {
+        return firstLine;
+    }
+
+    int getLastLine() {
+        return lastLine;
+    }
+}
@@ -0,0 +1,219 @@
+package nl.hannahsten.pp2lal2pp.parser;
+
+import nl.hannahsten.pp2lal2pp.lang.Operator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a single line of code into tokens in one pass over its characters.
+ * <p>
+ * Brackets, braces, commas and {@code #} are always tokens of their own, unless they are quoted
+ * like {@code '('}. Runs of operator characters are split into operators in the priority order
+ * of {@link Operator}, where an operator is left untouched when it is quoted or when it is a
+ * minus sign directly in front of a digit (a negative number). Everything else is separated by
+ * whitespace.
+ *
+ * @author Hannah Schellekens
+ */
+final class Lexer {
+
+    /**
+     * All operators that can be recognised in a run of operator characters, in order of priority.
+     * <p>
+     * The logical operators are left out: they are words surrounded by whitespace, which the
+     * whitespace rule already takes care of. {@link Token#word} turns them into operators.
+     */
+    private static final Operator[] OPERATORS;
+
+    static {
+        List<Operator> operators = new ArrayList<>();
+        for (Operator operator : Operator.values()) {
+            if (operator.getType() != Operator.OperatorType.LOGICAL) {
+                operators.add(operator);
+            }
+        }
+        OPERATORS = operators.toArray(new Operator[0]);
+    }
+
+    /**
+     * Tokenises the given line of code.
+     *
+     * @param code
+     *         The line to tokenise.
+     * @param line
+     *         The line number of the code, starting with 1.
+     * @param column
+     *         The column of the first character of the code, starting with 1.
+     * @return A modifiable list containing all tokens in order of appearance.
+     */
+    static List<Token> tokenise(String code, int line, int column) {
+        List<Token> tokens = new ArrayList<>();
+        int length = code.length();
+        int tokenStart = -1;
+        int i = 0;
+
+        while (i < length) {
+            char c = code.charAt(i);
+
+            if (isWhitespace(c)) {
+                tokenStart = flush(code, tokenStart, i, tokens, line, column);
+                i++;
+            }
+            else if (isPunctuation(c) && !isQuoted(code, i, i + 1)) {
+                tokenStart = flush(code, tokenStart, i, tokens, line, column);
+                tokens.add(Token.punctuation(c, line, column + i));
+                i++;
+            }
+            else if (isOperatorCharacter(c)) {
+                int runEnd = i + 1;
+                while (runEnd < length && isOperatorCharacter(code.charAt(runEnd))) {
+                    runEnd++;
+                }
+
+                Operator[] operators = claimOperators(code, i, runEnd);
+                for (int j = i; j < runEnd; ) {
+                    Operator operator = operators[j - i];
+                    if (operator == null) {
+                        if (tokenStart < 0) {
+                            tokenStart = j;
+                        }
+                        j++;
+                        continue;
+                    }
+
+                    tokenStart = flush(code, tokenStart, j, tokens, line, column);
+                    tokens.add(Token.operator(operator, line, column + j));
+                    j += operator.getSign().length();
+                }
+
+                i = runEnd;
+            }
+            else {
+                if (tokenStart < 0) {
+                    tokenStart = i;
+                }
+                i++;
+            }
+        }
+
+        flush(code, tokenStart, length, tokens, line, column);
+        return tokens;
+    }
+
+    /**
+     * Determines which operators the characters in {@code code[start, end)} form.
+     * <p>
+     * Operators are matched one by one in order of priority, from left to right, on the
+     * characters that have not been claimed by an operator of higher priority yet.
+     *
+     * @return An array with for each position in the run the operator that starts there, or
+     * {@code null} when no operator starts at that position.
+     */
+    private static Operator[] claimOperators(String code, int start, int end) {
+        int length = end - start;
+        Operator[] starts = new Operator[length];
+        boolean[] claimed = new boolean[length];
+
+        for (Operator operator : OPERATORS) {
+            String sign = operator.getSign();
+            int signLength = sign.length();
+
+            for (int j = 0; j + signLength <= length; ) {
+                if (matches(code, start, j, sign, claimed) && !isQuoted(code, start + j, start + j + signLength) &&
+                        !isNegativeNumber(code, start + j, sign)) {
+                    starts[j] = operator;
+                    for (int k = j; k < j + signLength; k++) {
+                        claimed[k] = true;
+                    }
+                    j += signLength;
+                }
+                else {
+                    j++;
+                }
+            }
+        }
+
+        return starts;
+    }
+
+    /**
+     * Checks whether the unclaimed characters at position {@code offset} of the run spell out
+     * the given operator sign.
+     */
+    private static boolean matches(String code, int start, int offset, String sign, boolean[] claimed) {
+        for (int k = 0; k < sign.length(); k++) {
+            if (claimed[offset + k] || code.charAt(start + offset + k) != sign.charAt(k)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks if the minus sign at the given index is part of a negative number.
+     */
+    private static boolean isNegativeNumber(String code, int index, String sign) {
+        if (!"-".equals(sign) || index + 1 >= code.length()) {
+            return false;
+        }
+
+        char next = code.charAt(index + 1);
+        return next >= '0' && next <= '9';
+    }
+
+    /**
+     * Checks whether the characters in {@code code[start, end)} are surrounded by single quotes.
+     */
+    private static boolean isQuoted(String code, int start, int end) {
+        return start > 0 && code.charAt(start - 1) == '\'' && end < code.length() && code.charAt(end) == '\'';
+    }
+
+    /**
+     * Adds the token that started at {@code tokenStart} and ends before {@code end} when there
+     * is one.
+     *
+     * @return The new start of the current token, which is always {@code -1}.
+     */
+    private static int flush(String code, int tokenStart, int end, List<Token> tokens, int line, int column) {
+        if (tokenStart >= 0) {
+            tokens.add(Token.word(code.substring(tokenStart, end), line, column + tokenStart));
+        }
+
+        return -1;
+    }
+
+    /**
+     * Same set of characters as {@code \s} in regular expressions.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isPunctuation(char c) {
+        return c == ',' || c == '#' || c == '(' || c == ')' || c == '{' || c == '}' || c == '[' || c == ']';
+    }
+
+    private static boolean isOperatorCharacter(char c) {
+        switch (c) {
+            case '+':
+            case '-':
+            case '*':
+            case '/':
+            case '%':
+            case '&':
+            case '|':
+            case '^':
+            case '~':
+            case '>':
+            case '<':
+            case '=':
+            case '!':
+            case ':':
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -1,25 +1,101 @@
 package nl.hannahsten.pp2lal2pp.parser;
 
-import nl.hannahsten.pp2lal2pp.util.Regex;
-
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
+ * Splits code into lines, where blank lines and whitespace around line breaks are ignored.
+ * <p>
+ * Every line is tokenised the first time it is requested.
+ *
  * @author Hannah Schellekens
  */
-public class LineTokeniser implements Iterable<String> {
+public class LineTokeniser extends AbstractList<Tokeniser> {
 
     /**
      * A list of all lines in the given code.
      */
-    private final List<String> lines;
+    private final List<String> lines = new ArrayList<>();
+
+    /**
+     * For every line the line number in the code, starting with 1.
+     */
+    private final List<Integer> lineNumbers = new ArrayList<>();
+
+    /**
+     * For every line the column of its first character, starting with 1.
+     */
+    private final List<Integer> columns = new ArrayList<>();
+
+    /**
+     * The tokenised lines, {@code null} for lines that haven't been tokenised yet.
+     */
+    private final Tokeniser[] tokenisers;
 
     public LineTokeniser(String code) {
-        String[] strings = Regex.split("(\\s)*\\n(\\s)*", code);
-        lines = Collections.unmodifiableList(Arrays.asList(strings));
+        int length = code.length();
+        int lineStart = 0;
+        int lineNumber = 1;
+        int column = 1;
+        int i = 0;
+
+        while (i < length) {
+            if (!isWhitespace(code.charAt(i))) {
+                i++;
+                continue;
+            }
+
+            // Find the whole whitespace run and check if it breaks the line.
+            int runEnd = i;
+            int breaks = 0;
+            int lastBreak = -1;
+            while (runEnd < length && isWhitespace(code.charAt(runEnd))) {
+                if (code.charAt(runEnd) == '\n') {
+                    breaks++;
+                    lastBreak = runEnd;
+                }
+                runEnd++;
+            }
+
+            if (breaks > 0) {
+                addLine(code.substring(lineStart, i), lineNumber, column);
+                lineStart = runEnd;
+                lineNumber += breaks;
+                column = runEnd - lastBreak;
+            }
+
+            i = runEnd;
+        }
+
+        // Just like String#split: trailing empty lines are left out, unless there is no line break
+        // at all.
+        if (lineStart < length || lines.isEmpty()) {
+            addLine(code.substring(lineStart), lineNumber, column);
+        }
+        else {
+            while (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty()) {
+                int last = lines.size() - 1;
+                lines.remove(last);
+                lineNumbers.remove(last);
+                columns.remove(last);
+            }
+        }
+
+        tokenisers = new Tokeniser[lines.size()];
+    }
+
+    private void addLine(String line, int lineNumber, int column) {
+        lines.add(line);
+        lineNumbers.add(lineNumber);
+        columns.add(column);
+    }
+
+    /**
+     * Same set of characters as {@code \s} in regular expressions.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 
     /**
@@ -30,15 +106,32 @@ public class LineTokeniser implements Iterable<String> {
     }
 
     /**
-     * @return The amount of lines in the tokeniser.
+     * Gets the number of the line in the original code of the line with index <code>index</code>.
      */
-    public int size() {
-        return lines.size();
+    public int getLineNumber(int index) {
+        return lineNumbers.get(index);
+    }
+
+    /**
+     * Gets the tokenised line with line number <code>index</code> starting with 0.
+     */
+    @Override
+    public Tokeniser get(int index) {
+        Tokeniser tokeniser = tokenisers[index];
+        if (tokeniser == null) {
+            tokeniser = new Tokeniser(lines.get(index), lineNumbers.get(index), columns.get(index));
+            tokenisers[index] = tokeniser;
+        }
+
+        return tokeniser;
     }
 
+    /**
+     * @return The amount of lines in the tokeniser.
+     */
     @Override
-    public Iterator<String> iterator() {
-        return lines.listIterator();
+    public int size() {
+        return lines.size();
     }
 
 }
@@ -0,0 +1,93 @@
+package nl.hannahsten.pp2lal2pp.parser;
+
+import nl.hannahsten.pp2lal2pp.lang.Comment;
+import nl.hannahsten.pp2lal2pp.lang.Element;
+
+import java.util.*;
+
+/**
+ * Everything that parsing a piece of code at top level adds to the program, together with the
+ * state the parser is left in afterwards.
+ *
+ * @author Hannah Schellekens
+ */
+class ParsedSegment {
+
+    /**
+     * The first ID that was given out while parsing the segment.
+     */
+    private final int firstId;
+
+    /**
+     * The amount of IDs that were given out while parsing the segment.
+     */
+    private int idCount;
+
+    /**
+     * All functions, definitions, global variables and global arrays in order of appearance.
+     */
+    private final List<Element> elements = new ArrayList<>();
+
+    /**
+     * The names of all functions that are called in the segment.
+     */
+    private final Set<String> calledFunctions = new LinkedHashSet<>();
+
+    /**
+     * The last comment covered at the end of the segment.
+     */
+    private Comment lastComment;
+
+    /**
+     * The documentation lines that were read after the last function or global of the segment.
+     */
+    private List<String> pp2doc = Collections.emptyList();
+
+    ParsedSegment(int firstId) {
+        this.firstId = firstId;
+    }
+
+    /**
+     * Stores the state of the parser at the end of the segment.
+     *
+     * @param nextId
+     *         The ID that will be given out next.
+     */
+    void finish(int nextId, Comment lastComment, List<String> pp2doc) {
+        this.idCount = nextId - firstId;
+        this.lastComment = lastComment;
+        this.pp2doc = new ArrayList<>(pp2doc);
+    }
+
+    void addElement(Element element) {
+        elements.add(element);
+    }
+
+    void addCalledFunction(String name) {
+        calledFunctions.add(name);
+    }
+
+    int getFirstId() {
+        return firstId;
+    }
+
+    int getIdCount() {
+        return idCount;
+    }
+
+    List<Element> getElements() {
+        return elements;
+    }
+
+    Set<String> getCalledFunctions() {
+        return calledFunctions;
+    }
+
+    Comment getLastComment() {
+        return lastComment;
+    }
+
+    List<String> getPp2doc() {
+        return pp2doc;
+    }
+}
@@ -1,9 +1,11 @@
 package nl.hannahsten.pp2lal2pp.parser;
 
+import nl.hannahsten.pp2lal2pp.IDManager;
 import nl.hannahsten.pp2lal2pp.ParseException;
 import nl.hannahsten.pp2lal2pp.api.APIFunction;
 import nl.hannahsten.pp2lal2pp.lang.Number;
 import nl.hannahsten.pp2lal2pp.lang.*;
+import nl.hannahsten.pp2lal2pp.parser.Token.Kind;
 import nl.hannahsten.pp2lal2pp.util.Regex;
 import nl.hannahsten.pp2lal2pp.util.Util;
 
@@ -18,6 +20,12 @@ import java.util.*;
  */
 public class Parser {
 
+    /**
+     * The minimum total amount of lines in the function bodies to parse them on multiple
+     * threads. Smaller programs are parsed faster on a single thread.
+     */
+    private static final int PARALLEL_THRESHOLD = 512;
+
     /**
      * The complete string of code to parse.
      */
@@ -26,7 +34,7 @@ public class Parser {
     /**
      * The program that gets parsed.
      */
-    private Program program;
+    Program program;
 
     /**
      * The name of the function that is currently being parsed.
@@ -36,7 +44,38 @@ public class Parser {
     /**
      * The last comment covered.
      */
-    private Comment lastComment;
+    Comment lastComment;
+
+    /**
+     * The documentation lines read since the last function or global.
+     */
+    final List<String> pp2doc = new ArrayList<>();
+
+    /**
+     * When not {@code null}, everything that gets added to the program is also recorded here.
+     */
+    ParsedSegment recording;
+
+    /**
+     * Whether function bodies are skipped over and parsed after the top level lines, instead of
+     * right where they are.
+     */
+    private boolean deferBodies;
+
+    /**
+     * The function bodies that have been skipped over, in order of appearance.
+     */
+    private final List<FunctionBody> bodies = new ArrayList<>();
+
+    /**
+     * Maps every definition name to the index of its first definition in the program.
+     */
+    private final Map<String, Integer> firstDefinitions = new HashMap<>();
+
+    /**
+     * Maps every function name to the index of the first function with that name in the program.
+     */
+    private final Map<String, Integer> firstFunctions = new HashMap<>();
 
     Parser(String input) {
         this.input = input;
@@ -44,89 +83,343 @@ public class Parser {
 
     /**
      * Parses the complete input.
+     * <p>
+     * First all top level lines are parsed, skipping over the function bodies. Then the function
+     * bodies are parsed, in parallel when there are enough of them. Every body gets its own
+     * block of IDs, so the result doesn't depend on the order in which they get parsed.
      */
     public Program parse() throws ParseException {
-        program = new Program();
-        program.setHeader(parseHeaderComment(input));
+        int firstId = IDManager.getNextId();
+
+        try {
+            beginParse(true);
+
+            try {
+                parseInput();
+            }
+            catch (RuntimeException e) {
+                // An error in one of the bodies above the line must be reported first.
+                parseBodies();
+                throw e;
+            }
 
-        Function function;
+            parseBodies();
+        }
+        catch (InseparableBodyException e) {
+            // The braces don't tell where a function ends: parse every body where it is.
+            IDManager.setNextId(firstId);
+            beginParse(false);
+            parseLines();
+        }
+
+        return program;
+    }
+
+    /**
+     * Parses all top level lines of the input.
+     */
+    void parseInput() {
+        parseLines();
+    }
 
+    private void parseLines() {
         LineTokeniser lines = new LineTokeniser(input);
-        List<String> pp2doc = new ArrayList<>();
+        for (ListIterator<Tokeniser> it = lines.listIterator(); it.hasNext(); ) {
+            parseTopLevel(it, it.next());
+        }
+    }
 
-        for (Iterator<String> it = lines.iterator(); it.hasNext(); ) {
-            String line = it.next();
-            Tokeniser tokens = new Tokeniser(line);
+    /**
+     * Resets the parser to start parsing the input from the beginning.
+     *
+     * @param deferBodies
+     *         Whether function bodies must be skipped over, to be parsed by {@link
+     *         Parser#parseBodies()}.
+     */
+    private void beginParse(boolean deferBodies) {
+        program = new Program();
+        program.setHeader(parseHeaderComment(input));
+        lastComment = null;
+        pp2doc.clear();
+        this.deferBodies = deferBodies;
+        bodies.clear();
+        firstDefinitions.clear();
+        firstFunctions.clear();
+    }
 
+    /**
+     * Parses a line that is not part of a function.
+     *
+     * @param lines
+     *         The iterator of the LineTokeniser.
+     * @param tokens
+     *         The line to parse.
+     */
+    void parseTopLevel(ListIterator<Tokeniser> lines, Tokeniser tokens) {
+        switch (tokens.kind(0)) {
             // Parse global variables.
-            if (parseGlobal(program, tokens)) {
+            case GLOBAL:
+                parseGlobal(tokens);
                 pp2doc.clear();
-                continue;
-            }
-
+                break;
             // Comments
-            if (line.startsWith("#")) {
-                String comment = Regex.replaceAll("^#;?\\s*", line, "");
+            case HASH:
+                String comment = Regex.replaceAll("^#;?\\s*", tokens.getOriginal(), "");
                 lastComment = new Comment(comment);
                 pp2doc.add(comment);
-                continue;
-            }
+                break;
             // Define
-            else if (line.startsWith("define")) {
-                program.addDefinition(parseDefine(new Tokeniser(line)));
-                continue;
+            case DEFINE:
+                addToProgram(parseDefine(tokens));
+                break;
+            // Parse function.
+            case FUNCTION:
+            case INTERRUPT:
+            case INLINE:
+                Function function = parseFunctionHeader(tokens, pp2doc);
+                pp2doc.clear();
+
+                if (!deferBodies || !deferBody(function, tokens, lines)) {
+                    function.setContents(parseFunction(lines));
+                    addToProgram(function);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Adds a function, definition, global variable or global array to the program.
+     */
+    void addToProgram(Element element) {
+        if (element instanceof Function) {
+            firstFunctions.putIfAbsent(((Function)element).getName(), program.getFunctions().size());
+            program.addFunction((Function)element);
+        }
+        else if (element instanceof Definition) {
+            firstDefinitions.putIfAbsent(((Definition)element).getName(), program.getDefinitions().size());
+            program.addDefinition((Definition)element);
+        }
+        else if (element instanceof GlobalArray) {
+            program.addGlobalArray((GlobalArray)element);
+        }
+        else if (element instanceof GlobalVariable) {
+            program.addGlobalVariable((GlobalVariable)element);
+        }
+        else {
+            throw new ParseException("Cannot add " + element + " to the program.");
+        }
+
+        if (recording != null) {
+            recording.addElement(element);
+        }
+    }
+
+    /**
+     * Registers the called function at the program when it is an API function.
+     */
+    private void registerAPIFunction(String functionName) {
+        program.registerAPIFunction(functionName);
+
+        if (recording != null) {
+            recording.addCalledFunction(functionName);
+        }
+    }
+
+    /**
+     * Parses the first line of a function or interrupt.
+     *
+     * @param tokens
+     *         The line with the function keyword.
+     * @param pp2doc
+     *         The documentation lines above the function.
+     * @return The function without contents.
+     */
+    private Function parseFunctionHeader(Tokeniser tokens, List<String> pp2doc) {
+        boolean isInline = tokens.isFirst(Kind.INLINE);
+        int start = isInline ? 1 : 0;
+        if (isInline && !tokens.is(1, Kind.FUNCTION)) {
+            throw new ParseException("Only functions can be inline, got '" + tokens.getToken(1) + "'.");
+        }
+
+        boolean isInterrupt = tokens.isFirst(Kind.INTERRUPT);
+        currentFunction = tokens.getToken(start + 1);
+        List<Variable> arguments = new ArrayList<>();
+
+        if (!tokens.is(start + 2, Kind.LEFT_PARENTHESIS)) {
+            throw new ParseException("Function " + currentFunction + " must be followed by " +
+                    "parentheses.");
+        }
+
+        for (int i = start + 3; i <= tokens.size(); i++) {
+            if (isInterrupt) {
+                break;
             }
 
-            boolean isInterrupt = line.startsWith("interrupt");
+            if (tokens.is(i, Kind.RIGHT_PARENTHESIS)) {
+                break;
+            }
 
-            if (!line.startsWith("function") && !isInterrupt) {
+            if (tokens.is(i, Kind.COMMA)) {
                 continue;
             }
 
-            // Parse function.
-            currentFunction = tokens.getToken(1);
-            List<Variable> arguments = new ArrayList<>();
+            String name = tokens.getToken(i);
+            if (arguments.stream().anyMatch(v -> v.getName().equals(name))) {
+                throw new ParseException("Function " + currentFunction + " can't have two of " +
+                        "the same argument names (" + name + ").");
+            }
+
+            arguments.add(new Variable(name));
+        }
+
+        if (isInterrupt) {
+            return new Interrupt(currentFunction, new ArrayList<>(pp2doc));
+        }
+
+        Function function = new Function(currentFunction, new ArrayList<>(pp2doc), arguments);
+        function.setInline(isInline);
+        return function;
+    }
+
+    /**
+     * Skips over the body of the function by counting braces, and adds the function to the
+     * program. The body is parsed later by {@link Parser#parseBodies()}.
+     *
+     * @param header
+     *         The first line of the function.
+     * @param lines
+     *         The iterator of the LineTokeniser, positioned at the first line of the body.
+     * @return {@code true} when the body has been skipped over, {@code false} when the end of
+     * the body could not be found. In that case the iterator is left at the first line of the
+     * body.
+     */
+    private boolean deferBody(Function function, Tokeniser header, ListIterator<Tokeniser> lines) {
+        if (!header.is(header.sizeNoComments() - 1, Kind.LEFT_BRACE)) {
+            return false;
+        }
 
-            if (!tokens.equals(2, "(")) {
-                throw new ParseException("Function " + currentFunction + " must be followed by " +
-                        "parentheses.");
+        List<Tokeniser> body = new ArrayList<>();
+        int depth = 1;
+        int idCount = 1;
+
+        while (lines.hasNext()) {
+            Tokeniser line = lines.next();
+            body.add(line);
+
+            if (depth == 1 && line.isFirst(Kind.RIGHT_BRACE)) {
+                ProgramView view = new ProgramView(program, firstDefinitions, firstFunctions);
+                int firstId = IDManager.reserve(idCount);
+                bodies.add(new FunctionBody(function, currentFunction, body, view, firstId, idCount));
+                addToProgram(function);
+                return true;
             }
 
-            for (int i = 3; i <= tokens.size(); i++) {
-                if (isInterrupt) {
-                    break;
-                }
+            // Every token gives at most a few elements.
+            idCount += 4 * line.size() + 4;
 
-                if (tokens.equals(i, ")")) {
-                    break;
+            for (int i = 0; i < line.sizeNoComments(); i++) {
+                if (line.is(i, Kind.LEFT_BRACE)) {
+                    depth++;
                 }
-
-                if (tokens.equals(i, ",")) {
-                    continue;
+                else if (line.is(i, Kind.RIGHT_BRACE)) {
+                    depth--;
                 }
+            }
+        }
 
-                String name = tokens.getToken(i);
-                if (arguments.parallelStream().anyMatch(v -> v.getName().equals(name))) {
-                    throw new ParseException("Function " + currentFunction + " can't have two of " +
-                            "the same argument names (" + name + ").");
-                }
+        for (int i = 0; i < body.size(); i++) {
+            lines.previous();
+        }
+
+        return false;
+    }
 
-                arguments.add(new Variable(name));
+    /**
+     * Parses all function bodies that have been skipped over, and sets them as contents of their
+     * functions.
+     *
+     * @throws InseparableBodyException
+     *         when a body could not be parsed on its own.
+     */
+    void parseBodies() {
+        if (bodies.isEmpty()) {
+            return;
+        }
+
+        int lineCount = bodies.stream().mapToInt(body -> body.getLines().size()).sum();
+        if (lineCount >= PARALLEL_THRESHOLD && bodies.size() > 1) {
+            bodies.parallelStream().forEach(Parser::parseBody);
+        }
+        else {
+            bodies.forEach(Parser::parseBody);
+        }
+
+        List<FunctionBody> parsed = new ArrayList<>(bodies);
+        bodies.clear();
+
+        for (FunctionBody body : parsed) {
+            if (!body.isSeparable()) {
+                throw new InseparableBodyException();
             }
 
-            if (isInterrupt) {
-                function = new Interrupt(currentFunction, new ArrayList<>(pp2doc));
-            } else {
-                function = new Function(currentFunction, new ArrayList<>(pp2doc), arguments);
+            if (body.getError() != null) {
+                throw body.getError();
             }
 
-            pp2doc.clear();
-            Block block = parseFunction(it);
-            function.setContents(block);
-            program.addFunction(function);
+            body.getFunction().setContents(body.getContents());
+            body.getView().getCalledFunctions().forEach(this::registerAPIFunction);
         }
+    }
 
-        return program;
+    /**
+     * Parses a function body that has been skipped over, using the IDs reserved for it.
+     * Can be called from any thread.
+     */
+    private static void parseBody(FunctionBody body) {
+        Parser parser = new Parser(null);
+        parser.program = body.getView();
+        parser.currentFunction = body.getName();
+
+        IDManager.beginBlock(body.getFirstId());
+        try {
+            body.setContents(parser.parseFunctionBody(body.getLines()));
+        }
+        catch (NoSuchElementException e) {
+            // Wanted to read past the end of the body.
+        }
+        catch (RuntimeException e) {
+            body.setError(e);
+        }
+        finally {
+            body.setIdsUsed(IDManager.endBlock() - body.getFirstId());
+        }
+    }
+
+    /**
+     * Parses the lines of a function body that has been skipped over.
+     *
+     * @param lines
+     *         All lines of the body, including the line with the closing brace.
+     * @return The block of code for the function, or {@code null} when the function does not
+     * end at the last line.
+     */
+    private Block parseFunctionBody(List<Tokeniser> lines) {
+        List<Element> body = new ArrayList<>();
+
+        ListIterator<Tokeniser> it = lines.listIterator();
+        while (it.hasNext()) {
+            Tokeniser line = it.next();
+
+            if (line.isFirst(Kind.RIGHT_BRACE)) {
+                return it.hasNext() ? null : new Block(body);
+            }
+
+            parseStatement(it, line, body);
+        }
+
+        return null;
     }
 
     /**
@@ -136,87 +429,94 @@ public class Parser {
      *         The iterator of the LineTokeniser.
      * @return The block of code for the given function.
      */
-    private Block parseFunction(Iterator<String> lines) {
+    private Block parseFunction(ListIterator<Tokeniser> lines) {
         List<Element> body = new ArrayList<>();
 
         while (lines.hasNext()) {
-            Tokeniser line = new Tokeniser(lines.next());
-            StringBuilder comment = new StringBuilder();
-            boolean parsed = false;
+            Tokeniser line = lines.next();
 
             // Function is done.
-            if (line.isFirst("}")) {
+            if (line.isFirst(Kind.RIGHT_BRACE)) {
                 break;
             }
 
+            parseStatement(lines, line, body);
+        }
+
+        return new Block(body);
+    }
+
+    /**
+     * Parses the statement on the given line, together with its trailing comment.
+     *
+     * @param lines
+     *         The iterator of the LineTokeniser.
+     * @param line
+     *         The line containing the statement.
+     * @param body
+     *         The list to add the parsed elements to.
+     */
+    private void parseStatement(ListIterator<Tokeniser> lines, Tokeniser line, List<Element> body) {
+        switch (line.kind(0)) {
             // Variable declarations.
-            if (line.isFirst("var")) {
+            case VAR:
                 body.add(parseVariableDeclaration(line));
-                parsed = true;
-            }
+                break;
             // Loops
-            else if (line.isFirst("loop")) {
+            case LOOP:
                 body.add(parseLoop(lines, line));
-                parsed = true;
-            }
+                break;
             // If-Else statements.
-            else if (line.isFirst("if")) {
+            case IF:
                 body.add(parseIfElse(lines, line));
-                parsed = true;
-            }
-            // Function calls.
-            else if (isFunctionCall(line)) {
-                body.add(parseFunctionCall(line));
-                parsed = true;
-            }
+                break;
             // Continue
-            else if (line.isFirst("continue")) {
+            case CONTINUE:
                 body.add(new Continue());
-                parsed = true;
-            }
+                break;
             // Return
-            else if (line.isFirst("return")) {
+            case RETURN:
                 body.add(parseReturn(line));
-                parsed = true;
-            }
-            // Full line comment.
-            else if (line.equals(0, "#")) {
-                parsed = true;
-            }
+                break;
             // Inject raw assembly.
-            else if (line.isFirst("inject")) {
+            case INJECT:
                 body.add(parseInject(lines, line));
-                parsed = true;
-            }
+                break;
+            // Full line comments and else-branches that have already been parsed.
+            case HASH:
+            case ELSE:
+            case END_OF_LINE:
+                break;
+            // Function calls and anything else.
+            default:
+                if (isFunctionCall(line)) {
+                    body.add(parseFunctionCall(line));
+                    break;
+                }
 
-            // Anything else.
-            if (!parsed && !line.isFirstIgnore("else", "}")) {
                 Operation op = parseOperation(line.iterator(), line);
-
                 if (op != null) {
                     body.add(op);
                 }
-            }
-
-            // Comments
-            for (String token : line) {
-                // Comments
-                if (token.equals("#")) {
-                    comment.append(" ");
-                    continue;
-                }
+                break;
+        }
 
-                if (comment.length() > 0) {
-                    comment.append(token).append(" ");
-                }
+        // Comments
+        StringBuilder comment = new StringBuilder();
+        for (Token token : line) {
+            if (token.is(Kind.HASH)) {
+                comment.append(" ");
+                continue;
             }
 
             if (comment.length() > 0) {
-                body.add(new Comment(comment.toString().trim()));
+                comment.append(token.getLexeme()).append(" ");
             }
         }
 
-        return new Block(body);
+        if (comment.length() > 0) {
+            body.add(new Comment(comment.toString().trim()));
+        }
     }
 
     /**
@@ -269,12 +569,12 @@ public class Parser {
         }
 
         if (line.size() >= 3) {
-            if (line.equals(2, "(") && !line.equals(1, "'")) {
+            if (line.is(2, Kind.LEFT_PARENTHESIS) && !line.equals(1, "'")) {
                 // Function call.
                 String name = line.getToken(1);
                 List<Variable> variables = new ArrayList<>();
 
-                if (!line.equals(3, ")")) {
+                if (!line.is(3, Kind.RIGHT_PARENTHESIS)) {
                     for (int i = 3; i < line.sizeNoComments(); i += 2) {
                         Value val = Value.parse(line.getToken(i), program);
 
@@ -288,7 +588,7 @@ public class Parser {
                 }
 
                 FunctionCall call = new FunctionCall(name, variables);
-                program.registerAPIFunction(name);
+                registerAPIFunction(name);
                 return new ElementReturn(call);
             }
             else if (line.equals(1, "'") && line.equals(3, "'")) {
@@ -339,7 +639,7 @@ public class Parser {
         try {
             List<Variable> args = new ArrayList<>();
 
-            if (!line.equals(2, ")")) {
+            if (!line.is(2, Kind.RIGHT_PARENTHESIS)) {
                 for (int i = 2; i < line.sizeNoComments(); i += 2) {
                     Value value = Value.parse(line.getToken(i), program);
 
@@ -353,7 +653,7 @@ public class Parser {
             }
 
             String name = line.getToken(0);
-            program.registerAPIFunction(name);
+            registerAPIFunction(name);
             return new FunctionCall(name, args);
         }
         catch (IndexOutOfBoundsException exception) {
@@ -370,17 +670,15 @@ public class Parser {
      * @return <code>true</code> if the line is a function call, <code>false</code> otherwise.
      */
     private boolean isFunctionCall(Tokeniser line) {
-        String contents = line.getOriginal();
-
         if (line.sizeNoComments() < 3) {
             return false;
         }
 
-        if (!line.equals(1, "(")) {
+        if (!line.is(1, Kind.LEFT_PARENTHESIS)) {
             return false;
         }
 
-        return line.equals(line.sizeNoComments() - 1, ")");
+        return line.is(line.sizeNoComments() - 1, Kind.RIGHT_PARENTHESIS);
     }
 
     /**
@@ -392,7 +690,7 @@ public class Parser {
      *         The line where the iterator is at currently.
      * @return The parsed contents of the block.
      */
-    private Block parseBlock(Iterator<String> lines, Tokeniser line) {
+    private Block parseBlock(ListIterator<Tokeniser> lines, Tokeniser line) {
         List<Element> body = new ArrayList<>();
 
         if (!lines.hasNext()) {
@@ -400,8 +698,8 @@ public class Parser {
         }
 
         boolean skipped = false;
-        if (line.last().equals("{")) {
-            line = new Tokeniser(lines.next());
+        if (line.last().is(Kind.LEFT_BRACE)) {
+            line = lines.next();
             skipped = true;
         }
 
@@ -411,85 +709,18 @@ public class Parser {
             }
 
             if (!skipped) {
-                line = new Tokeniser(lines.next());
+                line = lines.next();
             }
             skipped = false;
 
-            if (line.isFirst("}")) {
+            if (line.isFirst(Kind.RIGHT_BRACE)) {
                 break;
             }
 
-            StringBuilder comment = new StringBuilder();
-            boolean parsed = false;
-
-            // Variable declarations.
-            if (line.isFirst("var")) {
-                body.add(parseVariableDeclaration(line));
-                parsed = true;
-            }
-            // Loops
-            else if (line.isFirst("loop")) {
-                body.add(parseLoop(lines, line));
-                parsed = true;
-            }
-            // If-Else statements.
-            else if (line.isFirst("if")) {
-                body.add(parseIfElse(lines, line));
-                parsed = true;
-            }
-            // Function calls.
-            else if (isFunctionCall(line)) {
-                body.add(parseFunctionCall(line));
-                parsed = true;
-            }
-            // Return
-            else if (line.isFirst("return")) {
-                body.add(parseReturn(line));
-                parsed = true;
-            }
-            // Continue
-            else if (line.isFirst("continue")) {
-                body.add(new Continue());
-                parsed = true;
-            }
-            // Full line comment.
-            else if (line.equals(0, "#")) {
-                parsed = true;
-            }
-            // Inject raw assembly.
-            else if (line.isFirst("inject")) {
-                body.add(parseInject(lines, line));
-                parsed = true;
-            }
-
-            // Anything else.
-            if (!parsed && !line.isFirstIgnore("else", "}")) {
-                Operation op = parseOperation(line.iterator(), line);
-
-                if (op != null) {
-                    body.add(op);
-                }
-            }
-
-            // Comments
-            for (String token : line) {
-                // Comments
-                if (token.equals("#")) {
-                    comment.append(" ");
-                    continue;
-                }
-
-                if (comment.length() > 0) {
-                    comment.append(token).append(" ");
-                }
-            }
-
-            if (comment.length() > 0) {
-                body.add(new Comment(comment.toString().trim()));
-            }
+            parseStatement(lines, line, body);
 
             if (line.sizeNoComments() > 0) {
-                if (line.equals(line.sizeNoComments() - 1, "}")) {
+                if (line.is(line.sizeNoComments() - 1, Kind.RIGHT_BRACE)) {
                     break;
                 }
             }
@@ -507,51 +738,50 @@ public class Parser {
      *         The line containing the expression.
      * @return The parsed operation.
      */
-    private Operation parseOperation(Iterator<String> lineIterator, Tokeniser line) {
+    private Operation parseOperation(ListIterator<Token> lineIterator, Tokeniser line) {
         Element leftOperandResult = null;
         ArrayAccess leftOperandArrayAccess = null;
         Operator operatorResult;
         Element rightOperandResult;
-        ListIterator<String> listIterator = (ListIterator<String>)lineIterator;
 
         // isInputOn API function shizz.
-        if (line.isFirst("!") && line.equals(1, "isInputOn")) {
+        if (line.isOperator(0, Operator.BOOLEAN_NEGATION) && line.equals(1, "isInputOn")) {
             String name = "isInputOn";
             Value value = Value.parse(line.getToken(3), program);
             FunctionCall call = new FunctionCall(name, new ArrayList<Variable>() {{
-                add(new Variable("num", value).setJustNumber(true));
+                add(new Variable(line.getToken(3), value).setJustNumber(true));
             }});
-            program.registerAPIFunction(name);
+            registerAPIFunction(name);
 
             return new Operation(call, Operator.BOOLEAN_NEGATION, null);
         }
 
         // Check for assignments
         String original = line.getOriginal();
-        Tokeniser originalTokens = new Tokeniser(original);
 
         // When there are more than 3 tokens, this is a complex assignment (e.g. a = b + 4).
         // When there is an array assignment, there may be more tokens before the `=`-sign.
-        int baseIndex = arrayAssignmentSize(originalTokens);
-        if (originalTokens.sizeNoComments() > 3 + baseIndex) {
+        int baseIndex = arrayAssignmentSize(line);
+        int size = line.sizeNoComments();
+        if (size > 3 + baseIndex) {
             // Complex left assignment with regular = and :=
-            if (originalTokens.equals(1 + baseIndex, "=") || originalTokens.equals(originalTokens.sizeNoComments() - 2, ":=")) {
+            if (line.isOperator(1 + baseIndex, Operator.ASSIGN) || line.isOperator(size - 2, Operator.ASSIGN_ALT_LEFT)) {
                 // Array assignment.
                 if (baseIndex > 0) {
-                    leftOperandResult = program.getGlobalArray(originalTokens.getToken(0)).orElseThrow(() ->
-                            new ParseException("Global array '" + originalTokens.getToken(0) + "' is undefined.")
+                    leftOperandResult = program.getGlobalArray(line.getToken(0)).orElseThrow(() ->
+                            new ParseException("Global array '" + line.getToken(0) + "' is undefined.")
                     );
                 }
                 // Variable assignment.
                 else {
-                    leftOperandResult = new Variable(originalTokens.getToken(0));
+                    leftOperandResult = new Variable(line.getToken(0));
                 }
 
-                Tokeniser newLine = new Tokeniser(originalTokens.join(2 + baseIndex, originalTokens.sizeNoComments() - 2 - baseIndex, " "));
+                Tokeniser newLine = line.subTokeniser(2 + baseIndex, size - 2 - baseIndex);
                 rightOperandResult = parseOperation(newLine.iterator(), newLine);
 
                 if (leftOperandResult instanceof GlobalArray) {
-                    ArrayAccess access = parseArrayAccess(originalTokens, 1, true);
+                    ArrayAccess access = parseArrayAccess(line, 1, true);
 
                     if (access == null) {
                         return new GlobalArrayAssignment((GlobalArray)leftOperandResult, rightOperandResult);
@@ -563,48 +793,53 @@ public class Parser {
                 return new Operation(leftOperandResult, Operator.ASSIGN, rightOperandResult);
             }
             // Complex right assignment with =: (thanks Sten)
-            else if (originalTokens.equals(originalTokens.sizeNoComments() - 2, "=:")) {
-                Tokeniser newLine = new Tokeniser(originalTokens.join(0, originalTokens.sizeNoComments() - 2, " "));
+            else if (line.isOperator(size - 2, Operator.ASSIGN_ALT_RIGHT)) {
+                Tokeniser newLine = line.subTokeniser(0, size - 2);
                 rightOperandResult = parseOperation(newLine.iterator(), newLine);
-                leftOperandResult = new Variable(originalTokens.getToken(originalTokens.sizeNoComments() - 1));
+                leftOperandResult = new Variable(line.getToken(size - 1));
 
                 return new Operation(leftOperandResult, Operator.ASSIGN, rightOperandResult);
             }
         }
 
         // Skip over ()
-        String currentToken = lineIterator.next();
-        if (currentToken.equals(")")) {
+        Token currentToken = lineIterator.next();
+        if (currentToken.is(Kind.RIGHT_PARENTHESIS)) {
             currentToken = lineIterator.next();
         }
 
-        switch (currentToken) {
-            case "(":
+        switch (currentToken.getKind()) {
+            case LEFT_PARENTHESIS:
                 leftOperandResult = parseOperation(lineIterator, line);
                 break;
-            // Unary number negation.
-            case "-":
-                try {
-                    currentToken = lineIterator.next();
-                    leftOperandResult = new Number(Integer.parseInt("-" + currentToken));
-                }
-                catch (NumberFormatException nfe) {
-                    return new Operation(new Variable(currentToken), Operator.MULTIPLICATION, Number.MINUS_ONE);
-                }
-                break;
-            // Unary NOT
-            case "~":
-                try {
-                    currentToken = lineIterator.next();
-                    leftOperandResult = new Number(~Integer.parseInt(currentToken));
+            case OPERATOR:
+                // Unary number negation.
+                if (currentToken.getOperator() == Operator.SUBSTRACTION) {
+                    String operand = lineIterator.next().getLexeme();
+                    try {
+                        leftOperandResult = new Number(Integer.parseInt("-" + operand));
+                    }
+                    catch (NumberFormatException nfe) {
+                        return new Operation(new Variable(operand), Operator.MULTIPLICATION, Number.MINUS_ONE);
+                    }
+                    break;
                 }
-                catch (NumberFormatException nfe) {
-                    return new Operation(new Variable(currentToken), Operator.BITWISE_XOR, Number.ALL_1S);
+                // Unary NOT
+                else if (currentToken.getOperator() == Operator.BITWISE_NOT) {
+                    String operand = lineIterator.next().getLexeme();
+                    try {
+                        leftOperandResult = new Number(~Integer.parseInt(operand));
+                    }
+                    catch (NumberFormatException nfe) {
+                        return new Operation(new Variable(operand), Operator.BITWISE_XOR, Number.ALL_1S);
+                    }
+                    break;
                 }
 
+                leftOperandResult = parseValue(currentToken, lineIterator);
                 break;
             default:
-                leftOperandResult = parseValue(currentToken, listIterator);
+                leftOperandResult = parseValue(currentToken, lineIterator);
                 break;
         }
 
@@ -614,7 +849,7 @@ public class Parser {
 
         // Skip over ()
         currentToken = lineIterator.next();
-        if (currentToken.equals(")")) {
+        if (currentToken.is(Kind.RIGHT_PARENTHESIS)) {
             if (!lineIterator.hasNext()) {
                 return null;
             }
@@ -624,20 +859,20 @@ public class Parser {
 
         // Operator
         // Function call.
-        if (currentToken.equals("(")) {
-            String prevToken = line.getToken(listIterator.previousIndex() - 1);
+        if (currentToken.is(Kind.LEFT_PARENTHESIS)) {
+            String prevToken = line.getToken(lineIterator.previousIndex() - 1);
             boolean isApiFunction = APIFunction.isAPIFunction(prevToken);
             boolean isDefinedFunction = program.getFunction(prevToken).isPresent();
             boolean isCurrentFunction = currentFunction.equals(prevToken);
 
-            if ((program.getFunction(prevToken).isPresent() || currentFunction.equals(prevToken)) || isApiFunction) {
+            if (isDefinedFunction || isCurrentFunction || isApiFunction) {
                 if (isApiFunction) {
-                    program.registerAPIFunction(prevToken);
+                    registerAPIFunction(prevToken);
                 }
 
                 List<Variable> arguments = parseArguments(lineIterator);
                 leftOperandResult = new FunctionCall(prevToken, arguments);
-                program.registerAPIFunction(prevToken);
+                registerAPIFunction(prevToken);
 
                 if (lineIterator.hasNext()) {
                     currentToken = lineIterator.next();
@@ -656,20 +891,20 @@ public class Parser {
         }
 
         // Global array assignment.
-        if ("[".equals(currentToken) && lineIterator.hasNext()) {
+        if (currentToken.is(Kind.LEFT_BRACKET) && lineIterator.hasNext()) {
             // When the next token is ], it means a general array assignment, otherwise it is
             // an indexed assignment.
             currentToken = lineIterator.next();
 
             // Global variable assignment.
-            if ("]".equals(currentToken)) {
+            if (currentToken.is(Kind.RIGHT_BRACKET)) {
                 // No index: assign all.
                 String globalArrayName = line.getToken(0);
                 leftOperandResult = program.getGlobalArray(globalArrayName).orElse(null);
             }
             else {
                 // With index: assign only at the index.
-                leftOperandArrayAccess = parseArrayAccess(line, listIterator.nextIndex() - 2, true);
+                leftOperandArrayAccess = parseArrayAccess(line, lineIterator.nextIndex() - 2, true);
                 lineIterator.next();
             }
 
@@ -678,21 +913,20 @@ public class Parser {
         }
 
         // Regular operator.
-        Optional<Operator> operator = Operator.getBySign(currentToken);
-        if (!operator.isPresent()) {
+        if (!currentToken.is(Kind.OPERATOR)) {
             // Negative number
             if (leftOperandResult instanceof Variable) {
                 Variable var = (Variable)leftOperandResult;
                 if (var.getName().equals("-")) {
-                    leftOperandResult = Value.parse("-" + currentToken, program);
+                    leftOperandResult = Value.parse("-" + currentToken.getLexeme(), program);
                     return new Operation(leftOperandResult, null, null);
                 }
             }
 
-            throw new ParseException("Could not find operator '" + currentToken + "' for line '" + original + "'.");
+            throw new ParseException("Could not find operator '" + currentToken.getLexeme() + "' for line '" + original + "'.");
         }
         else {
-            operatorResult = operator.get();
+            operatorResult = currentToken.getOperator();
         }
 
         if (!lineIterator.hasNext()) {
@@ -702,18 +936,18 @@ public class Parser {
         currentToken = lineIterator.next();
 
         // Second element
-        if (currentToken.equals("(")) {
+        if (currentToken.is(Kind.LEFT_PARENTHESIS)) {
             rightOperandResult = parseOperation(lineIterator, line);
         }
-        else if (currentToken.equals("-")) {
-            rightOperandResult = Value.parse("-" + lineIterator.next(), program);
+        else if (currentToken.getOperator() == Operator.SUBSTRACTION) {
+            rightOperandResult = Value.parse("-" + lineIterator.next().getLexeme(), program);
         }
         else {
-            rightOperandResult = parseValue(currentToken, listIterator);
+            rightOperandResult = parseValue(currentToken, lineIterator);
 
             // Parse index accessor
             if (rightOperandResult instanceof GlobalArray) {
-                ArrayAccess access = parseArrayAccess(line,listIterator.nextIndex(),true);
+                ArrayAccess access = parseArrayAccess(line, lineIterator.nextIndex(), true);
                 rightOperandResult = new GlobalArrayRead((GlobalArray)rightOperandResult, access);
             }
         }
@@ -723,12 +957,12 @@ public class Parser {
         }
 
         // Second function call.
-        if (currentToken.equals("(")) {
-            String prevToken = line.getToken(listIterator.previousIndex() - 1);
+        if (currentToken.is(Kind.LEFT_PARENTHESIS)) {
+            String prevToken = line.getToken(lineIterator.previousIndex() - 1);
             if ((program.getFunction(prevToken).isPresent() || currentFunction.equals(prevToken)) || APIFunction.isAPIFunction(prevToken)) {
                 List<Variable> arguments = parseArguments(lineIterator);
                 rightOperandResult = new FunctionCall(prevToken, arguments);
-                program.registerAPIFunction(prevToken);
+                registerAPIFunction(prevToken);
             }
             else {
                 throw new ParseException("Wrong function call at line '" + original + "' (prevToken: " + prevToken + ").");
@@ -761,20 +995,20 @@ public class Parser {
      *          Iterator over the tokens.
      * @return The parsed value element.
      */
-    private Element parseValue(String currentToken, ListIterator<String> listIterator) {
+    private Element parseValue(Token currentToken, ListIterator<Token> listIterator) {
         // First token is regular text, hence a variable.
         // When followed by '[', it is a global array.
-        Value value = Value.parse(currentToken, program);
+        Value value = Value.parse(currentToken.getLexeme(), program);
         if (value.getObject() instanceof String) {
             String variableName = (String)value.getObject();
-            String nextToken = Util.peekNext(listIterator);
-            if ("[".equals(nextToken)) {
+            Token nextToken = Util.peekNext(listIterator);
+            if (nextToken != null && nextToken.is(Kind.LEFT_BRACKET)) {
                 return program.getGlobalArray(variableName).orElseThrow(() ->
                         new ParseException("Undefined global array '" + variableName + "'")
                 );
             }
             else {
-                return new Variable(currentToken);
+                return new Variable(currentToken.getLexeme());
             }
         }
         else {
@@ -791,12 +1025,12 @@ public class Parser {
     private int arrayAssignmentSize(Tokeniser tokens) {
         int count = 0;
         for (int i = 0, size = tokens.size(); i < size; i++) {
-            String token = tokens.getToken(i);
-            if (count > 0 && "]".equals(token)) {
+            Token token = tokens.get(i);
+            if (count > 0 && token.is(Kind.RIGHT_BRACKET)) {
                 count++;
                 return count;
             }
-            else if ("[".equals(token)) {
+            else if (token.is(Kind.LEFT_BRACKET)) {
                 count++;
             }
             // Whenever we have a token after the opening bracket.
@@ -810,20 +1044,20 @@ public class Parser {
     /**
      * Parses the list of arguments starting at the current line iterator position.
      */
-    private List<Variable> parseArguments(Iterator<String> lineIterator) {
+    private List<Variable> parseArguments(Iterator<Token> lineIterator) {
         List<Variable> arguments = new ArrayList<>();
 
-        String elt;
         while (lineIterator.hasNext()) {
-            elt = lineIterator.next();
-            if (")".equals(elt)) {
+            Token token = lineIterator.next();
+            if (token.is(Kind.RIGHT_PARENTHESIS)) {
                 break;
             }
 
-            if (",".equals(elt)) {
+            if (token.is(Kind.COMMA)) {
                 continue;
             }
 
+            String elt = token.getLexeme();
             Value value = Value.parse(elt, program);
 
             if (value instanceof Number) {
@@ -846,48 +1080,46 @@ public class Parser {
      *         The line with the footprint of the if-statement.
      * @return The parsed if-object.
      */
-    private IfElse parseIfElse(Iterator<String> lines, Tokeniser line) {
+    private IfElse parseIfElse(ListIterator<Tokeniser> lines, Tokeniser line) {
         Block ifBlock;
         Block elseBlock = Block.EMPTY;
         String or = line.getOriginal();
 
         try {
-            if (!line.equals(1, "(") && !line.equals(0, "else")) {
+            if (!line.is(1, Kind.LEFT_PARENTHESIS) && !line.is(0, Kind.ELSE)) {
                 throw new ParseException("IfElse '" + or + "' has an improper opening bracket");
             }
 
             // Parse expression.
-            String lineNoIfElse = line.getOriginal().replaceAll("(( *else *)?if *\\()|\\) *\\{", "");
-            Tokeniser lineExp = new Tokeniser(lineNoIfElse);
-            Operation expression = parseOperation(lineExp.iterator(), lineExp);
+            Tokeniser lineExp = parseIfExpression(line);
+            Operation expression = parseCondition(lineExp);
 
             // Parse block.
-            if (line.equals(line.sizeNoComments() - 1, "{")) {
+            if (line.is(line.sizeNoComments() - 1, Kind.LEFT_BRACE)) {
                 ifBlock = parseBlock(lines, line);
             }
             else {
-                ifBlock = parseBlock(lines, new Tokeniser(lines.next()));
+                ifBlock = parseBlock(lines, lines.next());
             }
 
             // If there is no else.
-            if (!line.isFirstIgnore("else", "}")) {
-                line = new Tokeniser(lines.next());
+            if (!line.isFirstIgnore(Kind.ELSE, Kind.RIGHT_BRACE)) {
+                line = lines.next();
 
                 // Ignore comments.
-                while (line.isFirst("#")) {
-                    line = new Tokeniser(lines.next());
+                while (line.isFirst(Kind.HASH)) {
+                    line = lines.next();
                 }
             }
 
-            if (!line.isFirstIgnore("else", "}")) {
-                ListIterator<String> listIterator = (ListIterator<String>)lines;
-                listIterator.previous();
+            if (!line.isFirstIgnore(Kind.ELSE, Kind.RIGHT_BRACE)) {
+                lines.previous();
                 return new IfElse(expression, ifBlock, Block.EMPTY);
             }
 
             // Parse else.
-            if (line.isFirstTwoIgnore("else", "if", "}")) {
-                Tokeniser newLine = new Tokeniser(line.join(1, line.sizeNoComments() - 1, " "));
+            if (line.isFirstTwoIgnore(Kind.ELSE, Kind.IF, Kind.RIGHT_BRACE)) {
+                Tokeniser newLine = line.subTokeniser(1, line.sizeNoComments() - 1);
                 Element elt = parseIfElse(lines, newLine);
                 elseBlock = new Block(new ArrayList<Element>() {{
                     add(elt);
@@ -895,12 +1127,12 @@ public class Parser {
                 return new IfElse(expression, ifBlock, elseBlock);
             }
 
-            if (line.isFirstIgnore("else", "}")) {
-                if (line.equals(line.sizeNoComments() - 1, "{")) {
+            if (line.isFirstIgnore(Kind.ELSE, Kind.RIGHT_BRACE)) {
+                if (line.is(line.sizeNoComments() - 1, Kind.LEFT_BRACE)) {
                     elseBlock = parseBlock(lines, line);
                 }
                 else {
-                    elseBlock = parseBlock(lines, new Tokeniser(lines.next()));
+                    elseBlock = parseBlock(lines, lines.next());
                 }
             }
 
@@ -911,6 +1143,96 @@ public class Parser {
         }
     }
 
+    /**
+     * Strips the {@code if (}, {@code else if (} and {@code ) \{} tokens from the given line,
+     * leaving the tokens of the boolean expression (and possibly a comment).
+     */
+    private Tokeniser parseIfExpression(Tokeniser line) {
+        List<Token> expression = new ArrayList<>();
+
+        for (int i = 0; i < line.size(); i++) {
+            Kind kind = line.kind(i);
+
+            if (kind == Kind.ELSE && line.is(i + 1, Kind.IF) && line.is(i + 2, Kind.LEFT_PARENTHESIS) &&
+                    line.isSpaceSeparated(i + 1) && line.isSpaceSeparated(i + 2)) {
+                i += 2;
+            }
+            else if (kind == Kind.IF && line.is(i + 1, Kind.LEFT_PARENTHESIS) && line.isSpaceSeparated(i + 1)) {
+                i++;
+            }
+            else if (kind == Kind.RIGHT_PARENTHESIS && line.is(i + 1, Kind.LEFT_BRACE) && line.isSpaceSeparated(i + 1)) {
+                i++;
+            }
+            else {
+                expression.add(line.get(i));
+            }
+        }
+
+        return Tokeniser.of(expression);
+    }
+
+    /**
+     * Parses the boolean expression of an if-statement. Checks can be combined with {@code and}
+     * and {@code or}, where {@code and} goes before {@code or} and parentheses can be used to
+     * change the order. Every part that is combined becomes an operation of its own.
+     *
+     * @param line
+     *         The tokens of the expression (and possibly a comment).
+     * @return The parsed expression.
+     */
+    private Operation parseCondition(Tokeniser line) {
+        int size = line.sizeNoComments();
+
+        // Parentheses around the whole expression.
+        while (size > 2 && line.is(0, Kind.LEFT_PARENTHESIS) && closingParenthesis(line, 0) == size - 1) {
+            line = line.subTokeniser(1, size - 2);
+            size = line.sizeNoComments();
+        }
+
+        for (Operator operator : new Operator[] {Operator.LOGICAL_OR, Operator.LOGICAL_AND}) {
+            int depth = 0;
+            for (int i = size - 1; i >= 0; i--) {
+                if (line.is(i, Kind.RIGHT_PARENTHESIS)) {
+                    depth++;
+                }
+                else if (line.is(i, Kind.LEFT_PARENTHESIS)) {
+                    depth--;
+                }
+                else if (depth == 0 && line.isOperator(i, operator)) {
+                    Operation first = i == 0 ? null : parseCondition(line.subTokeniser(0, i));
+                    Operation second = i == size - 1 ? null :
+                            parseCondition(line.subTokeniser(i + 1, size - i - 1));
+                    if (first == null || second == null) {
+                        throw new ParseException("Operator '" + operator.getSign().trim() +
+                                "' in '" + line.getOriginal() + "' must have a check on both sides.");
+                    }
+
+                    return new Operation(first, operator, second);
+                }
+            }
+        }
+
+        return parseOperation(line.iterator(), line);
+    }
+
+    /**
+     * @return The index of the parenthesis that closes the parenthesis at the given index, or
+     * {@code -1} when it isn't closed.
+     */
+    private int closingParenthesis(Tokeniser line, int index) {
+        int depth = 0;
+        for (int i = index; i < line.sizeNoComments(); i++) {
+            if (line.is(i, Kind.LEFT_PARENTHESIS)) {
+                depth++;
+            }
+            else if (line.is(i, Kind.RIGHT_PARENTHESIS) && --depth == 0) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
     /**
      * Parses loop statements.
      *
@@ -920,22 +1242,22 @@ public class Parser {
      *         The iterator of the LineTokeniser.
      * @return The parsed loop-object.
      */
-    private Loop parseLoop(Iterator<String> lines, Tokeniser line) {
+    private Loop parseLoop(ListIterator<Tokeniser> lines, Tokeniser line) {
         Loop loop = null;
         Block block = null;
 
         try {
             // Check syntax.
-            if (!line.equals(1, "(")) {
+            if (!line.is(1, Kind.LEFT_PARENTHESIS)) {
                 throw new ParseException("Loop '" + line.getOriginal() + "' has an improper " +
                         "opening bracket.");
             }
 
-            if (!line.equals(3, "from")) {
+            if (!line.is(3, Kind.FROM)) {
                 throw new ParseException("Loop '" + line.getOriginal() + "' lacks a from-keyword.");
             }
 
-            if (!line.equals(5, "to")) {
+            if (!line.is(5, Kind.TO)) {
                 throw new ParseException("Loop '" + line.getOriginal() + "' lacks a to-keyword.");
             }
 
@@ -960,17 +1282,17 @@ public class Parser {
                         "to-value.");
             }
 
-            if (line.equals(7, ")")) {
+            if (line.is(7, Kind.RIGHT_PARENTHESIS)) {
                 nl.hannahsten.pp2lal2pp.lang.Number step = from.getIntValue() <= to.getIntValue() ? nl.hannahsten.pp2lal2pp.lang.Number.ONE : nl.hannahsten.pp2lal2pp.lang.Number.MINUS_ONE;
                 return new Loop(parseBlock(lines, line), var, from, to, step);
             }
             else {
-                if (!line.equals(9, ")")) {
+                if (!line.is(9, Kind.RIGHT_PARENTHESIS)) {
                     throw new ParseException("Loop '" + line.getOriginal() + "' has an improper " +
                             "closing bracket.");
                 }
 
-                if (!line.equals(7, "step")) {
+                if (!line.is(7, Kind.STEP)) {
                     throw new ParseException("Loop '" + line.getOriginal() + "' lacks a " +
                             "step-keyword.");
                 }
@@ -1004,18 +1326,18 @@ public class Parser {
             return new Declaration(new Variable(varName), Declaration.DeclarationScope.LOCAL);
         }
 
-        if (line.sizeNoComments() < 4 || !line.equals(2, "=")) {
+        if (line.sizeNoComments() < 4 || !line.isOperator(2, Operator.ASSIGN)) {
             throw new ParseException("Wrong declaration for variable '" + line.getOriginal() + "'.");
         }
 
         String variableName = line.getToken(1);
 
         // Function call
-        if (line.equals(4, "(")) {
+        if (line.is(4, Kind.LEFT_PARENTHESIS)) {
             String funcName = line.getToken(3);
             List<Variable> variables = new ArrayList<>();
 
-            if (!line.equals(5, ")")) {
+            if (!line.is(5, Kind.RIGHT_PARENTHESIS)) {
                 for (int i = 5; i < line.sizeNoComments(); i += 2) {
                     Value val = Value.parse(line.getToken(i), program);
 
@@ -1029,14 +1351,14 @@ public class Parser {
             }
 
             Value defaultValue = new FunctionCall(funcName, variables);
-            program.registerAPIFunction(funcName);
+            registerAPIFunction(funcName);
 
             Variable variableToDeclare = new Variable(variableName, defaultValue);
             return new Declaration(variableToDeclare, defaultValue, Declaration.DeclarationScope.LOCAL);
         }
 
         // First check if it is a variable declaration with an array accessor.
-        if (line.equals(4, "[")) {
+        if (line.is(4, Kind.LEFT_BRACKET)) {
             ArrayAccess access = parseArrayAccess(line, 4, true);
             if (access == null) {
                 throw new ParseException(String.format("Invalid array accessor on line '%s'", line.getOriginal()));
@@ -1062,17 +1384,17 @@ public class Parser {
      *
      * @return <code>true</code> if the line was a global statement, <code>false</code> otherwise.
      */
-    private boolean parseGlobal(Program program, Tokeniser line) throws ParseException {
-        if (!line.isFirst("global")) {
+    private boolean parseGlobal(Tokeniser line) throws ParseException {
+        if (!line.isFirst(Kind.GLOBAL)) {
             return false;
         }
 
         // Global variable array.
         String firstToken = line.getToken(1);
-        if ("[".equals(firstToken)) {
+        if (line.is(1, Kind.LEFT_BRACKET)) {
             GlobalArray array = parseGlobalArray(line);
             if (array != null) {
-                program.addGlobalArray(array);
+                addToProgram(array);
                 return true;
             }
         }
@@ -1089,7 +1411,7 @@ public class Parser {
             var = new GlobalVariable(firstToken, Value.parse(line.getToken(3), program), lastComment);
         }
 
-        program.addGlobalVariable(var);
+        addToProgram(var);
         return true;
     }
 
@@ -1117,7 +1439,7 @@ public class Parser {
 
         // Default value for array.
         Value defaultValue = Number.ZERO;
-        if (line.size() >= 7 && "=".equals(line.getToken(5))) {
+        if (line.size() >= 7 && line.isOperator(5, Operator.ASSIGN)) {
             defaultValue = Value.parse(line.getToken(6), program);
         }
 
@@ -1169,7 +1491,7 @@ public class Parser {
         if (line.size() - startIndex - 3 < 0) {
             return null;
         }
-        if (!"[".equals(line.getToken(startIndex)) || !"]".equals(line.getToken(startIndex + 2))) {
+        if (!line.is(startIndex, Kind.LEFT_BRACKET) || !line.is(startIndex + 2, Kind.RIGHT_BRACKET)) {
             return null;
         }
 
@@ -1199,20 +1521,20 @@ public class Parser {
      *         The iterator of the LineTokeniser.
      * @return The parsed inject-object.
      */
-    private Inject parseInject(Iterator<String> lines, Tokeniser line) {
+    private Inject parseInject(ListIterator<Tokeniser> lines, Tokeniser line) {
         Inject inject;
 
         try {
-            if (!line.equals(1, "{")) {
+            if (!line.is(1, Kind.LEFT_BRACE)) {
                 throw new ParseException("Incorrect syntax for inject statement: missing opening brace in " + line.getOriginal());
             }
 
             StringBuilder contents = new StringBuilder();
 
             while (lines.hasNext()) {
-                line = new Tokeniser(lines.next());
+                line = lines.next();
 
-                if (line.isFirst("}")) {
+                if (line.isFirst(Kind.RIGHT_BRACE)) {
                     break;
                 }
 
@@ -1237,4 +1559,13 @@ public class Parser {
         return inject;
     }
 
+    /**
+     * Thrown when a function body that has been skipped over turns out to end somewhere else
+     * than the braces suggested, or needs more IDs than were reserved for it.
+     */
+    private static class InseparableBodyException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
 }
@@ -0,0 +1,111 @@
+package nl.hannahsten.pp2lal2pp.parser;
+
+import nl.hannahsten.pp2lal2pp.lang.Definition;
+import nl.hannahsten.pp2lal2pp.lang.Function;
+import nl.hannahsten.pp2lal2pp.lang.GlobalArray;
+import nl.hannahsten.pp2lal2pp.lang.Program;
+
+import java.util.*;
+
+/**
+ * The program as it was when the parser got to a function, so the function body can be parsed
+ * after the rest of the program.
+ * <p>
+ * Only the definitions, functions and global arrays above the function can be looked up. Called
+ * functions are collected instead of registered at the program. Lookups don't change anything,
+ * so multiple views can be used from different threads at the same time as long as nothing is
+ * added to the program.
+ *
+ * @author Hannah Schellekens
+ */
+class ProgramView extends Program {
+
+    /**
+     * The program that is being parsed.
+     */
+    private final Program program;
+
+    /**
+     * Maps every definition name to the index of its first definition.
+     */
+    private final Map<String, Integer> firstDefinitions;
+
+    /**
+     * Maps every function name to the index of the first function with that name.
+     */
+    private final Map<String, Integer> firstFunctions;
+
+    /**
+     * The amount of definitions above the function.
+     */
+    private final int definitionCount;
+
+    /**
+     * The amount of functions above the function.
+     */
+    private final int functionCount;
+
+    /**
+     * The amount of global arrays above the function.
+     */
+    private final int globalArrayCount;
+
+    /**
+     * The names of all functions that are called in the function body.
+     */
+    private final Set<String> calledFunctions = new LinkedHashSet<>();
+
+    ProgramView(Program program, Map<String, Integer> firstDefinitions, Map<String, Integer> firstFunctions) {
+        this.program = program;
+        this.firstDefinitions = firstDefinitions;
+        this.firstFunctions = firstFunctions;
+        this.definitionCount = program.getDefinitions().size();
+        this.functionCount = program.getFunctions().size();
+        this.globalArrayCount = program.getGlobalArrays().size();
+    }
+
+    /**
+     * @return The names of all functions that are called in the function body, in order of
+     * appearance.
+     */
+    Set<String> getCalledFunctions() {
+        return calledFunctions;
+    }
+
+    @Override
+    public void registerAPIFunction(String functionName) {
+        calledFunctions.add(functionName);
+    }
+
+    @Override
+    public Optional<Definition> getDefinition(String name) {
+        Integer index = firstDefinitions.get(name);
+        if (index == null || index >= definitionCount) {
+            return Optional.empty();
+        }
+
+        return Optional.of(program.getDefinitions().get(index));
+    }
+
+    @Override
+    public Optional<Function> getFunction(String name) {
+        Integer index = firstFunctions.get(name);
+        if (index == null || index >= functionCount) {
+            return Optional.empty();
+        }
+
+        return Optional.of(program.getFunctions().get(index));
+    }
+
+    @Override
+    public Optional<GlobalArray> getGlobalArray(String name) {
+        List<GlobalArray> arrays = program.getGlobalArrays();
+        for (int i = globalArrayCount - 1; i >= 0; i--) {
+            if (arrays.get(i).getName().equals(name)) {
+                return Optional.of(arrays.get(i));
+            }
+        }
+
+        return Optional.empty();
+    }
+}
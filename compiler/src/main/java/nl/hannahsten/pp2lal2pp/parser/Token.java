@@ -0,0 +1,251 @@
+package nl.hannahsten.pp2lal2pp.parser;
+
+import nl.hannahsten.pp2lal2pp.lang.Operator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A single token of a line of code, together with the place where it was found.
+ *
+ * @author Hannah Schellekens
+ */
+public final class Token {
+
+    /**
+     * The token kinds of all reserved words, by lexeme.
+     */
+    private static final Map<String, Kind> KEYWORDS = new HashMap<>();
+
+    /**
+     * The logical operators, by the word that is used for them.
+     */
+    private static final Map<String, Operator> WORD_OPERATORS = new HashMap<>();
+
+    static {
+        for (Kind kind : Kind.values()) {
+            if (kind.keyword != null) {
+                KEYWORDS.put(kind.keyword, kind);
+            }
+        }
+
+        for (Operator operator : Operator.values()) {
+            if (operator.getType() == Operator.OperatorType.LOGICAL) {
+                WORD_OPERATORS.put(operator.getSign().trim(), operator);
+            }
+        }
+    }
+
+    /**
+     * What kind of token this is.
+     */
+    private final Kind kind;
+
+    /**
+     * The (interned) text of the token.
+     */
+    private final String lexeme;
+
+    /**
+     * The operator the token represents, or {@code null} when the token is no operator.
+     */
+    private final Operator operator;
+
+    /**
+     * The line number the token is on, starting with 1.
+     */
+    private final int line;
+
+    /**
+     * The column of the first character of the token, starting with 1.
+     */
+    private final int column;
+
+    private Token(Kind kind, String lexeme, Operator operator, int line, int column) {
+        this.kind = kind;
+        this.lexeme = lexeme;
+        this.operator = operator;
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * Creates a token for the given operator.
+     */
+    static Token operator(Operator operator, int line, int column) {
+        return new Token(Kind.OPERATOR, operator.getSign(), operator, line, column);
+    }
+
+    /**
+     * Creates a token for one of the punctuation characters {@code , # ( ) { } [ ]}.
+     */
+    static Token punctuation(char character, int line, int column) {
+        Kind kind;
+        switch (character) {
+            case ',':
+                kind = Kind.COMMA;
+                break;
+            case '#':
+                kind = Kind.HASH;
+                break;
+            case '(':
+                kind = Kind.LEFT_PARENTHESIS;
+                break;
+            case ')':
+                kind = Kind.RIGHT_PARENTHESIS;
+                break;
+            case '{':
+                kind = Kind.LEFT_BRACE;
+                break;
+            case '}':
+                kind = Kind.RIGHT_BRACE;
+                break;
+            case '[':
+                kind = Kind.LEFT_BRACKET;
+                break;
+            case ']':
+                kind = Kind.RIGHT_BRACKET;
+                break;
+            default:
+                throw new IllegalArgumentException("No punctuation: " + character);
+        }
+
+        return new Token(kind, kind.keyword, null, line, column);
+    }
+
+    /**
+     * Creates a token for a keyword, logical operator, identifier or literal.
+     */
+    static Token word(String text, int line, int column) {
+        Kind kind = KEYWORDS.get(text);
+        if (kind != null) {
+            return new Token(kind, kind.keyword, null, line, column);
+        }
+
+        Operator operator = WORD_OPERATORS.get(text);
+        if (operator != null) {
+            return new Token(Kind.OPERATOR, text.intern(), operator, line, column);
+        }
+
+        char first = text.charAt(0);
+        boolean literal = first == '\'' || (first >= '0' && first <= '9') ||
+                (first == '-' && text.length() > 1 && text.charAt(1) >= '0' && text.charAt(1) <= '9');
+        return new Token(literal ? Kind.LITERAL : Kind.IDENTIFIER, text.intern(), null, line, column);
+    }
+
+    /**
+     * @return What kind of token this is.
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return {@code true} if the token is of the given kind, {@code false} otherwise.
+     */
+    public boolean is(Kind kind) {
+        return this.kind == kind;
+    }
+
+    /**
+     * @return The (interned) text of the token.
+     */
+    public String getLexeme() {
+        return lexeme;
+    }
+
+    /**
+     * @return The operator the token represents, or {@code null} when it is no operator.
+     */
+    public Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * @return The line number the token is on, starting with 1.
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * @return The column of the first character of the token, starting with 1.
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return The column right after the last character of the token.
+     */
+    public int getEndColumn() {
+        return column + lexeme.length();
+    }
+
+    @Override
+    public String toString() {
+        return lexeme;
+    }
+
+    /**
+     * All kinds of tokens.
+     */
+    public enum Kind {
+
+        LEFT_PARENTHESIS("("),
+        RIGHT_PARENTHESIS(")"),
+        LEFT_BRACE("{"),
+        RIGHT_BRACE("}"),
+        LEFT_BRACKET("["),
+        RIGHT_BRACKET("]"),
+        COMMA(","),
+
+        /**
+         * Start of a line comment.
+         */
+        HASH("#"),
+
+        OPERATOR(null),
+
+        FUNCTION("function"),
+        INTERRUPT("interrupt"),
+        INLINE("inline"),
+        GLOBAL("global"),
+        DEFINE("define"),
+        INCLUDE("include"),
+        VAR("var"),
+        IF("if"),
+        ELSE("else"),
+        LOOP("loop"),
+        FROM("from"),
+        TO("to"),
+        STEP("step"),
+        RETURN("return"),
+        CONTINUE("continue"),
+        INJECT("inject"),
+
+        /**
+         * Names of variables, functions, definitions etc.
+         */
+        IDENTIFIER(null),
+
+        /**
+         * Numbers and characters.
+         */
+        LITERAL(null),
+
+        /**
+         * Returned when asking for a token past the end of the line.
+         */
+        END_OF_LINE(null);
+
+        /**
+         * The fixed lexeme of the kind, or {@code null} when there is none.
+         */
+        private final String keyword;
+
+        Kind(String keyword) {
+            this.keyword = keyword;
+        }
+    }
+}
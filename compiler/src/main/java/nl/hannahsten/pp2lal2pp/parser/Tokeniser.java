@@ -1,72 +1,107 @@
 package nl.hannahsten.pp2lal2pp.parser;
 
-import nl.hannahsten.pp2lal2pp.Constants;
 import nl.hannahsten.pp2lal2pp.PP2LAL2PPException;
 import nl.hannahsten.pp2lal2pp.ParseException;
 import nl.hannahsten.pp2lal2pp.lang.Operator;
-import nl.hannahsten.pp2lal2pp.util.Regex;
+import nl.hannahsten.pp2lal2pp.parser.Token.Kind;
 
 import java.util.*;
 
 /**
  * @author Hannah Schellekens
  */
-public class Tokeniser implements Iterable<String> {
+public class Tokeniser implements Iterable<Token> {
 
     /**
      * The list of tokens.
      */
-    private List<String> tokens;
+    private final List<Token> tokens;
 
     /**
-     * The original input.
+     * The original input, or {@code null} when it still has to be reconstructed from the tokens.
      */
-    private final String original;
+    private String original;
+
+    /**
+     * Whether the tokens are a selection of the tokens of another line, as if they were joined
+     * by single spaces.
+     */
+    private final boolean joined;
+
+    /**
+     * The column of the first character of the original input, starting with 1.
+     */
+    private final int column;
+
+    /**
+     * The amount of tokens before the first comment token.
+     */
+    private final int sizeNoComments;
 
     public Tokeniser(String code) {
-        this.original = code;
-
-        String code2 = Regex.replaceAll("((((?<!'),))|(,(?!'))|((?<!'),(?!')))", code, " , ");
-        code2 = Regex.replaceAll("((((?<!')#))|(#(?!'))|((?<!')#(?!')))", code2, " # ");
-        code2 = Regex.replaceAll("((((?<!')\\)))|(\\)(?!'))|((?<!')\\)(?!')))", code2, " ) ");
-        code2 = Regex.replaceAll("((((?<!')\\())|(\\((?!'))|((?<!')\\((?!')))", code2, " ( ");
-        code2 = Regex.replaceAll("((((?<!')\\-(?![=\\d])))|(\\-(?!['=\\d]))|((?<!')\\-(?!['=\\d])" + "))", code2, " - ");
-        code2 = Regex.replaceAll("((((?<!')\\}))|(\\}(?!'))|((?<!')\\}(?!')))", code2, " } ");
-        code2 = Regex.replaceAll("((((?<!')\\{))|(\\{(?!'))|((?<!')\\{(?!')))", code2, " { ");
-        code2 = Regex.replaceAll("((((?<!')\\]))|(\\](?!'))|((?<!')\\](?!')))", code2, " ] ");
-        code2 = Regex.replaceAll("((((?<!')\\[))|(\\[(?!'))|((?<!')\\[(?!')))", code2, " [ ");
-
-        for (Operator op : Operator.values()) {
-            String c = op.getRegexSign();
-            code2 = Regex.replaceAll(
-                    "((((?<!')" + c + "))|(" + c + "(?!'))|((?<!')" + c + "(?!')" + "))",
-                    code2,
-                    "櫓\uF214(" + op.name() + ")"
-            );
-        }
+        this(code, 1, 1);
+    }
 
-        for (Operator op : Operator.values()) {
-            code2 = Regex.replace("櫓\uF214(" + op.name() + ")", code2, " " + op.getSign() + " ");
-        }
+    /**
+     * @param code
+     *         The line of code to tokenise.
+     * @param line
+     *         The line number of the code, starting with 1.
+     * @param column
+     *         The column of the first character of the code, starting with 1.
+     */
+    public Tokeniser(String code, int line, int column) {
+        this(Lexer.tokenise(code, line, column), code, column);
+    }
 
-        String[] strings = Regex.split("\\s+", code2);
+    private Tokeniser(List<Token> tokens, String original, int column) {
+        this.tokens = Collections.unmodifiableList(tokens);
+        this.original = original;
+        this.joined = original == null;
+        this.column = column;
 
-        tokens = new ArrayList<>();
-        for (String string : strings) {
-            if (!string.isEmpty()) {
-                tokens.add(string);
-            }
+        int count = 0;
+        while (count < tokens.size() && !tokens.get(count).is(Kind.HASH)) {
+            count++;
         }
-        tokens = Collections.unmodifiableList(tokens);
+        this.sizeNoComments = count;
+    }
+
+    /**
+     * Creates a tokeniser for the given tokens, as if they were put on a line of their own
+     * seperated by single spaces.
+     */
+    static Tokeniser of(List<Token> tokens) {
+        return new Tokeniser(new ArrayList<>(tokens), null, 1);
     }
 
     /**
      * Gets the token with token number <code>index</code> starting with 0.
      */
-    public String getToken(int index) throws IndexOutOfBoundsException {
+    public Token get(int index) throws IndexOutOfBoundsException {
         return tokens.get(index);
     }
 
+    /**
+     * Gets the text of the token with token number <code>index</code> starting with 0.
+     */
+    public String getToken(int index) throws IndexOutOfBoundsException {
+        return tokens.get(index).getLexeme();
+    }
+
+    /**
+     * Gets the kind of the token with token number <code>index</code> starting with 0.
+     *
+     * @return The kind of the token, or {@link Kind#END_OF_LINE} when there is no such token.
+     */
+    public Kind kind(int index) {
+        if (index < 0 || index >= size()) {
+            return Kind.END_OF_LINE;
+        }
+
+        return tokens.get(index).getKind();
+    }
+
     /**
      * @return The amount of lines in the tokeniser.
      */
@@ -75,16 +110,16 @@ public class Tokeniser implements Iterable<String> {
     }
 
     /**
-     * Gets the last token.
+     * Gets the last token that is not part of a comment.
      *
      * @throws ParseException when there are no tokens.
      */
-    public String last() throws ParseException {
+    public Token last() throws ParseException {
         if (sizeNoComments() == 0) {
             throw new ParseException("There is no last token.");
         }
 
-        return getToken(sizeNoComments() - 1);
+        return get(sizeNoComments() - 1);
     }
 
     /**
@@ -102,7 +137,27 @@ public class Tokeniser implements Iterable<String> {
             return false;
         }
 
-        return tokens.get(index).equals(value);
+        return tokens.get(index).getLexeme().equals(value);
+    }
+
+    /**
+     * Checks if the token at the given index is of the given kind.
+     *
+     * @return <code>true</code> if the token at index <code>index</code> has the given kind,
+     * <code>false</code> otherwise.
+     */
+    public boolean is(int index, Kind kind) {
+        return kind(index) == kind;
+    }
+
+    /**
+     * Checks if the token at the given index is the given operator.
+     *
+     * @return <code>true</code> if the token at index <code>index</code> is the given operator,
+     * <code>false</code> otherwise.
+     */
+    public boolean isOperator(int index, Operator operator) {
+        return is(index, Kind.OPERATOR) && tokens.get(index).getOperator() == operator;
     }
 
     /**
@@ -120,14 +175,11 @@ public class Tokeniser implements Iterable<String> {
      *         when <code>start + length</code> exceeds the amount of tokens minus 1.
      */
     public String join(int start, int length, String delimiter) throws PP2LAL2PPException {
-        if (start + length - 1 >= size()) {
-            throw new PP2LAL2PPException("Index out of bounds (" + (start + length) + "). Expected " +
-                    "an index < " + size());
-        }
+        checkRange(start, length);
 
         StringBuilder sb = new StringBuilder();
         for (int i = start; i < start + length; i++) {
-            sb.append(tokens.get(i));
+            sb.append(tokens.get(i).getLexeme());
 
             if (i != start + length - 1) {
                 sb.append(delimiter);
@@ -138,110 +190,160 @@ public class Tokeniser implements Iterable<String> {
     }
 
     /**
-     * Checks if there is a first token, if there is then it checks if the first token equals the
-     * given string.
+     * Creates a tokeniser containing the tokens from index <code>start</code> up to <code>start
+     * + length</code>.
+     * <p>
+     * This gives the same tokens as tokenising the tokens joined by spaces, without having to
+     * tokenise again.
+     *
+     * @param start
+     *         The index of the first token starting with 0.
+     * @param length
+     *         The amount of tokens to include.
+     * @throws PP2LAL2PPException
+     *         when <code>start + length</code> exceeds the amount of tokens minus 1.
+     */
+    public Tokeniser subTokeniser(int start, int length) throws PP2LAL2PPException {
+        checkRange(start, length);
+        return new Tokeniser(new ArrayList<>(tokens.subList(start, start + length)), null, 1);
+    }
+
+    private void checkRange(int start, int length) throws PP2LAL2PPException {
+        if (start + length - 1 >= size()) {
+            throw new PP2LAL2PPException("Index out of bounds (" + (start + length) + "). Expected " +
+                    "an index < " + size());
+        }
+    }
+
+    /**
+     * Checks if there is a first token, if there is then it checks if the first token is of the
+     * given kind.
      *
-     * @return <code>true</code> if there is a first token AND if the first token equals the given
-     * string, <code>false</code> otherwise.
+     * @return <code>true</code> if there is a first token AND if the first token has the given
+     * kind, <code>false</code> otherwise.
      */
-    public boolean isFirst(String string) {
-        return equals(0, string);
+    public boolean isFirst(Kind kind) {
+        return is(0, kind);
     }
 
     /**
-     * Checks if the first token that is not <code>ignore</code> equals the given
-     * <code>string</code>.
+     * Checks if the first token that is not of kind <code>ignore</code> is of kind
+     * <code>kind</code>.
      *
-     * @return <code>true</code> if the first token not being <code>ignore</code> equals
-     * <code>string</code>, <code>false</code> otherwise.
+     * @return <code>true</code> if the first token not being <code>ignore</code> is of kind
+     * <code>kind</code>, <code>false</code> otherwise.
      */
-    public boolean isFirstIgnore(String string, String ignore) {
-        for (String token : tokens) {
-            if (token.equals(ignore)) {
+    public boolean isFirstIgnore(Kind kind, Kind ignore) {
+        for (Token token : tokens) {
+            if (token.is(ignore)) {
                 continue;
             }
 
-            return token.equals(string);
+            return token.is(kind);
         }
 
         return false;
     }
 
     /**
-     * Checks if the first two tokens that are not <code>ignore</code> equal the given
-     * <code>first</code> and <code>second</code> strings.
+     * Checks if the first two tokens that are not of kind <code>ignore</code> are of kind
+     * <code>first</code> and <code>second</code>.
      *
-     * @return <code>true</code> if the first twi tokens not being <code>ignore</code> equal
+     * @return <code>true</code> if the first two tokens not being <code>ignore</code> are of kind
      * <code>first</code> and <code>second</code>, <code>false</code> otherwise.
      */
-    public boolean isFirstTwoIgnore(String first, String second, String ignore) {
+    public boolean isFirstTwoIgnore(Kind first, Kind second, Kind ignore) {
         boolean firstDone = false;
 
-        for (String token : tokens) {
-            if (token.equals(ignore)) {
+        for (Token token : tokens) {
+            if (token.is(ignore)) {
                 continue;
             }
 
-            if (token.equals(first) && !firstDone) {
+            if (token.is(first) && !firstDone) {
                 firstDone = true;
                 continue;
             }
 
-            return firstDone && token.equals(second);
+            return firstDone && token.is(second);
         }
 
         return false;
     }
 
     /**
-     * Checks if the last token that is not <code>ignore</code> equals the given
-     * <code>string</code>.
+     * Checks if the last token that is not of kind <code>ignore</code> is of kind
+     * <code>kind</code>.
      *
-     * @return <code>true</code> if the last token not being <code>ignore</code> equals
-     * <code>string</code>, <code>false</code> otherwise.
+     * @return <code>true</code> if the last token not being <code>ignore</code> is of kind
+     * <code>kind</code>, <code>false</code> otherwise.
      */
-    public boolean isLastIgnore(String string, String ignore) {
+    public boolean isLastIgnore(Kind kind, Kind ignore) {
         for (int i = size() - 1; i >= 0; i--) {
-            String token = tokens.get(i);
-            if (token.equals(ignore)) {
+            Token token = tokens.get(i);
+            if (token.is(ignore)) {
                 continue;
             }
 
-            return token.equals(string);
+            return token.is(kind);
         }
 
         return false;
     }
 
     /**
-     * Counts all the tokens that aren't comments.
+     * Checks whether the token at the given index is seperated from the token before it by
+     * nothing but spaces.
      */
-    public int sizeNoComments() {
-        int count = 0;
-        for (String string : this) {
-            if (string.startsWith(Constants.LINE_COMMENT_START)) {
-                return count;
-            }
+    public boolean isSpaceSeparated(int index) {
+        if (index <= 0 || index >= size()) {
+            return false;
+        }
 
-            count++;
+        if (joined) {
+            return true;
+        }
+
+        Token previous = tokens.get(index - 1);
+        Token current = tokens.get(index);
+        for (int i = previous.getEndColumn(); i < current.getColumn(); i++) {
+            if (original.charAt(i - column) != ' ') {
+                return false;
+            }
         }
-        return count;
+
+        return true;
+    }
+
+    /**
+     * Counts all the tokens that aren't comments.
+     */
+    public int sizeNoComments() {
+        return sizeNoComments;
     }
 
     /**
      * @return The original input for the tokeniser.
      */
     public String getOriginal() {
+        if (original == null) {
+            original = size() == 0 ? "" : join(0, size(), " ");
+        }
+
         return original;
     }
 
     @Override
-    public Iterator<String> iterator() {
+    public ListIterator<Token> iterator() {
         return tokens.listIterator();
     }
 
     @Override
     public String toString() {
-        return String.join(" ", tokens);
+        StringJoiner joiner = new StringJoiner(" ");
+        for (Token token : tokens) {
+            joiner.add(token.getLexeme());
+        }
+        return joiner.toString();
     }
 }
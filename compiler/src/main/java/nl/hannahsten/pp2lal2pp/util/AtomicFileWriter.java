@@ -0,0 +1,135 @@
+package nl.hannahsten.pp2lal2pp.util;
+
+import nl.hannahsten.pp2lal2pp.PP2LAL2PPException;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes UTF-8 text to a file in parts, without keeping all text in memory.
+ * <p>
+ * The text is written to a temporary file next to the file. Only when {@link
+ * AtomicFileWriter#commit()} is called, the temporary file replaces the file. When the writer
+ * is closed without committing, the temporary file is removed and the file stays as it was.
+ *
+ * @author Hannah Schellekens
+ */
+public class AtomicFileWriter implements Closeable {
+
+    /**
+     * The amount of characters that are buffered before they are written to the temporary file.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The file to write to.
+     */
+    private final File file;
+
+    /**
+     * The temporary file that is written to until the writer is committed.
+     */
+    private final Path temp;
+
+    private final Writer writer;
+
+    /**
+     * Whether the temporary file has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * @throws PP2LAL2PPException
+     *         If the temporary file could not be created.
+     */
+    public AtomicFileWriter(File file) throws PP2LAL2PPException {
+        this.file = file.getAbsoluteFile();
+
+        try {
+            // Not Files.createTempFile, that would make the file only readable by its owner.
+            temp = this.file.getParentFile().toPath().resolve("." + this.file.getName() + "." +
+                    Long.toHexString(System.nanoTime()) + ".tmp");
+            FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1),
+                    BUFFER_SIZE);
+        }
+        catch (IOException e) {
+            throw new PP2LAL2PPException("Could not write to file: " + this.file);
+        }
+    }
+
+    /**
+     * Writes the given text after the text that has already been written.
+     *
+     * @throws PP2LAL2PPException
+     *         If an IOException occured when writing to the temporary file.
+     */
+    public void write(CharSequence text) throws PP2LAL2PPException {
+        try {
+            writer.append(text);
+        }
+        catch (IOException e) {
+            throw new PP2LAL2PPException("Could not write to file: " + file);
+        }
+    }
+
+    /**
+     * Replaces the file by everything that has been written.
+     *
+     * @throws PP2LAL2PPException
+     *         If the text could not be written or moved into place.
+     */
+    public void commit() throws PP2LAL2PPException {
+        try {
+            closeTemp();
+
+            try {
+                Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e) {
+            throw new PP2LAL2PPException("Could not write to file: " + file);
+        }
+    }
+
+    /**
+     * Removes the temporary file if the writer has not been committed.
+     */
+    @Override
+    public void close() {
+        try {
+            closeTemp();
+        }
+        catch (IOException ignored) {
+        }
+
+        try {
+            Files.deleteIfExists(temp);
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    private void closeTemp() throws IOException {
+        if (!closed) {
+            closed = true;
+            writer.close();
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package nl.hannahsten.pp2lal2pp.util;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -15,9 +15,9 @@ public enum Regex {
     INSTANCE;
 
     /**
-     * Hashmap with all compiled patterns.
+     * Map with all compiled patterns, safe to use from multiple threads.
      */
-    private final Map<String, Pattern> patterns = new HashMap<>();
+    private final Map<String, Pattern> patterns = new ConcurrentHashMap<>();
 
     /**
      * Compiles said regex if it hasn't been compiled yet, otherwise use the already compiled
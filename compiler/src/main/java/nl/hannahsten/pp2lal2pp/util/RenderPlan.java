@@ -0,0 +1,315 @@
+package nl.hannahsten.pp2lal2pp.util;
+
+import nl.hannahsten.pp2lal2pp.CompilerException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A template that has been split up once into literal text, values and padding, so it can be
+ * filled in without searching and replacing in the template for every key.
+ * <p>
+ * The plan is made by running {@link Template#replace(String...)} on the template with a
+ * placeholder character for every value and every padding. Filling in the template then only
+ * has to compute the amount of spaces for every padding. This gives the same result as replacing
+ * the keys one by one as long as the values can't form new keys or paddings themselves. When a
+ * value contains <code>{</code>, <code>$</code> or <code>}</code>, the plan can't be used and
+ * the template must be filled in the old way.
+ *
+ * @author Hannah Schellekens
+ */
+public class RenderPlan {
+
+    /**
+     * The first placeholder character for values, followed by the placeholders of the other
+     * values.
+     */
+    private static final char VALUE = '\uE000';
+
+    /**
+     * The first placeholder character for paddings.
+     */
+    private static final char PADDING = '\uE100';
+
+    /**
+     * The placeholder character for the value that replaces the tail key.
+     */
+    private static final char TAIL = '\uE1FF';
+
+    /**
+     * Spaces to copy paddings from.
+     */
+    private static final String SPACES = Util.makeString(" ", 64);
+
+    /**
+     * The keys and values the plan was made for. The values are not used.
+     */
+    private final String[] keyValue;
+
+    /**
+     * The key that is replaced everywhere after all other keys, or {@code null} if there is none.
+     */
+    private final String tail;
+
+    /**
+     * The amount of characters that are reserved for every key.
+     */
+    private final int[] spaces;
+
+    /**
+     * The literal text in front of every part, followed by the text after the last part.
+     */
+    private final String[] texts;
+
+    /**
+     * The parts of the template in order: {@code i} for the value of the i-th key, {@code n + i}
+     * for the padding after the i-th key and {@code 2n} for the tail value, where {@code n} is
+     * the amount of keys.
+     */
+    private final int[] parts;
+
+    private RenderPlan(String[] keyValue, String tail, int[] spaces, String[] texts, int[] parts) {
+        this.keyValue = keyValue;
+        this.tail = tail;
+        this.spaces = spaces;
+        this.texts = texts;
+        this.parts = parts;
+    }
+
+    /**
+     * Makes a plan to fill in the given template.
+     *
+     * @param template
+     *         The contents of the template.
+     * @param keyValue
+     *         key value, key value, ... where only the keys are used.
+     * @param tail
+     *         The key that is replaced everywhere after all other keys, or {@code null}.
+     * @return The plan. When the values could interact with the template, the plan can't
+     * render anything.
+     * @throws CompilerException
+     *         when the template doesn't contain one of the keys.
+     */
+    public static RenderPlan compile(String template, String[] keyValue, String tail) {
+        int keys = keyValue.length / 2;
+        String[] copy = keyValue.clone();
+        RenderPlan unusable = new RenderPlan(copy, tail, null, null, null);
+
+        for (int i = 0; i < template.length(); i++) {
+            if (isPlaceholder(template.charAt(i))) {
+                return unusable;
+            }
+        }
+
+        String total = template;
+        int[] spaces = new int[keys];
+        for (int i = 0; i < keys; i++) {
+            if (!isInert(total)) {
+                return unusable;
+            }
+
+            spaces[i] = space(total, keyValue[i * 2]);
+            total = Regex.replace("{$" + keyValue[i * 2], total, String.valueOf((char)(VALUE + i)));
+
+            if (!isInert(total)) {
+                return unusable;
+            }
+
+            total = Regex.replaceFirst("%[0-9]+\\}", total, String.valueOf((char)(PADDING + i)));
+        }
+
+        if (tail != null) {
+            if (!isInert(total)) {
+                return unusable;
+            }
+
+            total = Regex.replace(tail, total, String.valueOf(TAIL));
+        }
+
+        List<String> texts = new ArrayList<>();
+        List<Integer> parts = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < total.length(); i++) {
+            char c = total.charAt(i);
+            if (!isPlaceholder(c)) {
+                continue;
+            }
+
+            texts.add(total.substring(start, i));
+            if (c == TAIL) {
+                parts.add(keys * 2);
+            }
+            else if (c >= PADDING) {
+                parts.add(keys + c - PADDING);
+            }
+            else {
+                parts.add(c - VALUE);
+            }
+            start = i + 1;
+        }
+        texts.add(total.substring(start));
+
+        return new RenderPlan(copy, tail, spaces, texts.toArray(new String[0]),
+                parts.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Get the amount of characters of space that is reserved for the given key.
+     *
+     * @throws CompilerException
+     *         when there is no <code>{$name%#}</code> in the source.
+     */
+    static int space(String source, String name) {
+        try {
+            Pattern regex = Regex.compile("\\{\\$" + name + "\\%(\\d+)?\\}");
+            Matcher matcher = regex.matcher(source);
+
+            if (!matcher.find()) {
+                throw new CompilerException("Template hasn't been set up correctly ({$" +
+                        name + "%#}).");
+            }
+
+            String result = matcher.group(1);
+
+            return Integer.parseInt(result);
+        }
+        catch (NumberFormatException nfe) {
+            throw new CompilerException("Template hasn't been set up correctly ({$" +
+                    name + "%#}).");
+        }
+    }
+
+    /**
+     * Checks if no value placeholder could become part of a key or padding when it is replaced
+     * by a value without <code>{</code>, <code>$</code> and <code>}</code>.
+     */
+    private static boolean isInert(String total) {
+        for (int i = 0; i < total.length(); i++) {
+            char c = total.charAt(i);
+            if (c < VALUE || c >= PADDING) {
+                continue;
+            }
+
+            // Empty values put the characters around them next to each other.
+            int before = i - 1;
+            while (before >= 0 && isValue(total.charAt(before))) {
+                before--;
+            }
+            int after = i + 1;
+            while (after < total.length() && isValue(total.charAt(after))) {
+                after++;
+            }
+
+            if (before >= 0) {
+                char prev = total.charAt(before);
+                if (prev == '%' || prev == '{' || prev == '$') {
+                    return false;
+                }
+            }
+            if (after < total.length()) {
+                char next = total.charAt(after);
+                if (next == '}' || Character.isDigit(next)) {
+                    return false;
+                }
+            }
+            if (total.lastIndexOf("{$", i) > total.lastIndexOf('}', i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isValue(char c) {
+        return c >= VALUE && c < PADDING;
+    }
+
+    private static boolean isPlaceholder(char c) {
+        return c >= VALUE && c <= TAIL;
+    }
+
+    /**
+     * Checks if the plan has been made for the given keys.
+     */
+    public boolean isFor(String[] keyValue, String tail) {
+        if (keyValue.length != this.keyValue.length ||
+                (tail == null ? this.tail != null : !tail.equals(this.tail))) {
+            return false;
+        }
+
+        for (int i = 0; i < keyValue.length; i += 2) {
+            if (!keyValue[i].equals(this.keyValue[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Fills in the template and appends the result.
+     *
+     * @param out
+     *         Where to append the filled in template to.
+     * @param keyValue
+     *         key value, key value, ... with the same keys as the plan was made for.
+     * @param tailValue
+     *         The value for the tail key, not used when there is no tail key.
+     * @return {@code true} when the template has been appended, {@code false} when nothing has
+     * been appended because the plan can't be used for the values.
+     */
+    public boolean render(StringBuilder out, String[] keyValue, String tailValue) {
+        if (parts == null) {
+            return false;
+        }
+
+        int keys = spaces.length;
+        for (int i = 0; i < keys; i++) {
+            String value = keyValue[i * 2 + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '{' || c == '$' || c == '}') {
+                    return false;
+                }
+            }
+        }
+
+        // Same as Template#replace: values that don't fit push the next value forward.
+        int[] tabs = new int[keys];
+        int overflow = 0;
+        for (int i = 0; i < keys; i++) {
+            int space = spaces[i];
+            int count = keyValue[i * 2 + 1].length();
+            tabs[i] = Math.max(1, space - count - overflow);
+            overflow = count + 1 > space ? count + 1 - space : 0;
+        }
+
+        for (int i = 0; i < parts.length; i++) {
+            out.append(texts[i]);
+
+            int part = parts[i];
+            if (part < keys) {
+                out.append(keyValue[part * 2 + 1]);
+            }
+            else if (part < keys * 2) {
+                pad(out, tabs[part - keys]);
+            }
+            else {
+                out.append(tailValue);
+            }
+        }
+        out.append(texts[parts.length]);
+
+        return true;
+    }
+
+    private static void pad(StringBuilder out, int count) {
+        while (count > SPACES.length()) {
+            out.append(SPACES);
+            count -= SPACES.length();
+        }
+        out.append(SPACES, 0, count);
+    }
+}
@@ -1,12 +1,10 @@
 package nl.hannahsten.pp2lal2pp.util;
 
-import nl.hannahsten.pp2lal2pp.CompilerException;
+import nl.hannahsten.pp2lal2pp.CompilationContext;
 import nl.hannahsten.pp2lal2pp.PP2LAL2PPException;
 
 import java.io.File;
 import java.io.InputStream;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * @author Hannah Schellekens
@@ -150,17 +148,24 @@ public enum Template {
     private final String filePath;
 
     /**
-     * The contents of the template.
+     * The contents of the template that is packed with the compiler.
      */
-    private String contents;
+    private volatile String packedContents;
 
     Template(String filePath) {
         this.filePath = filePath;
     }
 
     /**
-     * Calls {@link Template#replace(String...)} on {@link Template#STATEMENT} and automatically
-     * determines the keys.
+     * The keys of {@link Template#STATEMENT}, without values.
+     */
+    private static final String[] STATEMENT_KEYS = {
+            "LABEL", null, "INSTRUCTION", null, "ARG1", null, "ARG2", null
+    };
+
+    /**
+     * Calls {@link Template#appendStatement(StringBuilder, String, String, String, String, String)}
+     * and returns the formatted statement.
      *
      * @param label
      *         The label to put in front of the statement.
@@ -176,12 +181,36 @@ public enum Template {
      */
     public static String fillStatement(String label, String instruction, String arg1, String arg2,
                                        String comment) {
-        return Regex.replace("{$COMMENT}", Template.STATEMENT.replace(
-                "LABEL", label,
-                "INSTRUCTION", instruction,
-                "ARG1", arg1,
-                "ARG2", arg2),
-                (comment != null ? "; " + comment : ""));
+        StringBuilder sb = new StringBuilder();
+        appendStatement(sb, label, instruction, arg1, arg2, comment);
+        return sb.toString();
+    }
+
+    /**
+     * Fills in {@link Template#STATEMENT} and appends it to the given StringBuilder.
+     *
+     * @param out
+     *         Where to append the statement to.
+     * @param label
+     *         The label to put in front of the statement.
+     * @param instruction
+     *         The instruction.
+     * @param arg1
+     *         The first argument of the instruction.
+     * @param arg2
+     *         The second argument of the instruction.
+     * @param comment
+     *         The comment without the ";"
+     */
+    public static void appendStatement(StringBuilder out, String label, String instruction,
+                                       String arg1, String arg2, String comment) {
+        String[] keyValue = STATEMENT_KEYS.clone();
+        keyValue[1] = label;
+        keyValue[3] = instruction;
+        keyValue[5] = arg1;
+        keyValue[7] = arg2;
+
+        STATEMENT.render(out, "{$COMMENT}", (comment != null ? "; " + comment : ""), keyValue);
     }
 
     /**
@@ -224,15 +253,52 @@ public enum Template {
      * @return The string where all keys are replaced by their values.
      */
     public String replace(String... keyValue) {
+        StringBuilder sb = new StringBuilder();
+        render(sb, null, null, keyValue);
+        return sb.toString();
+    }
+
+    /**
+     * Replaces all given keys with the given values and appends the result to the given
+     * StringBuilder.
+     *
+     * @param out
+     *         Where to append the filled in template to.
+     * @param tail
+     *         Key that is replaced everywhere after all other keys, or {@code null} if there is
+     *         none. Unlike the other keys, it is not followed by a width.
+     * @param tailValue
+     *         The value to replace the tail key with.
+     * @param keyValue
+     *         key value, key value, key value, ...
+     */
+    public void render(StringBuilder out, String tail, String tailValue, String... keyValue) {
         if (keyValue.length % 2 == 1) {
             throw new PP2LAL2PPException("keys don't match up with the values (odd length).");
         }
 
+        RenderPlan plan = CompilationContext.current().plan(this, keyValue, tail);
+        if (plan.render(out, keyValue, tailValue)) {
+            return;
+        }
+
+        String total = replaceEach(keyValue);
+        if (tail != null) {
+            total = Regex.replace(tail, total, tailValue);
+        }
+        out.append(total);
+    }
+
+    /**
+     * Replaces the given keys one by one, for values that can't be filled in using a {@link
+     * RenderPlan}.
+     */
+    private String replaceEach(String... keyValue) {
         String total = load();
         int overflow = 0;
 
         for (int i = 0; i < keyValue.length; i += 2) {
-            int space = getSpace(total, keyValue[i]);
+            int space = RenderPlan.space(total, keyValue[i]);
             int count = keyValue[i + 1].length();
             int tab = Math.max(1, space - count - overflow);
             overflow = 0;
@@ -249,48 +315,32 @@ public enum Template {
     }
 
     /**
-     * Get the amount of characters of space is reserved for the given variable idk.
+     * Loads the contents of the template, once per compilation context.
+     *
+     * @return The contents of the template.
      */
-    private int getSpace(String source, String name) {
-        try {
-            Pattern regex = Regex.compile("\\{\\$" + name + "\\%(\\d+)?\\}");
-            Matcher matcher = regex.matcher(source);
-
-            if (!matcher.find()) {
-                throw new CompilerException("Template hasn't been set up correctly ({$" +
-                        name + "%#}).");
-            }
-
-            String result = matcher.group(1);
-
-            return Integer.parseInt(result);
-        }
-        catch (NumberFormatException nfe) {
-            throw new CompilerException("Template hasn't been set up correctly ({$" +
-                    name + "%#}).");
-        }
+    public String load() {
+        return CompilationContext.current().template(this);
     }
 
     /**
-     * Loads the contents of the template.
+     * Reads the contents of the template: from the template directory when it has been unpacked
+     * there, otherwise the template that is packed with the compiler.
      *
      * @return The contents of the template.
      */
-    public String load() {
-        if (contents != null) {
-            return contents;
-        }
-
+    public String read() {
         File file = new File(Regex.replaceAll("^/", getPath(), ""));
         if (file.exists()) {
-            String contents = new FileWorker(file).read();
-            return this.contents = contents;
+            return new FileWorker(file).read();
+        }
+
+        if (packedContents == null) {
+            InputStream is = getClass().getResourceAsStream(getPath());
+            packedContents = new StreamWorker(is).read();
         }
 
-        InputStream is = getClass().getResourceAsStream(getPath());
-        StreamWorker sw = new StreamWorker(is);
-        String total = sw.read();
-        return this.contents = total;
+        return packedContents;
     }
 
     public String getFilePath() {